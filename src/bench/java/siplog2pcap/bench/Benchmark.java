@@ -0,0 +1,160 @@
+package siplog2pcap.bench;
+
+/*
+ * This class is the base of the siplog2pcap benchmarks, which are run by the Benchmarks class.
+ * As the project is built with a plain Ant build (with no dependency management), the benchmarks
+ * do not use JMH but follow the same methodology: a set of warmup iterations (so the JIT compiles
+ * the measured code) followed by a set of measurement iterations, each of them invoking the
+ * operation as many times as possible during a fixed time. Results of the operation are consumed
+ * into a sink, so the JIT cannot eliminate the measured code as dead code.
+ */
+public abstract class Benchmark {
+
+	/** Sink consuming the results of the operations */
+	private static volatile long sink = 0;
+
+	/** Name of the benchmark */
+	private String name;
+
+	/**
+	 * Returns a Benchmark object
+	 *
+	 * @param	name	the name of the benchmark
+	 * @return			the Benchmark object
+	 */
+	public Benchmark(String name) {
+		this.name = name;
+	};
+
+	/**	Returns the name of the benchmark
+	 *	@return	the name */
+	public String getName() { return this.name; };
+
+	/**
+	 * Prepares the benchmark (invoked once, before any iteration)
+	 */
+	public void setUp() throws Exception {
+	};
+
+	/**
+	 * Releases the resources of the benchmark (invoked once, after all iterations)
+	 */
+	public void tearDown() throws Exception {
+	};
+
+	/**
+	 * Returns the number of bytes processed by each operation (0 if throughput in bytes is not meaningful)
+	 *
+	 * @return	the number of bytes per operation
+	 */
+	public long getBytesPerOperation() {
+		return 0;
+	};
+
+	/**
+	 * Runs the measured operation once
+	 *
+	 * @return	a value depending on the result of the operation (consumed into the sink)
+	 */
+	public abstract long operation() throws Exception;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param	warmupIterations		the number of warmup iterations
+	 * @param	measurementIterations	the number of measurement iterations
+	 * @param	iterationMillis			the duration of each iteration
+	 * @return							the result of the benchmark
+	 */
+	public Result run(int warmupIterations, int measurementIterations, long iterationMillis) throws Exception {
+		setUp();
+		try {
+			for(int i = 0; i < warmupIterations; i++) {
+				iteration(iterationMillis);
+			};
+			Result result = new Result(this.name, getBytesPerOperation());
+			for(int i = 0; i < measurementIterations; i++) {
+				long[] iterationResult = iteration(iterationMillis);
+				result.add(iterationResult[0], iterationResult[1]);
+			};
+			return result;
+		} finally {
+			tearDown();
+		}
+	};
+
+	/**
+	 * Runs one iteration
+	 *
+	 * @param	iterationMillis	the duration of the iteration
+	 * @return					the number of operations and the time they took (in nanoseconds)
+	 */
+	private long[] iteration(long iterationMillis) throws Exception {
+		long operations = 0;
+		long value = 0;
+		long deadline = System.nanoTime() + iterationMillis * 1000000L;
+		long t0 = System.nanoTime();
+		long t1 = t0;
+		do {
+			value += operation();
+			operations++;
+			t1 = System.nanoTime();
+		} while(t1 < deadline);
+		sink += value;
+		return new long[] { operations, t1 - t0 };
+	};
+
+	/**
+	 * Result of a benchmark
+	 */
+	public static class Result {
+		private String name;
+		private long bytesPerOperation;
+		private int iterations = 0;
+		private double sumNanosPerOperation = 0;
+		private double sumSquaresNanosPerOperation = 0;
+
+		private Result(String name, long bytesPerOperation) {
+			this.name = name;
+			this.bytesPerOperation = bytesPerOperation;
+		};
+
+		private void add(long operations, long nanos) {
+			double nanosPerOperation = ((double) nanos) / operations;
+			this.iterations++;
+			this.sumNanosPerOperation += nanosPerOperation;
+			this.sumSquaresNanosPerOperation += nanosPerOperation * nanosPerOperation;
+		};
+
+		/**	Returns the average time per operation
+		 *	@return	the average time per operation (in nanoseconds) */
+		public double getNanosPerOperation() {
+			return this.sumNanosPerOperation / this.iterations;
+		};
+
+		/**	Returns the standard deviation of the time per operation among iterations
+		 *	@return	the standard deviation (in nanoseconds) */
+		public double getStdDevNanosPerOperation() {
+			double mean = getNanosPerOperation();
+			return Math.sqrt(Math.max(0.0, (this.sumSquaresNanosPerOperation / this.iterations) - (mean * mean)));
+		};
+
+		/**	Returns a string representation of the result (one line of the results table)
+		 *	@return	the string representation */
+		public String toString() {
+			double nanosPerOperation = getNanosPerOperation();
+			String throughput = "";
+			if(this.bytesPerOperation > 0) {
+				throughput = String.format("%10.1f MB/s", Double.valueOf((this.bytesPerOperation * 1000.0) / nanosPerOperation));
+			};
+			return String.format("%-48s %16.1f %12.1f %16.1f %s", this.name, Double.valueOf(nanosPerOperation), Double.valueOf(getStdDevNanosPerOperation()), Double.valueOf(1e9 / nanosPerOperation), throughput);
+		};
+
+		/**	Returns the header of the results table
+		 *	@return	the header */
+		public static String header() {
+			return String.format("%-48s %16s %12s %16s %s", "Benchmark", "ns/op", "+-", "ops/s", "throughput");
+		};
+	};
+
+}
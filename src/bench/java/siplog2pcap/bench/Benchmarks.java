@@ -0,0 +1,487 @@
+package siplog2pcap.bench;
+
+import siplog2pcap.Anonymizer;
+import siplog2pcap.AppCore;
+import siplog2pcap.ByteUtils;
+import siplog2pcap.EventExporter;
+import siplog2pcap.LineIterator;
+import siplog2pcap.LineScanner;
+import siplog2pcap.LineShape;
+import siplog2pcap.LogFrame;
+import siplog2pcap.LogFrameParser;
+import siplog2pcap.Pcap;
+import siplog2pcap.ShapedLogFrameParser;
+import siplog2pcap.parsers.AcmePacket;
+import siplog2pcap.parsers.Pjsua;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/*
+ * This class runs the siplog2pcap benchmarks:
+ *     - LineIterator throughput
+ *     - LineScanner throughput (finding line breaks and candidate header lines), for the scalar and the
+ *       Vector API implementations (the latter only if the JVM is run with --add-modules jdk.incubator.vector)
+ *     - AcmePacket and Pjsua parseHeaderLine() and postProcessLogFrame()
+ *     - AppCore.createDate()
+ *     - EventExporter.export(), as JSON Lines and as CSV
+ *     - each of the Pcap.create*Packet() encoders (and the PCAP frame and file header), with and without
+ *       checksums (see AppCore.setChecksumsEnabled())
+ *     - ByteUtils.intToByteArray() and ByteUtils.join()
+ *     - end-to-end processLogFile() for both log types, with and without checksums
+ * The log files are generated with LogGenerator into temporary files (deleted on exit).
+ */
+public class Benchmarks {
+
+	private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+	private static final int DEFAULT_MEASUREMENT_ITERATIONS = 5;
+	private static final long DEFAULT_ITERATION_MILLIS = 1000;
+	private static final double DEFAULT_LOG_SIZE_MB = 16;
+	private static final int PAYLOAD_SIZE = 600;
+	private static final int SAMPLE_FRAMES = 10000;
+
+	/* Benchmark configuration */
+	private double logSizeMb = DEFAULT_LOG_SIZE_MB;
+	private List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+	/* Shared fixtures */
+	private File acmePacketLog = null;
+	private File pjsuaLog = null;
+
+	/**
+	 * AppCore with no user interface, for end-to-end benchmarks
+	 */
+	private static class QuietAppCore extends AppCore {
+		public void onTextOutput(String textOutput) {}
+		public void onFinish(int retValue) {}
+	};
+
+	/**
+	 * Returns the generated Oracle SBC log file (generating it the first time)
+	 */
+	private File getAcmePacketLog() throws IOException {
+		if(this.acmePacketLog == null) {
+			this.acmePacketLog = File.createTempFile("siplog2pcap-bench-acme", ".log");
+			this.acmePacketLog.deleteOnExit();
+			new LogGenerator(LogGenerator.TYPE_ACME_PACKET, (long) (this.logSizeMb * 1024 * 1024), 0.5, 100, 300, 1).generate(this.acmePacketLog);
+		};
+		return this.acmePacketLog;
+	};
+
+	/**
+	 * Returns the generated pjsua log file (generating it the first time)
+	 */
+	private File getPjsuaLog() throws IOException {
+		if(this.pjsuaLog == null) {
+			this.pjsuaLog = File.createTempFile("siplog2pcap-bench-pjsua", ".log");
+			this.pjsuaLog.deleteOnExit();
+			new LogGenerator(LogGenerator.TYPE_PJSUA, (long) (this.logSizeMb * 1024 * 1024), 0.5, 100, 300, 1).generate(this.pjsuaLog);
+		};
+		return this.pjsuaLog;
+	};
+
+	private static LogFrameParser createAcmePacketParser() throws Exception {
+		return new AcmePacket(new String[] { "2017" });
+	};
+
+	private static LogFrameParser createPjsuaParser() throws Exception {
+		return new Pjsua(new String[] { "2017-07-04", "192.168.1.10" });
+	};
+
+	/**
+	 * Returns the first lines of a log file
+	 */
+	private static String[] readLines(File file, int maxLines) {
+		ArrayList<String> lines = new ArrayList<String>();
+		LineIterator lineIterator = new LineIterator(file);
+		while(lineIterator.hasNext() && (lines.size() < maxLines)) {
+			lines.add(lineIterator.next());
+		};
+		return lines.toArray(new String[lines.size()]);
+	};
+
+	/**
+	 * Returns the first LogFrames of a log file, not postprocessed yet (as LogLinesParser does, but without
+	 * invoking postProcessLogFrame())
+	 */
+	private static LogFrame[] readLogFrames(File file, LogFrameParser parser, int maxFrames) {
+		ArrayList<LogFrame> logFrames = new ArrayList<LogFrame>();
+		LineIterator lineIterator = new LineIterator(file);
+		LogFrame logFrame = null;
+		while(lineIterator.hasNext() && (logFrames.size() < maxFrames)) {
+			String line = lineIterator.next();
+			LogFrame headerLogFrame = parser.parseHeaderLine(line);
+			if(headerLogFrame != null) {
+				logFrame = headerLogFrame;
+				logFrames.add(logFrame);
+			};
+			if(logFrame != null) logFrame.getLogLines().add(line);
+		};
+		return logFrames.toArray(new LogFrame[logFrames.size()]);
+	};
+
+	/**
+	 * Benchmark of LineIterator, reading a whole log file per operation
+	 */
+	private class LineIteratorBenchmark extends Benchmark {
+		private File file;
+		private LineScanner scanner;
+		private LineShape shape = null;
+		public LineIteratorBenchmark() { this(null, null); }
+		public LineIteratorBenchmark(LineScanner scanner, String scannerName) {
+			super("LineIterator.acmePacketLog" + ((scanner != null) ? ".shaped." + scannerName : ""));
+			this.scanner = scanner;
+		}
+		public void setUp() throws Exception {
+			this.file = getAcmePacketLog();
+			if(this.scanner != null) this.shape = ((ShapedLogFrameParser) createAcmePacketParser()).getHeaderLineShape();
+		}
+		public long getBytesPerOperation() { return this.file.length(); }
+		public long operation() {
+			long count = 0;
+			LineScanner defaultScanner = LineScanner.getInstance();
+			if(this.scanner != null) LineScanner.setInstance(this.scanner);
+			LineIterator lineIterator = new LineIterator(this.file);
+			LineScanner.setInstance(defaultScanner);
+			lineIterator.setLineShape(this.shape);
+			while(lineIterator.hasNext()) {
+				count += lineIterator.next().length();
+				if(lineIterator.isLineCandidate()) count++;
+			};
+			return count;
+		}
+	};
+
+	/**
+	 * Benchmark of a LineScanner, finding the line breaks of a whole log file (already in memory) and checking
+	 * the shape of the header lines on every line per operation
+	 */
+	private class LineScannerBenchmark extends Benchmark {
+		private boolean acmePacket;
+		private LineScanner scanner;
+		private LineShape shape;
+		private byte[] bytes;
+		public LineScannerBenchmark(boolean acmePacket, LineScanner scanner, String scannerName) {
+			super("LineScanner." + scannerName + "." + (acmePacket ? "acmePacketLog" : "pjsuaLog"));
+			this.acmePacket = acmePacket;
+			this.scanner = scanner;
+		}
+		public void setUp() throws Exception {
+			File file = this.acmePacket ? getAcmePacketLog() : getPjsuaLog();
+			this.shape = ((ShapedLogFrameParser) (this.acmePacket ? createAcmePacketParser() : createPjsuaParser())).getHeaderLineShape();
+			this.bytes = new byte[(int) file.length()];
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				in.readFully(this.bytes);
+			} finally {
+				in.close();
+			}
+		}
+		public long getBytesPerOperation() { return this.bytes.length; }
+		public long operation() {
+			long candidates = 0;
+			int start = 0;
+			while(start < this.bytes.length) {
+				int end = this.scanner.findLineBreak(this.bytes, start, this.bytes.length);
+				if(this.scanner.matchesShape(this.shape, this.bytes, start, end - start)) candidates++;
+				start = end + 1;
+			};
+			return candidates;
+		}
+	};
+
+	/**
+	 * Returns the Vector API LineScanner (null if not available in this build or JVM)
+	 */
+	private static LineScanner createVectorLineScanner() {
+		try {
+			LineScanner scanner = (LineScanner) Class.forName(LineScanner.VECTOR_LINE_SCANNER_CLASS).getDeclaredConstructor().newInstance();
+			scanner.findLineBreak(new byte[1], 0, 1);
+			return scanner;
+		} catch(ReflectiveOperationException e) {
+			return null;
+		} catch(LinkageError e) {
+			return null;
+		}
+	};
+
+	/**
+	 * Benchmark of LogFrameParser.parseHeaderLine(), parsing one log line (header or not) per operation
+	 */
+	private class ParseHeaderLineBenchmark extends Benchmark {
+		private boolean acmePacket;
+		private LogFrameParser parser;
+		private String[] lines;
+		private int index = 0;
+		public ParseHeaderLineBenchmark(boolean acmePacket) {
+			super((acmePacket ? "AcmePacket" : "Pjsua") + ".parseHeaderLine");
+			this.acmePacket = acmePacket;
+		}
+		public void setUp() throws Exception {
+			this.parser = this.acmePacket ? createAcmePacketParser() : createPjsuaParser();
+			this.lines = readLines(this.acmePacket ? getAcmePacketLog() : getPjsuaLog(), 20 * SAMPLE_FRAMES);
+		}
+		public long operation() {
+			String line = this.lines[this.index];
+			this.index = (this.index + 1) % this.lines.length;
+			return (this.parser.parseHeaderLine(line) != null) ? 1 : 0;
+		}
+	};
+
+	/**
+	 * Benchmark of LogFrameParser.postProcessLogFrame(), postprocessing one LogFrame (SIP message or not) per operation
+	 */
+	private class PostProcessLogFrameBenchmark extends Benchmark {
+		private boolean acmePacket;
+		private LogFrameParser parser;
+		private LogFrame[] logFrames;
+		private int index = 0;
+		public PostProcessLogFrameBenchmark(boolean acmePacket) {
+			super((acmePacket ? "AcmePacket" : "Pjsua") + ".postProcessLogFrame");
+			this.acmePacket = acmePacket;
+		}
+		public void setUp() throws Exception {
+			this.parser = this.acmePacket ? createAcmePacketParser() : createPjsuaParser();
+			this.logFrames = readLogFrames(this.acmePacket ? getAcmePacketLog() : getPjsuaLog(), this.parser, SAMPLE_FRAMES);
+		}
+		public long operation() {
+			LogFrame logFrame = this.logFrames[this.index];
+			this.index = (this.index + 1) % this.logFrames.length;
+			this.parser.postProcessLogFrame(logFrame);
+			return (logFrame.getSipLines() != null) ? logFrame.getSipLines().size() : 0;
+		}
+	};
+
+	/**
+	 * Benchmark of EventExporter.export(), exporting one postprocessed LogFrame (SIP message or not) per operation
+	 * to a stream discarding the bytes
+	 */
+	private class EventExportBenchmark extends Benchmark {
+		private int format;
+		private LogFrame[] logFrames;
+		private EventExporter exporter;
+		private int index = 0;
+		public EventExportBenchmark(int format) {
+			super("EventExporter.export." + ((format == EventExporter.FORMAT_CSV) ? "csv" : "jsonl"));
+			this.format = format;
+		}
+		public void setUp() throws Exception {
+			LogFrameParser parser = createAcmePacketParser();
+			this.logFrames = readLogFrames(getAcmePacketLog(), parser, SAMPLE_FRAMES);
+			for(LogFrame logFrame : this.logFrames) parser.postProcessLogFrame(logFrame);
+			this.exporter = new EventExporter(new OutputStream() {
+				public void write(int b) {}
+				public void write(byte[] bytes, int offset, int length) {}
+			}, this.format, false);
+		}
+		public long operation() throws Exception {
+			LogFrame logFrame = this.logFrames[this.index];
+			this.index = (this.index + 1) % this.logFrames.length;
+			this.exporter.export(logFrame);
+			return this.exporter.getRecords();
+		}
+	};
+
+	/**
+	 * Benchmark of Anonymizer.anonymize(), anonymizing a copy of one postprocessed LogFrame (SIP message or not)
+	 * per operation, with a warm pseudonym cache
+	 */
+	private class AnonymizerBenchmark extends Benchmark {
+		private LogFrame[] logFrames;
+		private Anonymizer anonymizer = new Anonymizer("benchmark", Anonymizer.DEFAULT_MAX_CACHE_ENTRIES);
+		private int index = 0;
+		public AnonymizerBenchmark() { super("Anonymizer.anonymize"); }
+		public void setUp() throws Exception {
+			LogFrameParser parser = createAcmePacketParser();
+			this.logFrames = readLogFrames(getAcmePacketLog(), parser, SAMPLE_FRAMES);
+			for(LogFrame logFrame : this.logFrames) parser.postProcessLogFrame(logFrame);
+		}
+		public long operation() throws Exception {
+			LogFrame logFrame = this.logFrames[this.index];
+			this.index = (this.index + 1) % this.logFrames.length;
+			LogFrame copy = new LogFrame(2017, 7, 4, 11, 29, 22, 0);
+			copy.setSrcIp(logFrame.getSrcIp());
+			copy.setDstIp(logFrame.getDstIp());
+			copy.setSipLines((logFrame.getSipLines() != null) ? new ArrayList<String>(logFrame.getSipLines()) : null);
+			copy.setSipBody(logFrame.getSipBody());
+			copy.setGenericEvent(logFrame.getGenericEvent());
+			this.anonymizer.anonymize(copy);
+			return this.anonymizer.getAnonymizedFrames();
+		}
+	};
+
+	/**
+	 * Benchmark of AppCore.createDate()
+	 */
+	private class CreateDateBenchmark extends Benchmark {
+		private TimeZone timeZone = TimeZone.getDefault();
+		private int second = 0;
+		public CreateDateBenchmark() { super("AppCore.createDate"); }
+		public long operation() {
+			this.second = (this.second + 1) % 60;
+			return AppCore.createDate(2017, 7, 4, 11, 29, this.second, this.timeZone).getTime();
+		}
+	};
+
+	/**
+	 * Benchmark of one of the Pcap encoders
+	 */
+	private static abstract class PcapBenchmark extends Benchmark {
+		protected byte[] payload = new byte[PAYLOAD_SIZE];
+		protected byte[] mac = new byte[6];
+		protected InetAddress srcIp;
+		protected InetAddress dstIp;
+		protected boolean checksums;
+		public PcapBenchmark(String name) { this(name, false); }
+		public PcapBenchmark(String name, boolean checksums) {
+			super(name + (checksums ? ".checksums" : ""));
+			this.checksums = checksums;
+		}
+		public void setUp() throws Exception {
+			for(int i = 0; i < this.payload.length; i++) this.payload[i] = (byte) ('A' + (i % 26));
+			this.srcIp = InetAddress.getByName("192.168.1.10");
+			this.dstIp = InetAddress.getByName("10.0.0.1");
+		}
+		public long getBytesPerOperation() { return PAYLOAD_SIZE; }
+	};
+
+	/**
+	 * End-to-end benchmark of AppCore.processLogFile(), converting a whole log file per operation
+	 */
+	private class ProcessLogFileBenchmark extends Benchmark {
+		private boolean acmePacket;
+		private boolean checksums;
+		private File logFile;
+		private File pcapFile;
+		public ProcessLogFileBenchmark(boolean acmePacket, boolean checksums) {
+			super("AppCore.processLogFile." + (acmePacket ? "acmePacket" : "pjsua") + (checksums ? ".checksums" : ""));
+			this.acmePacket = acmePacket;
+			this.checksums = checksums;
+		}
+		public void setUp() throws Exception {
+			this.logFile = this.acmePacket ? getAcmePacketLog() : getPjsuaLog();
+			this.pcapFile = File.createTempFile("siplog2pcap-bench", ".pcap");
+			this.pcapFile.deleteOnExit();
+		}
+		public void tearDown() {
+			this.pcapFile.delete();
+		}
+		public long getBytesPerOperation() { return this.logFile.length(); }
+		public long operation() throws Exception {
+			QuietAppCore appCore = new QuietAppCore();
+			appCore.setProgressIntervalMillis(0);
+			appCore.setChecksumsEnabled(this.checksums);
+			appCore.processLogFile(this.acmePacket ? createAcmePacketParser() : createPjsuaParser(), this.logFile, this.pcapFile);
+			return this.pcapFile.length();
+		}
+	};
+
+	/**
+	 * Registers all the benchmarks
+	 */
+	private void registerBenchmarks() {
+		this.benchmarks.add(new LineIteratorBenchmark());
+		this.benchmarks.add(new LineIteratorBenchmark(new LineScanner(), "scalar"));
+		this.benchmarks.add(new LineScannerBenchmark(true, new LineScanner(), "scalar"));
+		this.benchmarks.add(new LineScannerBenchmark(false, new LineScanner(), "scalar"));
+		LineScanner vectorLineScanner = createVectorLineScanner();
+		if(vectorLineScanner != null) {
+			this.benchmarks.add(new LineIteratorBenchmark(vectorLineScanner, "vector"));
+			this.benchmarks.add(new LineScannerBenchmark(true, vectorLineScanner, "vector"));
+			this.benchmarks.add(new LineScannerBenchmark(false, vectorLineScanner, "vector"));
+		};
+		this.benchmarks.add(new ParseHeaderLineBenchmark(true));
+		this.benchmarks.add(new ParseHeaderLineBenchmark(false));
+		this.benchmarks.add(new PostProcessLogFrameBenchmark(true));
+		this.benchmarks.add(new PostProcessLogFrameBenchmark(false));
+		this.benchmarks.add(new CreateDateBenchmark());
+		this.benchmarks.add(new EventExportBenchmark(EventExporter.FORMAT_JSON_LINES));
+		this.benchmarks.add(new EventExportBenchmark(EventExporter.FORMAT_CSV));
+		this.benchmarks.add(new AnonymizerBenchmark());
+		this.benchmarks.add(new PcapBenchmark("Pcap.createPcapFileHeader") {
+			public long getBytesPerOperation() { return 0; }
+			public long operation() { return Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET).length; }
+		});
+		this.benchmarks.add(new PcapBenchmark("Pcap.createPcapFrame") {
+			public long operation() { return Pcap.createPcapFrame(1499167762, 360000, this.payload.length, this.payload).length; }
+		});
+		this.benchmarks.add(new PcapBenchmark("Pcap.createEthernetPacket") {
+			public long operation() { return Pcap.createEthernetPacket(this.mac, this.mac, Pcap.ETHERTYPE_IPV4, this.payload, 888).length; }
+		});
+		for(boolean checksums : new boolean[]{ false, true }) {
+			this.benchmarks.add(new PcapBenchmark("Pcap.createIpv4Packet", checksums) {
+				public long operation() { return Pcap.createIpv4Packet(this.srcIp, this.dstIp, Pcap.IP_PROTOCOL_UDP, this.payload, this.checksums).length; }
+			});
+			this.benchmarks.add(new PcapBenchmark("Pcap.createUdpPacket", checksums) {
+				public long operation() { return Pcap.createUdpPacket(5060, 5060, this.payload, this.srcIp, this.dstIp, this.checksums).length; }
+			});
+			this.benchmarks.add(new PcapBenchmark("Pcap.createTcpPacket", checksums) {
+				public long operation() { return Pcap.createTcpPacket(5060, 5060, this.payload, this.srcIp, this.dstIp, Pcap.getDefaultSequenceState(), this.checksums).length; }
+			});
+			this.benchmarks.add(new PcapBenchmark("Pcap.createSctpPacket", checksums) {
+				public long operation() { return Pcap.createSctpPacket(5060, 5060, this.payload, this.srcIp, this.dstIp, Pcap.getDefaultSequenceState(), this.checksums).length; }
+			});
+		};
+		this.benchmarks.add(new Benchmark("ByteUtils.intToByteArray") {
+			private int value = 0;
+			public long operation() { return ByteUtils.intToByteArray(this.value++, 4, true)[0]; }
+		});
+		this.benchmarks.add(new PcapBenchmark("ByteUtils.join") {
+			private List<byte[]> parts = new ArrayList<byte[]>();
+			public void setUp() throws Exception {
+				super.setUp();
+				for(int i = 0; i < 8; i++) this.parts.add(new byte[4]);
+				this.parts.add(this.payload);
+			}
+			public long operation() { return ByteUtils.join(this.parts).length; }
+		});
+		this.benchmarks.add(new ProcessLogFileBenchmark(true, false));
+		this.benchmarks.add(new ProcessLogFileBenchmark(false, false));
+		this.benchmarks.add(new ProcessLogFileBenchmark(true, true));
+		this.benchmarks.add(new ProcessLogFileBenchmark(false, true));
+	};
+
+	/**
+	 * Main method
+	 *
+	 * @param	args	arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		String HELP_STRING =
+		"Usage:\r\n" +
+		"\tBenchmarks [--filter=<substring>] [--warmup=<iterations>] [--iterations=<iterations>] [--time=<ms>] [--size=<MB>]" + "\r\n";
+		String filter = null;
+		int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+		int measurementIterations = DEFAULT_MEASUREMENT_ITERATIONS;
+		long iterationMillis = DEFAULT_ITERATION_MILLIS;
+		Benchmarks benchmarks = new Benchmarks();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("--filter=")) {
+				filter = args[i].substring("--filter=".length());
+			} else if(args[i].startsWith("--warmup=")) {
+				warmupIterations = Integer.parseInt(args[i].substring("--warmup=".length()));
+			} else if(args[i].startsWith("--iterations=")) {
+				measurementIterations = Integer.parseInt(args[i].substring("--iterations=".length()));
+			} else if(args[i].startsWith("--time=")) {
+				iterationMillis = Long.parseLong(args[i].substring("--time=".length()));
+			} else if(args[i].startsWith("--size=")) {
+				benchmarks.logSizeMb = Double.parseDouble(args[i].substring("--size=".length()));
+			} else {
+				System.out.println(HELP_STRING);
+				System.exit(1);
+			};
+		};
+		benchmarks.registerBenchmarks();
+		System.out.println(Benchmark.Result.header());
+		for(Benchmark benchmark: benchmarks.benchmarks) {
+			if((filter != null) && (benchmark.getName().indexOf(filter) == -1)) continue;
+			System.out.println(benchmark.run(warmupIterations, measurementIterations, iterationMillis).toString());
+		};
+	};
+
+}
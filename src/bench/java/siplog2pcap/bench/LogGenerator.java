@@ -0,0 +1,298 @@
+package siplog2pcap.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/*
+ * This class generates synthetic (but realistic) SIP log files, so we can measure the performance
+ * of siplog2pcap with logs of any size. Generation is deterministic: the same parameters (including
+ * the seed) always produce the same log file. Parameters are:
+ *     - the log type (pjsua or Oracle SBC, formerly AcmePacket)
+ *     - the size of the log file
+ *     - the SIP/non-SIP mix (probability of a log entry being a SIP message)
+ *     - the number of flows (different pairs of IP addresses the calls are spread on)
+ *     - the size of the SIP bodies (SDP)
+ * Each call is made of INVITE, 100 Trying, 180 Ringing, 200 OK, ACK, BYE and 200 OK messages,
+ * interleaved with non-SIP log entries (some of them spanning several lines).
+ * Optionally, some non-SIP log entries are runaway ones (a giant stack trace, as in corrupted logs), to check
+ * the memory bounds of the conversion (see setRunawayEntries()).
+ */
+public class LogGenerator {
+
+	public static final String TYPE_PJSUA = "pjsua";
+	public static final String TYPE_ACME_PACKET = "acme-packet";
+
+	private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+	private static final String ACME_END_OF_MESSAGE = "----------------------------------------";
+	private static final String PJSUA_END_OF_MESSAGE = "--end msg--";
+	private static final String LOCAL_IP = "192.168.1.10";
+
+	/* Generation parameters */
+	private String type;
+	private long size;
+	private double sipRatio;
+	private int flows;
+	private int bodySize;
+	private long seed;
+	private double runawayRatio = 0.0;
+	private int runawayLines = 0;
+
+	/* Generation state */
+	private Random random;
+	private long timeMillis;
+	private long written;
+	private long callCounter;
+	private Writer writer;
+
+	/**
+	 * Returns a LogGenerator object
+	 *
+	 * @param	type		the log type (TYPE_PJSUA or TYPE_ACME_PACKET)
+	 * @param	size		the size of the log file to generate (in bytes)
+	 * @param	sipRatio	the probability of a log entry being a SIP message (0.0 to 1.0)
+	 * @param	flows		the number of flows (pairs of IP addresses)
+	 * @param	bodySize	the approximate size of the SIP bodies (in bytes)
+	 * @param	seed		the seed of the random generator
+	 * @return				the LogGenerator object
+	 */
+	public LogGenerator(String type, long size, double sipRatio, int flows, int bodySize, long seed) {
+		if(!type.equals(TYPE_PJSUA) && !type.equals(TYPE_ACME_PACKET)) {
+			throw(new IllegalArgumentException("Invalid log type " + type));
+		};
+		this.type = type;
+		this.size = size;
+		this.sipRatio = Math.max(0.0, Math.min(1.0, sipRatio));
+		this.flows = Math.max(1, flows);
+		this.bodySize = Math.max(0, bodySize);
+		this.seed = seed;
+	};
+
+	/**
+	 * Makes some non-SIP log entries runaway ones, followed by a giant stack trace
+	 *
+	 * @param	ratio	the probability of a non-SIP log entry being a runaway one (0.0 for none)
+	 * @param	lines	the number of lines of their stack traces
+	 */
+	public void setRunawayEntries(double ratio, int lines) {
+		this.runawayRatio = Math.max(0.0, Math.min(1.0, ratio));
+		this.runawayLines = Math.max(0, lines);
+	};
+
+	/**
+	 * Generates the log file
+	 *
+	 * @param	file	the output file
+	 */
+	public void generate(File file) throws IOException {
+		this.random = new Random(this.seed);
+		this.timeMillis = 6 * 3600 * 1000L; // 06:00:00.000 of July 4th
+		this.written = 0;
+		this.callCounter = 0;
+		this.writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+		try {
+			while(this.written < this.size) {
+				generateCall();
+			};
+		} finally {
+			this.writer.close();
+		};
+	};
+
+	/**
+	 * Generates one call (and the non-SIP log entries interleaved with its messages)
+	 */
+	private void generateCall() throws IOException {
+		long call = this.callCounter++;
+		int flow = this.random.nextInt(this.flows);
+		String remoteIp = "10." + Integer.toString(1 + (flow / 65536) % 254) + "." + Integer.toString((flow / 256) % 256) + "." + Integer.toString(1 + flow % 254);
+		String callId = Long.toHexString(this.seed) + "-" + Long.toString(call) + "@" + remoteIp;
+		String fromUser = Integer.toString(1000 + this.random.nextInt(9000));
+		String toUser = Integer.toString(2000 + this.random.nextInt(9000));
+		String fromTag = Integer.toHexString(this.random.nextInt());
+		String toTag = Integer.toHexString(this.random.nextInt());
+		String inviteBranch = "z9hG4bK" + Integer.toHexString(this.random.nextInt());
+		String ackBranch = "z9hG4bK" + Integer.toHexString(this.random.nextInt());
+		String byeBranch = "z9hG4bK" + Integer.toHexString(this.random.nextInt());
+		String transport = (this.random.nextInt(4) == 0) ? "TCP" : "UDP";
+		String requestUri = "sip:" + toUser + "@" + remoteIp + ":5060";
+		String sdp = createSdp(call);
+		String[] headers = {
+			"From: <sip:" + fromUser + "@" + LOCAL_IP + ">;tag=" + fromTag,
+			"To: <sip:" + toUser + "@" + remoteIp + ">",
+			"Call-ID: " + callId
+		};
+		sipMessage(true, remoteIp, transport, "INVITE " + requestUri + " SIP/2.0", inviteBranch, headers, null, "1 INVITE", sdp);
+		sipMessage(false, remoteIp, transport, "SIP/2.0 100 Trying", inviteBranch, headers, null, "1 INVITE", null);
+		sipMessage(false, remoteIp, transport, "SIP/2.0 180 Ringing", inviteBranch, headers, toTag, "1 INVITE", null);
+		sipMessage(false, remoteIp, transport, "SIP/2.0 200 OK", inviteBranch, headers, toTag, "1 INVITE", sdp);
+		sipMessage(true, remoteIp, transport, "ACK " + requestUri + " SIP/2.0", ackBranch, headers, toTag, "1 ACK", null);
+		sipMessage(true, remoteIp, transport, "BYE " + requestUri + " SIP/2.0", byeBranch, headers, toTag, "2 BYE", null);
+		sipMessage(false, remoteIp, transport, "SIP/2.0 200 OK", byeBranch, headers, toTag, "2 BYE", null);
+	};
+
+	/**
+	 * Returns an SDP body of (approximately) the configured body size
+	 */
+	private String createSdp(long call) {
+		if(this.bodySize == 0) return "";
+		StringBuilder sb = new StringBuilder();
+		sb.append("v=0\r\n");
+		sb.append("o=- ").append(call).append(" 1 IN IP4 ").append(LOCAL_IP).append("\r\n");
+		sb.append("s=-\r\n");
+		sb.append("c=IN IP4 ").append(LOCAL_IP).append("\r\n");
+		sb.append("t=0 0\r\n");
+		sb.append("m=audio ").append(10000 + 2 * (call % 10000)).append(" RTP/AVP 0 8 101\r\n");
+		int i = 0;
+		while(sb.length() < this.bodySize) {
+			sb.append("a=x-attribute-").append(i++).append(":").append(Integer.toHexString(this.random.nextInt())).append("\r\n");
+		};
+		return sb.toString();
+	};
+
+	/**
+	 * Writes one SIP message (preceded by some non-SIP log entries, depending on the SIP/non-SIP mix)
+	 */
+	private void sipMessage(boolean sent, String remoteIp, String transport, String startLine, String branch, String[] headers, String toTag, String cseq, String body) throws IOException {
+		while((this.sipRatio < 1.0) && (this.random.nextDouble() >= this.sipRatio)) {
+			genericEvent();
+		};
+		this.timeMillis += 1 + this.random.nextInt(200);
+		String viaIp = sent ? LOCAL_IP : remoteIp;
+		StringBuilder sb = new StringBuilder();
+		sb.append(startLine).append("\n");
+		sb.append("Via: SIP/2.0/").append(transport).append(" ").append(viaIp).append(":5060;branch=").append(branch).append("\n");
+		sb.append("Max-Forwards: 70\n");
+		sb.append(headers[0]).append("\n");
+		sb.append(headers[1]);
+		if(toTag != null) sb.append(";tag=").append(toTag);
+		sb.append("\n");
+		sb.append(headers[2]).append("\n");
+		sb.append("CSeq: ").append(cseq).append("\n");
+		sb.append("Contact: <sip:").append(viaIp).append(":5060>\n");
+		sb.append("User-Agent: siplog2pcap-bench\n");
+		if((body != null) && (body.length() > 0)) {
+			sb.append("Content-Type: application/sdp\n");
+			sb.append("Content-Length: ").append(body.length()).append("\n");
+			sb.append("\n");
+			sb.append(body.replace("\r\n", "\n"));
+		} else {
+			sb.append("Content-Length: 0\n");
+			sb.append("\n");
+		};
+		int messageLength = sb.length() + 1;
+		if(this.type.equals(TYPE_ACME_PACKET)) {
+			String direction = sent ? " sent to " : " received from ";
+			write(acmeTimestamp() + " On [0:" + Integer.toString(remoteIp.hashCode() & 0xFF) + "]" + LOCAL_IP + ":5060" + direction + remoteIp + ":5060\n");
+			write(sb.toString());
+			write(ACME_END_OF_MESSAGE + "\n");
+		} else {
+			String method = startLine.startsWith("SIP/2.0") ? startLine.substring(8) : startLine.substring(0, startLine.indexOf(' '));
+			if(sent) {
+				write(pjsuaTimestamp() + " pjsua_core.c  .TX " + messageLength + " bytes " + (startLine.startsWith("SIP/2.0") ? "Response" : "Request") + " msg " + method + "/cseq=" + cseq.substring(0, cseq.indexOf(' ')) + " (tdta0x" + Integer.toHexString(this.random.nextInt()) + ") to " + transport + " " + remoteIp + ":5060:\n");
+			} else {
+				write(pjsuaTimestamp() + " pjsua_core.c  .RX " + messageLength + " bytes " + (startLine.startsWith("SIP/2.0") ? "Response" : "Request") + " msg " + method + "/cseq=" + cseq.substring(0, cseq.indexOf(' ')) + " (rdata0x" + Integer.toHexString(this.random.nextInt()) + ") from " + transport + " " + remoteIp + ":5060:\n");
+			};
+			write(sb.toString());
+			write(PJSUA_END_OF_MESSAGE + "\n");
+		};
+	};
+
+	/**
+	 * Writes one non-SIP log entry (a few of them spanning several lines)
+	 */
+	private void genericEvent() throws IOException {
+		this.timeMillis += this.random.nextInt(20);
+		int kind = this.random.nextInt(10);
+		StringBuilder sb = new StringBuilder();
+		if(this.type.equals(TYPE_ACME_PACKET)) {
+			sb.append(acmeTimestamp()).append(" [SIP] SipSession[").append(Integer.toHexString(this.random.nextInt())).append("] state changed to ").append(this.random.nextInt(8)).append("\n");
+		} else {
+			sb.append(pjsuaTimestamp()).append(" pjsua_call.c  .Call ").append(this.random.nextInt(4)).append(" state changed to CONFIRMED\n");
+		};
+		if(kind == 0) {
+			for(int i = 0; i < 3; i++) {
+				sb.append("    detail line ").append(i).append(": ").append(Integer.toHexString(this.random.nextInt())).append("\n");
+			};
+		};
+		write(sb.toString());
+		if((this.runawayRatio > 0.0) && (this.random.nextDouble() < this.runawayRatio)) {
+			write("java.lang.IllegalStateException: session " + Integer.toHexString(this.random.nextInt()) + " corrupted\n");
+			for(int i = 0; i < this.runawayLines; i++) {
+				write("\tat com.example.sbc.Session.process" + Integer.toString(i % 97) + "(Session.java:" + Integer.toString(100 + i % 900) + ")\n");
+			};
+		};
+	};
+
+	/**
+	 * Returns the timestamp of an Oracle SBC log entry (e.g. "Jul  4 11:29:22.360")
+	 */
+	private String acmeTimestamp() {
+		long totalSeconds = this.timeMillis / 1000;
+		int day = 4 + (int) (totalSeconds / 86400);
+		return String.format("%s %2d %02d:%02d:%02d.%03d", MONTHS[6], Integer.valueOf(day), Long.valueOf((totalSeconds / 3600) % 24), Long.valueOf((totalSeconds / 60) % 60), Long.valueOf(totalSeconds % 60), Long.valueOf(this.timeMillis % 1000));
+	};
+
+	/**
+	 * Returns the timestamp of a pjsua log entry (e.g. "11:29:22.360")
+	 */
+	private String pjsuaTimestamp() {
+		long totalSeconds = this.timeMillis / 1000;
+		return String.format("%02d:%02d:%02d.%03d", Long.valueOf((totalSeconds / 3600) % 24), Long.valueOf((totalSeconds / 60) % 60), Long.valueOf(totalSeconds % 60), Long.valueOf(this.timeMillis % 1000));
+	};
+
+	/**
+	 * Writes a string into the log file, keeping count of the bytes written
+	 */
+	private void write(String string) throws IOException {
+		this.writer.write(string);
+		this.written += string.length();
+	};
+
+	/**
+	 * Main method
+	 *
+	 * @param	args	arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		String HELP_STRING =
+		"Usage:\r\n" +
+		"\tLogGenerator <pjsua|acme-packet> <output_log_file> <size_in_MB> [--sip-ratio=<0.0-1.0>] [--flows=<n>] [--body-size=<bytes>] [--seed=<n>] [--runaway-ratio=<0.0-1.0>] [--runaway-lines=<n>]" + "\r\n";
+		if(args.length < 3) {
+			System.out.println(HELP_STRING);
+			System.exit(1);
+		};
+		double sipRatio = 0.5;
+		int flows = 100;
+		int bodySize = 300;
+		long seed = 1;
+		double runawayRatio = 0.0;
+		int runawayLines = 100000;
+		for(int i = 3; i < args.length; i++) {
+			if(args[i].startsWith("--sip-ratio=")) {
+				sipRatio = Double.parseDouble(args[i].substring("--sip-ratio=".length()));
+			} else if(args[i].startsWith("--flows=")) {
+				flows = Integer.parseInt(args[i].substring("--flows=".length()));
+			} else if(args[i].startsWith("--body-size=")) {
+				bodySize = Integer.parseInt(args[i].substring("--body-size=".length()));
+			} else if(args[i].startsWith("--seed=")) {
+				seed = Long.parseLong(args[i].substring("--seed=".length()));
+			} else if(args[i].startsWith("--runaway-ratio=")) {
+				runawayRatio = Double.parseDouble(args[i].substring("--runaway-ratio=".length()));
+			} else if(args[i].startsWith("--runaway-lines=")) {
+				runawayLines = Integer.parseInt(args[i].substring("--runaway-lines=".length()));
+			} else {
+				System.out.println(HELP_STRING);
+				System.exit(1);
+			};
+		};
+		long size = (long) (Double.parseDouble(args[2]) * 1024 * 1024);
+		LogGenerator logGenerator = new LogGenerator(args[0], size, sipRatio, flows, bodySize, seed);
+		logGenerator.setRunawayEntries(runawayRatio, runawayLines);
+		logGenerator.generate(new File(args[1]));
+	};
+
+}
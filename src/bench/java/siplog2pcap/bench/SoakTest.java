@@ -0,0 +1,125 @@
+package siplog2pcap.bench;
+
+import siplog2pcap.AppCore;
+import siplog2pcap.ConversionMetrics;
+import siplog2pcap.LogLinesParser;
+import siplog2pcap.parsers.AcmePacket;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/*
+ * This class checks that the memory used by a conversion does not depend on the log size nor on its
+ * runaway entries: it generates a big Oracle SBC log (several GB by default) with some giant stack traces
+ * (see LogGenerator.setRunawayEntries()), converts it in the same JVM, which is meant to be run with a small
+ * fixed heap (such as -Xmx64m, see the soak target of the Ant build), and fails (exit code 1) unless:
+ *     - the conversion completes with no error and writes the PCAP file
+ *     - the runaway entries are cut at the frame limits (and reported as such)
+ * The peak heap usage is reported, so it can be compared with the heap size
+ */
+public class SoakTest {
+
+	public static final double DEFAULT_LOG_SIZE_MB = 2048;
+	public static final double DEFAULT_RUNAWAY_RATIO = 0.00002;
+	public static final int DEFAULT_RUNAWAY_LINES = 200000;
+
+	/**
+	 * AppCore with no user interface, which keeps the errors reported
+	 */
+	private static class SoakAppCore extends AppCore {
+		private StringBuilder errors = new StringBuilder();
+		public void onTextOutput(String textOutput) {
+			if(textOutput.startsWith("ERROR")) this.errors.append(textOutput).append("\r\n");
+		}
+		public void onFinish(int retValue) {}
+	};
+
+	/**
+	 * Returns the peak usage of the heap memory pools so far (in bytes)
+	 */
+	private static long getPeakHeapUsage() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		};
+		return peak;
+	};
+
+	/**
+	 * Main method
+	 *
+	 * @param	args	arguments
+	 */
+	public static void main(String[] args) throws Exception {
+		String HELP_STRING =
+		"Usage:\r\n" +
+		"\tSoakTest [--size=<MB>] [--runaway-ratio=<0.0-1.0>] [--runaway-lines=<n>] [--log=<log_file>]" + "\r\n";
+		double logSizeMb = DEFAULT_LOG_SIZE_MB;
+		double runawayRatio = DEFAULT_RUNAWAY_RATIO;
+		int runawayLines = DEFAULT_RUNAWAY_LINES;
+		File logFile = null;
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("--size=")) {
+				logSizeMb = Double.parseDouble(args[i].substring("--size=".length()));
+			} else if(args[i].startsWith("--runaway-ratio=")) {
+				runawayRatio = Double.parseDouble(args[i].substring("--runaway-ratio=".length()));
+			} else if(args[i].startsWith("--runaway-lines=")) {
+				runawayLines = Integer.parseInt(args[i].substring("--runaway-lines=".length()));
+			} else if(args[i].startsWith("--log=")) {
+				logFile = new File(args[i].substring("--log=".length()));
+			} else {
+				System.out.println(HELP_STRING);
+				System.exit(1);
+			};
+		};
+		boolean generated = (logFile == null);
+		if(generated) {
+			logFile = File.createTempFile("siplog2pcap-soak", ".log");
+			logFile.deleteOnExit();
+		};
+		File pcapFile = File.createTempFile("siplog2pcap-soak", ".pcap");
+		pcapFile.deleteOnExit();
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		System.out.println("Max heap: " + Long.toString(maxHeap / (1024 * 1024)) + " MB");
+		if(generated || !logFile.exists()) {
+			System.out.println("Generating " + logFile.getPath() + " (" + Double.toString(logSizeMb) + " MB) ...");
+			LogGenerator logGenerator = new LogGenerator(LogGenerator.TYPE_ACME_PACKET, (long) (logSizeMb * 1024 * 1024), 0.5, 100, 300, 1);
+			logGenerator.setRunawayEntries(runawayRatio, runawayLines);
+			logGenerator.generate(logFile);
+		};
+		System.out.println("Converting " + logFile.getPath() + " (" + Long.toString(logFile.length() / (1024 * 1024)) + " MB) ...");
+		SoakAppCore appCore = new SoakAppCore();
+		appCore.setProgressIntervalMillis(0);
+		boolean passed = true;
+		long t0 = System.currentTimeMillis();
+		try {
+			appCore.processLogFile(new AcmePacket(new String[] { "2017" }), logFile, pcapFile);
+		} catch(OutOfMemoryError e) {
+			System.out.println("FAILED: out of memory");
+			System.exit(1);
+		}
+		ConversionMetrics metrics = appCore.getMetrics();
+		Long frameLimits = metrics.getParseFailuresByCategory().get(LogLinesParser.FRAME_LIMIT_CATEGORY);
+		System.out.println("Converted in " + Long.toString(System.currentTimeMillis() - t0) + " ms: " + Long.toString(metrics.getHeaderLines()) + " frames, " + Long.toString(pcapFile.length()) + " bytes written");
+		System.out.println("Entries cut at the frame limits: " + ((frameLimits != null) ? frameLimits.toString() : "0"));
+		System.out.println("Peak heap usage: " + Long.toString(getPeakHeapUsage() / (1024 * 1024)) + " MB");
+		if(appCore.errors.length() > 0) {
+			System.out.println("FAILED: " + appCore.errors.toString());
+			passed = false;
+		};
+		if(pcapFile.length() <= 24) {
+			System.out.println("FAILED: no PCAP frames written");
+			passed = false;
+		};
+		if((runawayRatio > 0.0) && (runawayLines > LogLinesParser.DEFAULT_MAX_FRAME_LINES) && (frameLimits == null)) {
+			System.out.println("FAILED: no entry cut at the frame limits");
+			passed = false;
+		};
+		pcapFile.delete();
+		if(generated) logFile.delete();
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	};
+
+}
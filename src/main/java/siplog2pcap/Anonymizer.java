@@ -0,0 +1,389 @@
+package siplog2pcap;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * This class anonymizes the LogFrames before they are encoded, so captures can be shared without personal data:
+ *     - the source and destination IPs of the LogFrames, and every IPv4 address in the SIP messages (headers and
+ *       SDP) and in the generic events, become addresses of 10.0.0.0/8
+ *     - the user parts and hosts of the sip:, sips: and tel: URIs become tokens (numbers keep their length and
+ *       their leading +, so they still look like numbers)
+ *     - the display names of the headers with a <URI> (such as "Alice" <sip:1000@a.com>) become tokens
+ *     - the Content-Length header is fixed when the body length changes
+ * Every original value is mapped to its pseudonym through a keyed hash (HMAC-SHA256), so a value always gets
+ * the same pseudonym with the same key (and a random key is used if none is given), and the pseudonyms are kept
+ * in a bounded LRU cache, so the hash is only computed once for the values of the recent messages. Lines are
+ * scanned once, and a new String is only built for the lines which have something to anonymize.
+ * IP pseudonyms only have about 24 bits (10.x.y.z with z from 1 to 254), so two addresses of a log with a few
+ * thousand ones are likely to get the same hash: every IP pseudonym given is kept along with its original address
+ * (with no eviction, so this map grows with the number of addresses of the log), and an address whose pseudonym
+ * is already taken is hashed again with a counter until a free one is found. Thus pseudonyms never collide, but
+ * which of the colliding addresses keeps the first pseudonym depends on the order they are found in (so only the
+ * addresses with no collision are sure to get the same pseudonym in every run). Collisions are counted
+ */
+public class Anonymizer {
+
+	/* CONSTANTS */
+
+	public static final int DEFAULT_MAX_CACHE_ENTRIES = 100000;
+
+	private static final Charset BODY_CHARSET = Charset.forName("ISO-8859-1");
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final char KIND_NUMBER = 'n';
+	private static final char KIND_USER = 'u';
+	private static final char KIND_HOST = 'h';
+	private static final char KIND_IP = 'i';
+	private static final char KIND_NAME = 'd';
+	/** Characters which may start something to anonymize (a sip:, sips: or tel: URI, or an IPv4 address) */
+	private static final boolean[] CANDIDATES = new boolean[128];
+
+	static {
+		for(char c = '0'; c <= '9'; c++) CANDIDATES[c] = true;
+		CANDIDATES['s'] = CANDIDATES['S'] = CANDIDATES['t'] = CANDIDATES['T'] = true;
+	};
+
+	/* INSTANCE VARIABLES */
+
+	private Mac mac;
+	private Map<String,String> pseudonyms;
+	private Map<InetAddress,InetAddress> ipPseudonyms;
+	/** Original IPv4 address of every IP pseudonym given (never evicted, see getIpPseudonym()) */
+	private Map<String,String> ipOriginals = new HashMap<String,String>();
+	private long ipCollisions = 0;
+	private long anonymizedFrames = 0;
+
+	/**
+	 * Returns an Anonymizer object
+	 *
+	 * @param	key					the key of the hash (null for a random one, so pseudonyms only hold in this run)
+	 * @param	maxCacheEntries		the maximum number of pseudonyms kept in the cache
+	 * @return						the Anonymizer object
+	 */
+	public Anonymizer(String key, final int maxCacheEntries) {
+		byte[] keyBytes;
+		if(key != null) {
+			keyBytes = key.getBytes(Charset.forName("UTF-8"));
+		} else {
+			keyBytes = new byte[32];
+			new SecureRandom().nextBytes(keyBytes);
+		};
+		try {
+			this.mac = Mac.getInstance(HMAC_ALGORITHM);
+			this.mac.init(new SecretKeySpec(keyBytes, HMAC_ALGORITHM));
+		} catch(GeneralSecurityException e) {
+			// HmacSHA256 is available in every JVM
+			throw(new RuntimeException(e));
+		}
+		this.pseudonyms = new LinkedHashMap<String,String>(1024, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+				return size() > maxCacheEntries;
+			}
+		};
+		this.ipPseudonyms = new LinkedHashMap<InetAddress,InetAddress>(1024, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<InetAddress,InetAddress> eldest) {
+				return size() > maxCacheEntries;
+			}
+		};
+	};
+
+	/**	Returns the number of LogFrames anonymized
+	 *	@return	the number of LogFrames */
+	public long getAnonymizedFrames() { return this.anonymizedFrames; };
+
+	/**	Returns the number of IP addresses anonymized (that is, of IP pseudonyms given)
+	 *	@return	the number of IP addresses */
+	public long getAnonymizedIps() { return this.ipOriginals.size(); };
+
+	/**	Returns the number of IP addresses whose first pseudonym was already given to another address (so they were
+	 *	hashed again)
+	 *	@return	the number of IP pseudonym collisions */
+	public long getIpCollisions() { return this.ipCollisions; };
+
+	/**
+	 * Returns the LogFrames, anonymizing every one of them as it goes through
+	 *
+	 * @param	logFrames	the LogFrames
+	 * @return				the same LogFrames, anonymized
+	 */
+	public Iterator<LogFrame> anonymize(final Iterator<LogFrame> logFrames) {
+		return new Iterator<LogFrame>() {
+			public boolean hasNext() {
+				return logFrames.hasNext();
+			}
+			public LogFrame next() {
+				if(!logFrames.hasNext()) throw(new NoSuchElementException());
+				LogFrame logFrame = logFrames.next();
+				anonymize(logFrame);
+				return logFrame;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Anonymizes a LogFrame (in place)
+	 *
+	 * @param	logFrame	the LogFrame
+	 */
+	public void anonymize(LogFrame logFrame) {
+		if(logFrame.getSrcIp() != null) logFrame.setSrcIp(getIpPseudonym(logFrame.getSrcIp()));
+		if(logFrame.getDstIp() != null) logFrame.setDstIp(getIpPseudonym(logFrame.getDstIp()));
+		List<String> sipLines = logFrame.getSipLines();
+		if(sipLines != null) {
+			int contentLengthLine = -1;
+			for(int i = 0; i < sipLines.size(); i++) {
+				String line = sipLines.get(i);
+				String anonymizedLine = anonymizeText(line, (i > 0) && (line.indexOf('<') >= 0));
+				if(anonymizedLine != line) sipLines.set(i, anonymizedLine);
+				if((contentLengthLine == -1) && isContentLengthCandidate(line) && (SipMessageAssembler.parseContentLength(line) != -1)) contentLengthLine = i;
+			};
+			byte[] body = logFrame.getSipBody();
+			if((body != null) && (body.length > 0)) {
+				String bodyText = new String(body, BODY_CHARSET);
+				String anonymizedBody = anonymizeText(bodyText, false);
+				if(anonymizedBody != bodyText) {
+					byte[] anonymizedBodyBytes = anonymizedBody.getBytes(BODY_CHARSET);
+					logFrame.setSipBody(anonymizedBodyBytes);
+					if(contentLengthLine != -1) {
+						// Keeps the difference of a truncated body with its Content-Length
+						String line = sipLines.get(contentLengthLine);
+						int contentLength = SipMessageAssembler.parseContentLength(line) + anonymizedBodyBytes.length - body.length;
+						sipLines.set(contentLengthLine, line.substring(0, line.indexOf(':') + 1) + " " + Integer.toString(contentLength));
+					};
+				};
+			};
+		} else if(logFrame.getGenericEvent() != null) {
+			logFrame.setGenericEvent(anonymizeText(logFrame.getGenericEvent(), false));
+		};
+		this.anonymizedFrames++;
+	};
+
+	/**
+	 * Anonymizes the URIs and IPv4 addresses of a text (and the display names if it is a header with a <URI>)
+	 *
+	 * @param	text			the text
+	 * @param	displayNames	whether the text is a header whose display names must be anonymized
+	 * @return					the anonymized text (the same object if there was nothing to anonymize)
+	 */
+	String anonymizeText(String text, boolean displayNames) {
+		StringBuilder sb = null;
+		int copied = 0;
+		int length = text.length();
+		int i = 0;
+		if(displayNames) {
+			// Display name: from the header colon up to the <, without the blanks (and quotes) around it
+			int colon = text.indexOf(':');
+			int angle = text.indexOf('<');
+			if((colon > 0) && (angle > colon)) {
+				int start = colon + 1;
+				int end = angle;
+				while((start < end) && (text.charAt(start) <= ' ')) start++;
+				while((end > start) && (text.charAt(end - 1) <= ' ')) end--;
+				if((end - start >= 2) && (text.charAt(start) == '"') && (text.charAt(end - 1) == '"')) {
+					start++;
+					end--;
+				};
+				if(end > start) {
+					sb = new StringBuilder(length + 16);
+					sb.append(text, 0, start).append(getPseudonym(KIND_NAME, text.substring(start, end)));
+					copied = end;
+					i = end;
+				};
+			};
+		};
+		while(i < length) {
+			char c = text.charAt(i);
+			if((c >= 128) || !CANDIDATES[c]) {
+				i++;
+				continue;
+			};
+			int schemeEnd = ((c == 's') || (c == 'S') || (c == 't') || (c == 'T')) ? matchScheme(text, i) : -1;
+			if(schemeEnd != -1) {
+				/* URI: user part (if followed by @) and host */
+				int userStart = schemeEnd;
+				int end = userStart;
+				while((end < length) && !isUriDelimiter(text.charAt(end))) end++;
+				int at = text.lastIndexOf('@', end - 1);
+				boolean isTel = ((c == 't') || (c == 'T'));
+				int hostStart = userStart;
+				if(sb == null) sb = new StringBuilder(length + 16);
+				sb.append(text, copied, userStart);
+				if(isTel || (at >= userStart)) {
+					int userEnd = isTel ? end : at;
+					String user = text.substring(userStart, userEnd);
+					sb.append(isNumber(user) ? getPseudonym(KIND_NUMBER, user) : getPseudonym(KIND_USER, user));
+					if(isTel) {
+						copied = end;
+						i = end;
+						continue;
+					};
+					sb.append('@');
+					hostStart = at + 1;
+				};
+				int hostEnd = hostStart;
+				while((hostEnd < end) && (text.charAt(hostEnd) != ':')) hostEnd++;
+				String host = text.substring(hostStart, hostEnd);
+				String ip = parseIpv4(host, 0, host.length()) ? getIpPseudonym(host) : null;
+				sb.append((ip != null) ? ip : (host.length() > 0) ? getPseudonym(KIND_HOST, host) : "");
+				copied = hostEnd;
+				i = hostEnd;
+			} else if((c >= '0') && (c <= '9') && ((i == 0) || !isWordChar(text.charAt(i - 1)))) {
+				/* IPv4 address */
+				int end = i;
+				while((end < length) && (((text.charAt(end) >= '0') && (text.charAt(end) <= '9')) || (text.charAt(end) == '.'))) end++;
+				if(((end == length) || !isWordChar(text.charAt(end))) && parseIpv4(text, i, end)) {
+					if(sb == null) sb = new StringBuilder(length + 16);
+					sb.append(text, copied, i).append(getIpPseudonym(text.substring(i, end)));
+					copied = end;
+				};
+				i = end;
+			} else {
+				i++;
+			};
+		};
+		if(sb == null) return text;
+		sb.append(text, copied, length);
+		return sb.toString();
+	};
+
+	/** Returns whether a line may be a Content-Length header (Content-Length or l), without parsing it */
+	private static boolean isContentLengthCandidate(String line) {
+		char c = (line.length() > 0) ? (char) (line.charAt(0) | 0x20) : ' ';
+		return (c == 'c') || (c == 'l');
+	};
+
+	/** Returns the end of the sip:, sips: or tel: scheme at position i (-1 if there is none) */
+	private static int matchScheme(String text, int i) {
+		if((i > 0) && isWordChar(text.charAt(i - 1))) return -1;
+		if(text.regionMatches(true, i, "sip:", 0, 4)) return i + 4;
+		if(text.regionMatches(true, i, "sips:", 0, 5)) return i + 5;
+		if(text.regionMatches(true, i, "tel:", 0, 4)) return i + 4;
+		return -1;
+	};
+
+	private static boolean isUriDelimiter(char c) {
+		return (c <= ' ') || (c == '>') || (c == ';') || (c == '?') || (c == ',') || (c == '"');
+	};
+
+	private static boolean isWordChar(char c) {
+		return ((c >= '0') && (c <= '9')) || ((c | 0x20) >= 'a') && ((c | 0x20) <= 'z') || (c == '.') || (c == '_') || (c == '-');
+	};
+
+	private static boolean isNumber(String user) {
+		int start = user.startsWith("+") ? 1 : 0;
+		if(user.length() == start) return false;
+		for(int i = start; i < user.length(); i++) {
+			char c = user.charAt(i);
+			if((c < '0') || (c > '9')) return false;
+		};
+		return true;
+	};
+
+	/** Returns whether the text between start and end is an IPv4 address (4 numbers up to 255 separated by dots) */
+	private static boolean parseIpv4(String text, int start, int end) {
+		int numbers = 0;
+		int value = -1;
+		for(int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if(c == '.') {
+				if(value == -1) return false;
+				numbers++;
+				value = -1;
+			} else if((c >= '0') && (c <= '9')) {
+				value = ((value == -1) ? 0 : 10 * value) + (c - '0');
+				if(value > 255) return false;
+			} else {
+				return false;
+			};
+		};
+		return (value != -1) && (numbers == 3);
+	};
+
+	private byte[] hash(char kind, String value) {
+		this.mac.update((byte) kind);
+		return this.mac.doFinal(value.getBytes(Charset.forName("UTF-8")));
+	};
+
+	/** Returns the pseudonym of a value of the given kind (from the cache, or hashing it) */
+	private String getPseudonym(char kind, String value) {
+		String key = kind + value;
+		String pseudonym = this.pseudonyms.get(key);
+		if(pseudonym != null) return pseudonym;
+		byte[] hash = hash(kind, value);
+		StringBuilder sb = new StringBuilder();
+		if(kind == KIND_NUMBER) {
+			// Same length (and leading +), so it still looks like a number
+			int start = value.startsWith("+") ? 1 : 0;
+			if(start == 1) sb.append('+');
+			for(int i = start; i < value.length(); i++) {
+				sb.append((char) ('0' + ((hash[i % hash.length] & 0xFF) % 10)));
+			};
+		} else {
+			sb.append(kind);
+			for(int i = 0; i < 5; i++) {
+				sb.append(HEX_DIGITS[(hash[i] >> 4) & 0x0F]).append(HEX_DIGITS[hash[i] & 0x0F]);
+			};
+			if(kind == KIND_HOST) sb.append(".invalid");
+		};
+		pseudonym = sb.toString();
+		this.pseudonyms.put(key, pseudonym);
+		return pseudonym;
+	};
+
+	/**
+	 * Returns the pseudonym of an IPv4 address (a 10.0.0.0/8 address, never 0.0.0.0, which is kept). The address
+	 * is hashed again with a counter while its pseudonym is taken by another address, so once evicted from the
+	 * cache it gets the same pseudonym again
+	 */
+	private String getIpPseudonym(String ip) {
+		if(ip.equals("0.0.0.0")) return ip;
+		String key = KIND_IP + ip;
+		String pseudonym = this.pseudonyms.get(key);
+		if(pseudonym != null) return pseudonym;
+		for(int attempt = 0; ; attempt++) {
+			// IP addresses have no '#', so the counter never makes the hashed value of another address
+			byte[] hash = hash(KIND_IP, (attempt == 0) ? ip : ip + "#" + Integer.toString(attempt));
+			pseudonym = "10." + Integer.toString(hash[0] & 0xFF) + "." + Integer.toString(hash[1] & 0xFF) + "." + Integer.toString(1 + (hash[2] & 0xFF) % 254);
+			String original = this.ipOriginals.get(pseudonym);
+			if(original == null) {
+				this.ipOriginals.put(pseudonym, ip);
+				if(attempt > 0) this.ipCollisions++;
+				break;
+			};
+			if(original.equals(ip)) break;
+		};
+		this.pseudonyms.put(key, pseudonym);
+		return pseudonym;
+	};
+
+	/** Returns the pseudonym of an IP address of a LogFrame (the same as the one of its text, for IPv4 addresses) */
+	private InetAddress getIpPseudonym(InetAddress ip) {
+		InetAddress pseudonym = this.ipPseudonyms.get(ip);
+		if(pseudonym != null) return pseudonym;
+		try {
+			// IPv6 addresses get a 10.0.0.0/8 pseudonym too
+			pseudonym = InetAddress.getByName(getIpPseudonym(ip.getHostAddress()));
+		} catch(UnknownHostException e) {
+			// An IPv4 literal is never looked up
+			throw(new RuntimeException(e));
+		}
+		this.ipPseudonyms.put(ip, pseudonym);
+		return pseudonym;
+	};
+
+}
@@ -1,15 +1,26 @@
 package siplog2pcap;
 import jfnlite.Fn;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.TimeZone;
@@ -27,6 +38,10 @@ public abstract class AppCore {
 	/* CONSTANTS */
 	
 	public static final String TYPE_PJSUA = "pjsua";
+	public static final String TYPE_ACME_PACKET = "acme-packet";
+
+	/** Path of the input and output files meaning stdin and stdout respectively */
+	public static final String STDIO_PATH = "-";
 	public static final String TYPE_PHONER_LITE = "phoner-lite";
 
 	private static final byte[] DEFAULT_MAC = { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00};
@@ -43,6 +58,17 @@ public abstract class AppCore {
 		}
 	}
 
+	/**
+	 * Creates the parser for the given log type (see ParserRegistry)
+	 *
+	 * @param	logType				the log type (such as TYPE_ACME_PACKET or TYPE_PJSUA)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @return						the parser (null if the log type or the parameters are not valid)
+	 */
+	public static LogFrameParser createParser(String logType, String[] parserConfigParams) {
+		return ParserRegistry.createParser(logType, parserConfigParams);
+	}
+
 	/**
 	 * Creates a date using its year, month, day, hour, minute and second components
 	 * 
@@ -71,89 +97,553 @@ public abstract class AppCore {
 	};
 
 	public static byte[] createGenericPcapFrame(Date date, int microseconds, int vlan, InetAddress srcIp, InetAddress dstIp, int transport, int srcPort, int dstPort, byte[] payload) {
+		return createGenericPcapFrame(date, microseconds, vlan, srcIp, dstIp, transport, srcPort, dstPort, payload, Pcap.getDefaultSequenceState());
+	}
+
+	public static byte[] createGenericPcapFrame(Date date, int microseconds, int vlan, InetAddress srcIp, InetAddress dstIp, int transport, int srcPort, int dstPort, byte[] payload, PcapSequenceState sequenceState) {
+		return createGenericPcapFrame(date, microseconds, vlan, srcIp, dstIp, transport, srcPort, dstPort, payload, -1, sequenceState);
+	}
+
+	public static byte[] createGenericPcapFrame(Date date, int microseconds, int vlan, InetAddress srcIp, InetAddress dstIp, int transport, int srcPort, int dstPort, byte[] payload, int payloadSavedLength, PcapSequenceState sequenceState) {
+		return createGenericPcapFrame(date, microseconds, vlan, srcIp, dstIp, transport, srcPort, dstPort, payload, payloadSavedLength, sequenceState, false, Pcap.DEFAULT_SNAP_LENGTH);
+	}
+
+	/**
+	 * Returns a PCAP frame with only the first bytes of its payload (and at most the snapshot length), keeping
+	 * the whole frame length as its original length
+	 *
+	 * @param	payloadSavedLength	the number of bytes of the payload to be saved (-1 for all of them)
+	 * @param	checksums			whether the IP and transport checksums are computed (see Pcap)
+	 * @param	snapLength			the snapshot length (that of the PCAP file header)
+	 */
+	public static byte[] createGenericPcapFrame(Date date, int microseconds, int vlan, InetAddress srcIp, InetAddress dstIp, int transport, int srcPort, int dstPort, byte[] payload, int payloadSavedLength, PcapSequenceState sequenceState, boolean checksums, int snapLength) {
 		byte[] transportPacket = null;
 		byte[] ipPacket = null;
 		if(transport == Pcap.IP_PROTOCOL_UDP) {
-			transportPacket = Pcap.createUdpPacket(srcPort, dstPort, payload);
-			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_UDP, transportPacket);
+			transportPacket = Pcap.createUdpPacket(srcPort, dstPort, payload, srcIp, dstIp, checksums);
+			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_UDP, transportPacket, checksums);
 		} else if(transport == Pcap.IP_PROTOCOL_TCP) {
-			transportPacket = Pcap.createTcpPacket(srcPort, dstPort, payload, srcIp, dstIp);
-			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket);
+			transportPacket = Pcap.createTcpPacket(srcPort, dstPort, payload, srcIp, dstIp, sequenceState, checksums);
+			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket, checksums);
 		} else if(transport == Pcap.IP_PROTOCOL_SCTP) {
-			transportPacket = Pcap.createSctpPacket(srcPort, dstPort, payload, srcIp, dstIp);
-			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_SCTP, transportPacket);
+			transportPacket = Pcap.createSctpPacket(srcPort, dstPort, payload, srcIp, dstIp, sequenceState, checksums);
+			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_SCTP, transportPacket, checksums);
 		} else {
 			// UDP by default
-			transportPacket = Pcap.createUdpPacket(srcPort, dstPort, payload);
-			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket);
+			transportPacket = Pcap.createUdpPacket(srcPort, dstPort, payload, srcIp, dstIp, checksums);
+			ipPacket = Pcap.createIpv4Packet(srcIp, dstIp, Pcap.IP_PROTOCOL_TCP, transportPacket, checksums);
 		}
 		byte[] ethernetPacket = Pcap.createEthernetPacket(DEFAULT_MAC, DEFAULT_MAC, Pcap.ETHERTYPE_IPV4, ipPacket, vlan);
 		int dateInt = (int) (date.getTime()/1000);
-		byte[] pcapFrame = Pcap.createPcapFrame(dateInt, microseconds, ethernetPacket.length, ethernetPacket);
-		return pcapFrame;
+		if((payloadSavedLength == -1) && (ethernetPacket.length <= snapLength)) {
+			return Pcap.createPcapFrame(dateInt, microseconds, ethernetPacket.length, ethernetPacket);
+		};
+		int savedLength = ethernetPacket.length;
+		if(payloadSavedLength != -1) {
+			// The payload is at the end of the packet, but for the padding of the SCTP DATA chunk
+			int padding = (transport == Pcap.IP_PROTOCOL_SCTP) ? (4 - (16 + payload.length) % 4) % 4 : 0;
+			savedLength = ethernetPacket.length - padding - payload.length + payloadSavedLength;
+		};
+		return Pcap.createCroppedPcapFrame(dateInt, microseconds, ethernetPacket, savedLength, snapLength);
 	}
 
 	/**
-	 * Converts a LogFrame into a PCAP frame
+	 * Converts a LogFrame into a PCAP frame (keeping TCP/SCTP sequence numbers in the default PcapSequenceState)
 	 * @param	logFrame	input LogFrame
 	 * @return				the PCAP frame 
 	 */
-	public static Fn.Function<LogFrame,byte[]> logFrameToPcapFrame = new Fn.Function<LogFrame,byte[]>() {
-		public byte[] apply(LogFrame logFrame) {
-			byte[] transportPacket = null;
-			byte[] tcpPacket = null;
-			byte[] sctpPacket = null;
-			byte[] ipPacket = null;
-			byte[] pcapFrame = null;
-			byte[] payload = null;
-
-			/* Mandatory fields, which we assume are always defined in the logFrame */
-			int year = logFrame.getYear();
-			int month = logFrame.getMonth();
-			int day = logFrame.getDay();
-			int hour = logFrame.getHour();
-			int minutes = logFrame.getMinutes();
-			int seconds = logFrame.getSeconds();
-			int microseconds = logFrame.getMicroseconds();
-
-			/* Optional fields */
-			TimeZone timeZone = logFrame.getTimeZone();
-			if(timeZone == null) timeZone = TimeZone.getDefault();
-			int vlan = logFrame.getVlan();
-			InetAddress srcIp = logFrame.getSrcIp();
-			InetAddress dstIp = logFrame.getDstIp();
-			int transport = logFrame.getTransport();
-			int srcPort = logFrame.getSrcPort();
-			int dstPort = logFrame.getDstPort();
-
-			/* Now preparing the pcapFrame */
-			Date date = createDate(year, month, day, hour, minutes, seconds, timeZone);
-			if(logFrame.getSipLines() != null) {
-				/* This is a SIP message */
-				if(srcIp == null) srcIp = DEFAULT_IP;
-				if(dstIp == null) dstIp = DEFAULT_IP;
-				if(transport == -1) transport = logFrame.inferSipTransport();
-				if(srcPort == -1) srcPort = 5060;
-				if(dstPort == -1) dstPort = 5060;
-				String message = logFrame.getSipMessage();
-				payload = message.getBytes();
-			} else {
-				/* This is a generic event, to be inserted as syslog */
-				vlan = -1;
-				srcIp = DEFAULT_IP;
-				dstIp = DEFAULT_IP;
-				transport = Pcap.IP_PROTOCOL_UDP;
-				srcPort = Pcap.UDP_PROTOCOL_SYSLOG;
-				dstPort = Pcap.UDP_PROTOCOL_SYSLOG;
-				String message = logFrame.getGenericEvent();
-				payload = message.getBytes();
-			};
-			pcapFrame = createGenericPcapFrame(date, microseconds, vlan, srcIp, dstIp, transport, srcPort, dstPort, payload);
-			//System.out.println(logFrame.toString());
-			return pcapFrame;
-		}
-	};
+	public static Fn.Function<LogFrame,byte[]> logFrameToPcapFrame = createLogFrameToPcapFrame(Pcap.getDefaultSequenceState());
+
+	/**
+	 * Returns a function converting LogFrames into PCAP frames, keeping TCP/SCTP sequence numbers in the given
+	 * PcapSequenceState (so every conversion can have its own one)
+	 *
+	 * @param	sequenceState	the PcapSequenceState of the conversion
+	 * @return					the function
+	 */
+	public static Fn.Function<LogFrame,byte[]> createLogFrameToPcapFrame(PcapSequenceState sequenceState) {
+		return createLogFrameToPcapFrame(sequenceState, false, Pcap.DEFAULT_SNAP_LENGTH, false);
+	}
+
+	/**
+	 * Returns a function converting LogFrames into PCAP frames, keeping TCP/SCTP sequence numbers in the given
+	 * PcapSequenceState (so every conversion can have its own one)
+	 *
+	 * @param	sequenceState	the PcapSequenceState of the conversion
+	 * @param	checksums		whether the IP and transport checksums are computed (see Pcap)
+	 * @param	snapLength		the snapshot length (longer frames are cropped to it)
+	 * @param	headersOnly		whether only the headers of the SIP messages are saved (their original length is
+	 *							still that of the whole message)
+	 * @return					the function
+	 */
+	public static Fn.Function<LogFrame,byte[]> createLogFrameToPcapFrame(final PcapSequenceState sequenceState, final boolean checksums, final int snapLength, final boolean headersOnly) {
+		return new Fn.Function<LogFrame,byte[]>() {
+			public byte[] apply(LogFrame logFrame) {
+				FrameTracer frameTracer = FrameTracing.getFrameTracer();
+				if(frameTracer == null) return encode(logFrame);
+				Object trace = frameTracer.beginEncode();
+				byte[] pcapFrame = encode(logFrame);
+				frameTracer.endEncode(trace, logFrame.getLineNumber(), pcapFrame.length);
+				return pcapFrame;
+			}
+
+			private byte[] encode(LogFrame logFrame) {
+				byte[] transportPacket = null;
+				byte[] tcpPacket = null;
+				byte[] sctpPacket = null;
+				byte[] ipPacket = null;
+				byte[] pcapFrame = null;
+				byte[] payload = null;
+				int payloadSavedLength = -1;
+
+				/* Mandatory fields, which we assume are always defined in the logFrame */
+				int year = logFrame.getYear();
+				int month = logFrame.getMonth();
+				int day = logFrame.getDay();
+				int hour = logFrame.getHour();
+				int minutes = logFrame.getMinutes();
+				int seconds = logFrame.getSeconds();
+				int microseconds = logFrame.getMicroseconds();
+
+				/* Optional fields */
+				TimeZone timeZone = logFrame.getTimeZone();
+				if(timeZone == null) timeZone = TimeZone.getDefault();
+				int vlan = logFrame.getVlan();
+				InetAddress srcIp = logFrame.getSrcIp();
+				InetAddress dstIp = logFrame.getDstIp();
+				int transport = logFrame.getTransport();
+				int srcPort = logFrame.getSrcPort();
+				int dstPort = logFrame.getDstPort();
+
+				/* Now preparing the pcapFrame */
+				Date date = createDate(year, month, day, hour, minutes, seconds, timeZone);
+				if(logFrame.getSipLines() != null) {
+					/* This is a SIP message */
+					if(srcIp == null) srcIp = DEFAULT_IP;
+					if(dstIp == null) dstIp = DEFAULT_IP;
+					if(transport == -1) transport = logFrame.inferSipTransport();
+					if(srcPort == -1) srcPort = 5060;
+					if(dstPort == -1) dstPort = 5060;
+					payload = logFrame.getSipMessageBytes();
+					if(headersOnly) {
+						// The body is the end of the payload
+						payloadSavedLength = payload.length - ((logFrame.getSipBody() != null) ? logFrame.getSipBody().length : 0);
+					};
+				} else {
+					/* This is a generic event, to be inserted as syslog */
+					vlan = -1;
+					srcIp = DEFAULT_IP;
+					dstIp = DEFAULT_IP;
+					transport = Pcap.IP_PROTOCOL_UDP;
+					srcPort = Pcap.UDP_PROTOCOL_SYSLOG;
+					dstPort = Pcap.UDP_PROTOCOL_SYSLOG;
+					String message = logFrame.getGenericEvent();
+					payload = message.getBytes();
+				};
+				pcapFrame = createGenericPcapFrame(date, microseconds, vlan, srcIp, dstIp, transport, srcPort, dstPort, payload, payloadSavedLength, sequenceState, checksums, snapLength);
+				//System.out.println(logFrame.toString());
+				return pcapFrame;
+			}
+		};
+	}
 	
+	/** Whether SIP statistics must be computed along with the conversion */
+	private boolean sipStatisticsEnabled = false;
+
+	/** Whether a machine-readable summary must be written next to the PCAP file */
+	private boolean summaryFileEnabled = false;
+
+	/** Whether the time spent in each stage of the conversion is measured (see ConversionMetrics) */
+	private boolean stageTimingEnabled = false;
+
+	/** Whether the IP and transport checksums of the PCAP frames are computed (see PacketChecksums) */
+	private boolean checksumsEnabled = false;
+
+	/** Snapshot length of the PCAP files, to which longer frames are cropped (keeping their whole length as original length) */
+	private int snapLength = Pcap.DEFAULT_SNAP_LENGTH;
+
+	/** Whether only the headers of the SIP messages are saved into their PCAP frames (not their bodies) */
+	private boolean headersOnly = false;
+
+	/** Interval between progress reports (no progress reports if 0) */
+	private long progressIntervalMillis = 10000;
+
+	/** Maximum time PCAP frames are buffered when writing to live outputs (stdout or named pipes) */
+	private long liveFlushIntervalMillis = LiveOutputStream.DEFAULT_LATENCY_MILLIS;
+
+	/** Interval between conversion checkpoints (no checkpoints if 0) */
+	private long checkpointIntervalMillis = 0;
+
+	/** Whether conversions must be resumed from their checkpoint (if any) */
+	private boolean resumeEnabled = false;
+
+	/** Whether the lines rejected by the parser must be written next to the PCAP file (see ParseDiagnostics) */
+	private boolean quarantineEnabled = false;
+
+	/** Sampling of the calls and generic events (null to convert all of them) */
+	private CallSampler callSampler = null;
+
+	/** Reduction of the generic events (null to convert all of them) */
+	private EventFilter eventFilter = null;
+
+	/** Limits of the LogFrames, beyond which their lines are skipped (see LogLinesParser) */
+	private int maxFrameLines = LogLinesParser.DEFAULT_MAX_FRAME_LINES;
+	private int maxFrameBytes = LogLinesParser.DEFAULT_MAX_FRAME_BYTES;
+
+	/** Cache of finished conversions (null if no cache) */
+	private ConversionCache conversionCache = null;
+
+	/** Rules of the outputs written besides the main one (see OutputRouter) */
+	private List<OutputRule> outputRules = new ArrayList<OutputRule>();
+
+	/** File where one record per LogFrame is exported (null for no export, see EventExporter) */
+	private File exportFile = null;
+
+	/** Whether the whole SIP messages are exported too */
+	private boolean exportRawMessages = false;
+
+	/** Key of the anonymization of the LogFrames (null for no anonymization, see Anonymizer) */
+	private String anonymizationKey = null;
+
+	/** Metrics of the last (or current) processLogFile() run */
+	private ConversionMetrics metrics = null;
+
+	/**
+	 * Sets whether SIP statistics must be computed along with the conversion. If so, they
+	 * are written next to the PCAP file (.sipstats.json and .sipstats.csv files)
+	 *
+	 * @param	sipStatisticsEnabled	whether SIP statistics must be computed
+	 */
+	public void setSipStatisticsEnabled(boolean sipStatisticsEnabled) {
+		this.sipStatisticsEnabled = sipStatisticsEnabled;
+	}
+
+	/**
+	 * Sets whether a machine-readable (JSON) summary of the run must be written next to
+	 * the PCAP file (.summary.json file)
+	 *
+	 * @param	summaryFileEnabled	whether the summary file must be written
+	 */
+	public void setSummaryFileEnabled(boolean summaryFileEnabled) {
+		this.summaryFileEnabled = summaryFileEnabled;
+	}
+
+	/**
+	 * Sets whether the time spent reading, parsing, encoding and writing is measured, which costs some
+	 * clock readings per line and per frame (always measured if a summary file is written)
+	 *
+	 * @param	stageTimingEnabled	whether the stage times are measured
+	 */
+	public void setStageTimingEnabled(boolean stageTimingEnabled) {
+		this.stageTimingEnabled = stageTimingEnabled;
+	}
+
+	/**
+	 * Returns whether the time spent reading, parsing, encoding and writing is measured
+	 *
+	 * @return	whether the stage times are measured
+	 */
+	public boolean isStageTimingEnabled() {
+		return this.stageTimingEnabled;
+	}
+
+	/**
+	 * Sets whether the IPv4 header, UDP, TCP and SCTP checksums of the PCAP frames are computed (they are zeros
+	 * otherwise, which Wireshark does not check by default)
+	 *
+	 * @param	checksumsEnabled	whether the checksums are computed
+	 */
+	public void setChecksumsEnabled(boolean checksumsEnabled) {
+		this.checksumsEnabled = checksumsEnabled;
+	}
+
+	/**
+	 * Returns whether the IPv4 header, UDP, TCP and SCTP checksums of the PCAP frames are computed
+	 *
+	 * @return	whether the checksums are computed
+	 */
+	public boolean isChecksumsEnabled() {
+		return this.checksumsEnabled;
+	}
+
+	/**
+	 * Sets the snapshot length, written into the PCAP file headers: longer frames are cropped to it, keeping
+	 * their whole length as their original length, as a capture with that snapshot length would
+	 *
+	 * @param	snapLength	the maximum length of the captured frames (bytes)
+	 */
+	public void setSnapLength(int snapLength) {
+		this.snapLength = snapLength;
+	}
+
+	/**
+	 * Returns the snapshot length of the PCAP files
+	 *
+	 * @return	the maximum length of the captured frames (bytes)
+	 */
+	public int getSnapLength() {
+		return this.snapLength;
+	}
+
+	/**
+	 * Sets whether only the headers of the SIP messages are saved into their PCAP frames (not their bodies)
+	 *
+	 * @param	headersOnly	whether the bodies are left out
+	 */
+	public void setHeadersOnly(boolean headersOnly) {
+		this.headersOnly = headersOnly;
+	}
+
+	/**
+	 * Returns whether only the headers of the SIP messages are saved into their PCAP frames
+	 *
+	 * @return	whether the bodies are left out
+	 */
+	public boolean isHeadersOnly() {
+		return this.headersOnly;
+	}
+
+	/**
+	 * Returns a function converting LogFrames into PCAP frames with the settings of this AppCore (checksums,
+	 * snapshot length and headers only), keeping TCP/SCTP sequence numbers in the given PcapSequenceState
+	 *
+	 * @param	sequenceState	the PcapSequenceState of the conversion
+	 * @return					the function
+	 */
+	Fn.Function<LogFrame,byte[]> createEncoder(PcapSequenceState sequenceState) {
+		return createLogFrameToPcapFrame(sequenceState, this.checksumsEnabled, this.snapLength, this.headersOnly);
+	}
+
+	/**
+	 * Returns the PCAP file header of the PCAP files written with the settings of this AppCore
+	 *
+	 * @return	the PCAP file header
+	 */
+	byte[] createPcapFileHeader() {
+		return Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET, this.snapLength);
+	}
+
+	/**
+	 * Sets the interval between progress reports
+	 *
+	 * @param	progressIntervalMillis	the interval in milliseconds (0 for no progress reports)
+	 */
+	public void setProgressIntervalMillis(long progressIntervalMillis) {
+		this.progressIntervalMillis = progressIntervalMillis;
+	}
+
+	/**
+	 * Sets the maximum time PCAP frames are buffered when writing to live outputs (stdout or named pipes)
+	 *
+	 * @param	liveFlushIntervalMillis	the maximum time in milliseconds (0 to flush every frame)
+	 */
+	public void setLiveFlushIntervalMillis(long liveFlushIntervalMillis) {
+		this.liveFlushIntervalMillis = liveFlushIntervalMillis;
+	}
+
+	/**
+	 * Sets the interval between conversion checkpoints (see ConversionCheckpoint), which are written
+	 * next to the PCAP file when converting a log file into a PCAP file (not for live outputs)
+	 *
+	 * @param	checkpointIntervalMillis	the interval in milliseconds (0 for no checkpoints)
+	 */
+	public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+
+	/**
+	 * Sets whether conversions must be resumed from the checkpoint next to their PCAP file (if any)
+	 * instead of starting from scratch (checkpoints must be enabled, see setCheckpointIntervalMillis())
+	 *
+	 * @param	resumeEnabled	whether conversions must be resumed
+	 */
+	public void setResumeEnabled(boolean resumeEnabled) {
+		this.resumeEnabled = resumeEnabled;
+	}
+
+	/**
+	 * Sets whether the entries rejected by the parser (header lines which could not be parsed, along with their
+	 * following lines) must be written to a quarantine file next to the PCAP file (<output_pcap_file>.quarantine),
+	 * along with their byte offsets
+	 *
+	 * @param	quarantineEnabled	whether the quarantine file must be written
+	 */
+	public void setQuarantineEnabled(boolean quarantineEnabled) {
+		this.quarantineEnabled = quarantineEnabled;
+	}
+
+	/**
+	 * Sets the sampling of the calls and generic events of conversions (see CallSampler)
+	 *
+	 * @param	callSampler	the sampling (null to convert all calls and generic events)
+	 */
+	public void setCallSampler(CallSampler callSampler) {
+		this.callSampler = callSampler;
+	}
+
+	/**
+	 * Sets the reduction (drop, filter or coalescing) of the generic events of conversions (see EventFilter)
+	 *
+	 * @param	eventFilter	the reduction (null to convert all generic events)
+	 */
+	public void setEventFilter(EventFilter eventFilter) {
+		this.eventFilter = eventFilter;
+	}
+
+	/**
+	 * Sets the limits of the LogFrames of conversions, so a missing end of message or a giant multi-line entry
+	 * does not fill the memory (the LogFrames beyond them are truncated and reported as parse failures)
+	 *
+	 * @param	maxFrameLines	the maximum number of lines of a LogFrame
+	 * @param	maxFrameBytes	the maximum number of input bytes of a LogFrame (and of a line)
+	 */
+	public void setFrameLimits(int maxFrameLines, int maxFrameBytes) {
+		this.maxFrameLines = maxFrameLines;
+		this.maxFrameBytes = maxFrameBytes;
+	}
+
+	/**
+	 * Returns the maximum number of lines of a LogFrame (see setFrameLimits())
+	 *
+	 * @return	the maximum number of lines
+	 */
+	public int getMaxFrameLines() {
+		return this.maxFrameLines;
+	}
+
+	/**
+	 * Returns the maximum number of input bytes of a LogFrame (see setFrameLimits())
+	 *
+	 * @return	the maximum number of bytes
+	 */
+	public int getMaxFrameBytes() {
+		return this.maxFrameBytes;
+	}
+
+	/**
+	 * Adds an output written besides the main one by processLogFile(), with the PCAP frames matching its rule
+	 * (see OutputRouter). Outputs are not used by batch jobs (nor by any other kind of processing), and the
+	 * conversions with outputs are neither cached nor checkpointed
+	 *
+	 * @param	outputRule	the rule of the output
+	 */
+	public void addOutputRule(OutputRule outputRule) {
+		this.outputRules.add(outputRule);
+	}
+
+	/**
+	 * Sets the file where processLogFile() exports one record per LogFrame, as JSON Lines or as CSV (.csv
+	 * files), see EventExporter. The export is not used by batch jobs (nor by any other kind of processing),
+	 * and the conversions with an export are neither cached nor checkpointed
+	 *
+	 * @param	exportFile	the export file (null for no export)
+	 */
+	public void setExportFile(File exportFile) {
+		this.exportFile = exportFile;
+	}
+
+	/**
+	 * Sets whether the whole SIP messages are exported too (see setExportFile())
+	 *
+	 * @param	exportRawMessages	whether the SIP messages are exported
+	 */
+	public void setExportRawMessages(boolean exportRawMessages) {
+		this.exportRawMessages = exportRawMessages;
+	}
+
+	/**
+	 * Sets the anonymization of the LogFrames of conversions and ring buffer captures (see Anonymizer). Conversions
+	 * with anonymization are not cached
+	 *
+	 * @param	enabled	whether the LogFrames are anonymized
+	 * @param	key		the key of the pseudonyms (null for a random one, shared by all the conversions of this object)
+	 */
+	public void setAnonymization(boolean enabled, String key) {
+		if(enabled && (key == null)) {
+			byte[] randomKey = new byte[32];
+			new java.security.SecureRandom().nextBytes(randomKey);
+			key = ByteUtils.bytesToHexString(randomKey);
+		};
+		this.anonymizationKey = enabled ? key : null;
+	}
+
+	/**
+	 * Returns the report of an anonymization: the number of IP addresses anonymized and of IP pseudonym collisions
+	 * (the addresses which were hashed again, see Anonymizer)
+	 *
+	 * @param	anonymizer	the Anonymizer of the conversion
+	 * @return				the report
+	 */
+	private static String toAnonymizationString(Anonymizer anonymizer) {
+		return "IP addresses anonymized: " + Long.toString(anonymizer.getAnonymizedIps()) + " (" + Long.toString(anonymizer.getIpCollisions()) + " pseudonym collisions, hashed again)\r\n";
+	}
+
+	/**
+	 * Sets the cache of finished conversions, used by processLogFile() and processBatch()
+	 *
+	 * @param	conversionCache	the conversion cache (null for no cache)
+	 */
+	public void setConversionCache(ConversionCache conversionCache) {
+		this.conversionCache = conversionCache;
+	}
+
+	/**
+	 * Returns the metrics of the last (or current) processLogFile() run
+	 *
+	 * @return	the metrics (null if processLogFile() was never run)
+	 */
+	public ConversionMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Returns a function converting LogFrames into PCAP frames (as logFrameToPcapFrame does)
+	 * while updating the conversion metrics, reporting progress and updating the SIP statistics (if any)
+	 *
+	 * @param	encoder			the function converting LogFrames into PCAP frames
+	 * @param	metrics			the conversion metrics
+	 * @param	sipStatistics	the SIP statistics to update (null if not needed)
+	 * @return					the function
+	 */
+	private Fn.Function<LogFrame,byte[]> instrumentedLogFrameToPcapFrame(final Fn.Function<LogFrame,byte[]> encoder, final ConversionMetrics metrics, final SipStatistics sipStatistics) {
+		return new Fn.Function<LogFrame,byte[]>() {
+			private SipStatistics statistics = sipStatistics;
+			private long lastProgressMillis = System.currentTimeMillis();
+			public byte[] apply(LogFrame logFrame) {
+				if(this.statistics != null) {
+					try {
+						this.statistics.update(logFrame);
+					} catch(IOException e) {
+						AppCore.this.onTextOutput("ERROR:  Exception when writing SIP statistics, so they will not be completed");
+						this.statistics = null;
+					};
+				};
+				if(AppCore.this.progressIntervalMillis > 0) {
+					long nowMillis = System.currentTimeMillis();
+					if((nowMillis - this.lastProgressMillis) >= AppCore.this.progressIntervalMillis) {
+						this.lastProgressMillis = nowMillis;
+						AppCore.this.onTextOutput(metrics.toProgressString());
+					};
+				};
+				long t0 = metrics.nanoTime();
+				byte[] pcapFrame = encoder.apply(logFrame);
+				metrics.addEncodeNanos(metrics.nanoTime() - t0);
+				return pcapFrame;
+			}
+		};
+	}
+
+	/**
+	 * Writes a string into the given file.
+	 *
+	 * @param	string			the string to write
+	 * @param	outputFilePath	path to the output file
+	 * @return					the result of the operation
+	 */
+	private boolean writeToFile(String string, String outputFilePath){
+		return writeToFile(Fn.iteratorOf(string.getBytes()), outputFilePath, null);
+	}
+
 	/**
 	 * Handles Text Output Event
 	 *
@@ -173,27 +663,183 @@ public abstract class AppCore {
 	 *
 	 * @param	bytesIterable	iterable of byte arrays
 	 * @param	outputFilePath	path to the output file
+	 * @param	metrics			the conversion metrics to update with the writing time and bytes (null if none)
 	 * @return					the result of the operation
 	 */
-	private boolean writeToFile(Iterator<byte[]> bytesIterator, String outputFilePath){
+	private boolean writeToFile(Iterator<byte[]> bytesIterator, String outputFilePath, ConversionMetrics metrics){
 		boolean success = false;
 		try {
 			OutputStream outputStream = null;
 			try {
 				outputStream = new BufferedOutputStream(new FileOutputStream(outputFilePath));
+				success = writeToStream(bytesIterator, outputStream, outputFilePath, metrics);
+			} finally {
+				if(outputStream != null) {
+					outputStream.close();
+				}
+			}
+		} catch(FileNotFoundException e){
+			onTextOutput("ERROR:  Failed to open output file " + outputFilePath);
+		} catch(IOException e){
+			onTextOutput("ERROR:  Exception when working with output file " + outputFilePath);
+			success = false;
+		}
+		return success;
+	}
+
+	/**
+	 * Writes a stream of byte arrays into the given file, writing a checkpoint of the conversion every
+	 * checkpoint interval (once the data written so far is synced to disk, so the checkpoint never
+	 * refers to data which might be lost)
+	 *
+	 * @param	bytesIterable	iterable of byte arrays
+	 * @param	outputFilePath	path to the output file
+	 * @param	resumeLength	the length the output file is truncated to before appending (-1 to overwrite it)
+	 * @param	metrics			the conversion metrics to update with the writing time and bytes (null if none)
+	 * @param	checkpoints		function returning the checkpoint for the given output length (null if none yet)
+	 * @param	checkpointFile	the checkpoint file
+	 * @return					the result of the operation
+	 */
+	private boolean writeToFileWithCheckpoints(Iterator<byte[]> bytesIterator, String outputFilePath, long resumeLength, ConversionMetrics metrics, Fn.Function<Long,ConversionCheckpoint> checkpoints, File checkpointFile){
+		boolean success = false;
+		try {
+			FileOutputStream fileOutputStream = null;
+			OutputStream outputStream = null;
+			try {
+				if(resumeLength >= 0) {
+					RandomAccessFile randomAccessFile = new RandomAccessFile(outputFilePath, "rw");
+					try {
+						randomAccessFile.setLength(resumeLength);
+					} finally {
+						randomAccessFile.close();
+					}
+					fileOutputStream = new FileOutputStream(outputFilePath, true);
+				} else {
+					fileOutputStream = new FileOutputStream(outputFilePath);
+				};
+				outputStream = new BufferedOutputStream(fileOutputStream);
+				long outputLength = Math.max(resumeLength, 0);
+				long lastCheckpointMillis = System.currentTimeMillis();
+				byte[] bytes = null;
+				long t0;
 				while(bytesIterator.hasNext()){
-					outputStream.write(bytesIterator.next());
+					bytes = bytesIterator.next();
+					t0 = (metrics != null) ? metrics.nanoTime() : 0;
+					outputStream.write(bytes);
+					outputLength += bytes.length;
+					if(metrics != null) metrics.addWrite(metrics.nanoTime() - t0, bytes.length);
+					long nowMillis = System.currentTimeMillis();
+					if((nowMillis - lastCheckpointMillis) >= this.checkpointIntervalMillis) {
+						lastCheckpointMillis = nowMillis;
+						ConversionCheckpoint checkpoint = checkpoints.apply(Long.valueOf(outputLength));
+						if(checkpoint != null) {
+							outputStream.flush();
+							fileOutputStream.getFD().sync();
+							try {
+								checkpoint.write(checkpointFile);
+							} catch(IOException e) {
+								onTextOutput("WARNING: Failed to write checkpoint file " + checkpointFile.getPath() + " (" + e.getMessage() + ")");
+							};
+						};
+					};
 				}
+				outputStream.flush();
 				success = true;
 			} finally {
 				if(outputStream != null) {
 					outputStream.close();
+				} else if(fileOutputStream != null) {
+					fileOutputStream.close();
 				}
 			}
 		} catch(FileNotFoundException e){
 			onTextOutput("ERROR:  Failed to open output file " + outputFilePath);
 		} catch(IOException e){
 			onTextOutput("ERROR:  Exception when working with output file " + outputFilePath);
+			success = false;
+		}
+		return success;
+	}
+
+	/**
+	 * Returns whether the given output path is a live output, that is stdout or a named pipe (or any other
+	 * existing file which is not a regular one), which are written through a LiveOutputStream
+	 *
+	 * @param	outputPath	the output path
+	 * @return				whether it is a live output
+	 */
+	public static boolean isLiveOutput(String outputPath) {
+		File outputFile = new File(outputPath);
+		return outputPath.equals(STDIO_PATH) || (outputFile.exists() && !outputFile.isFile() && !outputFile.isDirectory());
+	}
+
+	/**
+	 * Writes a stream of byte arrays into a live output (see isLiveOutput()), so they are flushed with
+	 * the live flush interval. If the reader of the live output goes away, writing stops (but it is not
+	 * considered a failure, as that is the way a live capture ends when the user closes Wireshark)
+	 *
+	 * @param	bytesIterable	iterable of byte arrays
+	 * @param	outputPath		the output path
+	 * @param	metrics			the conversion metrics to update with the writing time and bytes (null if none)
+	 * @return					the result of the operation
+	 */
+	private boolean writeToLiveOutput(Iterator<byte[]> bytesIterator, String outputPath, ConversionMetrics metrics){
+		boolean success = false;
+		try {
+			OutputStream outputStream = null;
+			try {
+				if(outputPath.equals(STDIO_PATH)) {
+					// Not System.out, as PrintStream objects hide IOExceptions (and so the reader going away)
+					outputStream = new LiveOutputStream(new FileOutputStream(FileDescriptor.out), this.liveFlushIntervalMillis);
+				} else {
+					outputStream = new LiveOutputStream(new FileOutputStream(outputPath), this.liveFlushIntervalMillis);
+				};
+				success = true;
+				byte[] bytes = null;
+				long t0;
+				while(bytesIterator.hasNext()){
+					bytes = bytesIterator.next();
+					t0 = (metrics != null) ? metrics.nanoTime() : 0;
+					outputStream.write(bytes);
+					if(metrics != null) metrics.addWrite(metrics.nanoTime() - t0, bytes.length);
+				}
+			} finally {
+				if(outputStream != null) {
+					outputStream.close();
+				}
+			}
+		} catch(FileNotFoundException e){
+			onTextOutput("ERROR:  Failed to open output file " + outputPath);
+		} catch(IOException e){
+			onTextOutput("Output " + outputPath + " closed by its reader, so conversion stopped (" + e.getMessage() + ")\r\n");
+		}
+		return success;
+	}
+
+	/**
+	 * Writes a stream of byte arrays into the given output stream (which is flushed but not closed)
+	 *
+	 * @param	bytesIterable	iterable of byte arrays
+	 * @param	outputStream	the output stream
+	 * @param	outputName		the name of the output (for error messages)
+	 * @param	metrics			the conversion metrics to update with the writing time and bytes (null if none)
+	 * @return					the result of the operation
+	 */
+	private boolean writeToStream(Iterator<byte[]> bytesIterator, OutputStream outputStream, String outputName, ConversionMetrics metrics){
+		boolean success = false;
+		try {
+			byte[] bytes = null;
+			long t0;
+			while(bytesIterator.hasNext()){
+				bytes = bytesIterator.next();
+				t0 = (metrics != null) ? metrics.nanoTime() : 0;
+				outputStream.write(bytes);
+				if(metrics != null) metrics.addWrite(metrics.nanoTime() - t0, bytes.length);
+			}
+			outputStream.flush();
+			success = true;
+		} catch(IOException e){
+			onTextOutput("ERROR:  Exception when working with output file " + outputName);
 		}
 		return success;
 	}
@@ -206,7 +852,7 @@ public abstract class AppCore {
 	 * @return					the result of the operation
 	 */
 	private boolean writeToFile(Iterable<byte[]> bytesIterable, String outputFilePath){
-		return writeToFile(bytesIterable.iterator(), outputFilePath);
+		return writeToFile(bytesIterable.iterator(), outputFilePath, null);
 	}
 	
 	/**
@@ -218,28 +864,708 @@ public abstract class AppCore {
 	 * @param	pcapFile 	the output PCAP file to generate
 	 */
 	public void processLogFile(LogFrameParser parser, File logFile, File pcapFile) {
-		String result = null;
-		String summary = null;
-		Iterator<String> logLines = null;
+		processLogFile(parser, logFile, pcapFile, null);
+	}
+
+	/**
+	 * Processess a log File, creating a PCAP file and generating events to be handled by onTextOutput()
+	 * and onFinished() methods, using the conversion cache (if set)
+	 *
+	 * @param	parser			the parser of the input log file
+	 * @param	logFile			the input log file to read
+	 * @param	pcapFile 		the output PCAP file to generate
+	 * @param	conversionId	the conversion identifier for the conversion cache (null not to use the cache)
+	 */
+	public void processLogFile(LogFrameParser parser, File logFile, File pcapFile, String conversionId) {
 		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		convertLogFile(parser, logFile, pcapFile, conversionId);
+		this.onFinish(1);
+	}
+
+	/**
+	 * Converts a log file into a PCAP file, generating events to be handled by onTextOutput()
+	 * Every call uses its own parsing, metrics and TCP/SCTP sequence number state, so several
+	 * conversions can run at the same time (see processBatch())
+	 * The conversion cache (if any) is not used when SIP statistics, summary or quarantine files are enabled,
+	 * as it only keeps PCAP files, nor when the output is a live one, nor when the conversion is resumed from a checkpoint
+	 *
+	 * @param	parser			the parser of the input log file
+	 * @param	logFile			the input log file to read
+	 * @param	pcapFile 		the output PCAP file to generate
+	 * @param	conversionId	the conversion identifier for the conversion cache (null not to use the cache)
+	 * @return					whether the conversion succeeded
+	 */
+	boolean convertLogFile(LogFrameParser parser, File logFile, File pcapFile, String conversionId) {
+		if((conversionId != null) && (this.callSampler != null)) conversionId = conversionId + " " + this.callSampler.getId();
+		if((conversionId != null) && (this.eventFilter != null)) conversionId = conversionId + " " + this.eventFilter.getId();
+		if((conversionId != null) && this.checksumsEnabled) conversionId = conversionId + " checksums";
+		if((conversionId != null) && (this.snapLength != Pcap.DEFAULT_SNAP_LENGTH)) conversionId = conversionId + " snaplen=" + Integer.toString(this.snapLength);
+		if((conversionId != null) && this.headersOnly) conversionId = conversionId + " headers-only";
+		if((conversionId != null) && ((this.maxFrameLines != LogLinesParser.DEFAULT_MAX_FRAME_LINES) || (this.maxFrameBytes != LogLinesParser.DEFAULT_MAX_FRAME_BYTES))) {
+			conversionId = conversionId + " frame-limits=" + Integer.toString(this.maxFrameLines) + "," + Integer.toString(this.maxFrameBytes) + "B";
+		};
+		ConversionCache cache = this.conversionCache;
+		if((conversionId == null) || this.sipStatisticsEnabled || this.summaryFileEnabled || this.quarantineEnabled || !this.outputRules.isEmpty() || (this.exportFile != null) || (this.anonymizationKey != null)) cache = null;
+		// A live output (stdout or a named pipe) can neither be read back to be stored nor replaced by a cached file
+		if(isLiveOutput(pcapFile.getPath())) cache = null;
+		if(logFile.getPath().equals(STDIO_PATH)) {
+			return convertLogLines(parser, new LineIterator(System.in, "<stdin>", -1), null, pcapFile.getPath());
+		};
+		File checkpointFile = null;
+		ConversionCheckpoint checkpoint = null;
+		// The outputs of the output rules and the export cannot be resumed, so they are written from scratch every time
+		if((this.checkpointIntervalMillis > 0) && !isLiveOutput(pcapFile.getPath()) && this.outputRules.isEmpty() && (this.exportFile == null)) {
+			checkpointFile = ConversionCheckpoint.getCheckpointFile(pcapFile);
+			if(this.resumeEnabled && checkpointFile.exists()) {
+				String reason = null;
+				try {
+					checkpoint = ConversionCheckpoint.read(checkpointFile);
+					reason = checkpoint.validate(conversionId, logFile, pcapFile);
+				} catch(IOException e) {
+					reason = e.getMessage();
+				};
+				if(reason != null) {
+					this.onTextOutput("WARNING: Cannot resume from " + checkpointFile.getPath() + " (" + reason + "), so starting from scratch");
+					checkpoint = null;
+				};
+			} else if(this.resumeEnabled) {
+				this.onTextOutput("No checkpoint found at " + checkpointFile.getPath() + ", so starting from scratch\r\n");
+			};
+		};
+		if(checkpoint != null) cache = null;
+		if(cache != null) {
+			try {
+				File cachedPcapFile = cache.lookup(conversionId, logFile);
+				if(cachedPcapFile != null) {
+					ConversionMetrics metrics = new ConversionMetrics(logFile.getPath(), logFile.length());
+					this.metrics = metrics;
+					metrics.start();
+					this.onTextOutput("Found in conversion cache, writing to " + pcapFile.getPath() + " ...\r\n");
+					long t0 = System.nanoTime();
+					ConversionCache.copy(cachedPcapFile, pcapFile);
+					metrics.addWrite(System.nanoTime() - t0, pcapFile.length());
+					metrics.finish();
+					this.onTextOutput("Bytes written: " + Long.toString(metrics.getBytesWritten()) + "\r\n" + "Time: " + Long.toString(metrics.getElapsedMillis()) + " ms\r\n");
+					this.onTextOutput("FINISHED!");
+					return true;
+				};
+			} catch(IOException e) {
+				this.onTextOutput("WARNING: Conversion cache not available (" + e.toString() + ")");
+				cache = null;
+			};
+		};
+		LineIterator logLines = null;
+		ConversionCache.ChunkedDigest digest = null;
 		try {
-			logLines = new LineIterator(logFile);
+			if(cache != null) {
+				digest = new ConversionCache.ChunkedDigest();
+				logLines = new LineIterator(new ConversionCache.ChunkedDigestInputStream(new FileInputStream(logFile), digest), logFile.getPath(), logFile.length());
+			} else if(checkpoint != null) {
+				logLines = new LineIterator(logFile, checkpoint.getInputOffset());
+			} else {
+				logLines = new LineIterator(logFile);
+			};
+		} catch(FileNotFoundException e) {
+			this.onTextOutput(new RuntimeException("Failed to create BufferedReader for " + logFile.getPath(), e).toString());
+			return false;
 		} catch(RuntimeException e) {
 			e.printStackTrace();
 			this.onTextOutput(e.toString());
-			this.onFinish(1);
+			return false;
 		}
+		boolean success = convertLogLines(parser, logLines, null, pcapFile.getPath(), conversionId, checkpointFile, checkpoint);
+		if(success && (checkpointFile != null)) checkpointFile.delete();
+		if(success && (digest != null) && (digest.getLength() == logFile.length())) {
+			try {
+				if(cache.store(conversionId, digest, pcapFile)) {
+					this.onTextOutput("Stored in conversion cache " + cache.getDirectory().getPath() + "\r\n");
+				};
+			} catch(IOException e) {
+				this.onTextOutput("WARNING: Failed to store in conversion cache (" + e.toString() + ")");
+			};
+		};
+		return success;
+	}
+
+	/**
+	 * Converts log lines into PCAP data written to a file or to an output stream, generating events to be
+	 * handled by onTextOutput(). SIP statistics and summary files (if enabled) are written next to outputPath
+	 *
+	 * @param	parser			the parser of the log lines
+	 * @param	logLines		the log lines
+	 * @param	outputStream	the output stream to write to (null to write to the outputPath file)
+	 * @param	outputPath		the path of the output PCAP file (or the name of the output stream)
+	 * @return					whether the conversion succeeded
+	 */
+	boolean convertLogLines(LogFrameParser parser, LineIterator logLines, OutputStream outputStream, String outputPath) {
+		return convertLogLines(parser, logLines, outputStream, outputPath, null, null, null);
+	}
+
+	/**
+	 * Converts log lines into PCAP data (as convertLogLines() above does), writing checkpoints of the conversion
+	 * to checkpointFile (if not null) and resuming the conversion from a checkpoint (if not null)
+	 *
+	 * @param	parser			the parser of the log lines
+	 * @param	logLines		the log lines (starting at the input offset of the checkpoint, if any)
+	 * @param	outputStream	the output stream to write to (null to write to the outputPath file)
+	 * @param	outputPath		the path of the output PCAP file (or the name of the output stream)
+	 * @param	conversionId	the conversion identifier to record in the checkpoints (null if unknown)
+	 * @param	checkpointFile	the checkpoint file (null for no checkpoints, which requires writing to the outputPath file)
+	 * @param	checkpoint		the checkpoint to resume the conversion from (null to start from scratch)
+	 * @return					whether the conversion succeeded
+	 */
+	private boolean convertLogLines(LogFrameParser parser, final LineIterator logLines, OutputStream outputStream, String outputPath, final String conversionId, File checkpointFile, final ConversionCheckpoint checkpoint) {
+		String summary = null;
+		ConversionMetrics metrics = new ConversionMetrics(logLines.getName(), logLines.getLength());
+		ParseDiagnostics parseDiagnostics = new ParseDiagnostics();
+		parseDiagnostics.setTextOutput(this);
+		parseDiagnostics.setLineOffsets(logLines);
+		if(this.quarantineEnabled) {
+			try {
+				// A resumed conversion goes on with the quarantine file of the interrupted one
+				parseDiagnostics.setQuarantineWriter(new BufferedWriter(new FileWriter(outputPath + ParseDiagnostics.QUARANTINE_EXTENSION, checkpoint != null)));
+			} catch(IOException e) {
+				this.onTextOutput("ERROR:  Failed to open output file " + outputPath + ParseDiagnostics.QUARANTINE_EXTENSION);
+			};
+		};
+		parser.setParseDiagnostics(parseDiagnostics);
+		metrics.setParseDiagnostics(parseDiagnostics);
+		metrics.setStageTiming(this.stageTimingEnabled || this.summaryFileEnabled);
+		this.metrics = metrics;
+		metrics.registerMBean();
+		metrics.start();
 		LogLinesParser logLinesParser = new LogLinesParser(parser);
-		Iterator<LogFrame> logFrames = logLinesParser.parse(logLines);
-		Iterator<byte[]> pcapFrames = Fn.map(logFrames, logFrameToPcapFrame);
-		byte[] pcapFileHeader = Pcap.createPcapFileHeader(Pcap.LINKTYPE_ETHERNET);
-		this.onTextOutput("Writing to " + pcapFile.getPath() + " ...\r\n");
-		if(writeToFile(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), pcapFile.getPath())) {
+		logLinesParser.setFrameLimits(this.maxFrameLines, this.maxFrameBytes);
+		logLinesParser.setParseDiagnostics(parseDiagnostics);
+		long firstLineNumber = (checkpoint != null) ? checkpoint.getInputLineNumber() : 0;
+		Iterator<LogFrame> logFrames = metrics.meterLogFrames(logLinesParser.parse(metrics.meterLines(logLines), logLines, firstLineNumber));
+		if(this.eventFilter != null) logFrames = this.eventFilter.filter(logFrames, metrics);
+		if(this.callSampler != null) logFrames = this.callSampler.sample(logFrames, metrics);
+		Anonymizer anonymizer = null;
+		if(this.anonymizationKey != null) {
+			anonymizer = new Anonymizer(this.anonymizationKey, Anonymizer.DEFAULT_MAX_CACHE_ENTRIES);
+			logFrames = anonymizer.anonymize(logFrames);
+		};
+		EventExporter eventExporter = null;
+		if(this.exportFile != null) {
+			try {
+				eventExporter = new EventExporter(new FileOutputStream(this.exportFile), EventExporter.getFormat(this.exportFile.getName()), this.exportRawMessages);
+				logFrames = eventExporter.export(logFrames);
+			} catch(IOException e) {
+				this.onTextOutput("ERROR:  Failed to open output file " + this.exportFile.getPath());
+				eventExporter = null;
+			};
+		};
+		SipStatistics sipStatistics = null;
+		Writer sipStatisticsCsvWriter = null;
+		if(this.sipStatisticsEnabled) {
+			try {
+				sipStatisticsCsvWriter = new BufferedWriter(new FileWriter(outputPath + ".sipstats.csv"));
+				sipStatistics = new SipStatistics(SipStatistics.DEFAULT_MAX_OPEN_TRANSACTIONS, SipStatistics.DEFAULT_TRANSACTION_TIMEOUT_MILLIS, sipStatisticsCsvWriter);
+				sipStatistics.start();
+			} catch(IOException e) {
+				this.onTextOutput("ERROR:  Failed to open output file " + outputPath + ".sipstats.csv");
+				sipStatistics = null;
+			};
+		};
+		final PcapSequenceState sequenceState = new PcapSequenceState();
+		if(checkpoint != null) checkpoint.restoreSequenceState(sequenceState);
+		OutputRouter outputRouter = null;
+		if(!this.outputRules.isEmpty()) {
+			outputRouter = new OutputRouter(this, this.outputRules);
+			outputRouter.open();
+		};
+		final Fn.Function<LogFrame,byte[]> encoder = (outputRouter != null) ? outputRouter.route(createEncoder(sequenceState)) : createEncoder(sequenceState);
+		// The last LogFrame encoded (so written once its PCAP frame is written) and the number of frames encoded
+		final LogFrame[] lastEncodedLogFrame = new LogFrame[1];
+		final long[] encodedFrames = new long[] { (checkpoint != null) ? checkpoint.getFrames() : 0 };
+		Fn.Function<LogFrame,byte[]> trackingEncoder = new Fn.Function<LogFrame,byte[]>() {
+			public byte[] apply(LogFrame logFrame) {
+				byte[] pcapFrame = encoder.apply(logFrame);
+				lastEncodedLogFrame[0] = logFrame;
+				encodedFrames[0]++;
+				return pcapFrame;
+			}
+		};
+		Iterator<byte[]> pcapFrames = Fn.map(logFrames, instrumentedLogFrameToPcapFrame(trackingEncoder, metrics, sipStatistics));
+		byte[] pcapFileHeader = createPcapFileHeader();
+		boolean success = false;
+		if(checkpointFile != null) {
+			if(checkpoint != null) {
+				this.onTextOutput("Resuming from checkpoint " + checkpointFile.getPath() + " (line " + Long.toString(checkpoint.getInputLineNumber() + 1) + ", " + Long.toString(checkpoint.getFrames()) + " frames already written) ...\r\n");
+			};
+			this.onTextOutput("Writing to " + outputPath + " ...\r\n");
+			Fn.Function<Long,ConversionCheckpoint> checkpoints = new Fn.Function<Long,ConversionCheckpoint>() {
+				public ConversionCheckpoint apply(Long outputLength) {
+					LogFrame logFrame = lastEncodedLogFrame[0];
+					if(logFrame == null) return null;
+					return new ConversionCheckpoint(conversionId, logLines.getName(), logFrame.getInputEndOffset(), logFrame.getInputEndLineNumber(), outputLength.longValue(), encodedFrames[0], sequenceState);
+				}
+			};
+			if(checkpoint != null) {
+				success = writeToFileWithCheckpoints(pcapFrames, outputPath, checkpoint.getOutputLength(), metrics, checkpoints, checkpointFile);
+			} else {
+				success = writeToFileWithCheckpoints(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), outputPath, -1, metrics, checkpoints, checkpointFile);
+			};
+		} else if((outputStream == null) && isLiveOutput(outputPath)) {
+			this.onTextOutput("Writing to " + outputPath + " ...\r\n");
+			success = writeToLiveOutput(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), outputPath, metrics);
+		} else if(outputStream == null) {
+			this.onTextOutput("Writing to " + outputPath + " ...\r\n");
+			success = writeToFile(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), outputPath, metrics);
+		} else {
+			this.onTextOutput("Writing to " + outputPath + " ...\r\n");
+			success = writeToStream(Fn.concat(Fn.iteratorOf(pcapFileHeader), pcapFrames), outputStream, outputPath, metrics);
+		};
+		logLines.close();
+		if((outputRouter != null) && !outputRouter.close()) success = false;
+		if(eventExporter != null) {
+			try {
+				eventExporter.close();
+			} catch(IOException e) {
+				if(eventExporter.getFailure() == null) this.onTextOutput("ERROR:  Exception when writing output file " + this.exportFile.getPath() + " (" + e.getMessage() + ")");
+				success = false;
+			};
+			if(eventExporter.getFailure() != null) {
+				this.onTextOutput("ERROR:  Exception when writing output file " + this.exportFile.getPath() + " (" + eventExporter.getFailure().getMessage() + ")");
+				success = false;
+			} else {
+				this.onTextOutput(Long.toString(eventExporter.getRecords()) + " records exported to " + this.exportFile.getPath() + "\r\n");
+			};
+		} else if(this.exportFile != null) {
+			success = false;
+		};
+		if(anonymizer != null) this.onTextOutput(toAnonymizationString(anonymizer));
+		parseDiagnostics.finish();
+		metrics.finish();
+		metrics.unregisterMBean();
+		if(this.quarantineEnabled && (parseDiagnostics.getParseFailures() > 0)) {
+			this.onTextOutput("Rejected entries written to " + outputPath + ParseDiagnostics.QUARANTINE_EXTENSION + "\r\n");
+		};
+		if(sipStatisticsCsvWriter != null) {
+			try {
+				sipStatistics.finish();
+				sipStatisticsCsvWriter.close();
+			} catch(IOException e) {
+				this.onTextOutput("ERROR:  Exception when working with output file " + outputPath + ".sipstats.csv");
+			};
+			if(writeToFile(sipStatistics.toJson(), outputPath + ".sipstats.json")) {
+				this.onTextOutput("SIP statistics written to " + outputPath + ".sipstats.json and .sipstats.csv\r\n");
+			};
+		};
+		this.onTextOutput(metrics.toSummaryString());
+		if(this.summaryFileEnabled) {
+			writeToFile(metrics.toJson() + "\r\n", outputPath + ".summary.json");
+		};
+		if(success) {
+			if(metrics.getTruncatedSipMessages() > 0) {
+				summary = "WARNING: " + Long.toString(metrics.getTruncatedSipMessages()) + " SIP message(s) shorter than their Content-Length\r\n";
+				this.onTextOutput(summary);
+			};
 			this.onTextOutput("FINISHED!");
 		} else {
 			this.onTextOutput("FAILED");
 		};
+		return success;
+	}
+
+	/**
+	 * Processes a set of conversion jobs at the same time (at most maxConcurrentJobs of them at once),
+	 * generating events to be handled by onTextOutput() and onFinished() methods
+	 * Each job runs with its own state (parser, metrics, SIP statistics, TCP/SCTP sequence numbers) and
+	 * the options of this object. The text output of each job is prefixed with the job number and, once
+	 * all jobs are over, a table with the result of every job is output
+	 *
+	 * @param	jobs				the conversion jobs
+	 * @param	maxConcurrentJobs	the maximum number of jobs to run at the same time
+	 */
+	public void processBatch(List<BatchJob> jobs, int maxConcurrentJobs) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		this.onTextOutput("Running " + Integer.toString(jobs.size()) + " job(s), " + Integer.toString(maxConcurrentJobs) + " at a time ...\r\n");
+		long startMillis = System.currentTimeMillis();
+		List<BatchJobRunner> runners = new ArrayList<BatchJobRunner>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentJobs, jobs.size())));
+		try {
+			for(int i = 0; i < jobs.size(); i++) {
+				BatchJobRunner runner = new BatchJobRunner(i + 1, jobs.get(i));
+				runners.add(runner);
+				executor.execute(runner);
+			};
+		} finally {
+			executor.shutdown();
+		}
+		try {
+			while(!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// Just waiting for the jobs to finish
+			};
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		};
+		int failedJobs = 0;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-4s %-14s %-7s %10s %14s %10s  %s%n", "Job", "Parser", "Status", "Frames", "Bytes", "Time(ms)", "Input -> Output"));
+		for(BatchJobRunner runner : runners) {
+			if(!runner.succeeded) failedJobs++;
+			ConversionMetrics jobMetrics = runner.jobAppCore.getMetrics();
+			sb.append(String.format("%-4d %-14s %-7s %10d %14d %10d  %s -> %s%n",
+				Integer.valueOf(runner.jobNumber), runner.job.getLogType(), runner.succeeded ? "OK" : "FAILED",
+				Long.valueOf((jobMetrics != null) ? jobMetrics.getHeaderLines() : 0), Long.valueOf((jobMetrics != null) ? jobMetrics.getBytesWritten() : 0),
+				Long.valueOf((jobMetrics != null) ? jobMetrics.getElapsedMillis() : 0), runner.job.getLogFile().getPath(), runner.job.getPcapFile().getPath()));
+		};
+		sb.append(Integer.toString(jobs.size() - failedJobs) + " job(s) succeeded, " + Integer.toString(failedJobs) + " failed, in " + Long.toString(System.currentTimeMillis() - startMillis) + " ms\r\n");
+		this.onTextOutput(sb.toString());
+		this.onTextOutput((failedJobs == 0) ? "FINISHED!" : "FAILED");
+		this.onFinish(1);
+	}
+
+	/**
+	 * Indexes a set of log files into the given index directory (see LogIndex), at most maxConcurrentJobs
+	 * of them at once, generating events to be handled by onTextOutput() and onFinished() methods
+	 * Log files which were indexed before are only indexed from where the previous indexing stopped
+	 *
+	 * @param	jobs				the log files to index (their PCAP files are not used)
+	 * @param	indexDirectory		the index directory
+	 * @param	maxConcurrentJobs	the maximum number of log files to index at the same time
+	 */
+	public void processIndex(final List<BatchJob> jobs, File indexDirectory, int maxConcurrentJobs) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		this.onTextOutput("Indexing " + Integer.toString(jobs.size()) + " log file(s) into " + indexDirectory.getPath() + " ...\r\n");
+		long startMillis = System.currentTimeMillis();
+		final LogIndex index = new LogIndex(indexDirectory);
+		final long[] indexedFrames = new long[jobs.size()];
+		final boolean[] succeeded = new boolean[jobs.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentJobs, jobs.size())));
+		try {
+			for(int i = 0; i < jobs.size(); i++) {
+				final int jobIndex = i;
+				executor.execute(new Runnable() {
+					public void run() {
+						BatchJob job = jobs.get(jobIndex);
+						long jobStartMillis = System.currentTimeMillis();
+						String result = null;
+						try {
+							indexedFrames[jobIndex] = index.update(job.getLogType(), job.getParserConfigParams(), job.getParser(), job.getLogFile());
+							succeeded[jobIndex] = true;
+							result = ((indexedFrames[jobIndex] > 0) ? Long.toString(indexedFrames[jobIndex]) + " new frame(s)" : "up to date") + " in " + Long.toString(System.currentTimeMillis() - jobStartMillis) + " ms";
+						} catch(IOException e) {
+							result = "ERROR:  " + e.getMessage();
+						} catch(RuntimeException e) {
+							result = "ERROR:  " + e.toString();
+						};
+						synchronized(AppCore.this) {
+							AppCore.this.onTextOutput(job.getLogFile().getPath() + ": " + result);
+						}
+					}
+				});
+			};
+		} finally {
+			executor.shutdown();
+		}
+		try {
+			while(!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// Just waiting for the jobs to finish
+			};
+		} catch(InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		};
+		int failedJobs = 0;
+		long totalFrames = 0;
+		for(int i = 0; i < jobs.size(); i++) {
+			if(!succeeded[i]) failedJobs++;
+			totalFrames += indexedFrames[i];
+		};
+		this.onTextOutput("\r\n" + Integer.toString(jobs.size() - failedJobs) + " log file(s) indexed (" + Long.toString(totalFrames) + " new frame(s)), " + Integer.toString(failedJobs) + " failed, in " + Long.toString(System.currentTimeMillis() - startMillis) + " ms\r\n");
+		this.onTextOutput((failedJobs == 0) ? "FINISHED!" : "FAILED");
+		this.onFinish(1);
+	}
+
+	/**
+	 * Writes the frames matching a query over an index directory (see LogIndex) into a PCAP file, reading
+	 * them from their log files by seeking straight to them, and generating events to be handled by
+	 * onTextOutput() and onFinished() methods
+	 *
+	 * @param	indexDirectory	the index directory
+	 * @param	query			the query
+	 * @param	pcapFile		the output PCAP file to generate
+	 */
+	public void processQuery(File indexDirectory, LogIndex.Query query, File pcapFile) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		ConversionMetrics metrics = new ConversionMetrics(indexDirectory.getPath(), -1);
+		this.metrics = metrics;
+		metrics.start();
+		boolean success = false;
+		try {
+			List<LogIndex.Hit> hits = new LogIndex(indexDirectory).query(query);
+			HashSet<String> logFiles = new HashSet<String>();
+			for(LogIndex.Hit hit : hits) logFiles.add(hit.getPath());
+			this.onTextOutput("Found " + Integer.toString(hits.size()) + " matching frame(s) in " + Integer.toString(logFiles.size()) + " log file(s), writing to " + pcapFile.getPath() + " ...\r\n");
+			Iterator<LogFrame> logFrames = metrics.meterLogFrames(LogIndex.readFrames(hits, query));
+			Iterator<byte[]> pcapFrames = Fn.concat(Fn.iteratorOf(createPcapFileHeader()), Fn.map(logFrames, createEncoder(new PcapSequenceState())));
+			if(isLiveOutput(pcapFile.getPath())) {
+				success = writeToLiveOutput(pcapFrames, pcapFile.getPath(), metrics);
+			} else {
+				success = writeToFile(pcapFrames, pcapFile.getPath(), metrics);
+			};
+		} catch(IOException e) {
+			this.onTextOutput("ERROR:  " + e.getMessage());
+		} catch(RuntimeException e) {
+			this.onTextOutput("ERROR:  " + e.toString());
+		};
+		metrics.finish();
+		this.onTextOutput("Frames: " + Long.toString(metrics.getHeaderLines()) + " (" + Long.toString(metrics.getSipFrames()) + " SIP, " + Long.toString(metrics.getSyslogFrames()) + " syslog)\r\n" +
+			"Bytes written: " + Long.toString(metrics.getBytesWritten()) + "\r\n" + "Time: " + Long.toString(metrics.getElapsedMillis()) + " ms\r\n");
+		this.onTextOutput(success ? "FINISHED!" : "FAILED");
+		this.onFinish(1);
+	}
+
+	/**
+	 * Runs a local conversion service (see ConversionServer) until the JVM is terminated, generating
+	 * events to be handled by onTextOutput() and onFinished() methods
+	 *
+	 * @param	port					the TCP port to listen on
+	 * @param	maxConcurrentRequests	the maximum number of conversions to run at the same time
+	 */
+	public void runServer(int port, int maxConcurrentRequests) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		final ConversionServer server = new ConversionServer(this, port, maxConcurrentRequests);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		try {
+			server.start();
+		} catch(IOException e) {
+			this.onTextOutput("ERROR:  Failed to listen on port " + Integer.toString(port) + ": " + e.toString());
+			this.onTextOutput("FAILED");
+			this.onFinish(1);
+			return;
+		};
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.stop(5);
+				stopped.countDown();
+			}
+		});
+		this.onTextOutput("Listening on 127.0.0.1:" + Integer.toString(server.getPort()) + " (" + Integer.toString(maxConcurrentRequests) + " conversions at a time) ...\r\n");
+		try {
+			stopped.await();
+		} catch(InterruptedException e) {
+			server.stop(0);
+		};
 		this.onFinish(1);
 	}
+
+	/**
+	 * Watches directories for new log files, converting them once they are stable (see DirectoryWatcher)
+	 * until the JVM is terminated, generating events to be handled by onTextOutput() and onFinished() methods
+	 *
+	 * @param	rules				the rules (directory, file name wildcard, log type, parser params and output directory)
+	 * @param	stateFile			the state file recording the log files already converted
+	 * @param	stableMillis		the time the length and modification time of a log file must not change before converting it
+	 * @param	maxConcurrentJobs	the maximum number of conversions to run at the same time
+	 */
+	public void runWatcher(List<WatchRule> rules, File stateFile, long stableMillis, int maxConcurrentJobs) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		final DirectoryWatcher watcher = new DirectoryWatcher(this, rules, stateFile, stableMillis, maxConcurrentJobs);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		try {
+			watcher.start();
+		} catch(IOException e) {
+			this.onTextOutput("ERROR:  Failed to watch directories: " + e.toString());
+			this.onTextOutput("FAILED");
+			this.onFinish(1);
+			return;
+		};
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				watcher.stop(5);
+				stopped.countDown();
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		for(WatchRule rule : rules) {
+			sb.append("Watching " + new File(rule.getDirectory(), rule.getFileNamePattern()).getPath() + " -> " + rule.getOutputDirectory().getPath() + "\r\n");
+		};
+		sb.append("(" + Integer.toString(maxConcurrentJobs) + " conversions at a time, state file " + stateFile.getPath() + ") ...\r\n");
+		this.onTextOutput(sb.toString());
+		try {
+			stopped.await();
+		} catch(InterruptedException e) {
+			watcher.stop(0);
+		};
+		this.onFinish(1);
+	}
+
+	/**
+	 * Parses a live log (usually stdin, fed by tail -f) keeping the PCAP frames of its most recent minutes in
+	 * a ring buffer (see RingCapture), which is dumped to a PCAP file whenever a trigger fires. Generates events
+	 * to be handled by onTextOutput() and onFinished() methods
+	 *
+	 * @param	parser			the parser of the log
+	 * @param	logFile			the log file to read (STDIO_PATH for stdin)
+	 * @param	ringCapture		the ring buffer capture (with its triggers set)
+	 */
+	public void processRingCapture(LogFrameParser parser, File logFile, RingCapture ringCapture) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		LineIterator logLines = null;
+		try {
+			logLines = logFile.getPath().equals(STDIO_PATH) ? new LineIterator(System.in, "<stdin>", -1) : new LineIterator(logFile);
+		} catch(RuntimeException e) {
+			this.onTextOutput("ERROR:  Failed to open input file " + logFile.getPath());
+			this.onTextOutput("FAILED");
+			this.onFinish(1);
+			return;
+		}
+		ConversionMetrics metrics = new ConversionMetrics(logLines.getName(), logLines.getLength());
+		ParseDiagnostics parseDiagnostics = new ParseDiagnostics();
+		parseDiagnostics.setTextOutput(this);
+		parseDiagnostics.setLineOffsets(logLines);
+		parser.setParseDiagnostics(parseDiagnostics);
+		metrics.setParseDiagnostics(parseDiagnostics);
+		this.metrics = metrics;
+		metrics.start();
+		LogLinesParser logLinesParser = new LogLinesParser(parser);
+		logLinesParser.setFrameLimits(this.maxFrameLines, this.maxFrameBytes);
+		logLinesParser.setParseDiagnostics(parseDiagnostics);
+		Iterator<LogFrame> logFrames = metrics.meterLogFrames(logLinesParser.parse(metrics.meterLines(logLines), logLines, 0));
+		if(this.eventFilter != null) logFrames = this.eventFilter.filter(logFrames, metrics);
+		Anonymizer anonymizer = null;
+		if(this.anonymizationKey != null) {
+			anonymizer = new Anonymizer(this.anonymizationKey, Anonymizer.DEFAULT_MAX_CACHE_ENTRIES);
+			logFrames = anonymizer.anonymize(logFrames);
+		};
+		Fn.Function<LogFrame,byte[]> encoder = createEncoder(new PcapSequenceState());
+		this.onTextOutput("Keeping the PCAP frames of the last " + Long.toString(ringCapture.getWindowMillis() / 60000) + " minutes of " + logLines.getName() + " (at most " + Integer.toString(ringCapture.getCapacity() / (1024 * 1024)) + " MB) ...\r\n");
+		ringCapture.start();
+		while(logFrames.hasNext()) {
+			LogFrame logFrame = logFrames.next();
+			ringCapture.add(encoder.apply(logFrame));
+			ringCapture.checkTrigger(logFrame);
+		};
+		logLines.close();
+		parseDiagnostics.finish();
+		ringCapture.finish();
+		metrics.finish();
+		if(anonymizer != null) this.onTextOutput(toAnonymizationString(anonymizer));
+		this.onTextOutput("Lines read: " + Long.toString(metrics.getLinesRead()) + "\r\n" + "Frames: " + Long.toString(ringCapture.getFramesAdded()) + " (" + Long.toString(ringCapture.getFramesDropped()) + " too big for the buffer)\r\n" + "Dumps: " + Integer.toString(ringCapture.getDumps()) + "\r\n");
+		this.onTextOutput("FINISHED!");
+		this.onFinish(1);
+	}
+
+	/**
+	 * Processes a log file through a local conversion service (see ConversionServer), creating a PCAP
+	 * file and generating events to be handled by onTextOutput() and onFinished() methods
+	 * The encoding and frame limits are sent to the service along with the log file. The other options which
+	 * change the output (SIP statistics, summary and quarantine files, sampling, event filtering, anonymization,
+	 * export, output rules, conversion cache and checkpoints) are only available locally, so the conversion fails
+	 * if any of them is set rather than silently ignoring it
+	 *
+	 * @param	host				the host of the conversion service
+	 * @param	port				the TCP port of the conversion service
+	 * @param	logType				the log type (such as TYPE_ACME_PACKET)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @param	logFile				the input log file to read
+	 * @param	pcapFile 			the output PCAP file to generate
+	 */
+	public void processRemoteLogFile(String host, int port, String logType, String[] parserConfigParams, File logFile, File pcapFile) {
+		this.onTextOutput("siplog2pcap.v" + BUILD + "\r\n");
+		StringBuilder localOptions = new StringBuilder();
+		if(this.sipStatisticsEnabled) localOptions.append(", SIP statistics");
+		if(this.summaryFileEnabled) localOptions.append(", summary file");
+		if(this.quarantineEnabled) localOptions.append(", quarantine file");
+		if(this.callSampler != null) localOptions.append(", sampling");
+		if(this.eventFilter != null) localOptions.append(", event filtering");
+		if(this.anonymizationKey != null) localOptions.append(", anonymization");
+		if(this.exportFile != null) localOptions.append(", export");
+		if(!this.outputRules.isEmpty()) localOptions.append(", output rules");
+		if(this.conversionCache != null) localOptions.append(", conversion cache");
+		if(this.checkpointIntervalMillis > 0) localOptions.append(", checkpoints");
+		if(localOptions.length() > 0) {
+			this.onTextOutput("ERROR:  Not available when converting through a conversion service: " + localOptions.substring(2));
+			this.onTextOutput("FAILED");
+			this.onFinish(1);
+			return;
+		};
+		this.onTextOutput("Converting through " + host + ":" + Integer.toString(port) + ", writing to " + pcapFile.getPath() + " ...\r\n");
+		long startMillis = System.currentTimeMillis();
+		try {
+			ConversionClient conversionClient = new ConversionClient(host, port);
+			conversionClient.setEncoding(this.checksumsEnabled, this.snapLength, this.headersOnly);
+			conversionClient.setFrameLimits(this.maxFrameLines, this.maxFrameBytes);
+			long bytesWritten = conversionClient.convert(logType, parserConfigParams, logFile, pcapFile);
+			this.onTextOutput("Bytes written: " + Long.toString(bytesWritten) + "\r\n" + "Time: " + Long.toString(System.currentTimeMillis() - startMillis) + " ms\r\n");
+			this.onTextOutput("FINISHED!");
+		} catch(IOException e) {
+			this.onTextOutput("ERROR:  " + e.getMessage());
+			this.onTextOutput("FAILED");
+		};
+		this.onFinish(1);
+	}
+
+	/**
+	 * Returns an AppCore taking the options of this object and forwarding its text output to it
+	 * (prefixed with the given prefix on every line), so a conversion can run with its own state
+	 *
+	 * @param	prefix	the prefix of the text output lines
+	 * @return			the AppCore
+	 */
+	AppCore createChildAppCore(final String prefix) {
+		AppCore childAppCore = new AppCore() {
+			public void onTextOutput(String textOutput) {
+				StringBuilder sb = new StringBuilder();
+				for(String line : textOutput.trim().split("\r?\n")) {
+					if(sb.length() > 0) sb.append("\r\n");
+					sb.append(prefix).append(line);
+				};
+				synchronized(AppCore.this) {
+					AppCore.this.onTextOutput(sb.toString());
+				}
+			}
+			public void onFinish(int retValue) {
+			}
+		};
+		childAppCore.setSipStatisticsEnabled(this.sipStatisticsEnabled);
+		childAppCore.setSummaryFileEnabled(this.summaryFileEnabled);
+		childAppCore.setStageTimingEnabled(this.stageTimingEnabled);
+		childAppCore.setChecksumsEnabled(this.checksumsEnabled);
+		childAppCore.setSnapLength(this.snapLength);
+		childAppCore.setHeadersOnly(this.headersOnly);
+		childAppCore.setProgressIntervalMillis(this.progressIntervalMillis);
+		childAppCore.setConversionCache(this.conversionCache);
+		childAppCore.setLiveFlushIntervalMillis(this.liveFlushIntervalMillis);
+		childAppCore.setCheckpointIntervalMillis(this.checkpointIntervalMillis);
+		childAppCore.setResumeEnabled(this.resumeEnabled);
+		childAppCore.setCallSampler(this.callSampler);
+		childAppCore.setEventFilter(this.eventFilter);
+		childAppCore.setFrameLimits(this.maxFrameLines, this.maxFrameBytes);
+		childAppCore.setQuarantineEnabled(this.quarantineEnabled);
+		childAppCore.setAnonymization(this.anonymizationKey != null, this.anonymizationKey);
+		return childAppCore;
+	}
+
+	/**
+	 * Runs one job of processBatch() in its own AppCore (see createChildAppCore())
+	 */
+	private class BatchJobRunner implements Runnable {
+		private int jobNumber;
+		private BatchJob job;
+		private AppCore jobAppCore;
+		private volatile boolean succeeded = false;
+
+		private BatchJobRunner(int jobNumber, BatchJob job) {
+			this.jobNumber = jobNumber;
+			this.job = job;
+			this.jobAppCore = createChildAppCore("[job " + Integer.toString(jobNumber) + "] ");
+		}
+
+		public void run() {
+			try {
+				String conversionId = (this.job.getParserConfigParams() != null) ? ConversionCache.getConversionId(this.job.getLogType(), this.job.getParserConfigParams()) : null;
+				this.succeeded = this.jobAppCore.convertLogFile(this.job.getParser(), this.job.getLogFile(), this.job.getPcapFile(), conversionId);
+			} catch(RuntimeException e) {
+				this.jobAppCore.onTextOutput("ERROR:  " + e.toString());
+				this.succeeded = false;
+			}
+		}
+	};
 	
 }
\ No newline at end of file
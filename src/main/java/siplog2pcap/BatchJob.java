@@ -0,0 +1,70 @@
+package siplog2pcap;
+
+import java.io.File;
+
+/**
+ * Class defining a conversion job to be run by AppCore.processBatch()
+ *
+ * Every job must have its own LogFrameParser object, as parsers are not meant
+ * to be shared among conversions running at the same time.
+ */
+public class BatchJob {
+
+	private String logType;
+	private LogFrameParser parser;
+	private String[] parserConfigParams;
+	private File logFile;
+	private File pcapFile;
+
+	/**
+	 * Returns a BatchJob object
+	 *
+	 * @param	logType		the log type (as provided in the command line, just for reporting)
+	 * @param	parser		the parser of the input log file
+	 * @param	logFile		the input log file to read
+	 * @param	pcapFile	the output PCAP file to generate
+	 * @return				the BatchJob object
+	 */
+	public BatchJob(String logType, LogFrameParser parser, File logFile, File pcapFile) {
+		this(logType, parser, null, logFile, pcapFile);
+	};
+
+	/**
+	 * Returns a BatchJob object
+	 *
+	 * @param	logType				the log type (as provided in the command line)
+	 * @param	parser				the parser of the input log file
+	 * @param	parserConfigParams	the parser configuration parameters (for the conversion cache, null if unknown)
+	 * @param	logFile				the input log file to read
+	 * @param	pcapFile			the output PCAP file to generate
+	 * @return						the BatchJob object
+	 */
+	public BatchJob(String logType, LogFrameParser parser, String[] parserConfigParams, File logFile, File pcapFile) {
+		this.logType = logType;
+		this.parser = parser;
+		this.parserConfigParams = parserConfigParams;
+		this.logFile = logFile;
+		this.pcapFile = pcapFile;
+	};
+
+	/**	Returns the log type
+	 *	@return	the log type */
+	public String getLogType() { return this.logType; };
+
+	/**	Returns the parser of the input log file
+	 *	@return	the parser */
+	public LogFrameParser getParser() { return this.parser; };
+
+	/**	Returns the parser configuration parameters
+	 *	@return	the parser configuration parameters (null if unknown) */
+	public String[] getParserConfigParams() { return this.parserConfigParams; };
+
+	/**	Returns the input log file
+	 *	@return	the input log file */
+	public File getLogFile() { return this.logFile; };
+
+	/**	Returns the output PCAP file
+	 *	@return	the output PCAP file */
+	public File getPcapFile() { return this.pcapFile; };
+
+}
@@ -0,0 +1,118 @@
+package siplog2pcap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * This class implements a Bloom filter of strings, which tells whether a string might have been added
+ * to the filter (with a given false positive rate) or it was definitely not added. LogIndex keeps one
+ * per indexed log file, so queries skip the log files which cannot have matching frames without reading
+ * their postings.
+ * The k bit positions of a string are derived from two 32 bit hashes (h1 + i * h2, as proposed by
+ * Kirsch and Mitzenmacher), which is as good as k independent hashes for this purpose.
+ */
+public class BloomFilter {
+
+	/* INSTANCE VARIABLES */
+
+	private long[] bits;
+	private int numBits;
+	private int numHashes;
+
+	/**
+	 * Returns a BloomFilter object sized for the given number of strings and false positive rate
+	 *
+	 * @param	expectedStrings		the number of strings to be added
+	 * @param	falsePositiveRate	the false positive rate (such as 0.01)
+	 * @return						the BloomFilter object
+	 */
+	public BloomFilter(int expectedStrings, double falsePositiveRate) {
+		int n = Math.max(1, expectedStrings);
+		double ln2 = Math.log(2);
+		long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+		m = Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+		this.numBits = (int) (((m + 63) / 64) * 64);
+		this.numHashes = Math.max(1, (int) Math.round(((double) this.numBits / n) * ln2));
+		this.bits = new long[this.numBits / 64];
+	};
+
+	private BloomFilter(long[] bits, int numHashes) {
+		this.bits = bits;
+		this.numBits = bits.length * 64;
+		this.numHashes = numHashes;
+	};
+
+	/**
+	 * Adds a string to the filter
+	 *
+	 * @param	string	the string
+	 */
+	public void add(String string) {
+		int h1 = string.hashCode();
+		int h2 = secondHash(string);
+		for(int i = 0; i < this.numHashes; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.numBits;
+			this.bits[bit >>> 6] |= (1L << (bit & 63));
+		};
+	};
+
+	/**
+	 * Returns whether the string might have been added to the filter
+	 *
+	 * @param	string	the string
+	 * @return			false if the string was definitely not added, true otherwise
+	 */
+	public boolean mightContain(String string) {
+		int h1 = string.hashCode();
+		int h2 = secondHash(string);
+		for(int i = 0; i < this.numHashes; i++) {
+			int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % this.numBits;
+			if((this.bits[bit >>> 6] & (1L << (bit & 63))) == 0) return false;
+		};
+		return true;
+	};
+
+	/**
+	 * Returns the 32 bit FNV-1a hash of the string chars (forced to be odd, so all bit positions are reached)
+	 */
+	private static int secondHash(String string) {
+		int hash = 0x811c9dc5;
+		for(int i = 0; i < string.length(); i++) {
+			hash ^= string.charAt(i);
+			hash *= 0x01000193;
+		};
+		return hash | 1;
+	};
+
+	/**
+	 * Writes the filter to a data output stream
+	 *
+	 * @param	dataOutputStream	the data output stream
+	 */
+	public void write(DataOutputStream dataOutputStream) throws IOException {
+		dataOutputStream.writeInt(this.numHashes);
+		dataOutputStream.writeInt(this.bits.length);
+		for(long word : this.bits) {
+			dataOutputStream.writeLong(word);
+		};
+	};
+
+	/**
+	 * Reads a filter written by write()
+	 *
+	 * @param	dataInputStream	the data input stream
+	 * @return					the BloomFilter object
+	 */
+	public static BloomFilter read(DataInputStream dataInputStream) throws IOException {
+		int numHashes = dataInputStream.readInt();
+		int numWords = dataInputStream.readInt();
+		if((numHashes <= 0) || (numWords <= 0)) throw(new IOException("Invalid Bloom filter"));
+		long[] bits = new long[numWords];
+		for(int i = 0; i < numWords; i++) {
+			bits[i] = dataInputStream.readLong();
+		};
+		return new BloomFilter(bits, numHashes);
+	};
+
+}
@@ -0,0 +1,137 @@
+package siplog2pcap;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * This class implements a consistent sampling of the calls of a log, so huge logs can be converted into
+ * a representative sample which is still internally complete:
+ *     - SIP frames are kept or dropped depending on a hash of their Call-ID, so all the messages of a dialog
+ *       are either kept or dropped (whatever log file they are in, as the hash does not depend on the JVM)
+ *     - Generic (syslog) events have their own rate, and they are kept or dropped depending on a hash of
+ *       their line number (so the same events are kept when a conversion is resumed from a checkpoint)
+ * Sampling is done on LogFrames, before they are encoded, so dropped frames cost no payload building,
+ * encoding nor writing (although they still have to be parsed to get their Call-ID)
+ */
+public class CallSampler {
+
+	/* INSTANCE VARIABLES */
+
+	private int sipRate;
+	private int eventRate;
+
+	/**
+	 * Returns a CallSampler object, keeping 1 of every sipRate calls and 1 of every eventRate generic events
+	 *
+	 * @param	sipRate		the sampling rate of the calls (1 keeps all of them)
+	 * @param	eventRate	the sampling rate of the generic events (1 keeps all of them)
+	 * @return				the CallSampler object
+	 */
+	public CallSampler(int sipRate, int eventRate) {
+		this.sipRate = sipRate;
+		this.eventRate = eventRate;
+	};
+
+	/**
+	 * Parses a sampling rate, written as 1/N
+	 *
+	 * @param	rate	the sampling rate
+	 * @return			N (-1 if the rate is not valid)
+	 */
+	public static int parseRate(String rate) {
+		if(!rate.startsWith("1/")) return -1;
+		try {
+			int n = Integer.parseInt(rate.substring(2));
+			return (n > 0) ? n : -1;
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	};
+
+	/**
+	 * Returns whether a LogFrame is kept by the sampling
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				whether it is kept
+	 */
+	public boolean keep(LogFrame logFrame) {
+		List<String> sipLines = logFrame.getSipLines();
+		if((sipLines != null) && (sipLines.size() > 0)) {
+			if(this.sipRate == 1) return true;
+			String callId = SipStatistics.getHeader(sipLines, "Call-ID", "i");
+			// Messages without Call-ID cannot be matched to a dialog, so they are kept
+			if(callId == null) return true;
+			return ((mix(callId.hashCode()) & Integer.MAX_VALUE) % this.sipRate) == 0;
+		} else {
+			if(this.eventRate == 1) return true;
+			long lineNumber = logFrame.getLineNumber();
+			return ((mix((int) (lineNumber ^ (lineNumber >>> 32))) & Integer.MAX_VALUE) % this.eventRate) == 0;
+		}
+	};
+
+	/**
+	 * Returns the LogFrames kept by the sampling
+	 *
+	 * @param	logFrames	the LogFrames
+	 * @param	metrics		the conversion metrics counting the dropped LogFrames (null if none)
+	 * @return				the LogFrames kept
+	 */
+	public Iterator<LogFrame> sample(final Iterator<LogFrame> logFrames, final ConversionMetrics metrics) {
+		return new Iterator<LogFrame>() {
+			private LogFrame cachedNext = null;
+			public boolean hasNext() {
+				while((this.cachedNext == null) && logFrames.hasNext()) {
+					LogFrame logFrame = logFrames.next();
+					if(keep(logFrame)) {
+						this.cachedNext = logFrame;
+					} else if(metrics != null) {
+						metrics.addSampledOutFrame();
+					};
+				};
+				return (this.cachedNext != null);
+			}
+			public LogFrame next() {
+				if(!hasNext()) throw(new NoSuchElementException());
+				LogFrame next = this.cachedNext;
+				this.cachedNext = null;
+				return next;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Returns the hash spread over all its bits (the finalizer of MurmurHash3), as consecutive Call-IDs
+	 * or line numbers have close String.hashCode() values
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	};
+
+	/**
+	 * Returns an identifier of the sampling rates (such as sample=1/100,1/10), as sampled conversions
+	 * are different from full ones for the conversion cache and checkpoints
+	 *
+	 * @return	the identifier
+	 */
+	public String getId() {
+		return "sample=1/" + Integer.toString(this.sipRate) + ",1/" + Integer.toString(this.eventRate);
+	};
+
+	/**	Returns the sampling rate of the calls
+	 *	@return	N, as 1 of every N calls is kept */
+	public int getSipRate() { return this.sipRate; };
+
+	/**	Returns the sampling rate of the generic events
+	 *	@return	N, as 1 of every N generic events is kept */
+	public int getEventRate() { return this.eventRate; };
+
+}
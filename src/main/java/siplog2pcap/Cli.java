@@ -2,6 +2,13 @@ package siplog2pcap;
 import java.util.List;
 import java.util.ArrayList;
 import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.BitSet;
 import jfnlite.Fn;
 
 /**
@@ -14,6 +21,74 @@ public class Cli extends AppCore {
 	 */
 	public int retValue;
 	
+	/*
+	 * maximum number of jobs to run at the same time in batch mode
+	 */
+	private int maxConcurrentJobs = Runtime.getRuntime().availableProcessors();
+	
+	/*
+	 * TCP port of the conversion service (to run it in server mode, or to connect to it in client mode)
+	 */
+	private int serverPort = ConversionServer.DEFAULT_PORT;
+	
+	/*
+	 * host of the conversion service to connect to (null to convert locally)
+	 */
+	private String serverHost = null;
+	
+	/*
+	 * directory of the conversion cache (null for no cache) and maximum size of the cached PCAP files
+	 */
+	private File cacheDirectory = null;
+	private long cacheMaxBytes = ConversionCache.DEFAULT_MAX_BYTES;
+	
+	/*
+	 * interval between conversion checkpoints (0 for no checkpoints) and whether conversions must be resumed
+	 */
+	private long checkpointIntervalMillis = 0;
+	private boolean resume = false;
+	
+	/*
+	 * state file of the directory watcher (null for the default one) and time a log file must be stable before converting it
+	 */
+	private File watchStateFile = null;
+	private long watchStableMillis = DirectoryWatcher.DEFAULT_STABLE_MILLIS;
+	
+	/*
+	 * sampling rates (1 of every N) of the calls and of the generic events (-1 for the same one as the calls)
+	 */
+	private int sampleRate = 1;
+	private int sampleEventRate = -1;
+	
+	/*
+	 * reduction of the generic events: mode, coalescing window, and lowest severity and keywords of the events kept
+	 */
+	private int eventMode = EventFilter.MODE_KEEP;
+	private long coalesceWindowMillis = EventFilter.DEFAULT_COALESCE_WINDOW_MILLIS;
+	private int eventSeverity = -1;
+	private List<String> eventKeywords = new ArrayList<String>();
+	
+	/*
+	 * limits of the log frames (lines, and KB)
+	 */
+	private int maxFrameLines = LogLinesParser.DEFAULT_MAX_FRAME_LINES;
+	private int maxFrameKb = LogLinesParser.DEFAULT_MAX_FRAME_BYTES / 1024;
+	
+	/*
+	 * ring buffer capture: size, time window and tail of the dumps, and their triggers (besides the signal)
+	 */
+	private int ringCapacityBytes = RingCapture.DEFAULT_CAPACITY_BYTES;
+	private long ringWindowMillis = RingCapture.DEFAULT_WINDOW_MILLIS;
+	private long ringTailMillis = RingCapture.DEFAULT_TAIL_MILLIS;
+	private File triggerFile = null;
+	private BitSet triggerStatusCodes = new BitSet();
+	
+	/*
+	 * whether text output must go to stderr (as stdout is the PCAP output)
+	 */
+	private boolean textToStderr = false;
+	
+	
 	/**
 	 * Constructs the Cli object and initializes its return value
 	 */
@@ -27,7 +102,11 @@ public class Cli extends AppCore {
 	 * @param	textOutput	the text to output
 	 */
 	private void consoleOutput(String textOutput){
-		System.out.println(textOutput);
+		if(this.textToStderr) {
+			System.err.println(textOutput);
+		} else {
+			System.out.println(textOutput);
+		};
 	}
 	
 	/**
@@ -48,6 +127,373 @@ public class Cli extends AppCore {
 		this.retValue = retValue;
 	}
 	
+	/**
+	 * Applies a general option (those starting with "--" after the log type option)
+	 *
+	 * @param	option	the option
+	 * @return			whether the option is a valid one
+	 */
+	private boolean applyOption(String option) {
+		boolean valid = true;
+		if(option.equals("--stats")) {
+			this.setSipStatisticsEnabled(true);
+		} else if(option.equals("--summary")) {
+			this.setSummaryFileEnabled(true);
+		} else if(option.equals("--timings")) {
+			this.setStageTimingEnabled(true);
+		} else if(option.equals("--quarantine")) {
+			this.setQuarantineEnabled(true);
+		} else if(option.equals("--checksums")) {
+			this.setChecksumsEnabled(true);
+		} else if(option.startsWith("--snaplen=")) {
+			try {
+				int snapLength = Integer.parseInt(option.substring("--snaplen=".length()));
+				valid = (snapLength > 0) && (snapLength <= Pcap.DEFAULT_SNAP_LENGTH);
+				if(valid) this.setSnapLength(snapLength);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.equals("--headers-only")) {
+			this.setHeadersOnly(true);
+		} else if(option.equals("--vector")) {
+			if(!LineScanner.installVectorLineScanner()) {
+				this.consoleOutput("WARNING: Vector API line scanning not available in this build or JVM (run java with --add-modules jdk.incubator.vector)");
+			};
+		} else if(option.equals("--jfr")) {
+			if(!FrameTracing.installJfrFrameTracer()) {
+				this.consoleOutput("WARNING: JDK Flight Recorder events not available in this build or JVM");
+			};
+		} else if(option.startsWith("--jobs=")) {
+			try {
+				this.maxConcurrentJobs = Integer.parseInt(option.substring("--jobs=".length()));
+				valid = (this.maxConcurrentJobs > 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--port=")) {
+			try {
+				this.serverPort = Integer.parseInt(option.substring("--port=".length()));
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.equals("--connect") || option.startsWith("--connect=")) {
+			String address = option.startsWith("--connect=") ? option.substring("--connect=".length()) : "";
+			int colon = address.lastIndexOf(':');
+			this.serverHost = (colon >= 0) ? address.substring(0, colon) : "127.0.0.1";
+			if(this.serverHost.length() == 0) this.serverHost = "127.0.0.1";
+			try {
+				if(colon >= 0) {
+					this.serverPort = Integer.parseInt(address.substring(colon + 1));
+				} else if(address.length() > 0) {
+					this.serverPort = Integer.parseInt(address);
+				};
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.equals("--cache") || option.startsWith("--cache=")) {
+			this.cacheDirectory = option.startsWith("--cache=") ? new File(option.substring("--cache=".length())) : ConversionCache.getDefaultDirectory();
+		} else if(option.startsWith("--cache-size=")) {
+			try {
+				this.cacheMaxBytes = 1024L * 1024L * Long.parseLong(option.substring("--cache-size=".length()));
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.equals("--checkpoint") || option.startsWith("--checkpoint=")) {
+			try {
+				this.checkpointIntervalMillis = option.startsWith("--checkpoint=") ? 1000L * Long.parseLong(option.substring("--checkpoint=".length())) : ConversionCheckpoint.DEFAULT_INTERVAL_MILLIS;
+				valid = (this.checkpointIntervalMillis > 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.equals("--resume")) {
+			this.resume = true;
+		} else if(option.startsWith("--stable=")) {
+			try {
+				this.watchStableMillis = 1000L * Long.parseLong(option.substring("--stable=".length()));
+				valid = (this.watchStableMillis >= 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--watch-state=")) {
+			this.watchStateFile = new File(option.substring("--watch-state=".length()));
+		} else if(option.startsWith("--sample=")) {
+			this.sampleRate = CallSampler.parseRate(option.substring("--sample=".length()));
+			valid = (this.sampleRate > 0);
+		} else if(option.startsWith("--sample-events=")) {
+			this.sampleEventRate = CallSampler.parseRate(option.substring("--sample-events=".length()));
+			valid = (this.sampleEventRate > 0);
+		} else if(option.startsWith("--events=")) {
+			this.eventMode = EventFilter.parseMode(option.substring("--events=".length()));
+			valid = (this.eventMode != -1);
+		} else if(option.startsWith("--coalesce-window=")) {
+			try {
+				this.coalesceWindowMillis = Long.parseLong(option.substring("--coalesce-window=".length()));
+				valid = (this.coalesceWindowMillis >= 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--event-severity=")) {
+			this.eventSeverity = EventFilter.parseSeverity(option.substring("--event-severity=".length()));
+			valid = (this.eventSeverity != -1);
+		} else if(option.startsWith("--event-keywords=")) {
+			this.eventKeywords.addAll(Arrays.asList(option.substring("--event-keywords=".length()).split(",")));
+		} else if(option.startsWith("--max-frame-lines=")) {
+			try {
+				this.maxFrameLines = Integer.parseInt(option.substring("--max-frame-lines=".length()));
+				valid = (this.maxFrameLines > 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--max-frame-size=")) {
+			try {
+				this.maxFrameKb = Integer.parseInt(option.substring("--max-frame-size=".length()));
+				valid = (this.maxFrameKb > 0) && (this.maxFrameKb <= 1024 * 1024);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--ring-size=")) {
+			try {
+				long ringCapacityBytes = 1024L * 1024L * Long.parseLong(option.substring("--ring-size=".length()));
+				valid = (ringCapacityBytes > 0) && (ringCapacityBytes <= Integer.MAX_VALUE);
+				this.ringCapacityBytes = (int) Math.min(ringCapacityBytes, Integer.MAX_VALUE);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--ring-minutes=")) {
+			try {
+				this.ringWindowMillis = 60000L * Long.parseLong(option.substring("--ring-minutes=".length()));
+				valid = (this.ringWindowMillis > 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--ring-tail=")) {
+			try {
+				this.ringTailMillis = 1000L * Long.parseLong(option.substring("--ring-tail=".length()));
+				valid = (this.ringTailMillis >= 0);
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--trigger-file=")) {
+			this.triggerFile = new File(option.substring("--trigger-file=".length()));
+		} else if(option.startsWith("--trigger-status=")) {
+			this.triggerStatusCodes = RingCapture.parseStatusCodes(option.substring("--trigger-status=".length()));
+			valid = (this.triggerStatusCodes != null);
+		} else if(option.startsWith("--output=")) {
+			OutputRule outputRule = OutputRule.parse(option.substring("--output=".length()));
+			if(outputRule != null) {
+				this.addOutputRule(outputRule);
+			} else {
+				valid = false;
+			};
+		} else if(option.startsWith("--export=")) {
+			this.setExportFile(new File(option.substring("--export=".length())));
+		} else if(option.equals("--export-raw")) {
+			this.setExportRawMessages(true);
+		} else if(option.equals("--anonymize")) {
+			this.setAnonymization(true, null);
+		} else if(option.startsWith("--anonymize=")) {
+			String key = option.substring("--anonymize=".length());
+			valid = (key.length() > 0);
+			this.setAnonymization(true, key);
+		} else if(option.startsWith("--format-def=")) {
+			File definitionFile = new File(option.substring("--format-def=".length()));
+			try {
+				ParserRegistry.register(siplog2pcap.parsers.DeclarativeFormat.load(definitionFile));
+			} catch(IOException e) {
+				this.consoleOutput("ERROR:  Failed to read log format definition " + definitionFile.getPath());
+				valid = false;
+			} catch(IllegalArgumentException e) {
+				this.consoleOutput("ERROR:  Invalid log format definition " + definitionFile.getPath() + ": " + e.getMessage());
+				valid = false;
+			};
+		} else if(option.startsWith("--flush-interval=")) {
+			try {
+				this.setLiveFlushIntervalMillis(Long.parseLong(option.substring("--flush-interval=".length())));
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else if(option.startsWith("--progress=")) {
+			try {
+				this.setProgressIntervalMillis(1000L * Long.parseLong(option.substring("--progress=".length())));
+			} catch(NumberFormatException e) {
+				valid = false;
+			};
+		} else {
+			valid = false;
+		};
+		return valid;
+	}
+
+	/**
+	 * Creates the parser for the given log type option
+	 *
+	 * @param	option				the log type option (such as --acme-packet or --pjsua)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @return						the parser (null if the option or the parameters are not valid)
+	 */
+	private static LogFrameParser createParserForOption(String option, String[] parserConfigParams) {
+		if(!option.startsWith("--")) return null;
+		return AppCore.createParser(option.substring(2), parserConfigParams);
+	}
+
+	/**
+	 * Returns the help of the registered log formats, one per line
+	 *
+	 * @return	the help
+	 */
+	private static String getLogFormatsHelp() {
+		StringBuilder sb = new StringBuilder();
+		for(LogFrameParserProvider provider : ParserRegistry.getProviders()) {
+			sb.append("\t--").append(provider.getName()).append(" ").append(provider.getParamsUsage()).append("\t").append(provider.getDescription()).append("\r\n");
+		};
+		return sb.toString();
+	}
+
+	/**
+	 * Resolves the --auto log type option, detecting the log format of the log file (see ParserRegistry.detect())
+	 *
+	 * @param	option		the log type option (such as --acme-packet or --auto)
+	 * @param	logFile		the log file
+	 * @return				the log type option of the detected format (or the given option if it is not --auto, null if no format is detected)
+	 */
+	private static String resolveLogTypeOption(String option, File logFile) {
+		if(!option.equals("--" + ParserRegistry.AUTO_LOG_TYPE)) return option;
+		if(logFile.getPath().equals(AppCore.STDIO_PATH)) return null;
+		ParserRegistry.Detection detection = ParserRegistry.detect(logFile);
+		return (detection != null) ? "--" + detection.getProvider().getName() : null;
+	}
+
+	/**
+	 * Adds the batch jobs defined by a job definition, which has the same arguments as a single conversion:
+	 *     <log_type_option> <input_log_file> <output_pcap_file> <parser_params...>
+	 * If the file name of the input log file has wildcards (*, ?, [...] or {...}) one job is added for each
+	 * matching file, and the output must be a directory where <input_file_name>.pcap files are written
+	 * The same applies if the output is an existing directory
+	 *
+	 * @param	jobArgs	the job definition arguments
+	 * @param	jobs	the list of jobs where the new ones are added
+	 * @return			whether the job definition is valid
+	 */
+	private static boolean addBatchJobs(String[] jobArgs, List<BatchJob> jobs) {
+		if(jobArgs.length < 3) return false;
+		String[] parserConfigParams = Arrays.copyOfRange(jobArgs, 3, jobArgs.length);
+		File inputFile = new File(jobArgs[1]);
+		File outputFile = new File(jobArgs[2]);
+		String inputName = inputFile.getName();
+		List<File> inputFiles = new ArrayList<File>();
+		boolean isGlob = (inputName.indexOf('*') >= 0) || (inputName.indexOf('?') >= 0) || (inputName.indexOf('[') >= 0) || (inputName.indexOf('{') >= 0);
+		if(isGlob) {
+			File inputDir = (inputFile.getParentFile() != null) ? inputFile.getParentFile() : new File(".");
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + inputName);
+			File[] dirFiles = inputDir.listFiles();
+			if(dirFiles == null) return false;
+			Arrays.sort(dirFiles);
+			for(File dirFile : dirFiles) {
+				if(dirFile.isFile() && matcher.matches(dirFile.toPath().getFileName())) {
+					inputFiles.add(dirFile);
+				};
+			};
+			if(!outputFile.isDirectory() && !outputFile.mkdirs()) return false;
+		} else {
+			inputFiles.add(inputFile);
+		};
+		for(File logFile : inputFiles) {
+			String logTypeOption = resolveLogTypeOption(jobArgs[0], logFile);
+			if(logTypeOption == null) return false;
+			LogFrameParser parser = createParserForOption(logTypeOption, parserConfigParams);
+			if(parser == null) return false;
+			File pcapFile = outputFile.isDirectory() ? new File(outputFile, logFile.getName() + ".pcap") : outputFile;
+			jobs.add(new BatchJob(logTypeOption, parser, parserConfigParams, logFile, pcapFile));
+		};
+		return true;
+	}
+
+	/**
+	 * Splits a line into whitespace separated tokens (tokens with whitespaces can be double quoted)
+	 *
+	 * @param	line	the line
+	 * @return			the tokens
+	 */
+	private static String[] tokenize(String line) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringBuilder token = null;
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(c == '"') {
+				quoted = !quoted;
+				if(token == null) token = new StringBuilder();
+			} else if(Character.isWhitespace(c) && !quoted) {
+				if(token != null) tokens.add(token.toString());
+				token = null;
+			} else {
+				if(token == null) token = new StringBuilder();
+				token.append(c);
+			};
+		};
+		if(token != null) tokens.add(token.toString());
+		return tokens.toArray(new String[tokens.size()]);
+	}
+
+	/**
+	 * Adds the watch rule defined by a rule definition, which has the same arguments as a batch job definition
+	 * with a file name wildcard (see addBatchJobs()):
+	 *     <log_type_option> <watch_dir>/<file_name_wildcard> <output_dir> <parser_params...>
+	 *
+	 * @param	ruleArgs	the rule definition arguments
+	 * @param	rules		the list of rules where the new one is added
+	 * @return				whether the rule definition is valid
+	 */
+	private static boolean addWatchRule(String[] ruleArgs, List<WatchRule> rules) {
+		if(ruleArgs.length < 3) return false;
+		String[] parserConfigParams = Arrays.copyOfRange(ruleArgs, 3, ruleArgs.length);
+		// With --auto the log format is detected for every log file, so the parser params are checked then
+		boolean isAuto = ruleArgs[0].equals("--" + ParserRegistry.AUTO_LOG_TYPE);
+		if(!isAuto && (createParserForOption(ruleArgs[0], parserConfigParams) == null)) return false;
+		File inputFile = new File(ruleArgs[1]);
+		File watchDir = (inputFile.getParentFile() != null) ? inputFile.getParentFile() : new File(".");
+		if(!watchDir.isDirectory()) return false;
+		rules.add(new WatchRule(ruleArgs[0], parserConfigParams, watchDir, inputFile.getName(), new File(ruleArgs[2])));
+		return true;
+	}
+
+	/**
+	 * Reads the batch jobs (or watch rules) defined in a manifest file, which has one job definition (or rule
+	 * definition) per line (see addBatchJobs() and addWatchRule())
+	 * Empty lines and lines starting with # are ignored
+	 *
+	 * @param	manifestFile	the manifest file
+	 * @param	jobs			the list of jobs where the manifest jobs are added (null if it is a watch manifest)
+	 * @param	rules			the list of rules where the manifest rules are added (null if it is a batch manifest)
+	 * @return					null if the manifest is valid, or otherwise a description of the error
+	 */
+	private static String readManifest(File manifestFile, List<BatchJob> jobs, List<WatchRule> rules) {
+		String error = null;
+		BufferedReader reader = null;
+		try {
+			try {
+				reader = new BufferedReader(new FileReader(manifestFile));
+				String line = null;
+				int lineNumber = 0;
+				while((error == null) && ((line = reader.readLine()) != null)) {
+					lineNumber++;
+					line = line.trim();
+					if((line.length() == 0) || line.startsWith("#")) continue;
+					if((jobs != null) && !addBatchJobs(tokenize(line), jobs)) {
+						error = "ERROR:  Invalid job definition in " + manifestFile.getPath() + ":" + Integer.toString(lineNumber) + ": " + line;
+					} else if((rules != null) && !addWatchRule(tokenize(line), rules)) {
+						error = "ERROR:  Invalid watch rule in " + manifestFile.getPath() + ":" + Integer.toString(lineNumber) + ": " + line;
+					};
+				};
+			} finally {
+				if(reader != null) reader.close();
+			}
+		} catch(IOException e) {
+			error = "ERROR:  Failed to read manifest " + manifestFile.getPath();
+		};
+		return error;
+	}
+
 	/**
 	 * Main method
 	 *
@@ -61,7 +507,77 @@ public class Cli extends AppCore {
 		"\tsiplog2pcap --pjsua <input_log_file> <output_pcap_file> <date(yyyy-mm-dd)> <local_ip>" + "\r\n" +
 		"\r\n" +
 		"Usage for Oracle SBC (fomerly AcmePacket) sipmsg log file. Note that year is provided as an additional parameter (as not included in the logs):\r\n" +
-		"\tsiplog2pcap --acme-packet <input_log_file> <output_pcap_file> <year>" + "\r\n";
+		"\tsiplog2pcap --acme-packet <input_log_file> <output_pcap_file> <year>" + "\r\n" +
+		"\r\n" +
+		"Usage with automatic detection of the log format (sampling the first lines of the log file), providing the parameters of the detected log format:\r\n" +
+		"\tsiplog2pcap --auto <input_log_file> <output_pcap_file> <parser_params...>" + "\r\n" +
+		"\r\n" +
+		"Log formats (log type option and parser params), which can be added by jars in the classpath (see LogFrameParserProvider):\r\n" +
+		getLogFormatsHelp() +
+		"\r\n" +
+		"Use - as <input_log_file> to read the log from stdin, and - as <output_pcap_file> to write the PCAP to stdout (text output goes to stderr then).\r\n" +
+		"PCAP frames written to stdout or to a named pipe are flushed as they are produced (see --flush-interval), so they can be read live by Wireshark:\r\n" +
+		"\tssh sbc tail -f /path/to/sipmsg.log | siplog2pcap --acme-packet - - <year> | wireshark -k -i -" + "\r\n" +
+		"\r\n" +
+		"Usage for batch conversion of many log files at the same time, either listed in a manifest file (one job per line, with the same arguments as above) or matching a file name wildcard (written as <output_dir>/<input_file_name>.pcap):\r\n" +
+		"\tsiplog2pcap --batch <manifest_file>" + "\r\n" +
+		"\tsiplog2pcap --batch <log_type_option> \"<input_dir>/<file_name_wildcard>\" <output_dir> <parser_params...>" + "\r\n" +
+		"\r\n" +
+		"Usage for watching directories where rotated log files are dropped, converting every new log file matching a file name wildcard as soon as it is complete (either for one wildcard, or for many listed in a manifest file, one per line):\r\n" +
+		"\tsiplog2pcap --watch <log_type_option> \"<watch_dir>/<file_name_wildcard>\" <output_dir> <parser_params...>" + "\r\n" +
+		"\tsiplog2pcap --watch <manifest_file>" + "\r\n" +
+		"\r\n" +
+		"Usage for a ring buffer capture of a live log, keeping the PCAP frames of its last minutes (see --ring-minutes and --ring-size) and dumping them to <dump_dir>/ring-<yyyymmdd-hhmmss>.pcap on SIGUSR2 (kill -USR2 <pid>), on a trigger file appearing (see --trigger-file) or on SIP responses with some status codes (see --trigger-status):\r\n" +
+		"\ttail -f /path/to/sipmsg.log | siplog2pcap --ring <log_type_option> - <dump_dir> <parser_params...>" + "\r\n" +
+		"\r\n" +
+		"Usage for indexing an archive of log files by Call-ID, From/To user and time (indexing them again only indexes the data appended since then):\r\n" +
+		"\tsiplog2pcap --index <log_type_option> \"<input_dir>/<file_name_wildcard>\" <index_dir> <parser_params...>" + "\r\n" +
+		"\r\n" +
+		"Usage for extracting the frames matching every given criterion from the indexed log files (times are local, as yyyy-mm-ddThh:mm[:ss]):\r\n" +
+		"\tsiplog2pcap --query <index_dir> <output_pcap_file> [call-id=<call_id>] [user=<user>] [from=<user>] [to=<user>] [since=<time>] [until=<time>]" + "\r\n" +
+		"\r\n" +
+		"Usage for a local conversion service, which keeps running to avoid JVM startup on every conversion (see --connect below):\r\n" +
+		"\tsiplog2pcap --server [--port=<port>] [--jobs=<n>]" + "\r\n" +
+		"\r\n" +
+		"General options (to be provided after the log type option):\r\n" +
+		"\t--stats\tWrite SIP statistics next to the PCAP file (<output_pcap_file>.sipstats.json and .sipstats.csv)" + "\r\n" +
+		"\t--summary\tWrite a JSON summary of the run next to the PCAP file (<output_pcap_file>.summary.json)" + "\r\n" +
+		"\t--timings\tMeasure the time spent reading, parsing, encoding and writing, reported at the end of the run (always measured with --summary)" + "\r\n" +
+		"\t--quarantine\tWrite the log entries the parser rejected (the rejected line, with its byte offset, and the following lines) next to the PCAP file (<output_pcap_file>.quarantine)" + "\r\n" +
+		"\t--progress=<seconds>\tInterval between progress reports (default 10, 0 to disable)" + "\r\n" +
+		"\t--jobs=<n>\tMaximum number of batch jobs (or service conversions) to run at the same time (default: number of processors)" + "\r\n" +
+		"\t--port=<port>\tTCP port of the local conversion service (default " + Integer.toString(ConversionServer.DEFAULT_PORT) + ")" + "\r\n" +
+		"\t--connect[=[<host>:]<port>]\tConvert through a running conversion service instead of locally" + "\r\n" +
+		"\t--flush-interval=<millis>\tMaximum time PCAP frames are buffered when writing to stdout or to a named pipe (default " + Long.toString(LiveOutputStream.DEFAULT_LATENCY_MILLIS) + ", 0 to flush every frame)" + "\r\n" +
+		"\t--cache[=<dir>]\tReuse the PCAP files of previous conversions of the same log file with the same parameters (default dir: <user_home>/.siplog2pcap/cache, not used along with --stats, --summary or --quarantine, nor when writing to stdout or a named pipe)" + "\r\n" +
+		"\t--cache-size=<MB>\tMaximum size of the conversion cache, evicting the least recently used PCAP files (default " + Long.toString(ConversionCache.DEFAULT_MAX_BYTES / (1024 * 1024)) + ")" + "\r\n" +
+		"\t--checkpoint[=<seconds>]\tWrite a checkpoint of the conversion next to the PCAP file (<output_pcap_file>.checkpoint) every interval (default " + Long.toString(ConversionCheckpoint.DEFAULT_INTERVAL_MILLIS / 1000) + "), so an interrupted conversion can be resumed" + "\r\n" +
+		"\t--resume\tResume the conversion from its checkpoint (if any, otherwise it starts from scratch), producing the same PCAP file as an uninterrupted conversion (implies --checkpoint)" + "\r\n" +
+		"\t--stable=<seconds>\tTime the length of a watched log file must not change before converting it (default " + Long.toString(DirectoryWatcher.DEFAULT_STABLE_MILLIS / 1000) + ")" + "\r\n" +
+		"\t--watch-state=<file>\tFile recording the watched log files already converted (default <output_dir>/" + DirectoryWatcher.STATE_FILE_NAME + ")" + "\r\n" +
+		"\t--sample=1/<n>\tKeep 1 of every n calls (chosen by a hash of their Call-ID, so all the messages of a kept call are kept) and 1 of every n generic events" + "\r\n" +
+		"\t--sample-events=1/<n>\tKeep 1 of every n generic events (default: the --sample rate)" + "\r\n" +
+		"\t--events=<mode>\tWhat to do with the generic events: keep (default), drop or coalesce (merge the consecutive ones into one syslog frame)" + "\r\n" +
+		"\t--coalesce-window=<ms>\tTime window of the generic events coalesced into one (default: 1000)" + "\r\n" +
+		"\t--event-severity=<level>\tKeep only the generic events with that severity or a higher one (emerg, alert, crit, err, warning, notice, info or debug)" + "\r\n" +
+		"\t--event-keywords=<word>[,<word>...]\tKeep only the generic events containing one of the words (or matching --event-severity)" + "\r\n" +
+		"\t--max-frame-lines=<n>\tMaximum number of lines of a log entry, beyond which its lines are skipped up to the next entry (default: 10000)" + "\r\n" +
+		"\t--max-frame-size=<KB>\tMaximum size of a log entry (and of a line) in the log file, in KB (1024 bytes), beyond which it is cut (default: 1024)" + "\r\n" +
+		"\t--ring-minutes=<minutes>\tTime the ring buffer capture keeps the PCAP frames, in log time (default " + Long.toString(RingCapture.DEFAULT_WINDOW_MILLIS / 60000) + ")" + "\r\n" +
+		"\t--ring-size=<MB>\tSize of the ring buffer, which is the memory used whatever the log rate (default " + Integer.toString(RingCapture.DEFAULT_CAPACITY_BYTES / (1024 * 1024)) + ")" + "\r\n" +
+		"\t--ring-tail=<seconds>\tTime a triggered dump waits, so the frames after the trigger are also dumped (default " + Long.toString(RingCapture.DEFAULT_TAIL_MILLIS / 1000) + ")" + "\r\n" +
+		"\t--trigger-file=<file>\tDump the ring buffer when the file appears (it is deleted then)" + "\r\n" +
+		"\t--trigger-status=<codes>\tDump the ring buffer on SIP responses with these status codes (such as 408,500-599)" + "\r\n" +
+		"\t--output=<pcap_file>[,<criterion>...]\tAlso write the frames matching every criterion (sip, events, vlan=<vlan>, transport=<udp|tcp|sctp>, ip=<ip>, port=<port>, call-id=<call_id>) to another PCAP file, parsing the log once for all of them (can be repeated, not used along with --cache or --checkpoint)" + "\r\n" +
+		"\t--export=<file>\tAlso export one record per SIP message and event (time, IPs, ports, VLAN, transport, method, status, Call-ID, CSeq, body length...) to a JSON Lines file, or to a CSV file if its name ends with .csv (not used along with --cache or --checkpoint)" + "\r\n" +
+		"\t--export-raw\tInclude the whole SIP messages in the export" + "\r\n" +
+		"\t--anonymize[=<key>]\tReplace IPs, SIP URI users and hosts, numbers and display names by pseudonyms (the same value always gets the same pseudonym with the same key, and a random key is used if none is given)" + "\r\n" +
+		"\t--format-def=<file>\tAdd the log format described by a definition file (see README), which can then be used as its log type option or detected by --auto" + "\r\n" +
+		"\t--checksums\tFill the IPv4 header, UDP, TCP and SCTP (CRC32C) checksums, which are zeros otherwise" + "\r\n" +
+		"\t--snaplen=<bytes>\tSave at most the first bytes of every frame (Wireshark still shows their whole length)" + "\r\n" +
+		"\t--headers-only\tSave the SIP messages without their bodies (Wireshark still shows their whole length)" + "\r\n" +
+		"\t--vector\tFind line breaks and candidate header lines with the JDK Vector API (needs java --add-modules jdk.incubator.vector)" + "\r\n" +
+		"\t--jfr\tEmit JDK Flight Recorder events for slow frames (record with -XX:StartFlightRecording)" + "\r\n";
 		;
 		byte[] pcapFile = null;
 		byte[] fileContents = null;
@@ -73,32 +589,143 @@ public class Cli extends AppCore {
 		 * Processing command line args
 		 * I wonder why java standard library does not include an implementation for this...
 		 */
-		if(args.length > 0) {
+		ArrayList<String> argList = new ArrayList<String>();
+		boolean validOptions = true;
+		for(int i=0; i < args.length; i++) {
+			boolean isBatchLogType = (i == 1) && (args[0].equals("--batch") || args[0].equals("--index") || args[0].equals("--watch") || args[0].equals("--ring"));
+			if((i > 0) && !isBatchLogType && args[i].startsWith("--")) {
+				validOptions = validOptions && cli.applyOption(args[i]);
+			} else {
+				argList.add(args[i]);
+			};
+		};
+		args = argList.toArray(new String[argList.size()]);
+		if((args.length >= 3) && args[2].equals(AppCore.STDIO_PATH)) {
+			cli.textToStderr = true;
+		};
+		if(cli.cacheDirectory != null) {
+			cli.setConversionCache(new ConversionCache(cli.cacheDirectory, cli.cacheMaxBytes));
+		};
+		if(cli.resume && (cli.checkpointIntervalMillis == 0)) {
+			cli.checkpointIntervalMillis = ConversionCheckpoint.DEFAULT_INTERVAL_MILLIS;
+		};
+		cli.setCheckpointIntervalMillis(cli.checkpointIntervalMillis);
+		cli.setResumeEnabled(cli.resume);
+		if((cli.sampleRate > 1) || (cli.sampleEventRate > 1)) {
+			cli.setCallSampler(new CallSampler(cli.sampleRate, (cli.sampleEventRate > 0) ? cli.sampleEventRate : cli.sampleRate));
+		};
+		if((cli.eventMode != EventFilter.MODE_KEEP) || (cli.eventSeverity != -1) || !cli.eventKeywords.isEmpty()) {
+			EventFilter eventFilter = new EventFilter(cli.eventMode, cli.coalesceWindowMillis);
+			eventFilter.setSeverity(cli.eventSeverity);
+			for(String keyword : cli.eventKeywords) eventFilter.addKeyword(keyword);
+			cli.setEventFilter(eventFilter);
+		};
+		cli.setFrameLimits(cli.maxFrameLines, 1024 * cli.maxFrameKb);
+		if((args.length > 0) && validOptions) {
 			option = args[0];
 			if(option == "-h") {
 				cli.consoleOutput(HELP_STRING);
 				cli.retValue = 1;
+			} else if(option.equals("--server") && (args.length == 1)) {
+				cli.runServer(cli.serverPort, cli.maxConcurrentJobs);
+			} else if(option.equals("--watch") && (args.length >= 2)) {
+				List<WatchRule> rules = new ArrayList<WatchRule>();
+				String error = null;
+				if(args.length == 2) {
+					error = readManifest(new File(args[1]), null, rules);
+				} else if(!addWatchRule(Arrays.copyOfRange(args, 1, args.length), rules)) {
+					error = "ERROR:  Invalid watch rule";
+				};
+				if((error == null) && rules.isEmpty()) error = "ERROR:  No watch rules";
+				if(error != null) {
+					cli.consoleOutput(error);
+					cli.consoleOutput(HELP_STRING);
+					cli.retValue = 1;
+				} else {
+					File stateFile = (cli.watchStateFile != null) ? cli.watchStateFile : new File(rules.get(0).getOutputDirectory(), DirectoryWatcher.STATE_FILE_NAME);
+					cli.runWatcher(rules, stateFile, cli.watchStableMillis, cli.maxConcurrentJobs);
+				};
+			} else if(option.equals("--ring") && (args.length >= 4)) {
+				String logTypeOption = resolveLogTypeOption(args[1], new File(args[2]));
+				parser = (logTypeOption != null) ? createParserForOption(logTypeOption, Arrays.copyOfRange(args, 4, args.length)) : null;
+				File dumpDirectory = new File(args[3]);
+				if(parser == null) {
+					cli.consoleOutput("ERROR:  Invalid log type or parser params");
+					cli.consoleOutput(HELP_STRING);
+					cli.retValue = 1;
+				} else if(!dumpDirectory.isDirectory() && !dumpDirectory.mkdirs()) {
+					cli.consoleOutput("ERROR:  Failed to create dump directory " + dumpDirectory.getPath());
+					cli.retValue = 1;
+				} else {
+					RingCapture ringCapture = new RingCapture(cli, dumpDirectory, cli.ringCapacityBytes, cli.ringWindowMillis, cli.ringTailMillis);
+					ringCapture.setTriggerFile(cli.triggerFile);
+					ringCapture.setTriggerStatusCodes(cli.triggerStatusCodes);
+					cli.processRingCapture(parser, new File(args[2]), ringCapture);
+				};
+			} else if(option.equals("--index") && (args.length >= 4)) {
+				List<BatchJob> jobs = new ArrayList<BatchJob>();
+				if(addBatchJobs(Arrays.copyOfRange(args, 1, args.length), jobs)) {
+					cli.processIndex(jobs, new File(args[3]), cli.maxConcurrentJobs);
+				} else {
+					cli.consoleOutput("ERROR:  Invalid index definition");
+					cli.consoleOutput(HELP_STRING);
+					cli.retValue = 1;
+				};
+			} else if(option.equals("--query") && (args.length >= 4)) {
+				LogIndex.Query query = LogIndex.Query.parse(Arrays.copyOfRange(args, 3, args.length));
+				if(query != null) {
+					cli.processQuery(new File(args[1]), query, new File(args[2]));
+				} else {
+					cli.consoleOutput("ERROR:  Invalid query");
+					cli.consoleOutput(HELP_STRING);
+					cli.retValue = 1;
+				};
+			} else if((cli.serverHost != null) && (args.length >= 3) && option.startsWith("--")) {
+				String[] parserConfigParams = Arrays.copyOfRange(args, 3, args.length);
+				String logTypeOption = resolveLogTypeOption(option, new File(args[1]));
+				if(logTypeOption != null) {
+					cli.processRemoteLogFile(cli.serverHost, cli.serverPort, logTypeOption.substring(2), parserConfigParams, new File(args[1]), new File(args[2]));
+				} else {
+					cli.consoleOutput("ERROR:  Log format of " + args[1] + " not detected");
+					cli.retValue = 1;
+				};
+			} else if(option.equals("--batch") && (args.length >= 2)) {
+				List<BatchJob> jobs = new ArrayList<BatchJob>();
+				String error = null;
+				if(args.length == 2) {
+					error = readManifest(new File(args[1]), jobs, null);
+				} else if(!addBatchJobs(Arrays.copyOfRange(args, 1, args.length), jobs)) {
+					error = "ERROR:  Invalid job definition";
+				};
+				if(error != null) {
+					cli.consoleOutput(error);
+					cli.consoleOutput(HELP_STRING);
+					cli.retValue = 1;
+				} else {
+					cli.processBatch(jobs, cli.maxConcurrentJobs);
+				};
 			} else if(args.length >= 3) {
 				String[] parserConfigParams = new String[args.length - 3];
 				for(int i=0; i < parserConfigParams.length; i++) {
 					parserConfigParams[i] = args[3 + i];
 				}
-				try {
-					if(option.equals("--acme-packet")) {
-						parser = new siplog2pcap.parsers.AcmePacket(parserConfigParams);
-					} else if(option.equals("--pjsua")) {
-						parser = new siplog2pcap.parsers.Pjsua(parserConfigParams);
-					};
-				} catch(Exception e) {
-					parser = null;
-				}
+				String logTypeOption = resolveLogTypeOption(option, new File(args[1]));
+				if(logTypeOption == null) {
+					cli.consoleOutput("ERROR:  Log format of " + args[1] + " not detected" + (args[1].equals(AppCore.STDIO_PATH) ? " (--auto needs a log file)" : ""));
+				} else if(logTypeOption != option) {
+					LogFrameParserProvider provider = ParserRegistry.getProvider(logTypeOption.substring(2));
+					cli.consoleOutput("Detected log format: " + provider.getDescription() + " (" + (logTypeOption + " " + provider.getParamsUsage()).trim() + ")");
+				};
+				parser = (logTypeOption != null) ? createParserForOption(logTypeOption, parserConfigParams) : null;
 				if(parser != null) {
 					String inputFilePath = args[1];
 					String outputFilePath = args[2];
 					File inputFile = new File(inputFilePath);
 					File outputFile = new File(outputFilePath);
-					cli.processLogFile(parser, inputFile, outputFile);
+					cli.processLogFile(parser, inputFile, outputFile, ConversionCache.getConversionId(logTypeOption, parserConfigParams));
 				} else {
+					LogFrameParserProvider provider = (logTypeOption != null) ? ParserRegistry.getProvider(logTypeOption.substring(2)) : null;
+					if(provider != null) cli.consoleOutput("ERROR:  Invalid parser params for " + logTypeOption + " " + provider.getParamsUsage());
 					cli.consoleOutput(HELP_STRING);
 					cli.retValue = 1;
 				}
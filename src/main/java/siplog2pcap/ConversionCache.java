@@ -0,0 +1,459 @@
+package siplog2pcap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * This class implements a cache of finished PCAP files on local disk, so converting the same log file
+ * with the same parameters again just takes a copy of the cached PCAP file.
+ * Cache entries are content-addressed: the key of an entry is a hash of the tool version, the log type,
+ * the parser params and the content of the log file. In order not to read the log file twice when it is
+ * not in the cache, the content hash is a hash of the hashes of fixed-size chunks of the log file:
+ *     - Looking up a log file first discards the entries of other versions, log types, parser params or
+ *       lengths, which needs no reading of the log file at all. Then the remaining candidates are compared
+ *       chunk by chunk, and reading stops as soon as no candidate is left (so a miss typically reads one
+ *       chunk, if any)
+ *     - On a miss, the chunk hashes are computed while the conversion reads the log file (see
+ *       ChunkedDigestInputStream), and the PCAP file is stored once the conversion succeeds
+ * Each entry is stored as two files: <key>.pcap (the PCAP file) and <key>.meta (the version, log type,
+ * parser params, log file length and chunk hashes). The size of the cache is capped, evicting the least
+ * recently used entries (the modification time of the .meta file is updated on every hit)
+ */
+public class ConversionCache {
+
+	/* CONSTANTS */
+
+	public static final long DEFAULT_MAX_BYTES = 2048L * 1024 * 1024;
+	public static final int CHUNK_SIZE = 1024 * 1024;
+
+	private static final String META_MAGIC = "siplog2pcap-cache-1";
+	private static final String PCAP_EXTENSION = ".pcap";
+	private static final String META_EXTENSION = ".meta";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	/** Lock for the changes in the cache directory made by this JVM (conversions may run concurrently) */
+	private static final Object LOCK = new Object();
+
+	/* INSTANCE VARIABLES */
+
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * Returns a ConversionCache object
+	 *
+	 * @param	directory	the cache directory (created if needed)
+	 * @param	maxBytes	the maximum size of the cached PCAP files (in bytes)
+	 * @return				the ConversionCache object
+	 */
+	public ConversionCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	};
+
+	/**
+	 * Returns the default cache directory (.siplog2pcap/cache under the user home directory)
+	 *
+	 * @return	the default cache directory
+	 */
+	public static File getDefaultDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".siplog2pcap"), "cache");
+	};
+
+	/**
+	 * Returns the identifier of a conversion (everything but the log file the key of a cache entry depends on).
+	 * The log type of a declarative format (see DeclarativeFormat) is followed by the hash of its definition, as
+	 * the same name may get a different definition (an edited definition file, or one replacing a built-in format)
+	 *
+	 * @param	logType				the log type (with or without the leading "--" of the command line option)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @return						the conversion identifier
+	 */
+	public static String getConversionId(String logType, String[] parserConfigParams) {
+		StringBuilder sb = new StringBuilder();
+		String name = logType.startsWith("--") ? logType.substring(2) : logType;
+		sb.append(AppCore.BUILD).append(' ').append(name);
+		LogFrameParserProvider provider = ParserRegistry.getProvider(name);
+		if(provider instanceof siplog2pcap.parsers.DeclarativeFormat) {
+			sb.append(" definition=").append(((siplog2pcap.parsers.DeclarativeFormat) provider).getDefinitionHash());
+		};
+		for(String param : parserConfigParams) {
+			sb.append(' ').append(param.replace("\\", "\\\\").replace(" ", "\\ "));
+		};
+		return sb.toString();
+	};
+
+	/**	Returns the cache directory
+	 *	@return	the cache directory */
+	public File getDirectory() { return this.directory; };
+
+	/**
+	 * Looks up a log file in the cache
+	 *
+	 * @param	conversionId	the conversion identifier (see getConversionId())
+	 * @param	logFile			the log file
+	 * @return					the cached PCAP file (null if not found)
+	 */
+	public File lookup(String conversionId, File logFile) throws IOException {
+		List<Entry> candidates = new ArrayList<Entry>();
+		File[] metaFiles = this.directory.listFiles();
+		if(metaFiles == null) return null;
+		long length = logFile.length();
+		for(File metaFile : metaFiles) {
+			if(!metaFile.getName().endsWith(META_EXTENSION)) continue;
+			Entry entry = Entry.read(metaFile, false);
+			if((entry != null) && entry.conversionId.equals(conversionId) && (entry.length == length) && entry.getPcapFile().isFile()) {
+				candidates.add(entry);
+			};
+		};
+		if(candidates.isEmpty()) return null;
+		for(int i = 0; i < candidates.size(); i++) {
+			candidates.set(i, Entry.read(candidates.get(i).metaFile, true));
+		};
+		InputStream inputStream = new FileInputStream(logFile);
+		try {
+			ChunkedDigest digest = new ChunkedDigest();
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int chunk = 0;
+			while(!candidates.isEmpty()) {
+				int n = readFully(inputStream, buffer);
+				if(n <= 0) break;
+				digest.update(buffer, 0, n);
+				String chunkHash = digest.getChunkHashes().get(chunk);
+				for(Iterator<Entry> it = candidates.iterator(); it.hasNext();) {
+					Entry entry = it.next();
+					if((entry == null) || (entry.chunkHashes.size() <= chunk) || !entry.chunkHashes.get(chunk).equals(chunkHash)) it.remove();
+				};
+				chunk++;
+			};
+			for(Entry entry : candidates) {
+				if(entry.chunkHashes.size() == digest.getChunkHashes().size()) {
+					entry.metaFile.setLastModified(System.currentTimeMillis());
+					return entry.getPcapFile();
+				};
+			};
+		} finally {
+			inputStream.close();
+		}
+		return null;
+	};
+
+	/**
+	 * Stores a PCAP file in the cache (evicting the least recently used entries if needed)
+	 *
+	 * @param	conversionId	the conversion identifier (see getConversionId())
+	 * @param	digest			the chunked digest of the whole log file
+	 * @param	pcapFile		the PCAP file
+	 * @return					whether the PCAP file was stored
+	 */
+	public boolean store(String conversionId, ChunkedDigest digest, File pcapFile) throws IOException {
+		if(pcapFile.length() > this.maxBytes) return false;
+		synchronized(LOCK) {
+			if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+				throw(new IOException("Failed to create cache directory " + this.directory.getPath()));
+			};
+			String key = toHex(sha256(conversionId + "\n" + Long.toString(digest.getLength()) + "\n" + digest.getContentHash()));
+			Entry entry = new Entry(new File(this.directory, key + META_EXTENSION), conversionId, digest.getLength(), digest.getChunkHashes());
+			File tmpPcapFile = new File(this.directory, key + PCAP_EXTENSION + ".tmp");
+			copy(pcapFile, tmpPcapFile);
+			entry.getPcapFile().delete();
+			if(!tmpPcapFile.renameTo(entry.getPcapFile())) {
+				tmpPcapFile.delete();
+				return false;
+			};
+			entry.write();
+			evict();
+		}
+		return true;
+	};
+
+	/**
+	 * Evicts the least recently used entries until the cache size is below the cap
+	 */
+	private void evict() {
+		File[] metaFiles = this.directory.listFiles();
+		if(metaFiles == null) return;
+		List<File> entries = new ArrayList<File>();
+		long totalBytes = 0;
+		for(File metaFile : metaFiles) {
+			if(!metaFile.getName().endsWith(META_EXTENSION)) continue;
+			entries.add(metaFile);
+			totalBytes += getPcapFile(metaFile).length();
+		};
+		File[] sortedEntries = entries.toArray(new File[entries.size()]);
+		Arrays.sort(sortedEntries, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+			}
+		});
+		for(int i = 0; (i < sortedEntries.length) && (totalBytes > this.maxBytes); i++) {
+			File pcapFile = getPcapFile(sortedEntries[i]);
+			totalBytes -= pcapFile.length();
+			sortedEntries[i].delete();
+			pcapFile.delete();
+		};
+	};
+
+	/**
+	 * Returns the PCAP file of an entry
+	 *
+	 * @param	metaFile	the .meta file of the entry
+	 * @return				the PCAP file
+	 */
+	private static File getPcapFile(File metaFile) {
+		String name = metaFile.getName();
+		return new File(metaFile.getParentFile(), name.substring(0, name.length() - META_EXTENSION.length()) + PCAP_EXTENSION);
+	};
+
+	/**
+	 * Copies a file
+	 *
+	 * @param	source		the source file
+	 * @param	destination	the destination file
+	 */
+	public static void copy(File source, File destination) throws IOException {
+		InputStream inputStream = new FileInputStream(source);
+		try {
+			OutputStream outputStream = new FileOutputStream(destination);
+			try {
+				byte[] buffer = new byte[65536];
+				int n;
+				while((n = inputStream.read(buffer)) > 0) {
+					outputStream.write(buffer, 0, n);
+				};
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputStream.close();
+		}
+	};
+
+	/**
+	 * Reads from an input stream until the buffer is full or the stream is over
+	 *
+	 * @param	inputStream	the input stream
+	 * @param	buffer		the buffer
+	 * @return				the number of bytes read
+	 */
+	private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int count = 0;
+		while(count < buffer.length) {
+			int n = inputStream.read(buffer, count, buffer.length - count);
+			if(n < 0) break;
+			count += n;
+		};
+		return count;
+	};
+
+	/**
+	 * Returns a new MessageDigest object
+	 *
+	 * @return	the MessageDigest object
+	 */
+	private static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch(NoSuchAlgorithmException e) {
+			// This exception should never take place, as every JRE implements SHA-256
+			throw(new RuntimeException(e));
+		}
+	};
+
+	private static byte[] sha256(String string) {
+		try {
+			return newMessageDigest().digest(string.getBytes("UTF-8"));
+		} catch(java.io.UnsupportedEncodingException e) {
+			throw(new RuntimeException(e));
+		}
+	};
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for(byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		};
+		return sb.toString();
+	};
+
+	/**
+	 * Metadata of a cache entry
+	 */
+	private static class Entry {
+		private File metaFile;
+		private String conversionId;
+		private long length;
+		private List<String> chunkHashes;
+
+		private Entry(File metaFile, String conversionId, long length, List<String> chunkHashes) {
+			this.metaFile = metaFile;
+			this.conversionId = conversionId;
+			this.length = length;
+			this.chunkHashes = chunkHashes;
+		};
+
+		private File getPcapFile() {
+			return ConversionCache.getPcapFile(this.metaFile);
+		};
+
+		/**
+		 * Reads the metadata of a cache entry
+		 *
+		 * @param	metaFile	the .meta file
+		 * @param	withChunks	whether the chunk hashes must be read too
+		 * @return				the Entry (null if it is not a valid .meta file)
+		 */
+		private static Entry read(File metaFile, boolean withChunks) {
+			BufferedReader reader = null;
+			try {
+				try {
+					reader = new BufferedReader(new FileReader(metaFile));
+					if(!META_MAGIC.equals(reader.readLine())) return null;
+					String conversionId = reader.readLine();
+					long length = Long.parseLong(reader.readLine());
+					List<String> chunkHashes = new ArrayList<String>();
+					String line = null;
+					while(withChunks && ((line = reader.readLine()) != null)) {
+						chunkHashes.add(line);
+					};
+					return new Entry(metaFile, conversionId, length, chunkHashes);
+				} finally {
+					if(reader != null) reader.close();
+				}
+			} catch(Exception e) {
+				return null;
+			}
+		};
+
+		/**
+		 * Writes the .meta file of the entry (atomically, so readers never get a partial one)
+		 */
+		private void write() throws IOException {
+			File tmpMetaFile = new File(this.metaFile.getPath() + ".tmp");
+			Writer writer = new BufferedWriter(new FileWriter(tmpMetaFile));
+			try {
+				writer.write(META_MAGIC + "\n" + this.conversionId + "\n" + Long.toString(this.length) + "\n");
+				for(String chunkHash : this.chunkHashes) {
+					writer.write(chunkHash);
+					writer.write('\n');
+				};
+			} finally {
+				writer.close();
+			}
+			this.metaFile.delete();
+			if(!tmpMetaFile.renameTo(this.metaFile)) {
+				tmpMetaFile.delete();
+				throw(new IOException("Failed to write cache entry " + this.metaFile.getPath()));
+			};
+		};
+	};
+
+	/**
+	 * Hash of a byte stream made of the hashes of its fixed-size chunks (see the class description)
+	 */
+	public static class ChunkedDigest {
+		private MessageDigest chunkDigest = newMessageDigest();
+		private int chunkBytes = 0;
+		private long length = 0;
+		private List<String> chunkHashes = new ArrayList<String>();
+
+		/**
+		 * Updates the digest with the given bytes
+		 *
+		 * @param	bytes	the bytes
+		 * @param	offset	the offset of the first byte
+		 * @param	count	the number of bytes
+		 */
+		public void update(byte[] bytes, int offset, int count) {
+			while(count > 0) {
+				int n = Math.min(count, CHUNK_SIZE - this.chunkBytes);
+				this.chunkDigest.update(bytes, offset, n);
+				this.chunkBytes += n;
+				this.length += n;
+				offset += n;
+				count -= n;
+				if(this.chunkBytes == CHUNK_SIZE) endChunk();
+			};
+		};
+
+		private void endChunk() {
+			this.chunkHashes.add(toHex(this.chunkDigest.digest()));
+			this.chunkBytes = 0;
+		};
+
+		/**	Returns the number of bytes digested so far
+		 *	@return	the number of bytes */
+		public long getLength() { return this.length; };
+
+		/**	Returns the hashes of the chunks (including the last partial chunk, if any)
+		 *	@return	the hashes of the chunks */
+		public List<String> getChunkHashes() {
+			if(this.chunkBytes > 0) endChunk();
+			return this.chunkHashes;
+		};
+
+		/**	Returns the content hash (the hash of the chunk hashes)
+		 *	@return	the content hash */
+		public String getContentHash() {
+			MessageDigest contentDigest = newMessageDigest();
+			for(String chunkHash : getChunkHashes()) {
+				contentDigest.update(chunkHash.getBytes());
+			};
+			return toHex(contentDigest.digest());
+		};
+	};
+
+	/**
+	 * InputStream updating a ChunkedDigest with the bytes read from the underlying InputStream
+	 */
+	public static class ChunkedDigestInputStream extends FilterInputStream {
+		private ChunkedDigest digest;
+
+		/**
+		 * Returns a ChunkedDigestInputStream object
+		 *
+		 * @param	inputStream	the underlying input stream
+		 * @param	digest		the digest to update
+		 * @return				the ChunkedDigestInputStream object
+		 */
+		public ChunkedDigestInputStream(InputStream inputStream, ChunkedDigest digest) {
+			super(inputStream);
+			this.digest = digest;
+		};
+
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1) this.digest.update(new byte[] { (byte) b }, 0, 1);
+			return b;
+		};
+
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int n = super.read(bytes, offset, length);
+			if(n > 0) this.digest.update(bytes, offset, n);
+			return n;
+		};
+
+		public long skip(long n) throws IOException {
+			throw(new IOException("skip() not supported, as skipped bytes would not be digested"));
+		};
+	};
+
+}
@@ -0,0 +1,223 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/*
+ * This class represents a checkpoint of a conversion, so a conversion which was interrupted (which may
+ * happen after hours with huge log files) can be resumed from the last checkpoint instead of starting
+ * all over again. A checkpoint records:
+ *     - The input position after the last LogFrame fully written to the PCAP file (byte offset and number
+ *       of lines before it), so parsing can go on right there
+ *     - The length of the PCAP file at that moment, so anything written after the checkpoint is truncated
+ *     - The TCP/SCTP sequence numbers (see PcapSequenceState), so the resumed conversion goes on with them
+ *     - The tool version and the conversion id (log type and parser params, such as the year), as resuming
+ *       with a different version or different parser params would not produce the same PCAP file
+ * Thus a resumed conversion produces a PCAP file which is byte-identical to an uninterrupted one.
+ * The checkpoint is stored next to the PCAP file (<pcap file>.checkpoint) as a properties file, which is
+ * written to a temporary file and then renamed, so a crash never leaves a partially written checkpoint
+ */
+public class ConversionCheckpoint {
+
+	/* CONSTANTS */
+
+	public static final String EXTENSION = ".checkpoint";
+	public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+	private static final String KEY_VERSION = "version";
+	private static final String KEY_CONVERSION_ID = "conversionId";
+	private static final String KEY_INPUT_PATH = "inputPath";
+	private static final String KEY_INPUT_OFFSET = "inputOffset";
+	private static final String KEY_INPUT_LINE_NUMBER = "inputLineNumber";
+	private static final String KEY_OUTPUT_LENGTH = "outputLength";
+	private static final String KEY_FRAMES = "frames";
+	private static final String SEQUENCE_STATE_PREFIX = "seq.";
+
+	/* INSTANCE VARIABLES */
+
+	private String version;
+	private String conversionId;
+	private String inputPath;
+	private long inputOffset;
+	private long inputLineNumber;
+	private long outputLength;
+	private long frames;
+	private Properties sequenceState;
+
+	/**
+	 * Returns a ConversionCheckpoint object
+	 *
+	 * @param	conversionId	the conversion id (see ConversionCache.getConversionId(), null if unknown)
+	 * @param	inputPath		the path of the input log file
+	 * @param	inputOffset		the byte offset of the input log file where parsing goes on
+	 * @param	inputLineNumber	the number of lines before inputOffset
+	 * @param	outputLength	the length of the PCAP file
+	 * @param	frames			the number of frames written to the PCAP file
+	 * @param	sequenceState	the TCP/SCTP sequence numbers (which are copied)
+	 * @return					the ConversionCheckpoint object
+	 */
+	public ConversionCheckpoint(String conversionId, String inputPath, long inputOffset, long inputLineNumber, long outputLength, long frames, PcapSequenceState sequenceState) {
+		this.version = AppCore.BUILD;
+		this.conversionId = conversionId;
+		this.inputPath = inputPath;
+		this.inputOffset = inputOffset;
+		this.inputLineNumber = inputLineNumber;
+		this.outputLength = outputLength;
+		this.frames = frames;
+		this.sequenceState = new Properties();
+		sequenceState.save(this.sequenceState);
+	};
+
+	private ConversionCheckpoint() {
+	};
+
+	/**
+	 * Returns the checkpoint file of a PCAP file
+	 *
+	 * @param	pcapFile	the PCAP file
+	 * @return				the checkpoint file
+	 */
+	public static File getCheckpointFile(File pcapFile) {
+		return new File(pcapFile.getPath() + EXTENSION);
+	};
+
+	/**
+	 * Reads a checkpoint file
+	 *
+	 * @param	checkpointFile	the checkpoint file
+	 * @return					the ConversionCheckpoint object
+	 * @throws	IOException		if the file cannot be read or it is not a valid checkpoint
+	 */
+	public static ConversionCheckpoint read(File checkpointFile) throws IOException {
+		Properties properties = new Properties();
+		InputStream inputStream = new FileInputStream(checkpointFile);
+		try {
+			properties.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+		ConversionCheckpoint checkpoint = new ConversionCheckpoint();
+		try {
+			checkpoint.version = getRequiredProperty(properties, KEY_VERSION);
+			checkpoint.conversionId = properties.getProperty(KEY_CONVERSION_ID);
+			checkpoint.inputPath = getRequiredProperty(properties, KEY_INPUT_PATH);
+			checkpoint.inputOffset = Long.parseLong(getRequiredProperty(properties, KEY_INPUT_OFFSET));
+			checkpoint.inputLineNumber = Long.parseLong(getRequiredProperty(properties, KEY_INPUT_LINE_NUMBER));
+			checkpoint.outputLength = Long.parseLong(getRequiredProperty(properties, KEY_OUTPUT_LENGTH));
+			checkpoint.frames = Long.parseLong(getRequiredProperty(properties, KEY_FRAMES));
+			checkpoint.sequenceState = new Properties();
+			for(String key : properties.stringPropertyNames()) {
+				if(key.startsWith(SEQUENCE_STATE_PREFIX)) {
+					checkpoint.sequenceState.setProperty(key.substring(SEQUENCE_STATE_PREFIX.length()), properties.getProperty(key));
+				};
+			};
+			checkpoint.restoreSequenceState(new PcapSequenceState());
+		} catch(NumberFormatException e) {
+			throw(new IOException("Invalid checkpoint file " + checkpointFile.getPath() + " (" + e.getMessage() + ")"));
+		}
+		return checkpoint;
+	};
+
+	private static String getRequiredProperty(Properties properties, String key) throws IOException {
+		String value = properties.getProperty(key);
+		if(value == null) throw(new IOException("Invalid checkpoint file (missing " + key + ")"));
+		return value;
+	};
+
+	/**
+	 * Writes the checkpoint file (through a temporary file, so the previous checkpoint is kept if writing fails)
+	 *
+	 * @param	checkpointFile	the checkpoint file
+	 */
+	public void write(File checkpointFile) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(KEY_VERSION, this.version);
+		if(this.conversionId != null) properties.setProperty(KEY_CONVERSION_ID, this.conversionId);
+		properties.setProperty(KEY_INPUT_PATH, this.inputPath);
+		properties.setProperty(KEY_INPUT_OFFSET, Long.toString(this.inputOffset));
+		properties.setProperty(KEY_INPUT_LINE_NUMBER, Long.toString(this.inputLineNumber));
+		properties.setProperty(KEY_OUTPUT_LENGTH, Long.toString(this.outputLength));
+		properties.setProperty(KEY_FRAMES, Long.toString(this.frames));
+		for(String key : this.sequenceState.stringPropertyNames()) {
+			properties.setProperty(SEQUENCE_STATE_PREFIX + key, this.sequenceState.getProperty(key));
+		};
+		File tmpCheckpointFile = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream outputStream = new FileOutputStream(tmpCheckpointFile);
+		try {
+			properties.store(outputStream, "siplog2pcap conversion checkpoint");
+			outputStream.flush();
+			outputStream.getFD().sync();
+		} finally {
+			outputStream.close();
+		}
+		if(!tmpCheckpointFile.renameTo(checkpointFile)) {
+			// Some platforms do not rename over an existing file
+			checkpointFile.delete();
+			if(!tmpCheckpointFile.renameTo(checkpointFile)) {
+				tmpCheckpointFile.delete();
+				throw(new IOException("Failed to write checkpoint file " + checkpointFile.getPath()));
+			};
+		};
+	};
+
+	/**
+	 * Checks whether the conversion can be resumed from this checkpoint
+	 *
+	 * @param	conversionId	the conversion id of the conversion to resume (null if unknown)
+	 * @param	logFile			the input log file of the conversion to resume
+	 * @param	pcapFile		the PCAP file of the conversion to resume
+	 * @return					the reason why it cannot be resumed (null if it can)
+	 */
+	public String validate(String conversionId, File logFile, File pcapFile) {
+		if(!AppCore.BUILD.equals(this.version)) {
+			return "checkpoint written by version " + this.version;
+		} else if((this.conversionId != null) && (conversionId != null) && !this.conversionId.equals(conversionId)) {
+			return "checkpoint written with another log type or parser params";
+		} else if(!new File(this.inputPath).getAbsoluteFile().equals(logFile.getAbsoluteFile())) {
+			return "checkpoint written for input " + this.inputPath;
+		} else if(this.inputOffset > logFile.length()) {
+			return "input " + logFile.getPath() + " is shorter than the checkpoint offset";
+		} else if(this.outputLength > pcapFile.length()) {
+			return "output " + pcapFile.getPath() + " is shorter than the checkpoint length";
+		};
+		return null;
+	};
+
+	/**
+	 * Restores the TCP/SCTP sequence numbers of the checkpoint
+	 *
+	 * @param	sequenceState	the PcapSequenceState to restore them into
+	 */
+	public void restoreSequenceState(PcapSequenceState sequenceState) {
+		sequenceState.restore(this.sequenceState);
+	};
+
+	/**	Returns the conversion id (null if unknown)
+	 *	@return	conversionId */
+	public String getConversionId() { return this.conversionId; };
+
+	/**	Returns the path of the input log file
+	 *	@return	inputPath */
+	public String getInputPath() { return this.inputPath; };
+
+	/**	Returns the byte offset of the input log file where parsing goes on
+	 *	@return	inputOffset */
+	public long getInputOffset() { return this.inputOffset; };
+
+	/**	Returns the number of lines before inputOffset
+	 *	@return	inputLineNumber */
+	public long getInputLineNumber() { return this.inputLineNumber; };
+
+	/**	Returns the length of the PCAP file
+	 *	@return	outputLength */
+	public long getOutputLength() { return this.outputLength; };
+
+	/**	Returns the number of frames written to the PCAP file
+	 *	@return	frames */
+	public long getFrames() { return this.frames; };
+
+}
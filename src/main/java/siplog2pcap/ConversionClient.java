@@ -0,0 +1,231 @@
+package siplog2pcap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * This class implements the client of the local conversion service (see ConversionServer), which just
+ * uploads the log file and writes the PCAP file streamed back by the service.
+ * As the service streams the PCAP file while it is still reading the log file, the upload runs in its own
+ * thread while the response is being read (otherwise, with big files, both sides would end up blocked
+ * writing to each other). That is why this client uses a plain socket instead of HttpURLConnection,
+ * which does not read the response until the whole request has been sent.
+ * The encoding and frame limits of the client are sent along with the request, so the service converts the
+ * log file as a local conversion would (see ConversionServer)
+ */
+public class ConversionClient {
+
+	/* CONSTANTS */
+
+	private static final int BUFFER_SIZE = 65536;
+
+	/* INSTANCE VARIABLES */
+
+	private String host;
+	private int port;
+	private boolean checksumsEnabled = false;
+	private int snapLength = Pcap.DEFAULT_SNAP_LENGTH;
+	private boolean headersOnly = false;
+	private int maxFrameLines = LogLinesParser.DEFAULT_MAX_FRAME_LINES;
+	private int maxFrameBytes = LogLinesParser.DEFAULT_MAX_FRAME_BYTES;
+
+	/**
+	 * Returns a ConversionClient object
+	 *
+	 * @param	host	the host of the conversion service
+	 * @param	port	the TCP port of the conversion service
+	 * @return			the ConversionClient object
+	 */
+	public ConversionClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	};
+
+	/**
+	 * Sets the encoding of the PCAP frames to be requested (see AppCore.setChecksumsEnabled(),
+	 * AppCore.setSnapLength() and AppCore.setHeadersOnly())
+	 *
+	 * @param	checksumsEnabled	whether the checksums are computed
+	 * @param	snapLength			the snapshot length
+	 * @param	headersOnly			whether the bodies of the SIP messages are left out
+	 */
+	public void setEncoding(boolean checksumsEnabled, int snapLength, boolean headersOnly) {
+		this.checksumsEnabled = checksumsEnabled;
+		this.snapLength = snapLength;
+		this.headersOnly = headersOnly;
+	};
+
+	/**
+	 * Sets the frame limits to be requested (see AppCore.setFrameLimits())
+	 *
+	 * @param	maxFrameLines	the maximum number of lines of a LogFrame
+	 * @param	maxFrameBytes	the maximum number of input bytes of a LogFrame
+	 */
+	public void setFrameLimits(int maxFrameLines, int maxFrameBytes) {
+		this.maxFrameLines = maxFrameLines;
+		this.maxFrameBytes = maxFrameBytes;
+	};
+
+	/**
+	 * Converts a log file through the conversion service
+	 *
+	 * @param	logType				the log type (such as AppCore.TYPE_ACME_PACKET)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @param	logFile				the input log file to upload
+	 * @param	pcapFile			the output PCAP file to write
+	 * @return						the number of bytes written to the PCAP file
+	 * @throws	IOException			if the conversion fails (with the error returned by the service, if any)
+	 */
+	public long convert(String logType, String[] parserConfigParams, final File logFile, File pcapFile) throws IOException {
+		StringBuilder target = new StringBuilder(ConversionServer.CONVERT_PATH);
+		target.append("?type=").append(URLEncoder.encode(logType, "UTF-8"));
+		for(String param : parserConfigParams) {
+			target.append("&param=").append(URLEncoder.encode(param, "UTF-8"));
+		};
+		target.append("&").append(ConversionServer.CHECKSUMS_PARAMETER).append("=").append(this.checksumsEnabled);
+		target.append("&").append(ConversionServer.SNAPLEN_PARAMETER).append("=").append(this.snapLength);
+		target.append("&").append(ConversionServer.HEADERS_ONLY_PARAMETER).append("=").append(this.headersOnly);
+		target.append("&").append(ConversionServer.MAX_FRAME_LINES_PARAMETER).append("=").append(this.maxFrameLines);
+		target.append("&").append(ConversionServer.MAX_FRAME_BYTES_PARAMETER).append("=").append(this.maxFrameBytes);
+		final Socket socket = new Socket(this.host, this.port);
+		try {
+			final OutputStream socketOutputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+			String requestHead = "POST " + target.toString() + " HTTP/1.1\r\n" +
+				"Host: " + this.host + ":" + Integer.toString(this.port) + "\r\n" +
+				"Content-Type: text/plain\r\n" +
+				"Content-Length: " + Long.toString(logFile.length()) + "\r\n" +
+				"Connection: close\r\n" +
+				"\r\n";
+			socketOutputStream.write(requestHead.getBytes("US-ASCII"));
+			final IOException[] uploadException = new IOException[1];
+			Thread uploadThread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						InputStream logInputStream = new FileInputStream(logFile);
+						try {
+							copy(logInputStream, socketOutputStream, -1);
+							socketOutputStream.flush();
+						} finally {
+							logInputStream.close();
+						}
+					} catch(IOException e) {
+						uploadException[0] = e;
+					}
+				}
+			}, "siplog2pcap-upload");
+			uploadThread.setDaemon(true);
+			uploadThread.start();
+			InputStream socketInputStream = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			String statusLine = readLine(socketInputStream);
+			String[] statusFields = statusLine.split(" ", 3);
+			int status = (statusFields.length >= 2) ? Integer.parseInt(statusFields[1]) : -1;
+			Map<String,String> headers = new HashMap<String,String>();
+			for(String line = readLine(socketInputStream); line.length() > 0; line = readLine(socketInputStream)) {
+				int colon = line.indexOf(':');
+				if(colon > 0) headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			};
+			boolean chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+			long contentLength = headers.containsKey("content-length") ? Long.parseLong(headers.get("content-length")) : -1;
+			if(status != 200) {
+				ByteArrayOutputStream errorBody = new ByteArrayOutputStream();
+				readBody(socketInputStream, errorBody, chunked, contentLength);
+				throw(new IOException("Conversion service returned " + statusLine + ": " + new String(errorBody.toByteArray(), "UTF-8").trim()));
+			};
+			long bytesWritten = 0;
+			OutputStream pcapOutputStream = new BufferedOutputStream(new FileOutputStream(pcapFile), BUFFER_SIZE);
+			try {
+				bytesWritten = readBody(socketInputStream, pcapOutputStream, chunked, contentLength);
+			} finally {
+				pcapOutputStream.close();
+			}
+			try {
+				uploadThread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			};
+			if(uploadException[0] != null) throw(uploadException[0]);
+			return bytesWritten;
+		} finally {
+			socket.close();
+		}
+	};
+
+	/**
+	 * Copies bytes from an input stream into an output stream
+	 *
+	 * @param	inputStream		the input stream
+	 * @param	outputStream	the output stream
+	 * @param	length			the number of bytes to copy (-1 to copy until the end of the input stream)
+	 * @return					the number of bytes copied
+	 */
+	private static long copy(InputStream inputStream, OutputStream outputStream, long length) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long copied = 0;
+		while((length < 0) || (copied < length)) {
+			int toRead = (length < 0) ? buffer.length : (int) Math.min(buffer.length, length - copied);
+			int n = inputStream.read(buffer, 0, toRead);
+			if(n < 0) {
+				if(length < 0) break;
+				throw(new EOFException("Connection closed by the conversion service"));
+			};
+			outputStream.write(buffer, 0, n);
+			copied += n;
+		};
+		return copied;
+	};
+
+	/**
+	 * Reads the body of an HTTP response
+	 *
+	 * @param	inputStream		the input stream (positioned at the start of the body)
+	 * @param	outputStream	the output stream to write the body to
+	 * @param	chunked			whether the body has chunked transfer encoding
+	 * @param	contentLength	the content length (-1 if unknown, so it is read until the connection is closed)
+	 * @return					the length of the body
+	 */
+	private static long readBody(InputStream inputStream, OutputStream outputStream, boolean chunked, long contentLength) throws IOException {
+		if(!chunked) return copy(inputStream, outputStream, contentLength);
+		long length = 0;
+		while(true) {
+			String chunkHeader = readLine(inputStream);
+			int semicolon = chunkHeader.indexOf(';');
+			long chunkSize = Long.parseLong(((semicolon >= 0) ? chunkHeader.substring(0, semicolon) : chunkHeader).trim(), 16);
+			if(chunkSize == 0) break;
+			length += copy(inputStream, outputStream, chunkSize);
+			readLine(inputStream);
+		};
+		// Trailer (if any) up to the final empty line
+		while(readLine(inputStream).length() > 0) {
+		};
+		return length;
+	};
+
+	/**
+	 * Reads a CRLF (or LF) terminated line of an HTTP response
+	 *
+	 * @param	inputStream	the input stream
+	 * @return				the line (without the line terminator)
+	 */
+	private static String readLine(InputStream inputStream) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while((b = inputStream.read()) != '\n') {
+			if(b < 0) throw(new EOFException("Connection closed by the conversion service"));
+			if(b != '\r') sb.append((char) b);
+		};
+		return sb.toString();
+	};
+
+}
@@ -0,0 +1,420 @@
+package siplog2pcap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * This class keeps the runtime metrics of one conversion (one processLogFile() run):
+ *     - counters of lines read, header lines, SIP frames, syslog frames, parse failures and bytes written
+ *     - time spent in each stage of the conversion (reading, parsing, encoding and writing), only if stage
+ *       timing is enabled, as it takes two clock readings per line and per frame
+ *     - progress, based on the input byte offset versus the file size, and the estimated time to finish
+ * The metrics are updated by the thread running the conversion, but they can be read at any time
+ * from other threads (for instance through JMX, as this class implements ConversionMetricsMBean).
+ * The counters updated on every line and frame are kept in plain fields by the thread running the
+ * conversion, and published to the fields read by other threads every PUBLISH_INTERVAL lines (or frames)
+ * and when the conversion finishes
+ */
+public class ConversionMetrics implements ConversionMetricsMBean {
+
+	/* CONSTANTS */
+
+	public static final String JMX_DOMAIN = "siplog2pcap";
+	/** Number of lines (or frames) between publications of the counters (a power of 2) */
+	public static final int PUBLISH_INTERVAL = 4096;
+
+	/* INSTANCE VARIABLES */
+
+	private String inputFile;
+	private volatile long inputLength = 0;
+	private volatile long inputBytesRead = 0;
+	private volatile long linesRead = 0;
+	private volatile long headerLines = 0;
+	private volatile long sipFrames = 0;
+	private volatile long syslogFrames = 0;
+	private volatile long truncatedSipMessages = 0;
+	private volatile long sampledOutFrames = 0;
+	private volatile long droppedEvents = 0;
+	private volatile long coalescedEvents = 0;
+	private volatile long bytesWritten = 0;
+	private volatile long readNanos = 0;
+	private volatile long parseNanos = 0;
+	private volatile long encodeNanos = 0;
+	private volatile long writeNanos = 0;
+	private volatile long startMillis = 0;
+	private volatile long finishMillis = 0;
+	private boolean stageTiming = false;
+	/** Counters of the thread running the conversion, not published yet */
+	private long lineCount = 0;
+	private long headerLineCount = 0;
+	private long sipFrameCount = 0;
+	private long syslogFrameCount = 0;
+	private long truncatedSipMessageCount = 0;
+	private long bytesWrittenCount = 0;
+	private LineIterator meteredLines = null;
+	private ParseDiagnostics parseDiagnostics = null;
+	private ObjectName objectName = null;
+
+	/**
+	 * Returns a ConversionMetrics object
+	 *
+	 * @param	inputFile	the input file path
+	 * @param	inputLength	the input length (in bytes)
+	 * @return				the ConversionMetrics object
+	 */
+	public ConversionMetrics(String inputFile, long inputLength) {
+		this.inputFile = inputFile;
+		this.inputLength = inputLength;
+	};
+
+	/**
+	 * Sets the ParseDiagnostics from which parse failures are counted
+	 *
+	 * @param	parseDiagnostics	the ParseDiagnostics
+	 */
+	public void setParseDiagnostics(ParseDiagnostics parseDiagnostics) {
+		this.parseDiagnostics = parseDiagnostics;
+	};
+
+	/**
+	 * Sets whether the time spent in each stage of the conversion is measured (it is 0 otherwise)
+	 *
+	 * @param	stageTiming	whether the stage times are measured
+	 */
+	public void setStageTiming(boolean stageTiming) {
+		this.stageTiming = stageTiming;
+	};
+
+	/**	Returns whether the time spent in each stage of the conversion is measured
+	 *	@return	whether the stage times are measured */
+	public boolean isStageTiming() {
+		return this.stageTiming;
+	};
+
+	/**
+	 * Returns the current time in nanoseconds for measuring a stage, or 0 if stage timing is disabled
+	 * (so the differences of these times are 0, and so the time added to the stage)
+	 *
+	 * @return	the current time in nanoseconds (0 if stage timing is disabled)
+	 */
+	public long nanoTime() {
+		return this.stageTiming ? System.nanoTime() : 0;
+	};
+
+	/**
+	 * Marks the start of the conversion
+	 */
+	public void start() {
+		this.startMillis = System.currentTimeMillis();
+		this.finishMillis = 0;
+	};
+
+	/**
+	 * Marks the end of the conversion
+	 */
+	public void finish() {
+		publish();
+		this.finishMillis = System.currentTimeMillis();
+	};
+
+	/**
+	 * Publishes the counters of the thread running the conversion, so other threads can read them
+	 */
+	private void publish() {
+		this.linesRead = this.lineCount;
+		if(this.meteredLines != null) this.inputBytesRead = this.meteredLines.getBytesRead();
+		this.headerLines = this.headerLineCount;
+		this.sipFrames = this.sipFrameCount;
+		this.syslogFrames = this.syslogFrameCount;
+		this.truncatedSipMessages = this.truncatedSipMessageCount;
+		this.bytesWritten = this.bytesWrittenCount;
+	};
+
+	/**
+	 * Registers this object as an MBean in the platform MBean server
+	 *
+	 * @return	whether the registration succeeded
+	 */
+	public boolean registerMBean() {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ConversionMetrics,name=" + ObjectName.quote(this.inputFile) + ",id=" + Integer.toString(System.identityHashCode(this)));
+			mBeanServer.registerMBean(this, name);
+			this.objectName = name;
+		} catch(Exception e) {
+			this.objectName = null;
+		};
+		return (this.objectName != null);
+	};
+
+	/**
+	 * Unregisters this object from the platform MBean server (if registered)
+	 */
+	public void unregisterMBean() {
+		if(this.objectName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+		} catch(Exception e) {
+			// Nothing to do, as it will be gone with the JVM anyway
+		};
+		this.objectName = null;
+	};
+
+	/**
+	 * Returns an iterator of lines which updates the reading metrics
+	 *
+	 * @param	lineIterator	the input LineIterator
+	 * @return					the iterator of lines
+	 */
+	public Iterator<String> meterLines(final LineIterator lineIterator) {
+		this.meteredLines = lineIterator;
+		final boolean timed = this.stageTiming;
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				long t0 = timed ? System.nanoTime() : 0;
+				boolean hasNext = lineIterator.hasNext();
+				if(timed) ConversionMetrics.this.readNanos += System.nanoTime() - t0;
+				if(!hasNext) publish();
+				return hasNext;
+			}
+			public String next() {
+				long t0 = timed ? System.nanoTime() : 0;
+				String next = lineIterator.next();
+				if(timed) ConversionMetrics.this.readNanos += System.nanoTime() - t0;
+				if((++ConversionMetrics.this.lineCount & (PUBLISH_INTERVAL - 1)) == 0) publish();
+				return next;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Returns an iterator of LogFrames which updates the parsing metrics
+	 * Note that reading time is discounted from parsing time, as parsing pulls the lines
+	 *
+	 * @param	logFrames	the input iterator of LogFrames
+	 * @return				the iterator of LogFrames
+	 */
+	public Iterator<LogFrame> meterLogFrames(final Iterator<LogFrame> logFrames) {
+		final boolean timed = this.stageTiming;
+		return new Iterator<LogFrame>() {
+			public boolean hasNext() {
+				if(!timed) return logFrames.hasNext();
+				long t0 = System.nanoTime();
+				long readNanos0 = ConversionMetrics.this.readNanos;
+				boolean hasNext = logFrames.hasNext();
+				ConversionMetrics.this.parseNanos += (System.nanoTime() - t0) - (ConversionMetrics.this.readNanos - readNanos0);
+				return hasNext;
+			}
+			public LogFrame next() {
+				LogFrame next;
+				if(timed) {
+					long t0 = System.nanoTime();
+					long readNanos0 = ConversionMetrics.this.readNanos;
+					next = logFrames.next();
+					ConversionMetrics.this.parseNanos += (System.nanoTime() - t0) - (ConversionMetrics.this.readNanos - readNanos0);
+				} else {
+					next = logFrames.next();
+				};
+				if((next.getSipLines() != null) && (next.getSipLines().size() > 0)) {
+					ConversionMetrics.this.sipFrameCount++;
+					if(next.isTruncated()) ConversionMetrics.this.truncatedSipMessageCount++;
+				} else {
+					ConversionMetrics.this.syslogFrameCount++;
+				};
+				if((++ConversionMetrics.this.headerLineCount & (PUBLISH_INTERVAL - 1)) == 0) publish();
+				return next;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Counts a frame dropped by the sampling (see CallSampler)
+	 */
+	public void addSampledOutFrame() {
+		this.sampledOutFrames++;
+	};
+
+	/**
+	 * Counts a generic event dropped by the event filter (see EventFilter)
+	 */
+	public void addDroppedEvent() {
+		this.droppedEvents++;
+	};
+
+	/**
+	 * Counts a generic event merged into a previous one by the event filter (see EventFilter)
+	 */
+	public void addCoalescedEvent() {
+		this.coalescedEvents++;
+	};
+
+	/**
+	 * Adds time spent encoding (see nanoTime())
+	 *
+	 * @param	nanos	the time spent (in nanoseconds)
+	 */
+	public void addEncodeNanos(long nanos) {
+		if(this.stageTiming) this.encodeNanos += nanos;
+	};
+
+	/**
+	 * Adds time spent writing (see nanoTime()) and the number of bytes written
+	 *
+	 * @param	nanos	the time spent (in nanoseconds)
+	 * @param	bytes	the number of bytes written
+	 */
+	public void addWrite(long nanos, long bytes) {
+		if(this.stageTiming) this.writeNanos += nanos;
+		this.bytesWrittenCount += bytes;
+	};
+
+	public String getInputFile() { return this.inputFile; };
+
+	public long getLinesRead() { return this.linesRead; };
+
+	public long getHeaderLines() { return this.headerLines; };
+
+	public long getSipFrames() { return this.sipFrames; };
+
+	public long getSyslogFrames() { return this.syslogFrames; };
+
+	public long getParseFailures() { return (this.parseDiagnostics != null) ? this.parseDiagnostics.getParseFailures() : 0; };
+
+	public Map<String,Long> getParseFailuresByCategory() { return (this.parseDiagnostics != null) ? this.parseDiagnostics.getCategoryCounts() : new TreeMap<String,Long>(); };
+
+	public long getTruncatedSipMessages() { return this.truncatedSipMessages; };
+
+	public long getSampledOutFrames() { return this.sampledOutFrames; };
+
+	public long getDroppedEvents() { return this.droppedEvents; };
+
+	public long getCoalescedEvents() { return this.coalescedEvents; };
+
+	public long getBytesWritten() { return this.bytesWritten; };
+
+	public long getInputBytesRead() { return this.inputBytesRead; };
+
+	public long getInputLength() { return this.inputLength; };
+
+	public double getProgressPercent() {
+		if(this.finishMillis != 0) return 100.0;
+		if(this.inputLength <= 0) return 0.0;
+		return Math.min(100.0, (100.0 * this.inputBytesRead) / this.inputLength);
+	};
+
+	public long getEtaSeconds() {
+		if(this.finishMillis != 0) return 0;
+		long bytesRead = this.inputBytesRead;
+		if((bytesRead <= 0) || (this.inputLength <= 0)) return -1;
+		long remainingBytes = Math.max(0, this.inputLength - bytesRead);
+		return (long) (((double) getElapsedMillis() * remainingBytes) / bytesRead / 1000);
+	};
+
+	public long getElapsedMillis() {
+		if(this.startMillis == 0) return 0;
+		long endMillis = (this.finishMillis != 0) ? this.finishMillis : System.currentTimeMillis();
+		return endMillis - this.startMillis;
+	};
+
+	public long getReadMillis() { return this.readNanos / 1000000; };
+
+	public long getParseMillis() { return this.parseNanos / 1000000; };
+
+	public long getEncodeMillis() { return this.encodeNanos / 1000000; };
+
+	public long getWriteMillis() { return this.writeNanos / 1000000; };
+
+	/**
+	 * Formats a duration as HH:MM:SS
+	 *
+	 * @param	seconds	the duration in seconds
+	 * @return			the formatted duration
+	 */
+	private static String formatDuration(long seconds) {
+		if(seconds < 0) return "--:--:--";
+		return String.format("%02d:%02d:%02d", Long.valueOf(seconds / 3600), Long.valueOf((seconds / 60) % 60), Long.valueOf(seconds % 60));
+	};
+
+	/**	Returns a human readable progress line
+	 *	@return	the progress line */
+	public String toProgressString() {
+		return String.format("Progress: %.1f%% (%d of %d bytes), %d frames, elapsed %s, ETA %s",
+			Double.valueOf(getProgressPercent()), Long.valueOf(getInputBytesRead()), Long.valueOf(getInputLength()),
+			Long.valueOf(getHeaderLines()), formatDuration(getElapsedMillis() / 1000), formatDuration(getEtaSeconds()));
+	};
+
+	/**	Returns a human readable summary
+	 *	@return	the summary */
+	public String toSummaryString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Lines read: ").append(getLinesRead()).append("\r\n");
+		sb.append("Frames: ").append(getHeaderLines()).append(" (").append(getSipFrames()).append(" SIP, ").append(getSyslogFrames()).append(" syslog)\r\n");
+		if(getSampledOutFrames() > 0) sb.append("Frames sampled out: ").append(getSampledOutFrames()).append("\r\n");
+		if(getDroppedEvents() > 0) sb.append("Generic events dropped: ").append(getDroppedEvents()).append("\r\n");
+		if(getCoalescedEvents() > 0) sb.append("Generic events coalesced: ").append(getCoalescedEvents()).append("\r\n");
+		sb.append("Parse failures: ").append(getParseFailures());
+		if(getParseFailures() > 0) {
+			String separator = " (";
+			for(Map.Entry<String,Long> categoryCount : this.parseDiagnostics.getCategoryCounts().entrySet()) {
+				sb.append(separator).append(categoryCount.getKey()).append(": ").append(categoryCount.getValue());
+				separator = ", ";
+			};
+			sb.append(")");
+		};
+		sb.append("\r\n");
+		sb.append("Bytes written: ").append(getBytesWritten()).append("\r\n");
+		sb.append("Time: ").append(getElapsedMillis()).append(" ms");
+		if(this.stageTiming) {
+			sb.append(" (read ").append(getReadMillis()).append(" ms, parse ").append(getParseMillis());
+			sb.append(" ms, encode ").append(getEncodeMillis()).append(" ms, write ").append(getWriteMillis()).append(" ms)");
+		};
+		sb.append("\r\n");
+		return sb.toString();
+	};
+
+	/**	Returns a JSON representation of the metrics
+	 *	@return	the JSON representation */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{ \"inputFile\": \"").append(SipStatistics.escapeJson(this.inputFile)).append("\"");
+		sb.append(", \"inputLength\": ").append(getInputLength());
+		sb.append(", \"inputBytesRead\": ").append(getInputBytesRead());
+		sb.append(", \"linesRead\": ").append(getLinesRead());
+		sb.append(", \"headerLines\": ").append(getHeaderLines());
+		sb.append(", \"sipFrames\": ").append(getSipFrames());
+		sb.append(", \"syslogFrames\": ").append(getSyslogFrames());
+		sb.append(", \"parseFailures\": ").append(getParseFailures());
+		sb.append(", \"parseFailuresByCategory\": {");
+		if(this.parseDiagnostics != null) {
+			String separator = " ";
+			for(Map.Entry<String,Long> categoryCount : this.parseDiagnostics.getCategoryCounts().entrySet()) {
+				sb.append(separator).append("\"").append(SipStatistics.escapeJson(categoryCount.getKey())).append("\": ").append(categoryCount.getValue());
+				separator = ", ";
+			};
+		};
+		sb.append(" }");
+		sb.append(", \"truncatedSipMessages\": ").append(getTruncatedSipMessages());
+		sb.append(", \"sampledOutFrames\": ").append(getSampledOutFrames());
+		sb.append(", \"droppedEvents\": ").append(getDroppedEvents());
+		sb.append(", \"coalescedEvents\": ").append(getCoalescedEvents());
+		sb.append(", \"bytesWritten\": ").append(getBytesWritten());
+		sb.append(", \"elapsedMillis\": ").append(getElapsedMillis());
+		sb.append(", \"readMillis\": ").append(getReadMillis());
+		sb.append(", \"parseMillis\": ").append(getParseMillis());
+		sb.append(", \"encodeMillis\": ").append(getEncodeMillis());
+		sb.append(", \"writeMillis\": ").append(getWriteMillis());
+		sb.append(" }");
+		return sb.toString();
+	};
+
+}
@@ -0,0 +1,88 @@
+package siplog2pcap;
+
+/**
+ * ConversionMetricsMBean interface exposes the ConversionMetrics of a running conversion through JMX
+ */
+public interface ConversionMetricsMBean {
+
+	/**	Returns the input file path
+	 *	@return	the input file path */
+	public String getInputFile();
+
+	/**	Returns the number of lines read
+	 *	@return	the number of lines read */
+	public long getLinesRead();
+
+	/**	Returns the number of header lines
+	 *	@return	the number of header lines */
+	public long getHeaderLines();
+
+	/**	Returns the number of SIP frames
+	 *	@return	the number of SIP frames */
+	public long getSipFrames();
+
+	/**	Returns the number of syslog frames
+	 *	@return	the number of syslog frames */
+	public long getSyslogFrames();
+
+	/**	Returns the number of parse failures
+	 *	@return	the number of parse failures */
+	public long getParseFailures();
+
+	/**	Returns the number of SIP messages shorter than their Content-Length
+	 *	@return	the number of truncated SIP messages */
+	public long getTruncatedSipMessages();
+
+	/**	Returns the number of frames dropped by the sampling
+	 *	@return	the number of frames sampled out */
+	public long getSampledOutFrames();
+
+	/**	Returns the number of generic events dropped by the event filter
+	 *	@return	the number of generic events dropped */
+	public long getDroppedEvents();
+
+	/**	Returns the number of generic events merged into previous ones by the event filter
+	 *	@return	the number of generic events coalesced */
+	public long getCoalescedEvents();
+
+	/**	Returns the number of bytes written
+	 *	@return	the number of bytes written */
+	public long getBytesWritten();
+
+	/**	Returns the number of input bytes read
+	 *	@return	the number of input bytes read */
+	public long getInputBytesRead();
+
+	/**	Returns the input length
+	 *	@return	the input length (in bytes) */
+	public long getInputLength();
+
+	/**	Returns the progress
+	 *	@return	the progress (in percentage) */
+	public double getProgressPercent();
+
+	/**	Returns the estimated time to finish
+	 *	@return	the estimated time to finish (in seconds, or -1 if unknown) */
+	public long getEtaSeconds();
+
+	/**	Returns the elapsed time
+	 *	@return	the elapsed time (in milliseconds) */
+	public long getElapsedMillis();
+
+	/**	Returns the time spent reading
+	 *	@return	the time spent reading (in milliseconds, 0 unless stage timing is enabled) */
+	public long getReadMillis();
+
+	/**	Returns the time spent parsing
+	 *	@return	the time spent parsing (in milliseconds, 0 unless stage timing is enabled) */
+	public long getParseMillis();
+
+	/**	Returns the time spent encoding
+	 *	@return	the time spent encoding (in milliseconds, 0 unless stage timing is enabled) */
+	public long getEncodeMillis();
+
+	/**	Returns the time spent writing
+	 *	@return	the time spent writing (in milliseconds, 0 unless stage timing is enabled) */
+	public long getWriteMillis();
+
+}
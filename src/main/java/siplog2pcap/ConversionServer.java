@@ -0,0 +1,341 @@
+package siplog2pcap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class implements a local conversion service, so log files can be converted by an already running
+ * (and warmed up) JVM instead of paying JVM startup and warm-up on every conversion.
+ * The service listens on the loopback interface only, with a minimal HTTP interface:
+ *     POST /convert?type=<log_type>&param=<parser_param>&param=<parser_param>...
+ *         The request body is the log file, and the response body is the PCAP file, which is streamed
+ *         (chunked) as it is produced. Log types and parser params are those of the command line
+ *         (for instance: type=acme-packet&param=2017). The encoding and frame limits of the request may be
+ *         given too (checksums=<true|false>, snaplen=<bytes>, headers-only=<true|false>,
+ *         max-frame-lines=<lines> and max-frame-bytes=<bytes>), otherwise those of the service are used
+ *     GET /status
+ *         Returns a JSON object with the request counters of the service
+ * Each request is converted with its own state (see AppCore.convertLogLines()), in a fixed pool of threads
+ * which bounds the number of conversions running at the same time (further requests wait for a free thread).
+ * Requests are handed over to that pool by the HTTP server thread, so /status answers even when all the
+ * conversion threads are busy
+ */
+public class ConversionServer {
+
+	/* CONSTANTS */
+
+	public static final int DEFAULT_PORT = 8060;
+	public static final String CONVERT_PATH = "/convert";
+	public static final String STATUS_PATH = "/status";
+	public static final String PCAP_CONTENT_TYPE = "application/vnd.tcpdump.pcap";
+	public static final String CHECKSUMS_PARAMETER = "checksums";
+	public static final String SNAPLEN_PARAMETER = "snaplen";
+	public static final String HEADERS_ONLY_PARAMETER = "headers-only";
+	public static final String MAX_FRAME_LINES_PARAMETER = "max-frame-lines";
+	public static final String MAX_FRAME_BYTES_PARAMETER = "max-frame-bytes";
+
+	/* INSTANCE VARIABLES */
+
+	private AppCore appCore;
+	private int port;
+	private int maxConcurrentRequests;
+	private HttpServer httpServer = null;
+	/** Pool of the threads running the conversions (the HTTP server thread just hands requests over to it) */
+	private ExecutorService executor = null;
+	private AtomicLong requests = new AtomicLong(0);
+	private AtomicLong activeRequests = new AtomicLong(0);
+	private AtomicLong failedRequests = new AtomicLong(0);
+
+	/**
+	 * Returns a ConversionServer object
+	 *
+	 * @param	appCore					the AppCore to which text output is sent
+	 * @param	port					the TCP port to listen on (0 for any free port)
+	 * @param	maxConcurrentRequests	the maximum number of conversions to run at the same time
+	 * @return							the ConversionServer object
+	 */
+	public ConversionServer(AppCore appCore, int port, int maxConcurrentRequests) {
+		this.appCore = appCore;
+		this.port = port;
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	};
+
+	/**
+	 * Starts listening for requests
+	 */
+	public void start() throws IOException {
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), this.port), 0);
+		this.httpServer.createContext(CONVERT_PATH, new ConvertHandler());
+		this.httpServer.createContext(STATUS_PATH, new StatusHandler());
+		this.executor = Executors.newFixedThreadPool(this.maxConcurrentRequests);
+		this.httpServer.start();
+	};
+
+	/**
+	 * Stops listening for requests, waiting a bit for the running conversions to finish
+	 *
+	 * @param	delaySeconds	the maximum time to wait for the running conversions (in seconds)
+	 */
+	public void stop(int delaySeconds) {
+		if(this.httpServer == null) return;
+		this.httpServer.stop(delaySeconds);
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		};
+		this.httpServer = null;
+	};
+
+	/**	Returns the TCP port the server listens on
+	 *	@return	the port */
+	public int getPort() {
+		return (this.httpServer != null) ? this.httpServer.getAddress().getPort() : this.port;
+	};
+
+	/**	Returns a JSON representation of the status of the server
+	 *	@return	the JSON representation */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{ \"build\": \"").append(AppCore.BUILD).append("\"");
+		sb.append(", \"port\": ").append(getPort());
+		sb.append(", \"maxConcurrentRequests\": ").append(this.maxConcurrentRequests);
+		sb.append(", \"requests\": ").append(this.requests.get());
+		sb.append(", \"activeRequests\": ").append(this.activeRequests.get());
+		sb.append(", \"failedRequests\": ").append(this.failedRequests.get());
+		sb.append(" }");
+		return sb.toString();
+	};
+
+	/**
+	 * Sends a text response and closes the exchange
+	 *
+	 * @param	exchange	the HTTP exchange
+	 * @param	status		the HTTP status code
+	 * @param	contentType	the content type
+	 * @param	text		the text
+	 */
+	private static void sendText(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream responseBody = exchange.getResponseBody();
+		responseBody.write(bytes);
+		responseBody.close();
+	};
+
+	/**
+	 * Returns the values of a query parameter (in the order they appear in the query)
+	 *
+	 * @param	query	the raw (URL-encoded) query
+	 * @param	name	the name of the parameter
+	 * @return			the values
+	 */
+	static List<String> getQueryParameters(String query, String name) throws UnsupportedEncodingException {
+		List<String> values = new ArrayList<String>();
+		if(query == null) return values;
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			String pairName = URLDecoder.decode((equals >= 0) ? pair.substring(0, equals) : pair, "UTF-8");
+			if(pairName.equals(name)) {
+				values.add((equals >= 0) ? URLDecoder.decode(pair.substring(equals + 1), "UTF-8") : "");
+			};
+		};
+		return values;
+	};
+
+	/**
+	 * Returns the value of a query parameter given at most once
+	 *
+	 * @param	query	the raw (URL-encoded) query
+	 * @param	name	the name of the parameter
+	 * @return			the value (null if not given)
+	 * @throws	IllegalArgumentException	if the parameter is given several times
+	 */
+	private static String getQueryParameter(String query, String name) throws UnsupportedEncodingException {
+		List<String> values = getQueryParameters(query, name);
+		if(values.size() > 1) throw(new IllegalArgumentException(name + " given more than once"));
+		return values.isEmpty() ? null : values.get(0);
+	};
+
+	private static boolean parseBooleanParameter(String name, String value) {
+		if(value.equals("true")) return true;
+		if(value.equals("false")) return false;
+		throw(new IllegalArgumentException("Invalid " + name + "=" + value + " (true or false)"));
+	};
+
+	private static int parseIntParameter(String name, String value, int maxValue) {
+		try {
+			int intValue = Integer.parseInt(value);
+			if((intValue > 0) && (intValue <= maxValue)) return intValue;
+		} catch(NumberFormatException e) {
+		};
+		throw(new IllegalArgumentException("Invalid " + name + "=" + value + " (1 to " + Integer.toString(maxValue) + ")"));
+	};
+
+	/**
+	 * Applies the encoding and frame limits given in the query of a request (if any) to its AppCore
+	 *
+	 * @param	requestAppCore	the AppCore of the request
+	 * @param	query			the raw (URL-encoded) query
+	 * @throws	IllegalArgumentException	if any of them is not valid
+	 */
+	static void applyQueryOptions(AppCore requestAppCore, String query) throws UnsupportedEncodingException {
+		String value = getQueryParameter(query, CHECKSUMS_PARAMETER);
+		if(value != null) requestAppCore.setChecksumsEnabled(parseBooleanParameter(CHECKSUMS_PARAMETER, value));
+		value = getQueryParameter(query, SNAPLEN_PARAMETER);
+		if(value != null) requestAppCore.setSnapLength(parseIntParameter(SNAPLEN_PARAMETER, value, Pcap.DEFAULT_SNAP_LENGTH));
+		value = getQueryParameter(query, HEADERS_ONLY_PARAMETER);
+		if(value != null) requestAppCore.setHeadersOnly(parseBooleanParameter(HEADERS_ONLY_PARAMETER, value));
+		int maxFrameLines = requestAppCore.getMaxFrameLines();
+		int maxFrameBytes = requestAppCore.getMaxFrameBytes();
+		value = getQueryParameter(query, MAX_FRAME_LINES_PARAMETER);
+		if(value != null) maxFrameLines = parseIntParameter(MAX_FRAME_LINES_PARAMETER, value, Integer.MAX_VALUE);
+		value = getQueryParameter(query, MAX_FRAME_BYTES_PARAMETER);
+		if(value != null) maxFrameBytes = parseIntParameter(MAX_FRAME_BYTES_PARAMETER, value, Integer.MAX_VALUE);
+		requestAppCore.setFrameLimits(maxFrameLines, maxFrameBytes);
+	};
+
+	/**
+	 * Returns an AppCore to run the conversion of one request, which forwards just errors and warnings
+	 * to the given request output (as the server reports one timing line per request), and which uses its
+	 * stage timing, encoding (checksums, snapshot length and headers only) and frame limits settings, unless
+	 * the request gives its own ones (see applyQueryOptions())
+	 *
+	 * @param	requestOutput	the AppCore handling the text output of the request
+	 * @return					the AppCore
+	 */
+	private static AppCore createRequestAppCore(final AppCore requestOutput) {
+		AppCore requestAppCore = new AppCore() {
+			public void onTextOutput(String textOutput) {
+				if(textOutput.startsWith("ERROR") || textOutput.startsWith("WARNING")) {
+					requestOutput.onTextOutput(textOutput);
+				};
+			}
+			public void onFinish(int retValue) {
+			}
+		};
+		requestAppCore.setProgressIntervalMillis(0);
+		requestAppCore.setStageTimingEnabled(requestOutput.isStageTimingEnabled());
+		requestAppCore.setChecksumsEnabled(requestOutput.isChecksumsEnabled());
+		requestAppCore.setSnapLength(requestOutput.getSnapLength());
+		requestAppCore.setHeadersOnly(requestOutput.isHeadersOnly());
+		requestAppCore.setFrameLimits(requestOutput.getMaxFrameLines(), requestOutput.getMaxFrameBytes());
+		return requestAppCore;
+	};
+
+	/**
+	 * Handler of the conversion requests, which hands them over to the pool of conversion threads
+	 */
+	private class ConvertHandler implements HttpHandler {
+		public void handle(final HttpExchange exchange) {
+			final long requestNumber = ConversionServer.this.requests.incrementAndGet();
+			try {
+				ConversionServer.this.executor.execute(new Runnable() {
+					public void run() {
+						try {
+							convert(exchange, requestNumber);
+						} catch(IOException e) {
+							// The client went away, so there is no one to answer to
+						}
+					}
+				});
+			} catch(RejectedExecutionException e) {
+				// The server is stopping
+				ConversionServer.this.failedRequests.incrementAndGet();
+				exchange.close();
+			}
+		}
+
+		private void convert(HttpExchange exchange, long requestNumber) throws IOException {
+			AppCore requestOutput = ConversionServer.this.appCore.createChildAppCore("[request " + Long.toString(requestNumber) + "] ");
+			ConversionServer.this.activeRequests.incrementAndGet();
+			boolean success = false;
+			try {
+				if(!exchange.getRequestMethod().equals("POST")) {
+					sendText(exchange, 405, "text/plain", "ERROR:  Conversion requests must use POST\r\n");
+					return;
+				};
+				String query = exchange.getRequestURI().getRawQuery();
+				List<String> types = getQueryParameters(query, "type");
+				List<String> params = getQueryParameters(query, "param");
+				String logType = (types.size() == 1) ? types.get(0) : "";
+				LogFrameParser parser = AppCore.createParser(logType, params.toArray(new String[params.size()]));
+				if(parser == null) {
+					sendText(exchange, 400, "text/plain", "ERROR:  Invalid log type or parser params: type=" + logType + " param=" + params.toString() + "\r\n");
+					return;
+				};
+				long length = -1;
+				String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+				if(contentLength != null) {
+					try {
+						length = Long.parseLong(contentLength.trim());
+					} catch(NumberFormatException e) {
+						length = -1;
+					};
+				};
+				AppCore requestAppCore = createRequestAppCore(requestOutput);
+				try {
+					applyQueryOptions(requestAppCore, query);
+				} catch(IllegalArgumentException e) {
+					sendText(exchange, 400, "text/plain", "ERROR:  " + e.getMessage() + "\r\n");
+					return;
+				};
+				exchange.getResponseHeaders().set("Content-Type", PCAP_CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream responseBody = new BufferedOutputStream(exchange.getResponseBody());
+				LineIterator logLines = new LineIterator(exchange.getRequestBody(), "request #" + Long.toString(requestNumber), length);
+				success = requestAppCore.convertLogLines(parser, logLines, responseBody, "response of request #" + Long.toString(requestNumber));
+				try {
+					responseBody.close();
+				} catch(IOException e) {
+					success = false;
+				};
+				ConversionMetrics metrics = requestAppCore.getMetrics();
+				String stageTimes = !metrics.isStageTiming() ? "" : String.format(" (read %d ms, parse %d ms, encode %d ms, write %d ms)",
+					Long.valueOf(metrics.getReadMillis()), Long.valueOf(metrics.getParseMillis()), Long.valueOf(metrics.getEncodeMillis()), Long.valueOf(metrics.getWriteMillis()));
+				requestOutput.onTextOutput(String.format(
+					"%s %s: %d bytes in, %d bytes out, %d frames, %d ms%s %s",
+					logType, params.toString(), Long.valueOf(metrics.getInputBytesRead()), Long.valueOf(metrics.getBytesWritten()),
+					Long.valueOf(metrics.getHeaderLines()), Long.valueOf(metrics.getElapsedMillis()), stageTimes,
+					success ? "OK" : "FAILED"));
+			} catch(RuntimeException e) {
+				requestOutput.onTextOutput("ERROR:  " + e.toString());
+			} finally {
+				if(!success) ConversionServer.this.failedRequests.incrementAndGet();
+				ConversionServer.this.activeRequests.decrementAndGet();
+				exchange.close();
+			}
+		}
+	};
+
+	/**
+	 * Handler of the status requests
+	 */
+	private class StatusHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				sendText(exchange, 200, "application/json", ConversionServer.this.toJson() + "\r\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	};
+
+}
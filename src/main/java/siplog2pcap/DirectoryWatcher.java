@@ -0,0 +1,315 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * This class implements a watcher of directories where rotated log files are dropped, which converts
+ * every new log file matched by its rules (see WatchRule) as soon as it is complete:
+ *     - Directories are watched with a WatchService, so new and modified files are noticed right away
+ *       (no polling of the directory contents)
+ *     - A file is only converted once it is stable, that is its length and modification time did not
+ *       change for a while, as rotation (or copying the file into the directory) may take some time
+ *     - Conversions run in a fixed pool of threads, which bounds the number of conversions at the same time
+ *     - Converted files are recorded in a state file (path, length, modification time and conversion id),
+ *       so they are skipped when the watcher is started again. The files already in the directories when
+ *       the watcher starts are converted unless they are recorded in the state file
+ */
+public class DirectoryWatcher {
+
+	/* CONSTANTS */
+
+	public static final long DEFAULT_STABLE_MILLIS = 5000;
+	public static final String STATE_FILE_NAME = ".siplog2pcap-watch.state";
+
+	/* INSTANCE VARIABLES */
+
+	private AppCore appCore;
+	private List<WatchRule> rules;
+	private File stateFile;
+	private long stableMillis;
+	private int maxConcurrentJobs;
+	private WatchService watchService = null;
+	private ExecutorService executor = null;
+	private Thread watcherThread = null;
+	private Properties state = new Properties();
+	/** Files waiting to be stable (file -> { length, lastModified, last change time }) */
+	private Map<File,long[]> pendingFiles = new HashMap<File,long[]>();
+	/** Files being converted */
+	private Set<File> activeFiles = new HashSet<File>();
+	/** Files whose conversion failed (file -> state value), which are not converted again unless they change */
+	private Map<File,String> failedFiles = new HashMap<File,String>();
+
+	/**
+	 * Returns a DirectoryWatcher object
+	 *
+	 * @param	appCore				the AppCore to which text output is sent
+	 * @param	rules				the rules
+	 * @param	stateFile			the state file (created if needed)
+	 * @param	stableMillis		the time the length and modification time of a file must not change before converting it
+	 * @param	maxConcurrentJobs	the maximum number of conversions to run at the same time
+	 * @return						the DirectoryWatcher object
+	 */
+	public DirectoryWatcher(AppCore appCore, List<WatchRule> rules, File stateFile, long stableMillis, int maxConcurrentJobs) {
+		this.appCore = appCore;
+		this.rules = rules;
+		this.stateFile = stateFile;
+		this.stableMillis = stableMillis;
+		this.maxConcurrentJobs = maxConcurrentJobs;
+	};
+
+	/**
+	 * Starts watching the directories of the rules (in a background thread)
+	 */
+	public void start() throws IOException {
+		if(this.stateFile.exists()) {
+			InputStream inputStream = new FileInputStream(this.stateFile);
+			try {
+				this.state.load(inputStream);
+			} finally {
+				inputStream.close();
+			}
+		};
+		this.watchService = FileSystems.getDefault().newWatchService();
+		Set<File> directories = new HashSet<File>();
+		for(WatchRule rule : this.rules) {
+			File directory = rule.getDirectory().getAbsoluteFile();
+			if(directories.add(directory)) {
+				directory.toPath().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			};
+			if(!rule.getOutputDirectory().isDirectory() && !rule.getOutputDirectory().mkdirs()) {
+				throw(new IOException("Failed to create output directory " + rule.getOutputDirectory().getPath()));
+			};
+		};
+		this.executor = Executors.newFixedThreadPool(this.maxConcurrentJobs);
+		synchronized(this) {
+			for(File directory : directories) {
+				scanDirectory(directory);
+			};
+		}
+		this.watcherThread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "siplog2pcap-watcher");
+		this.watcherThread.setDaemon(true);
+		this.watcherThread.start();
+	};
+
+	/**
+	 * Stops watching, waiting a bit for the running conversions to finish
+	 *
+	 * @param	delaySeconds	the maximum time to wait for the running conversions (in seconds)
+	 */
+	public void stop(int delaySeconds) {
+		if(this.watchService == null) return;
+		try {
+			this.watchService.close();
+		} catch(IOException e) {
+		};
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		};
+		this.watchService = null;
+	};
+
+	/**
+	 * Adds the files of a directory to the pending files (on start, and if watch events were lost)
+	 */
+	private void scanDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if(files == null) return;
+		for(File file : files) {
+			fileChanged(file);
+		};
+	};
+
+	/**
+	 * Waits for watch events, converting pending files once they are stable (run by the background thread)
+	 */
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey watchKey = this.watchService.poll(Math.max(100, this.stableMillis / 4), TimeUnit.MILLISECONDS);
+				synchronized(this) {
+					if(watchKey != null) {
+						File directory = ((Path) watchKey.watchable()).toFile();
+						for(WatchEvent<?> event : watchKey.pollEvents()) {
+							if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+								scanDirectory(directory);
+							} else {
+								fileChanged(new File(directory, ((Path) event.context()).toString()));
+							};
+						};
+						watchKey.reset();
+					};
+					convertStableFiles();
+				}
+			}
+		} catch(ClosedWatchServiceException e) {
+			// Watcher stopped
+		} catch(InterruptedException e) {
+			// Watcher stopped
+		}
+	};
+
+	/**
+	 * Returns the rule matching a file (null if none)
+	 */
+	private WatchRule getRule(File file) {
+		for(WatchRule rule : this.rules) {
+			if(rule.matches(file)) return rule;
+		};
+		return null;
+	};
+
+	/**
+	 * Handles a new or modified file, which is added to the pending files unless it was already converted
+	 */
+	private void fileChanged(File file) {
+		file = file.getAbsoluteFile();
+		WatchRule rule = getRule(file);
+		// Output files are skipped, in case they are written to a watched directory
+		if((rule == null) || !file.isFile() || file.getName().endsWith(".pcap") || file.getPath().startsWith(this.stateFile.getAbsolutePath())) return;
+		long length = file.length();
+		long lastModified = file.lastModified();
+		if(isConverted(file, rule, length, lastModified)) return;
+		if(getStateValue(rule, length, lastModified).equals(this.failedFiles.get(file))) return;
+		long[] pending = this.pendingFiles.get(file);
+		if((pending == null) || (pending[0] != length) || (pending[1] != lastModified)) {
+			this.pendingFiles.put(file, new long[] { length, lastModified, System.currentTimeMillis() });
+		};
+	};
+
+	/**
+	 * Returns whether a file was already converted (with the same length, modification time and conversion id)
+	 */
+	private boolean isConverted(File file, WatchRule rule, long length, long lastModified) {
+		String stateValue = this.state.getProperty(file.getPath());
+		return (stateValue != null) && stateValue.equals(getStateValue(rule, length, lastModified)) && rule.getPcapFile(file).exists();
+	};
+
+	private static String getStateValue(WatchRule rule, long length, long lastModified) {
+		return Long.toString(length) + " " + Long.toString(lastModified) + " " + ConversionCache.getConversionId(rule.getLogType(), rule.getParserConfigParams());
+	};
+
+	/**
+	 * Submits the conversion of the pending files which are stable
+	 */
+	private void convertStableFiles() {
+		long nowMillis = System.currentTimeMillis();
+		Iterator<Map.Entry<File,long[]>> iterator = this.pendingFiles.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<File,long[]> pendingFile = iterator.next();
+			final File file = pendingFile.getKey();
+			long[] pending = pendingFile.getValue();
+			if(this.activeFiles.contains(file) || ((nowMillis - pending[2]) < this.stableMillis)) continue;
+			// Changes might not raise watch events (for instance, on network file systems)
+			if(!file.isFile()) {
+				iterator.remove();
+				continue;
+			};
+			if((file.length() != pending[0]) || (file.lastModified() != pending[1])) {
+				pending[0] = file.length();
+				pending[1] = file.lastModified();
+				pending[2] = nowMillis;
+				continue;
+			};
+			iterator.remove();
+			final WatchRule rule = getRule(file);
+			final long length = pending[0];
+			final long lastModified = pending[1];
+			this.activeFiles.add(file);
+			this.executor.execute(new Runnable() {
+				public void run() {
+					convert(file, rule, length, lastModified);
+				}
+			});
+		};
+	};
+
+	/**
+	 * Converts a stable file (run by the threads of the pool), recording it in the state file if successful
+	 */
+	private void convert(File file, WatchRule rule, long length, long lastModified) {
+		AppCore fileAppCore = this.appCore.createChildAppCore("[" + file.getName() + "] ");
+		boolean success = false;
+		try {
+			LogFrameParser parser = rule.createParser(file);
+			if(parser == null) {
+				fileAppCore.onTextOutput("ERROR:  Invalid log type or parser params (or log format not detected)");
+			} else {
+				String conversionId = ConversionCache.getConversionId(rule.getLogType(), rule.getParserConfigParams());
+				success = fileAppCore.convertLogFile(parser, file, rule.getPcapFile(file), conversionId);
+			};
+		} catch(RuntimeException e) {
+			fileAppCore.onTextOutput("ERROR:  " + e.toString());
+		}
+		synchronized(this) {
+			this.activeFiles.remove(file);
+			if(!success) {
+				this.failedFiles.put(file, getStateValue(rule, length, lastModified));
+			} else {
+				this.failedFiles.remove(file);
+				this.state.setProperty(file.getPath(), getStateValue(rule, length, lastModified));
+				try {
+					writeState();
+				} catch(IOException e) {
+					fileAppCore.onTextOutput("WARNING: Failed to write state file " + this.stateFile.getPath() + " (" + e.getMessage() + ")");
+				};
+			};
+			// The file might have changed while it was being converted
+			fileChanged(file);
+		}
+	};
+
+	/**
+	 * Writes the state file (atomically, so a crash never leaves a partial one)
+	 */
+	private void writeState() throws IOException {
+		File tmpStateFile = new File(this.stateFile.getPath() + ".tmp");
+		FileOutputStream outputStream = new FileOutputStream(tmpStateFile);
+		try {
+			this.state.store(outputStream, "siplog2pcap converted log files (length, modification time and conversion id)");
+		} finally {
+			outputStream.close();
+		}
+		if(!tmpStateFile.renameTo(this.stateFile)) {
+			this.stateFile.delete();
+			if(!tmpStateFile.renameTo(this.stateFile)) {
+				tmpStateFile.delete();
+				throw(new IOException("Failed to rename " + tmpStateFile.getPath()));
+			};
+		};
+	};
+
+	/**	Returns the state file
+	 *	@return	the state file */
+	public File getStateFile() {
+		return this.stateFile;
+	};
+
+}
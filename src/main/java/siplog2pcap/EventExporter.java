@@ -0,0 +1,377 @@
+package siplog2pcap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * This class exports one record per LogFrame to a JSON Lines or a CSV file (next to the PCAP file), for loading
+ * the SIP messages and events into analytics tools. Every record has:
+ *     - time (log time, as yyyy-mm-ddThh:mm:ss.uuuuuu), line (line number in the log) and type (sip or event)
+ *     - src_ip, src_port, dst_ip, dst_port, vlan and transport (udp, tcp or sctp) of SIP messages
+ *     - method (requests), status (responses), call_id, cseq, body_length and truncated of SIP messages
+ *     - text of generic events
+ *     - message (the whole SIP message), only if raw messages are exported
+ * Unknown values are null in JSON Lines and empty in CSV. Records are written straight into a reusable byte
+ * buffer (numbers digit by digit, strings char by char while escaping them, header values found in place),
+ * so no String is built per field and exporting a big log is bound by reading and writing it
+ */
+public class EventExporter {
+
+	/* CONSTANTS */
+
+	public static final int FORMAT_JSON_LINES = 0;
+	public static final int FORMAT_CSV = 1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String[] FIELDS = { "time", "line", "type", "src_ip", "src_port", "dst_ip", "dst_port", "vlan", "transport", "method", "status", "call_id", "cseq", "body_length", "truncated", "text", "message" };
+	private static final int FIELD_MESSAGE = 16;
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	/* INSTANCE VARIABLES */
+
+	private OutputStream outputStream;
+	private int format;
+	private boolean rawMessages;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int field = 0;
+	private long records = 0;
+	private IOException failure = null;
+
+	/**
+	 * Returns an EventExporter object, writing the CSV header line (if CSV)
+	 *
+	 * @param	outputStream	the stream to write to (closed by close())
+	 * @param	format			the format (FORMAT_JSON_LINES or FORMAT_CSV)
+	 * @param	rawMessages		whether the whole SIP messages are exported too
+	 * @return					the EventExporter object
+	 * @throws	IOException		if the CSV header cannot be written
+	 */
+	public EventExporter(OutputStream outputStream, int format, boolean rawMessages) throws IOException {
+		this.outputStream = outputStream;
+		this.format = format;
+		this.rawMessages = rawMessages;
+		if(format == FORMAT_CSV) {
+			int fields = rawMessages ? FIELDS.length : FIELD_MESSAGE;
+			for(int i = 0; i < fields; i++) {
+				if(i > 0) writeByte(',');
+				writeAscii(FIELDS[i]);
+			};
+			writeAscii("\r\n");
+		};
+	};
+
+	/**
+	 * Returns the format for an export file, by its extension
+	 *
+	 * @param	fileName	the name of the export file
+	 * @return				FORMAT_CSV for .csv files, FORMAT_JSON_LINES otherwise
+	 */
+	public static int getFormat(String fileName) {
+		return fileName.toLowerCase().endsWith(".csv") ? FORMAT_CSV : FORMAT_JSON_LINES;
+	};
+
+	/**	Returns the number of records exported
+	 *	@return	the number of records */
+	public long getRecords() { return this.records; };
+
+	/**	Returns the exception which stopped the export (see export(Iterator))
+	 *	@return	the exception (null if none) */
+	public IOException getFailure() { return this.failure; };
+
+	/**
+	 * Returns the LogFrames, exporting every one of them as it goes through. A failure to write the export
+	 * stops exporting (see getFailure()), but not the LogFrames
+	 *
+	 * @param	logFrames	the LogFrames
+	 * @return				the same LogFrames
+	 */
+	public Iterator<LogFrame> export(final Iterator<LogFrame> logFrames) {
+		return new Iterator<LogFrame>() {
+			public boolean hasNext() {
+				return logFrames.hasNext();
+			}
+			public LogFrame next() {
+				if(!logFrames.hasNext()) throw(new NoSuchElementException());
+				LogFrame logFrame = logFrames.next();
+				if(EventExporter.this.failure == null) {
+					try {
+						export(logFrame);
+					} catch(IOException e) {
+						EventExporter.this.failure = e;
+					}
+				};
+				return logFrame;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Exports a LogFrame as one record
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @throws	IOException	if the record cannot be written
+	 */
+	public void export(LogFrame logFrame) throws IOException {
+		List<String> sipLines = logFrame.getSipLines();
+		boolean isSip = (sipLines != null) && (sipLines.size() > 0);
+		this.field = 0;
+		if(this.format == FORMAT_JSON_LINES) writeByte('{');
+		beginField();
+		writeByte('"');
+		writeDigits(logFrame.getYear(), 4);
+		writeByte('-');
+		writeDigits(logFrame.getMonth(), 2);
+		writeByte('-');
+		writeDigits(logFrame.getDay(), 2);
+		writeByte('T');
+		writeDigits(logFrame.getHour(), 2);
+		writeByte(':');
+		writeDigits(logFrame.getMinutes(), 2);
+		writeByte(':');
+		writeDigits(logFrame.getSeconds(), 2);
+		writeByte('.');
+		writeDigits(logFrame.getMicroseconds(), 6);
+		writeByte('"');
+		writeNumberField(logFrame.getLineNumber(), logFrame.getLineNumber() >= 0);
+		beginField();
+		writeAscii(isSip ? "\"sip\"" : "\"event\"");
+		if(isSip) {
+			writeIpField(logFrame.getSrcIp());
+			writeNumberField(logFrame.getSrcPort(), logFrame.getSrcPort() != -1);
+			writeIpField(logFrame.getDstIp());
+			writeNumberField(logFrame.getDstPort(), logFrame.getDstPort() != -1);
+			writeNumberField(logFrame.getVlan(), logFrame.getVlan() != -1);
+			int transport = logFrame.getTransport();
+			if(transport == -1) transport = logFrame.inferSipTransport();
+			beginField();
+			writeAscii((transport == LogFrame.TRANSPORT_TCP) ? "\"tcp\"" : (transport == LogFrame.TRANSPORT_SCTP) ? "\"sctp\"" : "\"udp\"");
+			String startLine = sipLines.get(0);
+			boolean isResponse = startLine.startsWith("SIP/2.0 ");
+			int space = startLine.indexOf(' ');
+			beginField();
+			if(isResponse || (space <= 0)) {
+				writeNull();
+			} else {
+				writeString(startLine, 0, space);
+			};
+			beginField();
+			int status = isResponse ? parseStatus(startLine) : -1;
+			if(status >= 0) {
+				writeNumber(status);
+			} else {
+				writeNull();
+			};
+			writeHeaderField(sipLines, "Call-ID", "i");
+			writeHeaderField(sipLines, "CSeq", null);
+			writeNumberField((logFrame.getSipBody() != null) ? logFrame.getSipBody().length : 0, true);
+			beginField();
+			writeAscii(logFrame.isTruncated() ? "true" : "false");
+			beginField();
+			writeNull();
+		} else {
+			for(int i = 0; i < 12; i++) {
+				beginField();
+				writeNull();
+			};
+			beginField();
+			String text = logFrame.getGenericEvent();
+			if(text != null) {
+				writeString(text, 0, text.length());
+			} else {
+				writeNull();
+			};
+		};
+		if(this.rawMessages) {
+			beginField();
+			String message = isSip ? logFrame.getSipMessage() : null;
+			if(message != null) {
+				writeString(message, 0, message.length());
+			} else {
+				writeNull();
+			};
+		};
+		if(this.format == FORMAT_JSON_LINES) {
+			writeAscii("}\n");
+		} else {
+			writeAscii("\r\n");
+		};
+		this.records++;
+	};
+
+	private static int parseStatus(String startLine) {
+		if(startLine.length() < 11) return -1;
+		int status = 0;
+		for(int i = 8; i < 11; i++) {
+			char c = startLine.charAt(i);
+			if((c < '0') || (c > '9')) return -1;
+			status = 10 * status + (c - '0');
+		};
+		return status;
+	};
+
+	private void beginField() throws IOException {
+		if(this.field > 0) writeByte(',');
+		if(this.format == FORMAT_JSON_LINES) {
+			writeByte('"');
+			writeAscii(FIELDS[this.field]);
+			writeAscii("\":");
+		};
+		this.field++;
+	};
+
+	private void writeNull() throws IOException {
+		if(this.format == FORMAT_JSON_LINES) writeAscii("null");
+	};
+
+	private void writeNumberField(long value, boolean known) throws IOException {
+		beginField();
+		if(known) {
+			writeNumber(value);
+		} else {
+			writeNull();
+		};
+	};
+
+	private void writeIpField(InetAddress ip) throws IOException {
+		beginField();
+		if(ip == null) {
+			writeNull();
+			return;
+		};
+		byte[] address = ip.getAddress();
+		if(address.length != 4) {
+			writeString(ip.getHostAddress(), 0, ip.getHostAddress().length());
+			return;
+		};
+		writeByte('"');
+		for(int i = 0; i < 4; i++) {
+			if(i > 0) writeByte('.');
+			writeNumber(address[i] & 0xFF);
+		};
+		writeByte('"');
+	};
+
+	/** Writes the value of a SIP header (found in place, without building any String) */
+	private void writeHeaderField(List<String> sipLines, String name, String compactName) throws IOException {
+		beginField();
+		for(int i = 1; i < sipLines.size(); i++) {
+			String line = sipLines.get(i);
+			if(line.length() == 0) break;
+			int colon = line.indexOf(':');
+			if(colon <= 0) continue;
+			int nameEnd = colon;
+			while((nameEnd > 0) && (line.charAt(nameEnd - 1) <= ' ')) nameEnd--;
+			if(!isHeaderName(line, nameEnd, name) && ((compactName == null) || !isHeaderName(line, nameEnd, compactName))) continue;
+			int start = colon + 1;
+			int end = line.length();
+			while((start < end) && (line.charAt(start) <= ' ')) start++;
+			while((end > start) && (line.charAt(end - 1) <= ' ')) end--;
+			writeString(line, start, end);
+			return;
+		};
+		writeNull();
+	};
+
+	private static boolean isHeaderName(String line, int nameEnd, String name) {
+		return (nameEnd == name.length()) && line.regionMatches(true, 0, name, 0, nameEnd);
+	};
+
+	/** Writes a quoted string, escaping it for the format and encoding it as UTF-8 */
+	private void writeString(String string, int start, int end) throws IOException {
+		writeByte('"');
+		for(int i = start; i < end; i++) {
+			char c = string.charAt(i);
+			if(c < 0x80) {
+				if(c == '"') {
+					// Escaped as \" in JSON and as "" in CSV
+					writeByte((this.format == FORMAT_JSON_LINES) ? '\\' : '"');
+					writeByte('"');
+				} else if((c == '\\') && (this.format == FORMAT_JSON_LINES)) {
+					writeByte('\\');
+					writeByte('\\');
+				} else if((c < 0x20) && (this.format == FORMAT_JSON_LINES)) {
+					writeAscii("\\u00");
+					writeByte(HEX_DIGITS[c >> 4]);
+					writeByte(HEX_DIGITS[c & 0x0F]);
+				} else {
+					writeByte(c);
+				};
+			} else if(c < 0x800) {
+				writeByte(0xC0 | (c >> 6));
+				writeByte(0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(string.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				writeByte(0xF0 | (codePoint >> 18));
+				writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+				writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+				writeByte(0x80 | (codePoint & 0x3F));
+			} else {
+				writeByte(0xE0 | (c >> 12));
+				writeByte(0x80 | ((c >> 6) & 0x3F));
+				writeByte(0x80 | (c & 0x3F));
+			};
+		};
+		writeByte('"');
+	};
+
+	private void writeNumber(long value) throws IOException {
+		if(value < 0) {
+			writeByte('-');
+			value = -value;
+		};
+		if(value >= 10) writeNumber(value / 10);
+		writeByte((int) ('0' + (value % 10)));
+	};
+
+	private void writeDigits(int value, int digits) throws IOException {
+		if(this.position + digits > this.buffer.length) flush();
+		for(int i = digits - 1; i >= 0; i--) {
+			this.buffer[this.position + i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		};
+		this.position += digits;
+	};
+
+	private void writeAscii(String string) throws IOException {
+		for(int i = 0; i < string.length(); i++) {
+			writeByte(string.charAt(i));
+		};
+	};
+
+	private void writeByte(int b) throws IOException {
+		if(this.position == this.buffer.length) flush();
+		this.buffer[this.position++] = (byte) b;
+	};
+
+	/**
+	 * Writes the buffered records
+	 *
+	 * @throws	IOException	if they cannot be written
+	 */
+	public void flush() throws IOException {
+		this.outputStream.write(this.buffer, 0, this.position);
+		this.position = 0;
+	};
+
+	/**
+	 * Writes the buffered records and closes the stream
+	 *
+	 * @throws	IOException	if they cannot be written
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			this.outputStream.close();
+		}
+	};
+
+}
@@ -0,0 +1,272 @@
+package siplog2pcap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * This class reduces the generic (syslog) events of a conversion, which may outnumber the SIP messages by far
+ * in verbose logs (making big PCAP files which Wireshark is slow to load):
+ *     - MODE_DROP drops all of them
+ *     - A severity (such as warning) keeps only the events with that severity or a higher one, as written in
+ *       their first line (such as [ERROR] or WARNING:), so the events without a severity are dropped
+ *     - Keywords keep only the events containing one of them (ignoring case). With a severity too, the events
+ *       matching any of them are kept
+ *     - MODE_COALESCE merges consecutive events (not separated by a SIP message) within a time window of the
+ *       first one into a single event, one per line, so they make a single syslog frame
+ * The events are reduced as LogFrames, before they are encoded, so dropped or merged events cost no payload
+ * building, encoding nor writing. SIP messages are never changed
+ */
+public class EventFilter {
+
+	/* CONSTANTS */
+
+	public static final int MODE_KEEP = 0;
+	public static final int MODE_DROP = 1;
+	public static final int MODE_COALESCE = 2;
+	public static final long DEFAULT_COALESCE_WINDOW_MILLIS = 1000;
+	/** Maximum length of a coalesced event, so it still fits in a syslog datagram */
+	public static final int MAX_COALESCED_LENGTH = 60000;
+	/** Severity names (syslog levels, lowest number for highest severity) */
+	private static final String[][] SEVERITIES = new String[][] {
+		{ "emerg", "emergency", "panic" },
+		{ "alert" },
+		{ "crit", "critical", "fatal" },
+		{ "err", "error" },
+		{ "warn", "warning" },
+		{ "notice" },
+		{ "info" },
+		{ "debug", "trace" }
+	};
+
+	/* INSTANCE VARIABLES */
+
+	private int mode;
+	private long coalesceWindowMillis;
+	private int severity = -1;
+	private List<String> keywords = new ArrayList<String>();
+
+	/**
+	 * Returns an EventFilter object
+	 *
+	 * @param	mode					the mode (MODE_KEEP, MODE_DROP or MODE_COALESCE)
+	 * @param	coalesceWindowMillis	the time window of the coalesced events
+	 * @return							the EventFilter object
+	 */
+	public EventFilter(int mode, long coalesceWindowMillis) {
+		this.mode = mode;
+		this.coalesceWindowMillis = coalesceWindowMillis;
+	};
+
+	/**
+	 * Parses a mode (keep, drop or coalesce)
+	 *
+	 * @param	mode	the mode
+	 * @return			the mode (-1 if it is not valid)
+	 */
+	public static int parseMode(String mode) {
+		if(mode.equals("keep")) return MODE_KEEP;
+		if(mode.equals("drop")) return MODE_DROP;
+		if(mode.equals("coalesce")) return MODE_COALESCE;
+		return -1;
+	};
+
+	/**
+	 * Parses a severity name (such as warning or err)
+	 *
+	 * @param	name	the severity name
+	 * @return			the severity level (0 for emerg to 7 for debug, -1 if it is not valid)
+	 */
+	public static int parseSeverity(String name) {
+		return findSeverity(name, 0, name.length());
+	};
+
+	/**
+	 * Sets the lowest severity of the events kept (along with those matching the keywords)
+	 *
+	 * @param	severity	the severity level (see parseSeverity(), -1 for none)
+	 */
+	public void setSeverity(int severity) {
+		this.severity = severity;
+	};
+
+	/**
+	 * Adds a keyword, so the events containing it (ignoring case) are kept (along with those matching the severity)
+	 *
+	 * @param	keyword	the keyword
+	 */
+	public void addKeyword(String keyword) {
+		if(keyword.length() > 0) this.keywords.add(keyword);
+	};
+
+	/**
+	 * Returns whether a generic event is kept by the severity and the keywords
+	 *
+	 * @param	event	the text of the generic event
+	 * @return			whether it is kept
+	 */
+	public boolean keep(String event) {
+		if(this.mode == MODE_DROP) return false;
+		if((this.severity == -1) && this.keywords.isEmpty()) return true;
+		if(this.severity != -1) {
+			int eventSeverity = getSeverity(event);
+			if((eventSeverity != -1) && (eventSeverity <= this.severity)) return true;
+		};
+		for(String keyword : this.keywords) {
+			if(containsIgnoreCase(event, keyword)) return true;
+		};
+		return false;
+	};
+
+	/**
+	 * Returns the severity of a generic event, given by the first severity name of its first line
+	 *
+	 * @param	event	the text of the generic event
+	 * @return			the severity level (-1 if it has none)
+	 */
+	public static int getSeverity(String event) {
+		int length = event.length();
+		int i = 0;
+		while(i < length) {
+			char c = event.charAt(i);
+			if((c == '\r') || (c == '\n')) break;
+			if(!Character.isLetter(c)) {
+				i++;
+				continue;
+			};
+			int start = i;
+			while((i < length) && Character.isLetter(event.charAt(i))) i++;
+			if((i - start >= 3) && (i - start <= 9)) {
+				int severity = findSeverity(event, start, i);
+				if(severity != -1) return severity;
+			};
+		};
+		return -1;
+	};
+
+	private static int findSeverity(String text, int start, int end) {
+		for(int severity = 0; severity < SEVERITIES.length; severity++) {
+			for(String name : SEVERITIES[severity]) {
+				if((name.length() == end - start) && text.regionMatches(true, start, name, 0, name.length())) return severity;
+			};
+		};
+		return -1;
+	};
+
+	private static boolean containsIgnoreCase(String text, String keyword) {
+		int last = text.length() - keyword.length();
+		char first = Character.toLowerCase(keyword.charAt(0));
+		for(int i = 0; i <= last; i++) {
+			if((Character.toLowerCase(text.charAt(i)) == first) && text.regionMatches(true, i, keyword, 0, keyword.length())) return true;
+		};
+		return false;
+	};
+
+	/**
+	 * Returns the LogFrames with their generic events reduced (dropped, filtered or coalesced)
+	 *
+	 * @param	logFrames	the LogFrames
+	 * @param	metrics		the conversion metrics counting the dropped and coalesced events (null if none)
+	 * @return				the LogFrames kept
+	 */
+	public Iterator<LogFrame> filter(final Iterator<LogFrame> logFrames, final ConversionMetrics metrics) {
+		return new Iterator<LogFrame>() {
+			private LogFrame cachedNext = null;
+			/** Next LogFrame read but not returned yet, as it ended the events being coalesced */
+			private LogFrame pending = null;
+			public boolean hasNext() {
+				while(this.cachedNext == null) {
+					LogFrame logFrame = nextLogFrame();
+					if(logFrame == null) break;
+					if(isSip(logFrame)) {
+						this.cachedNext = logFrame;
+					} else if(!keep(logFrame.getGenericEvent())) {
+						if(metrics != null) metrics.addDroppedEvent();
+					} else if(EventFilter.this.mode == MODE_COALESCE) {
+						this.cachedNext = coalesce(logFrame);
+					} else {
+						this.cachedNext = logFrame;
+					};
+				};
+				return (this.cachedNext != null);
+			}
+			private LogFrame nextLogFrame() {
+				if(this.pending != null) {
+					LogFrame logFrame = this.pending;
+					this.pending = null;
+					return logFrame;
+				};
+				return logFrames.hasNext() ? logFrames.next() : null;
+			}
+			/** Merges the events following the given one into it, up to a SIP message or an event out of the window */
+			private LogFrame coalesce(LogFrame first) {
+				long windowEnd = getMillis(first) + EventFilter.this.coalesceWindowMillis;
+				StringBuilder sb = null;
+				while(logFrames.hasNext()) {
+					LogFrame logFrame = logFrames.next();
+					if(isSip(logFrame)) {
+						this.pending = logFrame;
+						break;
+					};
+					if(!keep(logFrame.getGenericEvent())) {
+						if(metrics != null) metrics.addDroppedEvent();
+						continue;
+					};
+					int length = (sb != null) ? sb.length() : first.getGenericEvent().length();
+					long millis = getMillis(logFrame);
+					if((millis < getMillis(first)) || (millis > windowEnd) || (length + 1 + logFrame.getGenericEvent().length() > MAX_COALESCED_LENGTH)) {
+						this.pending = logFrame;
+						break;
+					};
+					if(sb == null) sb = new StringBuilder(first.getGenericEvent());
+					sb.append('\n').append(logFrame.getGenericEvent());
+					// The merged event ends where its last event ends (for checkpoints)
+					first.setInputEnd(logFrame.getInputEndOffset(), logFrame.getInputEndLineNumber());
+					if(metrics != null) metrics.addCoalescedEvent();
+				};
+				if(sb != null) first.setGenericEvent(sb.toString());
+				return first;
+			}
+			public LogFrame next() {
+				if(!hasNext()) throw(new NoSuchElementException());
+				LogFrame next = this.cachedNext;
+				this.cachedNext = null;
+				return next;
+			}
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	private static boolean isSip(LogFrame logFrame) {
+		return (logFrame.getSipLines() != null);
+	};
+
+	/**
+	 * Returns the time of a LogFrame in milliseconds, to be compared with those of the LogFrames of the same
+	 * month (months are counted as 31 days, so a window never spans two months)
+	 */
+	private static long getMillis(LogFrame logFrame) {
+		long days = 372L * logFrame.getYear() + 31L * logFrame.getMonth() + logFrame.getDay();
+		return ((((days * 24) + logFrame.getHour()) * 60 + logFrame.getMinutes()) * 60 + logFrame.getSeconds()) * 1000 + logFrame.getMicroseconds() / 1000;
+	};
+
+	/**
+	 * Returns an identifier of the reduction (such as events=coalesce/1000,severity=3), as reduced conversions
+	 * are different from full ones for the conversion cache and checkpoints
+	 *
+	 * @return	the identifier
+	 */
+	public String getId() {
+		StringBuilder sb = new StringBuilder("events=");
+		sb.append((this.mode == MODE_DROP) ? "drop" : (this.mode == MODE_COALESCE) ? "coalesce/" + Long.toString(this.coalesceWindowMillis) : "keep");
+		if(this.severity != -1) sb.append(",severity=").append(this.severity);
+		for(String keyword : this.keywords) {
+			sb.append(",keyword=").append(keyword);
+		};
+		return sb.toString();
+	};
+
+}
@@ -0,0 +1,47 @@
+package siplog2pcap;
+
+/**
+ * FrameTracer interface implements the methods to trace the time spent parsing and encoding each log frame,
+ * so we can find the lines of a log file that make the conversion slow (typically because of regex backtracking)
+ *
+ * Each begin method returns an object (eventually null) which must be passed to the matching end method.
+ * Tracing is only done when a FrameTracer has been installed (see FrameTracing class), so it costs
+ * nothing otherwise.
+ */
+public interface FrameTracer {
+
+	/**	Marks the start of the parsing of one line by LogFrameParser.parseHeaderLine()
+	 *	@return	the trace object to pass to endHeaderLineParse() */
+	public Object beginHeaderLineParse();
+
+	/**	Marks the end of the parsing of one line by LogFrameParser.parseHeaderLine()
+	 *	@param	trace		the object returned by beginHeaderLineParse()
+	 *	@param	parserName	the name of the LogFrameParser
+	 *	@param	lineNumber	the line number (starting at 1)
+	 *	@param	lineLength	the line length (in characters)
+	 *	@param	headerLine	whether the line is a header line */
+	public void endHeaderLineParse(Object trace, String parserName, long lineNumber, int lineLength, boolean headerLine);
+
+	/**	Marks the start of the postprocessing of one LogFrame by LogFrameParser.postProcessLogFrame()
+	 *	@return	the trace object to pass to endPostProcess() */
+	public Object beginPostProcess();
+
+	/**	Marks the end of the postprocessing of one LogFrame by LogFrameParser.postProcessLogFrame()
+	 *	@param	trace		the object returned by beginPostProcess()
+	 *	@param	parserName	the name of the LogFrameParser
+	 *	@param	lineNumber	the line number of the header line of the LogFrame
+	 *	@param	frameLines	the number of log lines of the LogFrame
+	 *	@param	frameSize	the size of the log lines of the LogFrame (in characters) */
+	public void endPostProcess(Object trace, String parserName, long lineNumber, int frameLines, int frameSize);
+
+	/**	Marks the start of the encoding of one LogFrame into a PCAP frame
+	 *	@return	the trace object to pass to endEncode() */
+	public Object beginEncode();
+
+	/**	Marks the end of the encoding of one LogFrame into a PCAP frame
+	 *	@param	trace		the object returned by beginEncode()
+	 *	@param	lineNumber	the line number of the header line of the LogFrame
+	 *	@param	frameSize	the size of the PCAP frame (in bytes) */
+	public void endEncode(Object trace, long lineNumber, int frameSize);
+
+}
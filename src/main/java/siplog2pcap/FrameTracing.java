@@ -0,0 +1,58 @@
+package siplog2pcap;
+
+/*
+ * This class holds the FrameTracer (if any) used by LogLinesParser and AppCore to trace the time spent
+ * parsing and encoding each log frame.
+ *
+ * The JDK Flight Recorder implementation (siplog2pcap.jfr.JfrFrameTracer) is loaded by name, as it is only
+ * built when the JDK provides the jdk.jfr API. Its events are threshold-gated, so only the slow frames end
+ * up in the recording. Then we can record a production run with:
+ *     java -XX:StartFlightRecording=filename=siplog2pcap.jfr -jar siplog2pcap.jar ... --jfr
+ * and find the slow frames in JDK Mission Control.
+ */
+public class FrameTracing {
+
+	public static final String JFR_FRAME_TRACER_CLASS = "siplog2pcap.jfr.JfrFrameTracer";
+
+	/** The installed FrameTracer (null if none) */
+	private static volatile FrameTracer frameTracer = null;
+
+	/**
+	 * Returns the installed FrameTracer
+	 *
+	 * @return	the FrameTracer (null if none)
+	 */
+	public static FrameTracer getFrameTracer() {
+		return frameTracer;
+	};
+
+	/**
+	 * Installs a FrameTracer
+	 *
+	 * @param	tracer	the FrameTracer (null to stop tracing)
+	 */
+	public static void setFrameTracer(FrameTracer tracer) {
+		frameTracer = tracer;
+	};
+
+	/**
+	 * Installs the JDK Flight Recorder FrameTracer
+	 *
+	 * @return	whether it could be installed (it will not if the build or the JVM do not support JFR)
+	 */
+	public static boolean installJfrFrameTracer() {
+		boolean installed = false;
+		try {
+			setFrameTracer((FrameTracer) Class.forName(JFR_FRAME_TRACER_CLASS).getDeclaredConstructor().newInstance());
+			installed = true;
+		} catch(ReflectiveOperationException e) {
+			// Class not built
+			installed = false;
+		} catch(LinkageError e) {
+			// jdk.jfr not available in this JVM
+			installed = false;
+		};
+		return installed;
+	};
+
+}
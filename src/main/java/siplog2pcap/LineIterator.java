@@ -1,9 +1,10 @@
 package siplog2pcap;
 
 import java.io.File;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.lang.UnsupportedOperationException;
@@ -14,68 +15,340 @@ import java.lang.UnsupportedOperationException;
  *
  * The purpose of this class is to provide a seamless access to a an iteration
  * of log lines, no matter whethere they are stored in one or many files.
+ *
+ * Lines are split at byte level (as BufferedReader.readLine() does, a line is terminated
+ * by \n, \r or \r\n) and then decoded with the default charset, so the byte offset of every
+ * line in the input is known (see getLineOffset() and getLineEndOffset()), which allows to
+ * resume a conversion at a given offset (see ConversionCheckpoint)
+ *
+ * Lines longer than the maximum line length (see setMaxLineLength()) are cut at that length, skipping the rest
+ * of their bytes, so a corrupted input without line terminators does not fill the memory
+ *
+ * Line terminators are found by the installed LineScanner, which also marks the lines starting with the
+ * shape of the header lines (if a LineShape is set, see isLineCandidate()), while the bytes of the line
+ * are still in the read buffer
  */
 public class LineIterator implements Iterator<String> {
+	/*
+	 * Constants
+	 */
+	private static final int BUFFER_SIZE = 65536;
+	public static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+
 	/*
 	 * Instance variables
 	 */
 	private File file;
-	private BufferedReader bufferedReader;
+	private String name;
+	private long length;
+	private InputStream inputStream;
+	private Charset charset = Charset.defaultCharset();
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+	private long bufferOffset = 0; // Input offset of buffer[0]
+	private volatile long bytesRead = 0;
+	private byte[] lineBuffer = new byte[256];
+	private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
 	private String cachedNext;
+	private long cachedNextOffset;
+	private long cachedNextEndOffset;
+	private long lineOffset = 0;
+	private long lineEndOffset = 0;
+	private long readLineOffset;
+	private long readLineEndOffset;
+	private LineScanner scanner = LineScanner.getInstance();
+	private LineShape lineShape = null;
+	private boolean lineCandidate = true;
+	private boolean cachedNextCandidate;
+	private boolean readLineCandidate;
 
 	/**
 	 * Constructor method taking a file as input parameter
 	 * The file type is inferred from the byte content
-	 * 
+	 *
 	 * @param	file	a text file
 	 * @return			the newly created LineIterator object
 	 */
 	public LineIterator(File file) {
+		this(file, 0);
+	}
+
+	/**
+	 * Constructor method taking a file as input parameter, skipping its first bytes
+	 *
+	 * @param	file		a text file
+	 * @param	startOffset	the byte offset where reading starts (which must be the start of a line)
+	 * @return				the newly created LineIterator object
+	 */
+	public LineIterator(File file, long startOffset) {
 		this.file = file;
+		this.name = file.getPath();
+		this.length = -1;
 		try{
-			this.bufferedReader = new BufferedReader(new FileReader(this.file.getPath()));
+			this.inputStream = new FileInputStream(this.file.getPath());
+			long skipped = 0;
+			while(skipped < startOffset) {
+				long n = this.inputStream.skip(startOffset - skipped);
+				if(n <= 0) throw(new IOException("Failed to skip to offset " + Long.toString(startOffset)));
+				skipped += n;
+			};
 		} catch(IOException ioe) {
-			this.bufferedReader = null;
+			this.close();
 			throw(new RuntimeException("Failed to create BufferedReader for " + this.file.getPath(), ioe));
 		};
+		this.bufferOffset = startOffset;
+		this.bytesRead = startOffset;
+		this.lineOffset = startOffset;
+		this.lineEndOffset = startOffset;
+		this.cachedNext = null;
+	}
+
+	/**
+	 * Constructor method taking an input stream as input parameter (such as an uploaded log)
+	 *
+	 * @param	inputStream	the input stream of a text file
+	 * @param	name		the name of the input stream (for error messages)
+	 * @param	length		the length of the input stream (-1 if unknown)
+	 * @return				the newly created LineIterator object
+	 */
+	public LineIterator(InputStream inputStream, String name, long length) {
+		this.file = null;
+		this.name = name;
+		this.length = length;
+		this.inputStream = inputStream;
 		this.cachedNext = null;
 	}
 
+	/**
+	 * Fills the buffer with the following bytes of the input (the buffer must have been fully consumed)
+	 *
+	 * @return	whether there are more bytes
+	 */
+	private boolean fillBuffer() throws IOException {
+		this.bufferOffset += this.bufferLimit;
+		this.bufferPosition = 0;
+		this.bufferLimit = 0;
+		int n = 0;
+		while(n == 0) {
+			n = this.inputStream.read(this.buffer, 0, this.buffer.length);
+		};
+		if(n < 0) return false;
+		this.bufferLimit = n;
+		this.bytesRead += n;
+		return true;
+	}
+
+	/**
+	 * Reads the next line, setting readLineOffset and readLineEndOffset
+	 *
+	 * @return	the line (null if no more lines)
+	 */
+	private String readLine() throws IOException {
+		this.readLineOffset = this.bufferOffset + this.bufferPosition;
+		int lineLength = 0;
+		while(true) {
+			if(this.bufferPosition >= this.bufferLimit) {
+				if(!fillBuffer()) {
+					this.readLineEndOffset = this.bufferOffset;
+					this.readLineCandidate = isCandidate(this.lineBuffer, 0, lineLength);
+					return (lineLength > 0) ? new String(this.lineBuffer, 0, lineLength, this.charset) : null;
+				};
+			};
+			int start = this.bufferPosition;
+			int end = this.scanner.findLineBreak(this.buffer, start, this.bufferLimit);
+			if(end < this.bufferLimit) {
+				// Line terminator found
+				String line = null;
+				if(lineLength == 0) {
+					int length = Math.min(end - start, this.maxLineLength);
+					this.readLineCandidate = isCandidate(this.buffer, start, length);
+					line = new String(this.buffer, start, length, this.charset);
+				} else {
+					lineLength += appendToLineBuffer(start, end - start, lineLength);
+					this.readLineCandidate = isCandidate(this.lineBuffer, 0, lineLength);
+					line = new String(this.lineBuffer, 0, lineLength, this.charset);
+				};
+				boolean cr = (this.buffer[end] == '\r');
+				this.bufferPosition = end + 1;
+				if(cr) {
+					// \r\n is one single line terminator
+					if((this.bufferPosition < this.bufferLimit) || fillBuffer()) {
+						if(this.buffer[this.bufferPosition] == '\n') this.bufferPosition++;
+					};
+				};
+				this.readLineEndOffset = this.bufferOffset + this.bufferPosition;
+				return line;
+			};
+			// No line terminator in the buffer, so we keep the line bytes so far
+			lineLength += appendToLineBuffer(start, end - start, lineLength);
+			this.bufferPosition = end;
+		}
+	}
+
+	private boolean isCandidate(byte[] bytes, int offset, int length) {
+		return (this.lineShape == null) || this.scanner.matchesShape(this.lineShape, bytes, offset, length);
+	}
+
+	/** Appends line bytes to the line buffer, up to the maximum line length, returning the number of bytes appended */
+	private int appendToLineBuffer(int start, int count, int lineLength) {
+		count = Math.max(0, Math.min(count, this.maxLineLength - lineLength));
+		if(lineLength + count > this.lineBuffer.length) {
+			byte[] newLineBuffer = new byte[Math.max(2 * this.lineBuffer.length, lineLength + count)];
+			System.arraycopy(this.lineBuffer, 0, newLineBuffer, 0, lineLength);
+			this.lineBuffer = newLineBuffer;
+		};
+		System.arraycopy(this.buffer, start, this.lineBuffer, lineLength, count);
+		return count;
+	}
+
 	private String getNext() {
 		String next = null;
 		if(this.cachedNext != null) {
 			next = this.cachedNext; // We get the value cached at a previous invocaton of hasNext() method
 			this.cachedNext = null; // We consume the cached one so it won't be available in next read
-		} else if(this.bufferedReader != null) {
+			this.lineOffset = this.cachedNextOffset;
+			this.lineEndOffset = this.cachedNextEndOffset;
+			this.lineCandidate = this.cachedNextCandidate;
+		} else if(this.inputStream != null) {
 			try{
-				next = this.bufferedReader.readLine();
+				next = this.readLine();
 			} catch(IOException ioe) {
 				next = null;
-				throw(new RuntimeException("IOException while reading line from BufferedReader of " + this.file.getPath(), ioe));
+				throw(new RuntimeException("IOException while reading line from BufferedReader of " + this.name, ioe));
 			};
 			if(next == null) {
 				// Either it is the last line or we got an IOException. Nothing more to read anyway
-				try{ this.bufferedReader.close(); } catch(IOException ioe) {};
-				this.bufferedReader = null;
+				this.close();
+			} else {
+				this.lineOffset = this.readLineOffset;
+				this.lineEndOffset = this.readLineEndOffset;
+				this.lineCandidate = this.readLineCandidate;
 			}
 		}
 		return next;
 	}
 
+	/**
+	 * Returns the number of bytes read so far from the file (including the skipped ones, if any)
+	 * Note that, as reading is buffered, this is slightly ahead of the lines returned so far
+	 *
+	 * @return	the number of bytes read
+	 */
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	/**
+	 * Returns the byte offset of the last line returned by next()
+	 *
+	 * @return	the byte offset of the line start
+	 */
+	public long getLineOffset() {
+		return this.lineOffset;
+	}
+
+	/**
+	 * Returns the byte offset following the last line returned by next() (including its line terminator)
+	 *
+	 * @return	the byte offset of the line end
+	 */
+	public long getLineEndOffset() {
+		return this.lineEndOffset;
+	}
+
+	/**
+	 * Sets the shape of the header lines, so every line read from then on is marked as a candidate header
+	 * line or not (see isLineCandidate())
+	 *
+	 * @param	lineShape	the shape (null to mark every line as a candidate)
+	 */
+	public void setLineShape(LineShape lineShape) {
+		this.lineShape = lineShape;
+	}
+
+	/**
+	 * Sets the maximum line length, beyond which the bytes of a line are skipped
+	 *
+	 * @param	maxLineLength	the maximum line length (in bytes)
+	 */
+	public void setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+	}
+
+	/**
+	 * Returns the shape of the header lines
+	 *
+	 * @return	the shape (null if none)
+	 */
+	public LineShape getLineShape() {
+		return this.lineShape;
+	}
+
+	/**
+	 * Returns whether the last line returned by next() starts with the shape of the header lines
+	 * (a line read ahead before the shape was set is always a candidate)
+	 *
+	 * @return	whether the line is a candidate header line
+	 */
+	public boolean isLineCandidate() {
+		return this.lineCandidate;
+	}
+
+	/**
+	 * Returns the length of the file
+	 *
+	 * @return	the length of the file (in bytes, -1 if unknown)
+	 */
+	public long getLength() {
+		return (this.file != null) ? this.file.length() : this.length;
+	}
+
+	/**
+	 * Returns the name of the file (its path) or input stream
+	 *
+	 * @return	the name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Closes the underlying file or input stream, so the iteration is over
+	 */
+	public void close() {
+		this.cachedNext = null;
+		if(this.inputStream != null) {
+			try{ this.inputStream.close(); } catch(IOException ioe) {};
+			this.inputStream = null;
+		};
+	}
+
 	/**
 	 * Returns true if the iteration has more elements.
 	 * (In other words, returns true if next would return an element rather than throwing an exception.)
-	 * 
+	 *
 	 * @return	whether the iteration has more elements
 	 */
 	public boolean hasNext() {
-		this.cachedNext = this.getNext();
+		if(this.cachedNext == null) {
+			long lineOffset = this.lineOffset;
+			long lineEndOffset = this.lineEndOffset;
+			boolean lineCandidate = this.lineCandidate;
+			this.cachedNext = this.getNext();
+			this.cachedNextOffset = this.lineOffset;
+			this.cachedNextEndOffset = this.lineEndOffset;
+			this.cachedNextCandidate = this.lineCandidate;
+			this.lineOffset = lineOffset;
+			this.lineEndOffset = lineEndOffset;
+			this.lineCandidate = lineCandidate;
+		};
 		return (this.cachedNext != null);
 	}
 
 	/**
 	 * Returns the next element in the iteration.
-	 * 
+	 *
 	 * @return	the next element in the iteration.
 	 */
 	public String next() {
@@ -85,14 +358,14 @@ public class LineIterator implements Iterator<String> {
 		};
 		return next;
 	}
-	
+
 	/**
-	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next. 
+	 * Removes from the underlying collection the last element returned by the iterator (optional operation). This method can be called only once per call to next.
 	 * The behavior of an iterator is unspecified if the underlying collection is modified while the iteration is in progress in any way other than by calling this method.
-	 * 
+	 *
 	 */
 	public void remove() {
 		throw(new UnsupportedOperationException());
 	}
-	
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,97 @@
+package siplog2pcap;
+
+/*
+ * This class is the scanning kernel of LineIterator: it finds the line terminators in the read buffer and
+ * checks whether every line starts with the shape of the header lines (see LineShape), so only the lines
+ * marked as candidates are handed to LogFrameParser.parseHeaderLine().
+ *
+ * This implementation checks one byte at a time. The JDK Vector API implementation
+ * (siplog2pcap.vector.VectorLineScanner) checks many bytes at a time, and it is loaded by name, as it is
+ * only built when the JDK provides the jdk.incubator.vector module (and it can only be loaded when the JVM
+ * is run with --add-modules jdk.incubator.vector). Both implementations give the same results.
+ */
+public class LineScanner {
+
+	public static final String VECTOR_LINE_SCANNER_CLASS = "siplog2pcap.vector.VectorLineScanner";
+
+	/** The installed LineScanner */
+	private static volatile LineScanner lineScanner = new LineScanner();
+
+	/**
+	 * Returns the installed LineScanner
+	 *
+	 * @return	the LineScanner (the scalar one unless another one is installed)
+	 */
+	public static LineScanner getInstance() {
+		return lineScanner;
+	};
+
+	/**
+	 * Installs a LineScanner
+	 *
+	 * @param	scanner	the LineScanner
+	 */
+	public static void setInstance(LineScanner scanner) {
+		lineScanner = scanner;
+	};
+
+	/**
+	 * Installs the JDK Vector API LineScanner
+	 *
+	 * @return	whether it could be installed (it will not if the build or the JVM do not support the Vector API)
+	 */
+	public static boolean installVectorLineScanner() {
+		boolean installed = false;
+		try {
+			LineScanner scanner = (LineScanner) Class.forName(VECTOR_LINE_SCANNER_CLASS).getDeclaredConstructor().newInstance();
+			// Run it once, so a JVM without the module fails here rather than when reading a log
+			scanner.findLineBreak(new byte[1], 0, 1);
+			setInstance(scanner);
+			installed = true;
+		} catch(ReflectiveOperationException e) {
+			// Class not built
+			installed = false;
+		} catch(LinkageError e) {
+			// jdk.incubator.vector not available in this JVM
+			installed = false;
+		};
+		return installed;
+	};
+
+	/**
+	 * Returns the name of the implementation (for reports)
+	 *
+	 * @return	the name
+	 */
+	public String getName() {
+		return "scalar";
+	};
+
+	/**
+	 * Finds the first line terminator (\n or \r) in some bytes
+	 *
+	 * @param	bytes	the bytes
+	 * @param	from	the first index to check
+	 * @param	to		the index after the last one to check
+	 * @return			the index of the line terminator (to if none)
+	 */
+	public int findLineBreak(byte[] bytes, int from, int to) {
+		int i = from;
+		while((i < to) && (bytes[i] != '\n') && (bytes[i] != '\r')) i++;
+		return i;
+	};
+
+	/**
+	 * Returns whether a line starts with a shape
+	 *
+	 * @param	shape	the shape
+	 * @param	bytes	the bytes
+	 * @param	offset	the offset of the line in the bytes
+	 * @param	length	the length of the line (without line terminator)
+	 * @return			whether the line starts with the shape
+	 */
+	public boolean matchesShape(LineShape shape, byte[] bytes, int offset, int length) {
+		return shape.matches(bytes, offset, length);
+	};
+
+}
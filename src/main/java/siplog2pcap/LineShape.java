@@ -0,0 +1,162 @@
+package siplog2pcap;
+
+/*
+ * This class is the shape of the first bytes of the header lines of a log format, checked on every log
+ * line before handing it to LogFrameParser.parseHeaderLine() (see ShapedLogFrameParser), so most of the
+ * lines which are not header lines (SIP message lines in particular) are rejected without running the
+ * full header line parser. A shape is written as one class per position:
+ *     - 9 for a digit, a for a letter, _ for a blank (space, tab, vertical tab or form feed)
+ *     - [...] for any of the classes inside the brackets (such as [_9] for a blank or a digit), where
+ *       one literal character is allowed too (such as [9:] for a digit or a colon)
+ *     - any other character for itself
+ * Leading blanks of the line may be skipped before checking the shape (see skipLeadingBlanks). A shape
+ * must never reject a line the parser would accept, so it only describes what every header line starts with
+ */
+public class LineShape {
+
+	/* CONSTANTS */
+
+	public static final int MAX_LENGTH = 16;
+	public static final byte CLASS_DIGIT = 1;
+	public static final byte CLASS_LETTER = 2;
+	public static final byte CLASS_BLANK = 4;
+	public static final byte CLASS_LITERAL = 8;
+
+	/* INSTANCE VARIABLES */
+
+	private String shape;
+	private boolean skipLeadingBlanks;
+	private int length;
+	private byte[] classes = new byte[MAX_LENGTH];
+	private byte[] literals = new byte[MAX_LENGTH];
+	/** Data of the LineScanner matching this shape (such as its vector masks), built by the scanner */
+	private volatile Object scannerData = null;
+
+	/**
+	 * Returns a LineShape object
+	 *
+	 * @param	shape				the shape (such as aaa_ for Jul 4 11:29:22)
+	 * @param	skipLeadingBlanks	whether the leading blanks of the line are skipped before checking the shape
+	 * @return						the LineShape object
+	 * @throws	IllegalArgumentException	if the shape is not valid
+	 */
+	public LineShape(String shape, boolean skipLeadingBlanks) {
+		this.shape = shape;
+		this.skipLeadingBlanks = skipLeadingBlanks;
+		int i = 0;
+		while(i < shape.length()) {
+			if(this.length == MAX_LENGTH) throw(new IllegalArgumentException("Shape longer than " + Integer.toString(MAX_LENGTH) + ": " + shape));
+			char c = shape.charAt(i);
+			if(c == '[') {
+				int close = shape.indexOf(']', i);
+				if(close < 0) throw(new IllegalArgumentException("Unclosed [ in shape: " + shape));
+				for(int j = i + 1; j < close; j++) {
+					addClass(shape.charAt(j));
+				};
+				i = close + 1;
+			} else {
+				addClass(c);
+				i++;
+			};
+			this.length++;
+		};
+	};
+
+	private void addClass(char c) {
+		if(c == '9') {
+			this.classes[this.length] |= CLASS_DIGIT;
+		} else if(c == 'a') {
+			this.classes[this.length] |= CLASS_LETTER;
+		} else if(c == '_') {
+			this.classes[this.length] |= CLASS_BLANK;
+		} else if((c < 0x80) && ((this.classes[this.length] & CLASS_LITERAL) == 0)) {
+			this.classes[this.length] |= CLASS_LITERAL;
+			this.literals[this.length] = (byte) c;
+		} else {
+			throw(new IllegalArgumentException("Invalid shape (non ASCII or several literals at one position): " + this.shape));
+		};
+	};
+
+	/**	Returns whether a byte is a blank
+	 *	@param	b	the byte
+	 *	@return	whether it is a blank */
+	public static boolean isBlank(int b) { return (b == ' ') || (b == '\t') || (b == 0x0B) || (b == '\f'); };
+
+	/**	Returns the number of positions of the shape
+	 *	@return	the length */
+	public int getLength() { return this.length; };
+
+	/**	Returns whether the leading blanks of the line are skipped before checking the shape
+	 *	@return	whether they are skipped */
+	public boolean getSkipLeadingBlanks() { return this.skipLeadingBlanks; };
+
+	/**	Returns the classes allowed at every position (CLASS_* bits)
+	 *	@return	the classes (MAX_LENGTH positions, 0 after the length) */
+	public byte[] getClasses() { return this.classes; };
+
+	/**	Returns the literal allowed at every position (if CLASS_LITERAL is set)
+	 *	@return	the literals (MAX_LENGTH positions) */
+	public byte[] getLiterals() { return this.literals; };
+
+	/**	Returns the data of the LineScanner matching this shape
+	 *	@return	the data (null if not built yet) */
+	public Object getScannerData() { return this.scannerData; };
+
+	/**	Sets the data of the LineScanner matching this shape
+	 *	@param	scannerData	the data */
+	public void setScannerData(Object scannerData) { this.scannerData = scannerData; };
+
+	private boolean matchesAt(int position, int b) {
+		int allowed = this.classes[position];
+		if(((allowed & CLASS_DIGIT) != 0) && (b >= '0') && (b <= '9')) return true;
+		if(((allowed & CLASS_LETTER) != 0) && ((b | 0x20) >= 'a') && ((b | 0x20) <= 'z')) return true;
+		if(((allowed & CLASS_BLANK) != 0) && isBlank(b)) return true;
+		return ((allowed & CLASS_LITERAL) != 0) && (b == this.literals[position]);
+	};
+
+	/**
+	 * Returns whether the bytes of a line start with the shape, one byte at a time (see LineScanner for the
+	 * vectorized version)
+	 *
+	 * @param	bytes	the bytes
+	 * @param	offset	the offset of the line in the bytes
+	 * @param	length	the length of the line (without line terminator)
+	 * @return			whether the line starts with the shape
+	 */
+	public boolean matches(byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		if(this.skipLeadingBlanks) {
+			while((offset < end) && isBlank(bytes[offset])) offset++;
+		};
+		if(end - offset < this.length) return false;
+		for(int i = 0; i < this.length; i++) {
+			if(!matchesAt(i, bytes[offset + i])) return false;
+		};
+		return true;
+	};
+
+	/**
+	 * Returns whether a line starts with the shape
+	 *
+	 * @param	line	the line
+	 * @return			whether the line starts with the shape
+	 */
+	public boolean matches(String line) {
+		int offset = 0;
+		int end = line.length();
+		if(this.skipLeadingBlanks) {
+			while((offset < end) && isBlank(line.charAt(offset))) offset++;
+		};
+		if(end - offset < this.length) return false;
+		for(int i = 0; i < this.length; i++) {
+			char c = line.charAt(offset + i);
+			if((c >= 0x80) || !matchesAt(i, c)) return false;
+		};
+		return true;
+	};
+
+	public String toString() {
+		return this.shape;
+	};
+
+}
@@ -0,0 +1,131 @@
+package siplog2pcap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * This class is a buffered output stream for live outputs (stdout or named pipes read by Wireshark, for
+ * instance), so the data written is not kept in the buffer for longer than a given latency bound:
+ *     - If the latency bound is 0, every write is flushed (which means every PCAP frame)
+ *     - Otherwise, data is flushed when the buffer gets full, or by a background thread once the oldest
+ *       buffered byte gets as old as the latency bound (so data is flushed even if the input stalls, as it
+ *       happens when following a log file which is still being written)
+ * As the background thread might be the one getting an IOException (for instance if the reader of the
+ * named pipe went away), such exception is thrown on the next write (or on close)
+ */
+public class LiveOutputStream extends OutputStream {
+
+	/* CONSTANTS */
+
+	public static final long DEFAULT_LATENCY_MILLIS = 200;
+	public static final int BUFFER_SIZE = 65536;
+
+	/* INSTANCE VARIABLES */
+
+	private OutputStream outputStream;
+	private long latencyMillis;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int count = 0;
+	private long oldestWriteMillis = 0;
+	private IOException pendingException = null;
+	private boolean closed = false;
+	private Thread flusher = null;
+
+	/**
+	 * Returns a LiveOutputStream object
+	 *
+	 * @param	outputStream	the underlying output stream
+	 * @param	latencyMillis	the maximum time data is kept in the buffer (0 to flush every write)
+	 * @return					the LiveOutputStream object
+	 */
+	public LiveOutputStream(OutputStream outputStream, long latencyMillis) {
+		this.outputStream = outputStream;
+		this.latencyMillis = latencyMillis;
+		if(latencyMillis > 0) {
+			this.flusher = new Thread(new Runnable() {
+				public void run() {
+					flushPeriodically();
+				}
+			}, "siplog2pcap-live-flusher");
+			this.flusher.setDaemon(true);
+			this.flusher.start();
+		};
+	};
+
+	/**
+	 * Flushes the buffered data once it gets as old as the latency bound (run by the background thread)
+	 */
+	private synchronized void flushPeriodically() {
+		while(!this.closed) {
+			try {
+				if((this.count == 0) || (this.pendingException != null)) {
+					wait();
+				} else {
+					long waitMillis = this.oldestWriteMillis + this.latencyMillis - System.currentTimeMillis();
+					if(waitMillis > 0) {
+						wait(waitMillis);
+					} else {
+						flushBuffer();
+					};
+				};
+			} catch(InterruptedException e) {
+				return;
+			} catch(IOException e) {
+				this.pendingException = e;
+			};
+		};
+	};
+
+	private void flushBuffer() throws IOException {
+		if(this.count > 0) {
+			this.outputStream.write(this.buffer, 0, this.count);
+			this.count = 0;
+		};
+		this.outputStream.flush();
+	};
+
+	private void checkPendingException() throws IOException {
+		if(this.pendingException != null) throw(this.pendingException);
+		if(this.closed) throw(new IOException("Stream closed"));
+	};
+
+	public synchronized void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	};
+
+	public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+		checkPendingException();
+		if(this.count + length > this.buffer.length) {
+			flushBuffer();
+		};
+		if(length >= this.buffer.length) {
+			this.outputStream.write(bytes, offset, length);
+		} else {
+			if(this.count == 0) {
+				this.oldestWriteMillis = System.currentTimeMillis();
+				notifyAll();
+			};
+			System.arraycopy(bytes, offset, this.buffer, this.count, length);
+			this.count += length;
+		};
+		if(this.latencyMillis <= 0) flushBuffer();
+	};
+
+	public synchronized void flush() throws IOException {
+		checkPendingException();
+		flushBuffer();
+	};
+
+	public synchronized void close() throws IOException {
+		if(this.closed) return;
+		try {
+			if(this.pendingException == null) flushBuffer();
+		} finally {
+			this.closed = true;
+			notifyAll();
+			this.outputStream.close();
+		}
+		if(this.pendingException != null) throw(this.pendingException);
+	};
+
+}
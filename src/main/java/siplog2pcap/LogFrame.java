@@ -69,6 +69,24 @@ public class LogFrame {
 	/** genericEvent */
 	private String genericEvent = null;
 
+	/** sipBody */
+	private byte[] sipBody = null;
+
+	/** truncated */
+	private boolean truncated = false;
+
+	/** cut (at the frame limits, see LogLinesParser) */
+	private boolean cut = false;
+
+	/** lineNumber */
+	private long lineNumber = -1;
+
+	/** inputEndOffset */
+	private long inputEndOffset = -1;
+
+	/** inputEndLineNumber */
+	private long inputEndLineNumber = -1;
+
 	/**
 	 *	CONSTRUCTOR
 	 *	Returns a LogFrame object
@@ -111,6 +129,12 @@ public class LogFrame {
 		this.logLines = new ArrayList<String>();
 		this.sipLines = null;
 		this.genericEvent = null;
+		this.sipBody = null;
+		this.truncated = false;
+		this.cut = false;
+		this.lineNumber = -1;
+		this.inputEndOffset = -1;
+		this.inputEndLineNumber = -1;
 	};
 
 	/* SETTERS */
@@ -183,6 +207,27 @@ public class LogFrame {
 	 *	@param	genericEvent */
 	public void setGenericEvent(String genericEvent) { this.genericEvent = genericEvent; };
 
+	/**	Sets the sipBody (when set, sipLines only hold the start line and headers)
+	 *	@param	sipBody */
+	public void setSipBody(byte[] sipBody) { this.sipBody = sipBody; };
+
+	/**	Sets whether the SIP body is shorter than declared in its Content-Length
+	 *	@param	truncated */
+	public void setTruncated(boolean truncated) { this.truncated = truncated; };
+
+	/**	Sets whether the lines of the log entry beyond the frame limits were skipped (see LogLinesParser)
+	 *	@param	cut */
+	public void setCut(boolean cut) { this.cut = cut; };
+
+	/**	Sets the lineNumber (of the header line in the log file)
+	 *	@param	lineNumber */
+	public void setLineNumber(long lineNumber) { this.lineNumber = lineNumber; };
+
+	/**	Sets the input end (the byte offset in the log file where parsing goes on after this frame, and the number of lines before it)
+	 *	@param	inputEndOffset
+	 *	@param	inputEndLineNumber */
+	public void setInputEnd(long inputEndOffset, long inputEndLineNumber) { this.inputEndOffset = inputEndOffset; this.inputEndLineNumber = inputEndLineNumber; };
+
 	/* GETTERS */
 
 	/**	Returns the month
@@ -249,6 +294,30 @@ public class LogFrame {
 	 *	@return	the genericEvent */
 	public String getGenericEvent() { return this.genericEvent; };
 
+	/**	Returns the sipBody
+	 *	@return	the sipBody */
+	public byte[] getSipBody() { return this.sipBody; };
+
+	/**	Returns whether the SIP body is shorter than declared in its Content-Length
+	 *	@return	the truncated flag */
+	public boolean isTruncated() { return this.truncated; };
+
+	/**	Returns whether the lines of the log entry beyond the frame limits were skipped
+	 *	@return	the cut flag */
+	public boolean isCut() { return this.cut; };
+
+	/**	Returns the lineNumber (of the header line in the log file)
+	 *	@return	the lineNumber */
+	public long getLineNumber() { return this.lineNumber; };
+
+	/**	Returns the byte offset in the log file where parsing goes on after this frame (-1 if unknown)
+	 *	@return	inputEndOffset */
+	public long getInputEndOffset() { return this.inputEndOffset; };
+
+	/**	Returns the number of lines in the log file before inputEndOffset (-1 if unknown)
+	 *	@return	inputEndLineNumber */
+	public long getInputEndLineNumber() { return this.inputEndLineNumber; };
+
 	/**	Builds the SIP message by using the sipLines
 	 *	@return	the SIP message */
 	public String getSipMessage() {
@@ -258,9 +327,30 @@ public class LogFrame {
 			sb.append(line);
 			sb.append("\r\n");
 		};
+		if(this.sipBody != null) {
+			sb.append(new String(this.sipBody));
+		};
 		return sb.toString();
 	};
 
+	/**	Builds the SIP message bytes by using the sipLines and the sipBody (if any)
+	 *	The body is appended as it is, so the payload length matches its Content-Length
+	 *	@return	the SIP message bytes */
+	public byte[] getSipMessageBytes() {
+		if(this.getSipLines() == null) return null;
+		StringBuilder sb = new StringBuilder();
+		for(String line : this.getSipLines()) {
+			sb.append(line);
+			sb.append("\r\n");
+		};
+		byte[] headerBytes = sb.toString().getBytes();
+		if(this.sipBody == null) return headerBytes;
+		byte[] messageBytes = new byte[headerBytes.length + this.sipBody.length];
+		System.arraycopy(headerBytes, 0, messageBytes, 0, headerBytes.length);
+		System.arraycopy(this.sipBody, 0, messageBytes, headerBytes.length, this.sipBody.length);
+		return messageBytes;
+	};
+
 	/**
 	 * This method infers whether the content a SIP message was sent over UDP, TCP or SCTP
 	 * by checking the message content (Via header in particular)
@@ -344,6 +434,14 @@ public class LogFrame {
 			}
 			sb.append("]\r\n");
 		} else sb.append("null");
+		sb.append(", \"sipBodyLength\": ");
+		if(this.sipBody != null) {
+			sb.append(String.valueOf(this.sipBody.length));
+		} else sb.append("null");
+		sb.append(", \"truncated\": ");
+		sb.append(String.valueOf(this.truncated));
+		sb.append(", \"cut\": ");
+		sb.append(String.valueOf(this.cut));
 		sb.append(", \"genericEvent\": ");
 		if(this.genericEvent != null) {
 			sb.append(this.genericEvent);
@@ -18,5 +18,9 @@ public interface LogFrameParser {
 	 *	other instance variables (at least sipLines)
 	 *	@param	logFrame */
 	public void postProcessLogFrame(LogFrame logFrame);
+
+	/**	Sets the ParseDiagnostics to which parsing failures are reported
+	 *	@param	parseDiagnostics */
+	public void setParseDiagnostics(ParseDiagnostics parseDiagnostics);
 	
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package siplog2pcap;
+
+/**
+ * LogFrameParserProvider interface describes a log format supported by siplog2pcap: its name (the log type,
+ * used as --<name> in the command line), the parameters of its parser, how to create the parser, and a probe
+ * telling how likely some log lines are in this format (see ParserRegistry.detect())
+ *
+ * Providers are found by ParserRegistry, either built in or through java.util.ServiceLoader, so a jar with
+ * a META-INF/services/siplog2pcap.LogFrameParserProvider file listing its providers adds log formats just by
+ * being in the classpath
+ */
+public interface LogFrameParserProvider {
+
+	/**	Returns the name of the log format (such as acme-packet)
+	 *	@return	the name */
+	public String getName();
+
+	/**	Returns a description of the log format (such as Oracle SBC sipmsg.log)
+	 *	@return	the description */
+	public String getDescription();
+
+	/**	Returns the usage of the parser parameters (such as <year>)
+	 *	@return	the usage of the parameters */
+	public String getParamsUsage();
+
+	/**	Creates a parser with the given parameters
+	 *	@param	parserConfigParams	the parser configuration parameters
+	 *	@return	the parser
+	 *	@throws	Exception			if the parameters are not valid */
+	public LogFrameParser createParser(String[] parserConfigParams) throws Exception;
+
+	/**	Creates a probe of log lines (every detection uses its own probe)
+	 *	@return	the probe */
+	public Probe createProbe();
+
+	/**
+	 * Probe interface collects the evidence of some log lines being in a log format. It must be fast (usually
+	 * a pattern match on lines starting like a header line), as it is run on every sampled line
+	 */
+	public interface Probe {
+
+		/**	Probes one log line
+		 *	@param	line	the log line */
+		public void probeLine(String line);
+
+		/**	Returns the evidence of the lines probed so far being in the log format (0 for none), which is
+		 *	compared with the score of the other probes: usually 1 point per header line and some more per
+		 *	header line of a SIP message
+		 *	@return	the score */
+		public long getScore();
+
+	}
+
+}
@@ -0,0 +1,722 @@
+package siplog2pcap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+
+/*
+ * This class implements an on-disk inverted index over an archive of log files, so the frames of a call
+ * can be extracted without converting (or even reading) the whole archive.
+ * Every indexed log file has its own index file in the index directory (<hash of the log file path>.idx),
+ * with:
+ *     - The log type and parser params the log file was indexed with (so its frames can be parsed again)
+ *     - The input offset and line number where indexing stopped, so indexing a log file again only parses
+ *       the data appended since then (a log file which is shorter than that, or whose first bytes changed,
+ *       is considered a new one, as it happens when logs are rotated)
+ *     - The input offset and line number of every frame (see LogFrame.getInputEndOffset(), as a frame
+ *       starts where the previous one ended), so a frame is read again by seeking straight to it
+ *     - The postings: the frames of every term, terms being the Call-ID and the From/To user parts of SIP
+ *       messages, and the time bucket (hour) of every frame
+ *     - A Bloom filter of the terms, which is stored before the frames and postings, so queries skip the
+ *       log files which cannot have any matching frame by just reading the start of their index file
+ */
+public class LogIndex {
+
+	/* CONSTANTS */
+
+	public static final String INDEX_EXTENSION = ".idx";
+	public static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+	public static final long TIME_BUCKET_MILLIS = 3600L * 1000;
+
+	private static final int INDEX_MAGIC = 0x53324958; // "S2IX"
+	private static final int INDEX_FORMAT_VERSION = 1;
+	private static final int HEAD_BYTES = 4096;
+	private static final int MAX_BLOOM_TIME_BUCKETS = 1024;
+	private static final String TERM_CALL_ID = "callid:";
+	private static final String TERM_FROM = "from:";
+	private static final String TERM_TO = "to:";
+	private static final String TERM_TIME = "time:";
+
+	/* INSTANCE VARIABLES */
+
+	private File directory;
+
+	/**
+	 * Returns a LogIndex object
+	 *
+	 * @param	directory	the index directory (created if needed)
+	 * @return				the LogIndex object
+	 */
+	public LogIndex(File directory) {
+		this.directory = directory;
+	};
+
+	/**
+	 * Returns the index directory
+	 *
+	 * @return	the index directory
+	 */
+	public File getDirectory() {
+		return this.directory;
+	};
+
+	/**
+	 * Indexes the frames of a log file which are not indexed yet (all of them if the log file was not
+	 * indexed before, or if it was indexed with another log type or parser params, or it was rotated)
+	 *
+	 * @param	logType				the log type (such as AppCore.TYPE_ACME_PACKET, or its command line option)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @param	parser				the parser of the log file
+	 * @param	logFile				the log file
+	 * @return						the number of frames indexed (0 if the index was up to date)
+	 */
+	public long update(String logType, String[] parserConfigParams, LogFrameParser parser, File logFile) throws IOException {
+		if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw(new IOException("Failed to create index directory " + this.directory.getPath()));
+		};
+		if(logType.startsWith("--")) logType = logType.substring(2);
+		String path = logFile.getAbsolutePath();
+		File indexFile = getIndexFile(path);
+		// The frames and postings are only read if the log file grew since it was indexed
+		Entry entry = indexFile.exists() ? Entry.read(indexFile, false) : null;
+		if(entry != null) {
+			boolean sameLogFile = entry.path.equals(path) && entry.logType.equals(logType) && Arrays.equals(entry.parserConfigParams, parserConfigParams);
+			if(!sameLogFile || (logFile.length() < entry.inputOffset) || !entry.headHash.equals(getHeadHash(logFile, entry.headLength))) {
+				entry = null;
+			} else if(logFile.length() == entry.inputOffset) {
+				return 0;
+			} else {
+				entry = Entry.read(indexFile, true);
+			};
+		};
+		if(entry == null) entry = new Entry(path, logType, parserConfigParams);
+		if((entry.headLength < HEAD_BYTES) && (logFile.length() > entry.headLength)) {
+			entry.headLength = (int) Math.min(HEAD_BYTES, logFile.length());
+			entry.headHash = getHeadHash(logFile, entry.headLength);
+		};
+		long frames = 0;
+		LineIterator logLines = new LineIterator(logFile, entry.inputOffset);
+		try {
+			Iterator<LogFrame> logFrames = new LogLinesParser(parser).parse(logLines, logLines, entry.inputLineNumber);
+			while(logFrames.hasNext()) {
+				LogFrame logFrame = logFrames.next();
+				entry.addFrame(getTerms(logFrame));
+				entry.inputOffset = logFrame.getInputEndOffset();
+				entry.inputLineNumber = logFrame.getInputEndLineNumber();
+				frames++;
+			};
+		} finally {
+			logLines.close();
+		}
+		entry.write(indexFile);
+		return frames;
+	};
+
+	/**
+	 * Returns the terms of a frame
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				the terms
+	 */
+	public static List<String> getTerms(LogFrame logFrame) {
+		List<String> terms = new ArrayList<String>();
+		List<String> sipLines = logFrame.getSipLines();
+		if((sipLines != null) && (sipLines.size() > 0)) {
+			String callId = SipStatistics.getHeader(sipLines, "Call-ID", "i");
+			if(callId != null) terms.add(TERM_CALL_ID + callId);
+			String fromUser = getUserPart(SipStatistics.getHeader(sipLines, "From", "f"));
+			if(fromUser != null) terms.add(TERM_FROM + fromUser);
+			String toUser = getUserPart(SipStatistics.getHeader(sipLines, "To", "t"));
+			if(toUser != null) terms.add(TERM_TO + toUser);
+		};
+		terms.add(TERM_TIME + Long.toString(getEpochMillis(logFrame) / TIME_BUCKET_MILLIS));
+		return terms;
+	};
+
+	/**
+	 * Returns the user part of the URI of a From or To header value (in lower case), such as "alice" for
+	 * "Alice <sip:alice@example.com>;tag=1" or "+34600000000" for "<tel:+34600000000>"
+	 *
+	 * @param	value	the header value
+	 * @return			the user part (null if none)
+	 */
+	public static String getUserPart(String value) {
+		if(value == null) return null;
+		String lowerCaseValue = value.toLowerCase();
+		String[] schemes = { "sip:", "sips:", "tel:" };
+		for(String scheme : schemes) {
+			int start = lowerCaseValue.indexOf(scheme);
+			if(start == -1) continue;
+			start += scheme.length();
+			int end = start;
+			while((end < lowerCaseValue.length()) && (";>?, \t".indexOf(lowerCaseValue.charAt(end)) == -1)) end++;
+			String uri = lowerCaseValue.substring(start, end);
+			int at = uri.indexOf('@');
+			if(at >= 0) {
+				uri = uri.substring(0, at);
+			} else if(!scheme.equals("tel:")) {
+				return null; // A SIP URI without user part
+			};
+			return (uri.length() > 0) ? uri : null;
+		};
+		return null;
+	};
+
+	/**
+	 * Returns the time of a frame in milliseconds since the epoch
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				the time
+	 */
+	public static long getEpochMillis(LogFrame logFrame) {
+		TimeZone timeZone = logFrame.getTimeZone();
+		if(timeZone == null) timeZone = TimeZone.getDefault();
+		return AppCore.createDate(logFrame.getYear(), logFrame.getMonth(), logFrame.getDay(), logFrame.getHour(), logFrame.getMinutes(), logFrame.getSeconds(), timeZone).getTime() + (logFrame.getMicroseconds() / 1000);
+	};
+
+	/**
+	 * Returns the frames matching a query, sorted by log file path and input offset
+	 *
+	 * @param	query	the query
+	 * @return			the matching frames
+	 */
+	public List<Hit> query(Query query) throws IOException {
+		List<Hit> hits = new ArrayList<Hit>();
+		File[] indexFiles = this.directory.listFiles();
+		if(indexFiles == null) throw(new IOException("Index directory " + this.directory.getPath() + " not found"));
+		for(File indexFile : indexFiles) {
+			if(!indexFile.getName().endsWith(INDEX_EXTENSION)) continue;
+			Entry entry = Entry.read(indexFile, false);
+			if((entry == null) || !query.mightMatch(entry.bloomFilter)) continue;
+			entry = Entry.read(indexFile, true);
+			if(entry == null) continue;
+			int[] frames = query.getFrames(entry);
+			for(int frame : frames) {
+				hits.add(new Hit(entry.path, entry.logType, entry.parserConfigParams, entry.frameOffsets[frame], entry.frameLineNumbers[frame]));
+			};
+		};
+		Collections.sort(hits, new Comparator<Hit>() {
+			public int compare(Hit hit1, Hit hit2) {
+				int comparison = hit1.getPath().compareTo(hit2.getPath());
+				if(comparison != 0) return comparison;
+				return (hit1.getOffset() < hit2.getOffset()) ? -1 : ((hit1.getOffset() == hit2.getOffset()) ? 0 : 1);
+			}
+		});
+		return hits;
+	};
+
+	/**
+	 * Returns an iterator of the LogFrames of the given hits (read again from their log files by seeking
+	 * straight to them) which match the query exactly (the time range of a query is only matched by time
+	 * bucket in the index)
+	 *
+	 * @param	hits	the hits (as returned by query())
+	 * @param	query	the query
+	 * @return			the iterator of LogFrames
+	 */
+	public static Iterator<LogFrame> readFrames(final List<Hit> hits, final Query query) {
+		return new Iterator<LogFrame>() {
+			private int nextHit = 0;
+			private LogFrame cachedNext = null;
+			private Map<String,LogFrameParser> parsers = new HashMap<String,LogFrameParser>();
+
+			private LogFrame getNext() {
+				while((this.cachedNext == null) && (this.nextHit < hits.size())) {
+					Hit hit = hits.get(this.nextHit++);
+					String parserKey = hit.getLogType() + " " + Arrays.toString(hit.getParserConfigParams());
+					LogFrameParser parser = this.parsers.get(parserKey);
+					if(parser == null) {
+						parser = AppCore.createParser(hit.getLogType(), hit.getParserConfigParams());
+						if(parser == null) throw(new RuntimeException("Invalid log type or parser params for " + hit.getPath()));
+						this.parsers.put(parserKey, parser);
+					};
+					LineIterator logLines = new LineIterator(new File(hit.getPath()), hit.getOffset());
+					try {
+						Iterator<LogFrame> logFrames = new LogLinesParser(parser).parse(logLines, logLines, hit.getLineNumber());
+						if(logFrames.hasNext()) {
+							LogFrame logFrame = logFrames.next();
+							if(query.matches(logFrame)) this.cachedNext = logFrame;
+						};
+					} finally {
+						logLines.close();
+					}
+				};
+				return this.cachedNext;
+			}
+
+			public boolean hasNext() {
+				return (getNext() != null);
+			}
+
+			public LogFrame next() {
+				LogFrame next = getNext();
+				if(next == null) throw(new NoSuchElementException());
+				this.cachedNext = null;
+				return next;
+			}
+
+			public void remove() {
+				throw(new UnsupportedOperationException());
+			}
+		};
+	};
+
+	/**
+	 * Returns the index file of a log file
+	 *
+	 * @param	path	the absolute path of the log file
+	 * @return			the index file
+	 */
+	private File getIndexFile(String path) {
+		return new File(this.directory, toHex(sha256(path.getBytes())).substring(0, 32) + INDEX_EXTENSION);
+	};
+
+	/**
+	 * Returns the hash of the first bytes of a file
+	 *
+	 * @param	file	the file
+	 * @param	length	the number of bytes
+	 * @return			the hash (in hexadecimal)
+	 */
+	private static String getHeadHash(File file, int length) throws IOException {
+		byte[] head = new byte[length];
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			int read = 0;
+			while(read < length) {
+				int n = inputStream.read(head, read, length - read);
+				if(n < 0) break;
+				read += n;
+			};
+			if(read < length) head = Arrays.copyOf(head, read);
+		} finally {
+			inputStream.close();
+		}
+		return toHex(sha256(head));
+	};
+
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch(NoSuchAlgorithmException e) {
+			// Every Java platform must support SHA-256
+			throw(new RuntimeException(e));
+		}
+	};
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		};
+		return sb.toString();
+	};
+
+	/**
+	 * A query over the index: frames must match every given criterion (Call-ID, user, From user, To user
+	 * and time range)
+	 */
+	public static class Query {
+		private String callId = null;
+		private String user = null;
+		private String fromUser = null;
+		private String toUser = null;
+		private long sinceMillis = Long.MIN_VALUE;
+		private long untilMillis = Long.MAX_VALUE;
+
+		/**
+		 * Parses a query from its criteria, which are:
+		 *     call-id=<call_id>, user=<user> (From or To user part), from=<user>, to=<user>,
+		 *     since=<yyyy-mm-ddThh:mm[:ss]> and until=<yyyy-mm-ddThh:mm[:ss]> (local time)
+		 *
+		 * @param	criteria	the criteria
+		 * @return				the query (null if the criteria are not valid or there are none)
+		 */
+		public static Query parse(String[] criteria) {
+			Query query = new Query();
+			if(criteria.length == 0) return null;
+			for(String criterion : criteria) {
+				int equals = criterion.indexOf('=');
+				if(equals <= 0) return null;
+				String name = criterion.substring(0, equals);
+				String value = criterion.substring(equals + 1);
+				if(value.length() == 0) return null;
+				if(name.equals("call-id")) {
+					query.callId = value;
+				} else if(name.equals("user")) {
+					query.user = value.toLowerCase();
+				} else if(name.equals("from")) {
+					query.fromUser = value.toLowerCase();
+				} else if(name.equals("to")) {
+					query.toUser = value.toLowerCase();
+				} else if(name.equals("since") || name.equals("until")) {
+					long millis = parseTime(value);
+					if(millis == -1) return null;
+					if(name.equals("since")) {
+						query.sinceMillis = millis;
+					} else {
+						query.untilMillis = millis;
+					};
+				} else {
+					return null;
+				};
+			};
+			return query;
+		};
+
+		private static long parseTime(String value) {
+			String[] formats = { "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd" };
+			for(String format : formats) {
+				SimpleDateFormat sdf = new SimpleDateFormat(format);
+				sdf.setLenient(false);
+				try {
+					if(value.length() == format.replace("'", "").length()) return sdf.parse(value).getTime();
+				} catch(ParseException e) {
+				};
+			};
+			return -1;
+		};
+
+		/**
+		 * Returns the term clauses of the query (a frame must have, for every clause, any of its terms)
+		 * The time range is only included when it spans a limited number of time buckets
+		 */
+		private List<String[]> getClauses(int maxTimeBuckets) {
+			List<String[]> clauses = new ArrayList<String[]>();
+			if(this.callId != null) clauses.add(new String[] { TERM_CALL_ID + this.callId });
+			if(this.user != null) clauses.add(new String[] { TERM_FROM + this.user, TERM_TO + this.user });
+			if(this.fromUser != null) clauses.add(new String[] { TERM_FROM + this.fromUser });
+			if(this.toUser != null) clauses.add(new String[] { TERM_TO + this.toUser });
+			if((this.sinceMillis != Long.MIN_VALUE) || (this.untilMillis != Long.MAX_VALUE)) {
+				long firstBucket = (this.sinceMillis == Long.MIN_VALUE) ? Long.MIN_VALUE : this.sinceMillis / TIME_BUCKET_MILLIS;
+				long lastBucket = (this.untilMillis == Long.MAX_VALUE) ? Long.MAX_VALUE : this.untilMillis / TIME_BUCKET_MILLIS;
+				if((firstBucket != Long.MIN_VALUE) && (lastBucket != Long.MAX_VALUE) && (lastBucket - firstBucket < maxTimeBuckets)) {
+					String[] clause = new String[(int) Math.max(0, lastBucket - firstBucket + 1)];
+					for(int i = 0; i < clause.length; i++) {
+						clause[i] = TERM_TIME + Long.toString(firstBucket + i);
+					};
+					clauses.add(clause);
+				};
+			};
+			return clauses;
+		};
+
+		/**
+		 * Returns whether the frames of a log file might match the query, according to its Bloom filter
+		 */
+		private boolean mightMatch(BloomFilter bloomFilter) {
+			for(String[] clause : getClauses(MAX_BLOOM_TIME_BUCKETS)) {
+				boolean mightMatchClause = false;
+				for(String term : clause) {
+					if(bloomFilter.mightContain(term)) {
+						mightMatchClause = true;
+						break;
+					};
+				};
+				if(!mightMatchClause) return false;
+			};
+			return true;
+		};
+
+		/**
+		 * Returns the frames of an index entry matching the query terms (sorted), without checking the
+		 * time range beyond time buckets (see matches())
+		 */
+		private int[] getFrames(Entry entry) {
+			int[] frames = null;
+			for(String[] clause : getClauses(Integer.MAX_VALUE)) {
+				List<int[]> postings = new ArrayList<int[]>();
+				for(String term : clause) {
+					int[] posting = entry.getPosting(term);
+					if(posting != null) postings.add(posting);
+				};
+				int[] clauseFrames = union(postings);
+				frames = (frames == null) ? clauseFrames : intersection(frames, clauseFrames);
+				if(frames.length == 0) break;
+			};
+			if(frames == null) {
+				// Only an open time range, so every frame is a candidate
+				frames = new int[entry.frameCount];
+				for(int i = 0; i < frames.length; i++) frames[i] = i;
+			};
+			return frames;
+		};
+
+		/**
+		 * Returns whether a frame matches the query exactly
+		 *
+		 * @param	logFrame	the LogFrame
+		 * @return				whether it matches
+		 */
+		public boolean matches(LogFrame logFrame) {
+			if((this.sinceMillis != Long.MIN_VALUE) || (this.untilMillis != Long.MAX_VALUE)) {
+				long millis = getEpochMillis(logFrame);
+				if((millis < this.sinceMillis) || (millis >= this.untilMillis)) return false;
+			};
+			return true;
+		};
+
+		private static int[] union(List<int[]> postings) {
+			if(postings.size() == 1) return postings.get(0);
+			int length = 0;
+			for(int[] posting : postings) length += posting.length;
+			int[] frames = new int[length];
+			int i = 0;
+			for(int[] posting : postings) {
+				System.arraycopy(posting, 0, frames, i, posting.length);
+				i += posting.length;
+			};
+			Arrays.sort(frames);
+			int unique = 0;
+			for(int j = 0; j < frames.length; j++) {
+				if((unique == 0) || (frames[unique - 1] != frames[j])) frames[unique++] = frames[j];
+			};
+			return Arrays.copyOf(frames, unique);
+		};
+
+		private static int[] intersection(int[] frames1, int[] frames2) {
+			int[] frames = new int[Math.min(frames1.length, frames2.length)];
+			int count = 0;
+			int i = 0;
+			int j = 0;
+			while((i < frames1.length) && (j < frames2.length)) {
+				if(frames1[i] < frames2[j]) {
+					i++;
+				} else if(frames1[i] > frames2[j]) {
+					j++;
+				} else {
+					frames[count++] = frames1[i];
+					i++;
+					j++;
+				};
+			};
+			return Arrays.copyOf(frames, count);
+		};
+	};
+
+	/**
+	 * A frame matching a query
+	 */
+	public static class Hit {
+		private String path;
+		private String logType;
+		private String[] parserConfigParams;
+		private long offset;
+		private long lineNumber;
+
+		private Hit(String path, String logType, String[] parserConfigParams, long offset, long lineNumber) {
+			this.path = path;
+			this.logType = logType;
+			this.parserConfigParams = parserConfigParams;
+			this.offset = offset;
+			this.lineNumber = lineNumber;
+		};
+
+		/**	Returns the path of the log file
+		 *	@return	path */
+		public String getPath() { return this.path; };
+
+		/**	Returns the log type of the log file
+		 *	@return	logType */
+		public String getLogType() { return this.logType; };
+
+		/**	Returns the parser params of the log file
+		 *	@return	parserConfigParams */
+		public String[] getParserConfigParams() { return this.parserConfigParams; };
+
+		/**	Returns the input offset where parsing the frame starts
+		 *	@return	offset */
+		public long getOffset() { return this.offset; };
+
+		/**	Returns the number of lines before the input offset
+		 *	@return	lineNumber */
+		public long getLineNumber() { return this.lineNumber; };
+	};
+
+	/**
+	 * The index of one log file
+	 */
+	private static class Entry {
+		private String path;
+		private String logType;
+		private String[] parserConfigParams;
+		private int headLength = 0;
+		private String headHash = "";
+		private long inputOffset = 0;
+		private long inputLineNumber = 0;
+		private BloomFilter bloomFilter = null;
+		private int frameCount = 0;
+		private long[] frameOffsets = new long[1024];
+		private long[] frameLineNumbers = new long[1024];
+		private HashMap<String,int[]> postings = new HashMap<String,int[]>();
+		private HashMap<String,Integer> postingSizes = new HashMap<String,Integer>();
+
+		private Entry(String path, String logType, String[] parserConfigParams) {
+			this.path = path;
+			this.logType = logType;
+			this.parserConfigParams = parserConfigParams;
+		};
+
+		/**
+		 * Adds a frame starting at the current input offset of the entry
+		 *
+		 * @param	terms	the terms of the frame
+		 */
+		private void addFrame(List<String> terms) {
+			if(this.frameCount == this.frameOffsets.length) {
+				this.frameOffsets = Arrays.copyOf(this.frameOffsets, 2 * this.frameCount);
+				this.frameLineNumbers = Arrays.copyOf(this.frameLineNumbers, 2 * this.frameCount);
+			};
+			int frame = this.frameCount++;
+			this.frameOffsets[frame] = this.inputOffset;
+			this.frameLineNumbers[frame] = this.inputLineNumber;
+			for(String term : terms) {
+				int[] posting = this.postings.get(term);
+				int size = (posting == null) ? 0 : this.postingSizes.get(term).intValue();
+				if((size > 0) && (posting[size - 1] == frame)) continue;
+				if(posting == null) {
+					posting = new int[1];
+				} else if(size == posting.length) {
+					posting = Arrays.copyOf(posting, 2 * size);
+				};
+				posting[size] = frame;
+				this.postings.put(term, posting);
+				this.postingSizes.put(term, Integer.valueOf(size + 1));
+			};
+		};
+
+		/**
+		 * Returns the frames of a term (sorted), or null if none
+		 */
+		private int[] getPosting(String term) {
+			int[] posting = this.postings.get(term);
+			if(posting == null) return null;
+			int size = this.postingSizes.get(term).intValue();
+			return (size == posting.length) ? posting : Arrays.copyOf(posting, size);
+		};
+
+		/**
+		 * Reads an index file
+		 *
+		 * @param	indexFile		the index file
+		 * @param	withPostings	whether the frames and postings must be read too (otherwise, just up to the Bloom filter)
+		 * @return					the Entry (null if it is not a valid index file)
+		 */
+		private static Entry read(File indexFile, boolean withPostings) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 65536));
+				try {
+					if((in.readInt() != INDEX_MAGIC) || (in.readInt() != INDEX_FORMAT_VERSION)) return null;
+					String path = in.readUTF();
+					String logType = in.readUTF();
+					String[] parserConfigParams = new String[in.readInt()];
+					for(int i = 0; i < parserConfigParams.length; i++) {
+						parserConfigParams[i] = in.readUTF();
+					};
+					Entry entry = new Entry(path, logType, parserConfigParams);
+					entry.headLength = in.readInt();
+					entry.headHash = in.readUTF();
+					entry.inputOffset = in.readLong();
+					entry.inputLineNumber = in.readLong();
+					entry.bloomFilter = BloomFilter.read(in);
+					if(!withPostings) return entry;
+					entry.frameCount = in.readInt();
+					entry.frameOffsets = new long[Math.max(1024, entry.frameCount)];
+					entry.frameLineNumbers = new long[entry.frameOffsets.length];
+					for(int i = 0; i < entry.frameCount; i++) {
+						entry.frameOffsets[i] = in.readLong();
+						entry.frameLineNumbers[i] = in.readLong();
+					};
+					int termCount = in.readInt();
+					for(int i = 0; i < termCount; i++) {
+						String term = in.readUTF();
+						int[] posting = new int[in.readInt()];
+						for(int j = 0; j < posting.length; j++) {
+							posting[j] = in.readInt();
+						};
+						entry.postings.put(term, posting);
+						entry.postingSizes.put(term, Integer.valueOf(posting.length));
+					};
+					return entry;
+				} finally {
+					in.close();
+				}
+			} catch(IOException e) {
+				return null;
+			} catch(RuntimeException e) {
+				return null;
+			}
+		};
+
+		/**
+		 * Writes the index file (atomically, so queries never get a partial one)
+		 *
+		 * @param	indexFile	the index file
+		 */
+		private void write(File indexFile) throws IOException {
+			BloomFilter bloomFilter = new BloomFilter(this.postings.size(), BLOOM_FALSE_POSITIVE_RATE);
+			for(String term : this.postings.keySet()) {
+				bloomFilter.add(term);
+			};
+			File tmpIndexFile = new File(indexFile.getPath() + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndexFile), 65536));
+			try {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_FORMAT_VERSION);
+				out.writeUTF(this.path);
+				out.writeUTF(this.logType);
+				out.writeInt(this.parserConfigParams.length);
+				for(String param : this.parserConfigParams) {
+					out.writeUTF(param);
+				};
+				out.writeInt(this.headLength);
+				out.writeUTF(this.headHash);
+				out.writeLong(this.inputOffset);
+				out.writeLong(this.inputLineNumber);
+				bloomFilter.write(out);
+				out.writeInt(this.frameCount);
+				for(int i = 0; i < this.frameCount; i++) {
+					out.writeLong(this.frameOffsets[i]);
+					out.writeLong(this.frameLineNumbers[i]);
+				};
+				out.writeInt(this.postings.size());
+				for(Map.Entry<String,int[]> posting : this.postings.entrySet()) {
+					int size = this.postingSizes.get(posting.getKey()).intValue();
+					out.writeUTF(posting.getKey());
+					out.writeInt(size);
+					for(int i = 0; i < size; i++) {
+						out.writeInt(posting.getValue()[i]);
+					};
+				};
+			} finally {
+				out.close();
+			}
+			indexFile.delete();
+			if(!tmpIndexFile.renameTo(indexFile)) {
+				tmpIndexFile.delete();
+				throw(new IOException("Failed to write index file " + indexFile.getPath()));
+			};
+		};
+	};
+
+}
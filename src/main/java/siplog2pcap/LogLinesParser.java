@@ -6,9 +6,31 @@ import java.lang.UnsupportedOperationException;
 import java.util.List;
 import java.util.ArrayList;
 
+/*
+ * This class groups the log lines into LogFrames: a header line recognized by the LogFrameParser, followed by
+ * every line up to the next header line. A LogFrame never holds more than the frame limits (see setFrameLimits()),
+ * so a missing end of message or a giant stack trace does not fill the memory: the lines beyond the limits are
+ * skipped up to the next header line, and the LogFrame is closed as cut (see LogFrame.isCut()) and reported as a
+ * parse failure (at the offset of its header line).
+ * The size limit is measured in bytes of the input (line terminators included) from the LineIterator offsets, as is
+ * the maximum line length of the LineIterator, so a LogFrame never holds more than that whatever the charset (its
+ * lines are measured in characters when they are not read from a LineIterator, see parse())
+ * The lines following a header line rejected by the LogFrameParser (up to the next header line) are still added
+ * to the previous LogFrame, but they are quarantined along with the rejected line (see ParseDiagnostics)
+ */
 public class LogLinesParser {
 
+	public static final int DEFAULT_MAX_FRAME_LINES = 10000;
+	public static final int DEFAULT_MAX_FRAME_BYTES = 1024 * 1024;
+	public static final String FRAME_LIMIT_CATEGORY = "frame-limit";
+
 	private LogFrameParser logFrameParser;
+	private FrameTracer frameTracer;
+	private String parserName;
+	private LineShape headerLineShape;
+	private int maxFrameLines = DEFAULT_MAX_FRAME_LINES;
+	private int maxFrameBytes = DEFAULT_MAX_FRAME_BYTES;
+	private ParseDiagnostics parseDiagnostics = null;
 
 	/**
 	 * Returns a LogLinesParser object
@@ -17,6 +39,72 @@ public class LogLinesParser {
 	 */
 	public LogLinesParser(LogFrameParser logFrameParser) {
 		this.logFrameParser = logFrameParser;
+		this.frameTracer = FrameTracing.getFrameTracer();
+		this.parserName = logFrameParser.getClass().getSimpleName();
+		this.headerLineShape = (logFrameParser instanceof ShapedLogFrameParser) ? ((ShapedLogFrameParser) logFrameParser).getHeaderLineShape() : null;
+	};
+
+	/**
+	 * Sets the limits of the LogFrames, beyond which their lines are skipped
+	 *
+	 * @param	maxFrameLines	the maximum number of lines of a LogFrame
+	 * @param	maxFrameBytes	the maximum number of input bytes of a LogFrame (which is also the maximum line length)
+	 */
+	public void setFrameLimits(int maxFrameLines, int maxFrameBytes) {
+		this.maxFrameLines = maxFrameLines;
+		this.maxFrameBytes = maxFrameBytes;
+	};
+
+	/**
+	 * Sets the ParseDiagnostics to which the LogFrames beyond the limits are reported
+	 *
+	 * @param	parseDiagnostics	the ParseDiagnostics (null not to report them)
+	 */
+	public void setParseDiagnostics(ParseDiagnostics parseDiagnostics) {
+		this.parseDiagnostics = parseDiagnostics;
+	};
+
+	/**
+	 * Reports a LogFrame beyond the limits, which is closed as cut
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @param	offset		the byte offset of its header line (-1 if unknown)
+	 */
+	private void reportFrameLimit(LogFrame logFrame, long offset) {
+		logFrame.setCut(true);
+		if(this.parseDiagnostics != null) this.parseDiagnostics.reportParseFailure(FRAME_LIMIT_CATEGORY, logFrame.getLogLines().get(0), null, offset);
+	};
+
+	/**
+	 * Parses the header line with the LogFrameParser, tracing it if a FrameTracer is installed
+	 *
+	 * @param	logLine		the log line
+	 * @param	lineNumber	the line number
+	 * @return				the resulting LogFrame (or null if not a header line)
+	 */
+	private LogFrame parseHeaderLine(String logLine, long lineNumber) {
+		if(this.frameTracer == null) return this.logFrameParser.parseHeaderLine(logLine);
+		Object trace = this.frameTracer.beginHeaderLineParse();
+		LogFrame logFrame = this.logFrameParser.parseHeaderLine(logLine);
+		this.frameTracer.endHeaderLineParse(trace, this.parserName, lineNumber, logLine.length(), logFrame != null);
+		return logFrame;
+	};
+
+	/**
+	 * Postprocesses the LogFrame with the LogFrameParser, tracing it if a FrameTracer is installed
+	 *
+	 * @param	logFrame	the LogFrame
+	 */
+	private void postProcessLogFrame(LogFrame logFrame) {
+		if(this.frameTracer == null) {
+			this.logFrameParser.postProcessLogFrame(logFrame);
+			return;
+		};
+		Object trace = this.frameTracer.beginPostProcess();
+		this.logFrameParser.postProcessLogFrame(logFrame);
+		int frameSize = 0;
+		for(String logLine: logFrame.getLogLines()) frameSize += logLine.length();
+		this.frameTracer.endPostProcess(trace, this.parserName, logFrame.getLineNumber(), logFrame.getLogLines().size(), frameSize);
 	};
 
 	/**
@@ -26,7 +114,23 @@ public class LogLinesParser {
 	 * @return					an iterator of LogFrames
 	 */
 	public Iterator<LogFrame> parse(Iterator<String> lineIterator) {
-		return new LogFrameIterator(lineIterator);
+		return new LogFrameIterator(lineIterator, null, 0);
+	}
+
+	/**
+	 * This method gets an iterator of lines and returns an iterator of LogFrames, setting the input end
+	 * of every LogFrame (see LogFrame.getInputEndOffset()), so parsing can be resumed after any of them, and
+	 * measuring the size of the LogFrames in input bytes (see setFrameLimits())
+	 *
+	 * @param	lineIterator	the log line iterator (which may wrap the LineIterator)
+	 * @param	lineOffsets		the LineIterator the log lines are read from (for the line offsets)
+	 * @param	firstLineNumber	the number of lines of the log file before the first line of the LineIterator
+	 * @return					an iterator of LogFrames
+	 */
+	public Iterator<LogFrame> parse(Iterator<String> lineIterator, LineIterator lineOffsets, long firstLineNumber) {
+		if((lineOffsets != null) && (this.headerLineShape != null)) lineOffsets.setLineShape(this.headerLineShape);
+		if(lineOffsets != null) lineOffsets.setMaxLineLength(this.maxFrameBytes);
+		return new LogFrameIterator(lineIterator, lineOffsets, firstLineNumber);
 	}
 
 	/**
@@ -39,22 +143,64 @@ public class LogLinesParser {
 		 * Instance variables
 		 */
 		private Iterator<String> lineIterator;
+		private LineIterator lineOffsets;
 		private LogFrame cachedNext;
 		private String cachedLogLine;
+		private long lineNumber;
+		/** Whether the lines read belong to an entry rejected by the LogFrameParser */
+		private boolean inRejectedEntry;
 		
 		/**
 		 * Constructor method taking a byte array as input parameter
 		 * The file type is inferred from the byte content
 		 * 
 		 * @param	lineIterator	an iterator with the log lines
+		 * @param	lineOffsets		the LineIterator the log lines are read from (null if offsets are not needed)
+		 * @param	firstLineNumber	the number of lines before the first one of lineIterator
 		 * @return				the newly created LogFrameIterator object
 		 */
-		public LogFrameIterator(Iterator<String> lineIterator) {
+		public LogFrameIterator(Iterator<String> lineIterator, LineIterator lineOffsets, long firstLineNumber) {
 			this.lineIterator = lineIterator;
+			this.lineOffsets = lineOffsets;
 			this.cachedNext = null;
 			this.cachedLogLine = null;
+			this.lineNumber = firstLineNumber;
+			this.inRejectedEntry = false;
 		}
 		
+		/**
+		 * Parses a line which may be a header line, unless it does not start with the shape of the header lines
+		 * (as marked by the LineIterator when reading it, or else checked on the line)
+		 */
+		private LogFrame parseCandidateHeaderLine(String logLine, long lineNumber) {
+			LineShape shape = LogLinesParser.this.headerLineShape;
+			if(shape != null) {
+				boolean candidate = ((this.lineOffsets != null) && (this.lineOffsets.getLineShape() == shape)) ? this.lineOffsets.isLineCandidate() : shape.matches(logLine);
+				if(!candidate) return null;
+			};
+			return LogLinesParser.this.parseHeaderLine(logLine, lineNumber);
+		};
+
+		/**
+		 * Parses a line which may be a header line (see parseCandidateHeaderLine()), quarantining the entries
+		 * rejected by the LogFrameParser: the rejected header line is quarantined when the failure is reported,
+		 * and the following lines up to the next header line are quarantined here
+		 */
+		private LogFrame parseLine(String logLine, long lineNumber) {
+			ParseDiagnostics parseDiagnostics = LogLinesParser.this.parseDiagnostics;
+			if((parseDiagnostics == null) || !parseDiagnostics.isQuarantineEnabled()) return parseCandidateHeaderLine(logLine, lineNumber);
+			long parseFailures = parseDiagnostics.getParseFailures();
+			LogFrame logFrame = parseCandidateHeaderLine(logLine, lineNumber);
+			if(logFrame != null) {
+				this.inRejectedEntry = false;
+			} else if(parseDiagnostics.getParseFailures() != parseFailures) {
+				this.inRejectedEntry = true;
+			} else if(this.inRejectedEntry) {
+				parseDiagnostics.quarantineEntryLine(logLine);
+			};
+			return logFrame;
+		};
+
 		private LogFrame getNext() {
 			LogFrame next = null;
 			LogFrame tmpLogFrame = null;
@@ -72,12 +218,13 @@ public class LogLinesParser {
 				logLine = this.cachedLogLine;
 				if(logLine != null) {
 					this.cachedLogLine = null;
-					tmpLogFrame = LogLinesParser.this.logFrameParser.parseHeaderLine(logLine);
+					tmpLogFrame = LogLinesParser.this.parseHeaderLine(logLine, this.lineNumber);
 				};
 				// We consume log lines until we find a header line
 				while((tmpLogFrame == null) && (this.lineIterator.hasNext())) {
 					logLine = this.lineIterator.next();
-					tmpLogFrame = LogLinesParser.this.logFrameParser.parseHeaderLine(logLine);
+					this.lineNumber++;
+					tmpLogFrame = parseLine(logLine, this.lineNumber);
 				};
 				/*
 				 * Now we should have found the header line if any
@@ -85,12 +232,25 @@ public class LogLinesParser {
 				if(tmpLogFrame != null) {
 					// Found header line, so we create the LogFrame and add the header line
 					next = tmpLogFrame;
+					next.setLineNumber(this.lineNumber);
 					next.getLogLines().add(logLine);
-					// Now we add extra lines if any
+					// Now we add extra lines if any (up to the frame limits, skipping the following ones)
+					long frameStartOffset = (this.lineOffsets != null) ? this.lineOffsets.getLineOffset() : 0;
+					long frameSize = logLine.length();
+					boolean limitReached = false;
 					while(this.lineIterator.hasNext()) {
 						logLine = this.lineIterator.next();
-						tmpLogFrame = LogLinesParser.this.logFrameParser.parseHeaderLine(logLine);
+						this.lineNumber++;
+						tmpLogFrame = parseLine(logLine, this.lineNumber);
 						if(tmpLogFrame == null) {
+							if(limitReached) continue;
+							// Input bytes up to the end of this line (or characters if the offsets are not known)
+							frameSize = (this.lineOffsets != null) ? this.lineOffsets.getLineEndOffset() - frameStartOffset : frameSize + logLine.length();
+							if((next.getLogLines().size() >= LogLinesParser.this.maxFrameLines) || (frameSize > LogLinesParser.this.maxFrameBytes)) {
+								limitReached = true;
+								LogLinesParser.this.reportFrameLimit(next, (this.lineOffsets != null) ? frameStartOffset : -1);
+								continue;
+							};
 							next.getLogLines().add(logLine);
 						} else {
 							this.cachedLogLine = logLine;
@@ -100,9 +260,17 @@ public class LogLinesParser {
 					if(!this.lineIterator.hasNext()) {
 						this.cachedLogLine = null;
 					};
+					if(this.lineOffsets != null) {
+						// Parsing goes on at the cached header line (if any) or else at the end of the input
+						if(this.cachedLogLine != null) {
+							next.setInputEnd(this.lineOffsets.getLineOffset(), this.lineNumber - 1);
+						} else {
+							next.setInputEnd(this.lineOffsets.getLineEndOffset(), this.lineNumber);
+						};
+					};
 				};
 			};
-			if(next != null) LogLinesParser.this.logFrameParser.postProcessLogFrame(next);
+			if(next != null) LogLinesParser.this.postProcessLogFrame(next);
 			return next;
 		};
 		
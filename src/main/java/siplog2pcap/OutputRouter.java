@@ -0,0 +1,139 @@
+package siplog2pcap;
+import jfnlite.Fn;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * This class writes the PCAP frames of a conversion to several PCAP files at once, besides its main output,
+ * as decided by a list of OutputRules (such as one PCAP file per VLAN and a SIP only one), so every LogFrame
+ * is parsed once whatever the number of outputs:
+ *     - Every output has its own PCAP file header and its own frames
+ *     - The frames of the rules with flow level criteria only (see OutputRule.isFlowLevel()) are those of the
+ *       main output, as their TCP/SCTP sequence numbers are the same, so they are encoded once for all of them
+ *     - Every other rule has its own PcapSequenceState, and its frames are encoded again (only those it matches)
+ * An output failing to be written is closed and reported, but it does not stop the conversion nor the other outputs
+ */
+public class OutputRouter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private AppCore appCore;
+	private List<OutputRule> rules;
+	private OutputStream[] outputStreams;
+	/** Encoders of the rules which are not flow level ones (null for the flow level ones) */
+	private List<Fn.Function<LogFrame,byte[]>> encoders = new ArrayList<Fn.Function<LogFrame,byte[]>>();
+	private long[] frames;
+	private boolean[] failed;
+
+	/**
+	 * Returns an OutputRouter object
+	 *
+	 * @param	appCore	the AppCore to which text output is sent (and whose encoding settings are used)
+	 * @param	rules	the rules of the outputs
+	 * @return			the OutputRouter object
+	 */
+	public OutputRouter(AppCore appCore, List<OutputRule> rules) {
+		this.appCore = appCore;
+		this.rules = rules;
+		this.outputStreams = new OutputStream[rules.size()];
+		this.frames = new long[rules.size()];
+		this.failed = new boolean[rules.size()];
+		for(OutputRule rule : rules) {
+			this.encoders.add(rule.isFlowLevel() ? null : appCore.createEncoder(new PcapSequenceState()));
+		};
+	};
+
+	/**
+	 * Opens the PCAP files of the outputs, writing their PCAP file headers
+	 *
+	 * @return	whether all of them could be opened
+	 */
+	public boolean open() {
+		byte[] pcapFileHeader = this.appCore.createPcapFileHeader();
+		boolean opened = true;
+		for(int i = 0; i < this.rules.size(); i++) {
+			try {
+				this.outputStreams[i] = new BufferedOutputStream(new FileOutputStream(this.rules.get(i).getPcapFile()), BUFFER_SIZE);
+				this.outputStreams[i].write(pcapFileHeader);
+			} catch(IOException e) {
+				this.appCore.onTextOutput("ERROR:  Failed to open output file " + this.rules.get(i).getPcapFile().getPath());
+				fail(i);
+				opened = false;
+			};
+		};
+		return opened;
+	};
+
+	/**
+	 * Returns a function converting LogFrames into PCAP frames with the given encoder (those of the main output)
+	 * which also writes them to the outputs whose rules match them
+	 *
+	 * @param	encoder	the function converting LogFrames into the PCAP frames of the main output
+	 * @return			the function
+	 */
+	public Fn.Function<LogFrame,byte[]> route(final Fn.Function<LogFrame,byte[]> encoder) {
+		return new Fn.Function<LogFrame,byte[]>() {
+			public byte[] apply(LogFrame logFrame) {
+				byte[] pcapFrame = encoder.apply(logFrame);
+				for(int i = 0; i < OutputRouter.this.outputStreams.length; i++) {
+					if(OutputRouter.this.failed[i] || !OutputRouter.this.rules.get(i).matches(logFrame)) continue;
+					Fn.Function<LogFrame,byte[]> ruleEncoder = OutputRouter.this.encoders.get(i);
+					write(i, (ruleEncoder == null) ? pcapFrame : ruleEncoder.apply(logFrame));
+				};
+				return pcapFrame;
+			}
+		};
+	};
+
+	private void write(int i, byte[] pcapFrame) {
+		try {
+			this.outputStreams[i].write(pcapFrame);
+			this.frames[i]++;
+		} catch(IOException e) {
+			this.appCore.onTextOutput("ERROR:  Exception when writing output file " + this.rules.get(i).getPcapFile().getPath() + " (" + e.getMessage() + ")");
+			fail(i);
+		}
+	};
+
+	private void fail(int i) {
+		this.failed[i] = true;
+		if(this.outputStreams[i] != null) {
+			try {
+				this.outputStreams[i].close();
+			} catch(IOException e) {
+			};
+			this.outputStreams[i] = null;
+		};
+	};
+
+	/**
+	 * Closes the PCAP files of the outputs, reporting the frames written to every one
+	 *
+	 * @return	whether all of them were written
+	 */
+	public boolean close() {
+		boolean written = true;
+		for(int i = 0; i < this.rules.size(); i++) {
+			if(this.outputStreams[i] != null) {
+				try {
+					this.outputStreams[i].close();
+				} catch(IOException e) {
+					this.appCore.onTextOutput("ERROR:  Exception when writing output file " + this.rules.get(i).getPcapFile().getPath() + " (" + e.getMessage() + ")");
+					this.failed[i] = true;
+				};
+				this.outputStreams[i] = null;
+			};
+			if(this.failed[i]) {
+				written = false;
+			} else {
+				this.appCore.onTextOutput(Long.toString(this.frames[i]) + " frames written to " + this.rules.get(i).getPcapFile().getPath() + " (" + this.rules.get(i).toString() + ")\r\n");
+			};
+		};
+		return written;
+	};
+
+}
@@ -0,0 +1,133 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Class defining a rule of OutputRouter: the PCAP frames of the LogFrames matching every criterion of the rule
+ * are also written to the rule's PCAP file (besides the main output of the conversion). The criteria are:
+ *     - sip (SIP messages only) and events (generic events only)
+ *     - vlan=<vlan>, transport=<udp|tcp|sctp>, ip=<ip> (source or destination) and port=<port> (source or
+ *       destination), which only SIP messages can match
+ *     - call-id=<call_id>, which only SIP messages can match
+ * Every criterion but call-id matches either both directions of a flow or none of them, so the TCP/SCTP
+ * sequence numbers of the frames of such a rule are the same as in the main output, and its frames are not
+ * encoded again (see isFlowLevel())
+ */
+public class OutputRule {
+
+	private File pcapFile;
+	private String spec;
+	private boolean sipOnly = false;
+	private boolean eventsOnly = false;
+	private int vlan = -1;
+	private int transport = -1;
+	private InetAddress ip = null;
+	private int port = -1;
+	private String callId = null;
+
+	private OutputRule(File pcapFile, String spec) {
+		this.pcapFile = pcapFile;
+		this.spec = spec;
+	};
+
+	/**
+	 * Parses a rule given as <output_pcap_file>[,<criterion>...] (such as vlan100.pcap,vlan=100 or sip.pcap,sip)
+	 *
+	 * @param	spec	the rule
+	 * @return			the rule (null if it is not valid)
+	 */
+	public static OutputRule parse(String spec) {
+		String[] parts = spec.split(",");
+		if(parts[0].length() == 0) return null;
+		OutputRule rule = new OutputRule(new File(parts[0]), spec);
+		for(int i = 1; i < parts.length; i++) {
+			String criterion = parts[i].trim();
+			int equals = criterion.indexOf('=');
+			String name = (equals > 0) ? criterion.substring(0, equals) : criterion;
+			String value = (equals > 0) ? criterion.substring(equals + 1) : null;
+			try {
+				if(name.equals("sip") && (value == null)) {
+					rule.sipOnly = true;
+				} else if(name.equals("events") && (value == null)) {
+					rule.eventsOnly = true;
+				} else if(value == null) {
+					return null;
+				} else if(name.equals("vlan")) {
+					rule.vlan = Integer.parseInt(value);
+					if(rule.vlan < 0) return null;
+				} else if(name.equals("transport")) {
+					rule.transport = parseTransport(value);
+					if(rule.transport == -1) return null;
+				} else if(name.equals("ip")) {
+					rule.ip = InetAddress.getByName(value);
+				} else if(name.equals("port")) {
+					rule.port = Integer.parseInt(value);
+					if((rule.port < 0) || (rule.port > 65535)) return null;
+				} else if(name.equals("call-id")) {
+					if(value.length() == 0) return null;
+					rule.callId = value;
+				} else {
+					return null;
+				};
+			} catch(NumberFormatException e) {
+				return null;
+			} catch(UnknownHostException e) {
+				return null;
+			}
+		};
+		if(rule.sipOnly && rule.eventsOnly) return null;
+		return rule;
+	};
+
+	private static int parseTransport(String value) {
+		if(value.equalsIgnoreCase("udp")) return LogFrame.TRANSPORT_UDP;
+		if(value.equalsIgnoreCase("tcp")) return LogFrame.TRANSPORT_TCP;
+		if(value.equalsIgnoreCase("sctp")) return LogFrame.TRANSPORT_SCTP;
+		return -1;
+	};
+
+	/**
+	 * Returns whether a LogFrame is matched by this rule
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				whether it matches every criterion
+	 */
+	public boolean matches(LogFrame logFrame) {
+		boolean isSip = (logFrame.getSipLines() != null);
+		if(this.sipOnly && !isSip) return false;
+		if(this.eventsOnly && isSip) return false;
+		if(!isSip) return (this.vlan == -1) && (this.transport == -1) && (this.ip == null) && (this.port == -1) && (this.callId == null);
+		if((this.vlan != -1) && (logFrame.getVlan() != this.vlan)) return false;
+		if(this.transport != -1) {
+			int transport = logFrame.getTransport();
+			if(transport == -1) transport = logFrame.inferSipTransport();
+			if(transport != this.transport) return false;
+		};
+		if((this.ip != null) && !this.ip.equals(logFrame.getSrcIp()) && !this.ip.equals(logFrame.getDstIp())) return false;
+		// Unknown ports are encoded as 5060
+		if((this.port != -1) && (this.port != ((logFrame.getSrcPort() == -1) ? 5060 : logFrame.getSrcPort())) && (this.port != ((logFrame.getDstPort() == -1) ? 5060 : logFrame.getDstPort()))) return false;
+		if((this.callId != null) && !this.callId.equals(SipStatistics.getHeader(logFrame.getSipLines(), "Call-ID", "i"))) return false;
+		return true;
+	};
+
+	/**
+	 * Returns whether this rule keeps or drops whole flows (both directions of them), so its frames can be
+	 * encoded along with those of the main output (sharing its TCP/SCTP sequence numbers)
+	 *
+	 * @return	whether the rule only has flow level criteria
+	 */
+	public boolean isFlowLevel() {
+		return (this.callId == null);
+	};
+
+	/**	Returns the PCAP file of the rule
+	 *	@return	the PCAP file */
+	public File getPcapFile() { return this.pcapFile; };
+
+	public String toString() {
+		return this.spec;
+	};
+
+}
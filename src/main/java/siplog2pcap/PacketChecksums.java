@@ -0,0 +1,216 @@
+package siplog2pcap;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/*
+ * This class computes the checksums of the packets created by Pcap, which are only filled when the conversion
+ * asks for them (see AppCore.setChecksumsEnabled(), otherwise they are left as zeros, which Wireshark does not
+ * check by default):
+ *     - The IPv4 header checksum and the UDP and TCP checksums (including their IPv4 pseudo-header) are
+ *       internet checksums (RFC 1071). They are summed as 32 bits words into a long (reading 8 bytes at a
+ *       time), and folded into 16 bits only at the end, so the payload is read once with no per byte work
+ *     - The SCTP checksum is a CRC32C (RFC 4960 appendix B), computed by java.util.zip.CRC32C when the JVM
+ *       provides it (Java 9 or later, where it is a compiler intrinsic), and by the table driven (slicing by
+ *       8) Crc32c below otherwise
+ */
+public class PacketChecksums {
+
+	public static final String JDK_CRC32C_CLASS = "java.util.zip.CRC32C";
+
+	/** CRC32C of every thread (either the JDK one or the Crc32c below), reset before every use */
+	private static final ThreadLocal<Checksum> CRC32C = new ThreadLocal<Checksum>() {
+		protected Checksum initialValue() {
+			return createCrc32c();
+		}
+	};
+
+	/**
+	 * Creates a CRC32C Checksum
+	 *
+	 * @return	the JDK CRC32C if the JVM provides it, a Crc32c otherwise
+	 */
+	public static Checksum createCrc32c() {
+		try {
+			return (Checksum) Class.forName(JDK_CRC32C_CLASS).getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException e) {
+			// Java 8 or older
+			return new Crc32c();
+		}
+	};
+
+	/**
+	 * Returns the partial internet checksum of some bytes added to a previous partial one, summing them
+	 * as 32 bits words. Only the last bytes of a packet may be an odd number of bytes, as they are
+	 * padded with a zero byte
+	 *
+	 * @param	bytes	the bytes
+	 * @param	offset	the offset of the first byte
+	 * @param	length	the number of bytes
+	 * @param	sum		the previous partial checksum (0 for none)
+	 * @return			the partial checksum (to be given to fold())
+	 */
+	public static long sum(byte[] bytes, int offset, int length, long sum) {
+		int end = offset + length;
+		int i = offset;
+		if(length >= 16) {
+			// 8 bytes per read (a plain load on heap buffers), added as two 32 bits words
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int longsEnd = offset + (length & ~7);
+			for(; i < longsEnd; i += 8) {
+				long word = buffer.getLong(i);
+				sum += (word >>> 32) + (word & 0xFFFFFFFFL);
+			};
+		};
+		int wordsEnd = offset + (length & ~3);
+		for(; i < wordsEnd; i += 4) {
+			sum += (((bytes[i] & 0xFF) << 24) | ((bytes[i + 1] & 0xFF) << 16) | ((bytes[i + 2] & 0xFF) << 8) | (bytes[i + 3] & 0xFF)) & 0xFFFFFFFFL;
+		};
+		for(int shift = 24; i < end; i++, shift -= 8) {
+			sum += (long) (bytes[i] & 0xFF) << shift;
+		};
+		return sum;
+	};
+
+	/**
+	 * Returns the partial internet checksum of an IPv4 pseudo-header (as used by UDP and TCP)
+	 *
+	 * @param	srcIp		the source IP address
+	 * @param	dstIp		the destination IP address
+	 * @param	protocol	the protocol (such as Pcap.IP_PROTOCOL_UDP)
+	 * @param	length		the length of the transport packet
+	 * @return				the partial checksum (to be given to fold())
+	 */
+	public static long pseudoHeaderSum(InetAddress srcIp, InetAddress dstIp, int protocol, int length) {
+		byte[] srcAddress = srcIp.getAddress();
+		byte[] dstAddress = dstIp.getAddress();
+		return sum(dstAddress, 0, dstAddress.length, sum(srcAddress, 0, srcAddress.length, 0)) + protocol + length;
+	};
+
+	/**
+	 * Folds a partial internet checksum into the 16 bits checksum
+	 *
+	 * @param	sum	the partial checksum
+	 * @return		the checksum (ones' complement of the folded sum)
+	 */
+	public static int fold(long sum) {
+		while((sum >>> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		};
+		return (int) (~sum & 0xFFFF);
+	};
+
+	/**
+	 * Fills the header checksum of an IPv4 packet
+	 *
+	 * @param	ipPacket	the IPv4 packet (with a zero checksum)
+	 */
+	public static void fillIpv4Checksum(byte[] ipPacket) {
+		int headerLength = 4 * (ipPacket[0] & 0x0F);
+		putShort(ipPacket, 10, fold(sum(ipPacket, 0, headerLength, 0)));
+	};
+
+	/**
+	 * Fills the checksum of an UDP packet
+	 *
+	 * @param	udpPacket	the UDP packet (with a zero checksum)
+	 * @param	srcIp		the source IP address
+	 * @param	dstIp		the destination IP address
+	 */
+	public static void fillUdpChecksum(byte[] udpPacket, InetAddress srcIp, InetAddress dstIp) {
+		int checksum = fold(sum(udpPacket, 0, udpPacket.length, pseudoHeaderSum(srcIp, dstIp, Pcap.IP_PROTOCOL_UDP, udpPacket.length)));
+		// A zero UDP checksum means no checksum, so it is sent as its ones' complement equivalent
+		putShort(udpPacket, 6, (checksum == 0) ? 0xFFFF : checksum);
+	};
+
+	/**
+	 * Fills the checksum of a TCP packet
+	 *
+	 * @param	tcpPacket	the TCP packet (with a zero checksum)
+	 * @param	srcIp		the source IP address
+	 * @param	dstIp		the destination IP address
+	 */
+	public static void fillTcpChecksum(byte[] tcpPacket, InetAddress srcIp, InetAddress dstIp) {
+		putShort(tcpPacket, 16, fold(sum(tcpPacket, 0, tcpPacket.length, pseudoHeaderSum(srcIp, dstIp, Pcap.IP_PROTOCOL_TCP, tcpPacket.length))));
+	};
+
+	/**
+	 * Fills the CRC32C checksum of an SCTP packet
+	 *
+	 * @param	sctpPacket	the SCTP packet (with a zero checksum)
+	 */
+	public static void fillSctpChecksum(byte[] sctpPacket) {
+		Checksum crc32c = CRC32C.get();
+		crc32c.reset();
+		crc32c.update(sctpPacket, 0, sctpPacket.length);
+		long checksum = crc32c.getValue();
+		// The CRC32C is the only little endian field of the SCTP common header
+		sctpPacket[8] = (byte) checksum;
+		sctpPacket[9] = (byte) (checksum >>> 8);
+		sctpPacket[10] = (byte) (checksum >>> 16);
+		sctpPacket[11] = (byte) (checksum >>> 24);
+	};
+
+	private static void putShort(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 8);
+		bytes[offset + 1] = (byte) value;
+	};
+
+	/**
+	 * CRC32C (Castagnoli) Checksum for the JVMs without java.util.zip.CRC32C, processing 8 bytes per step
+	 * with 8 lookup tables (slicing by 8)
+	 */
+	public static class Crc32c implements Checksum {
+
+		private static final int POLYNOMIAL = 0x82F63B78;	// reversed 0x1EDC6F41
+		private static final int[][] TABLES = new int[8][256];
+
+		static {
+			for(int n = 0; n < 256; n++) {
+				int crc = n;
+				for(int k = 0; k < 8; k++) {
+					crc = ((crc & 1) != 0) ? ((crc >>> 1) ^ POLYNOMIAL) : (crc >>> 1);
+				};
+				TABLES[0][n] = crc;
+			};
+			for(int n = 0; n < 256; n++) {
+				for(int t = 1; t < 8; t++) {
+					TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+				};
+			};
+		};
+
+		private int crc = 0xFFFFFFFF;
+
+		public void update(int b) {
+			this.crc = (this.crc >>> 8) ^ TABLES[0][(this.crc ^ b) & 0xFF];
+		};
+
+		public void update(byte[] bytes, int offset, int length) {
+			int crc = this.crc;
+			int end = offset + length;
+			int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+			int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+			for(; offset + 8 <= end; offset += 8) {
+				int low = crc ^ ((bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24));
+				crc = t7[low & 0xFF] ^ t6[(low >>> 8) & 0xFF] ^ t5[(low >>> 16) & 0xFF] ^ t4[low >>> 24]
+					^ t3[bytes[offset + 4] & 0xFF] ^ t2[bytes[offset + 5] & 0xFF] ^ t1[bytes[offset + 6] & 0xFF] ^ t0[bytes[offset + 7] & 0xFF];
+			};
+			for(; offset < end; offset++) {
+				crc = (crc >>> 8) ^ t0[(crc ^ bytes[offset]) & 0xFF];
+			};
+			this.crc = crc;
+		};
+
+		public long getValue() {
+			return ~this.crc & 0xFFFFFFFFL;
+		};
+
+		public void reset() {
+			this.crc = 0xFFFFFFFF;
+		};
+
+	}
+
+}
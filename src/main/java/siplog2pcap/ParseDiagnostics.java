@@ -0,0 +1,186 @@
+package siplog2pcap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * This class collects the diagnostics generated by LogFrameParser implementations when parsing the log lines
+ * (lines looking like header lines which could not be parsed):
+ *     - Parse failures are counted by category (the parser may give one, otherwise it is the exception type)
+ *     - Parse failures are reported to the text output (or to the standard error output if not set), but
+ *       only a sample of them: the first few ones, and then at most one every report interval along with
+ *       the number of failures not reported since the previous one. Thus a malformed log (or a log with an
+ *       unexpected format) neither floods the console nor slows down the conversion
+ *     - Optionally, the rejected entries are written as they are to a quarantine file, so no input is silently
+ *       lost: the rejected header line along with its byte offset in the log file (if known) and the category,
+ *       and then the following lines of the entry (up to the next header line, see LogLinesParser) with empty
+ *       offset and category. That is, one line per log line: <offset>\t<category>\t<line>
+ */
+public class ParseDiagnostics {
+
+	/* CONSTANTS */
+
+	public static final int DEFAULT_REPORTED_FAILURES = 10;
+	public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 10000;
+	public static final String QUARANTINE_EXTENSION = ".quarantine";
+	private static final int MAX_REPORTED_LINE_LENGTH = 200;
+
+	/* INSTANCE VARIABLES */
+
+	/** Number of parse failures */
+	private volatile long parseFailures = 0;
+	/** Number of parse failures by category */
+	private Map<String,Long> categoryCounts = new TreeMap<String,Long>();
+	/** AppCore to which failures are reported (null for the standard error output) */
+	private AppCore textOutput = null;
+	/** LineIterator the lines are read from, for their byte offsets (null if unknown) */
+	private LineIterator lineOffsets = null;
+	/** Writer of the quarantine file (null for none) */
+	private Writer quarantineWriter = null;
+	private int reportedFailures = DEFAULT_REPORTED_FAILURES;
+	private long reportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+	private long lastReportMillis = 0;
+	private long unreportedFailures = 0;
+
+	/**	Sets the AppCore to which parse failures are reported (null for the standard error output)
+	 *	@param	textOutput	the AppCore */
+	public void setTextOutput(AppCore textOutput) { this.textOutput = textOutput; };
+
+	/**	Sets the LineIterator the parsed lines are read from, so the byte offsets of the rejected lines are known
+	 *	@param	lineOffsets	the LineIterator (null if unknown) */
+	public void setLineOffsets(LineIterator lineOffsets) { this.lineOffsets = lineOffsets; };
+
+	/**	Sets the writer of the quarantine file, where rejected lines are written (null for none)
+	 *	@param	quarantineWriter	the writer (which is closed by finish()) */
+	public void setQuarantineWriter(Writer quarantineWriter) { this.quarantineWriter = quarantineWriter; };
+
+	/**	Returns whether the rejected entries are written to a quarantine file
+	 *	@return	whether there is a quarantine file */
+	public boolean isQuarantineEnabled() { return (this.quarantineWriter != null); };
+
+	/**
+	 * Sets how many parse failures are reported: the first reportedFailures ones, and then at most one
+	 * every reportIntervalMillis
+	 *
+	 * @param	reportedFailures		the number of parse failures reported at first
+	 * @param	reportIntervalMillis	the minimum time between reports after the first ones
+	 */
+	public void setReportRate(int reportedFailures, long reportIntervalMillis) {
+		this.reportedFailures = reportedFailures;
+		this.reportIntervalMillis = reportIntervalMillis;
+	};
+
+	/**
+	 * Reports a line looking like a header line which could not be parsed (its category is the exception type)
+	 *
+	 * @param	line	the line which could not be parsed
+	 * @param	e		the exception raised when parsing the line
+	 */
+	public void reportParseFailure(String line, Exception e) {
+		reportParseFailure(e.getClass().getSimpleName(), line, e);
+	};
+
+	/**
+	 * Reports a line looking like a header line which could not be parsed
+	 *
+	 * @param	category	the category of the failure (such as "timestamp")
+	 * @param	line		the line which could not be parsed
+	 * @param	e			the exception raised when parsing the line (null if none)
+	 */
+	public void reportParseFailure(String category, String line, Exception e) {
+		reportParseFailure(category, line, e, (this.lineOffsets != null) ? this.lineOffsets.getLineOffset() : -1);
+	};
+
+	/**
+	 * Reports a line which could not be parsed, found at the given byte offset (rather than at the offset of
+	 * the last line read, such as the header line of an entry reported once its following lines are read)
+	 *
+	 * @param	category	the category of the failure (such as "frame-limit")
+	 * @param	line		the line which could not be parsed
+	 * @param	e			the exception raised when parsing the line (null if none)
+	 * @param	offset		the byte offset of the line in the log file (-1 if unknown)
+	 */
+	public synchronized void reportParseFailure(String category, String line, Exception e, long offset) {
+		this.parseFailures++;
+		Long count = this.categoryCounts.get(category);
+		this.categoryCounts.put(category, Long.valueOf((count != null) ? count.longValue() + 1 : 1));
+		if(this.quarantineWriter != null) {
+			try {
+				this.quarantineWriter.write(Long.toString(offset) + "\t" + category + "\t" + line + "\n");
+			} catch(IOException ioe) {
+				output("WARNING: Failed to write the quarantine file (" + ioe.getMessage() + "), so rejected lines are not written anymore");
+				closeQuarantine();
+			};
+		};
+		long nowMillis = System.currentTimeMillis();
+		if((this.parseFailures > this.reportedFailures) && ((nowMillis - this.lastReportMillis) < this.reportIntervalMillis)) {
+			this.unreportedFailures++;
+			return;
+		};
+		StringBuilder sb = new StringBuilder("Parse failure (").append(category).append(")");
+		if(offset >= 0) sb.append(" at byte ").append(offset);
+		if(e != null) sb.append(": ").append(e.toString());
+		sb.append("\r\n\t").append((line.length() > MAX_REPORTED_LINE_LENGTH) ? line.substring(0, MAX_REPORTED_LINE_LENGTH) + "..." : line);
+		if(this.unreportedFailures > 0) {
+			sb.append("\r\n\t(").append(this.unreportedFailures).append(" more parse failures since the previous report)");
+			this.unreportedFailures = 0;
+		} else if(this.parseFailures == this.reportedFailures) {
+			sb.append("\r\n\t(further parse failures are only reported every ").append(this.reportIntervalMillis / 1000).append(" seconds)");
+		};
+		this.lastReportMillis = nowMillis;
+		output(sb.toString());
+	};
+
+	/**
+	 * Writes a line of the entry of the last rejected header line to the quarantine file (if any)
+	 *
+	 * @param	line	the line following the rejected header line
+	 */
+	public synchronized void quarantineEntryLine(String line) {
+		if(this.quarantineWriter == null) return;
+		try {
+			this.quarantineWriter.write("\t\t" + line + "\n");
+		} catch(IOException ioe) {
+			output("WARNING: Failed to write the quarantine file (" + ioe.getMessage() + "), so rejected lines are not written anymore");
+			closeQuarantine();
+		};
+	};
+
+	private void output(String text) {
+		if(this.textOutput != null) {
+			this.textOutput.onTextOutput(text);
+		} else {
+			System.err.println(text);
+		};
+	};
+
+	private void closeQuarantine() {
+		try {
+			this.quarantineWriter.close();
+		} catch(IOException e) {
+		};
+		this.quarantineWriter = null;
+	};
+
+	/**
+	 * Reports the parse failures not reported yet (if any) and closes the quarantine file (if any)
+	 */
+	public synchronized void finish() {
+		if(this.unreportedFailures > 0) {
+			output("(" + Long.toString(this.unreportedFailures) + " more parse failures since the previous report)");
+			this.unreportedFailures = 0;
+		};
+		if(this.quarantineWriter != null) closeQuarantine();
+	};
+
+	/**	Returns the number of parse failures
+	 *	@return	the number of parse failures */
+	public long getParseFailures() { return this.parseFailures; };
+
+	/**	Returns the number of parse failures by category
+	 *	@return	a copy of the counts, sorted by category */
+	public synchronized Map<String,Long> getCategoryCounts() { return new TreeMap<String,Long>(this.categoryCounts); };
+
+}
@@ -0,0 +1,198 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/*
+ * This class keeps the registry of log formats (see LogFrameParserProvider): the built-in ones (including the
+ * declarative ones, see DeclarativeFormat), those found through java.util.ServiceLoader (any name already
+ * registered is skipped), and those registered at runtime (such as definition files given with --format-def,
+ * which replace any format with the same name). It creates parsers by log
+ * type name, and it detects the log format of a log file by sampling its first lines (at most DEFAULT_PROBE_LINES
+ * lines and DEFAULT_PROBE_BYTES bytes, so detection takes milliseconds however big the file is). Every line is
+ * given to the probes of all formats at once, and the format with the highest score wins
+ */
+public class ParserRegistry {
+
+	/* CONSTANTS */
+
+	public static final String AUTO_LOG_TYPE = "auto";
+	public static final int DEFAULT_PROBE_LINES = 4000;
+	public static final long DEFAULT_PROBE_BYTES = 1024 * 1024;
+
+	/* CLASS VARIABLES */
+
+	private static List<LogFrameParserProvider> providers = null;
+
+	/**
+	 * Returns the registered log formats (built-in ones first)
+	 *
+	 * @return	the providers of the log formats
+	 */
+	public static synchronized List<LogFrameParserProvider> getProviders() {
+		if(providers == null) {
+			List<LogFrameParserProvider> registered = new ArrayList<LogFrameParserProvider>();
+			registered.add(new siplog2pcap.parsers.AcmePacket.Provider());
+			registered.add(new siplog2pcap.parsers.Pjsua.Provider());
+			registered.addAll(siplog2pcap.parsers.DeclarativeFormat.getBuiltInFormats());
+			Iterator<LogFrameParserProvider> iterator = ServiceLoader.load(LogFrameParserProvider.class).iterator();
+			while(true) {
+				try {
+					if(!iterator.hasNext()) break;
+					LogFrameParserProvider provider = iterator.next();
+					if(getProvider(registered, provider.getName()) == null) registered.add(provider);
+				} catch(ServiceConfigurationError e) {
+					// A broken provider must not prevent using the others
+					System.err.println("WARNING: Log format provider not loaded (" + e.getMessage() + ")");
+				}
+			};
+			providers = Collections.unmodifiableList(registered);
+		};
+		return providers;
+	};
+
+	private static LogFrameParserProvider getProvider(List<LogFrameParserProvider> providers, String name) {
+		for(LogFrameParserProvider provider : providers) {
+			if(provider.getName().equals(name)) return provider;
+		};
+		return null;
+	};
+
+	/**
+	 * Registers a log format (such as a DeclarativeFormat loaded from a definition file), replacing the one
+	 * with the same name (if any)
+	 *
+	 * @param	provider	the provider of the log format
+	 */
+	public static synchronized void register(LogFrameParserProvider provider) {
+		List<LogFrameParserProvider> registered = new ArrayList<LogFrameParserProvider>(getProviders());
+		LogFrameParserProvider replaced = getProvider(registered, provider.getName());
+		if(replaced != null) {
+			registered.set(registered.indexOf(replaced), provider);
+		} else {
+			registered.add(provider);
+		};
+		providers = Collections.unmodifiableList(registered);
+	};
+
+	/**
+	 * Returns the provider of a log format
+	 *
+	 * @param	name	the name of the log format (the log type, such as acme-packet)
+	 * @return			the provider (null if there is no such log format)
+	 */
+	public static LogFrameParserProvider getProvider(String name) {
+		return getProvider(getProviders(), name);
+	};
+
+	/**
+	 * Creates a parser for a log type
+	 *
+	 * @param	logType				the log type (such as acme-packet)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @return						the parser (null if the log type or the parameters are not valid)
+	 */
+	public static LogFrameParser createParser(String logType, String[] parserConfigParams) {
+		LogFrameParserProvider provider = getProvider(logType);
+		if(provider == null) return null;
+		try {
+			return provider.createParser(parserConfigParams);
+		} catch(Exception e) {
+			return null;
+		}
+	};
+
+	/**
+	 * Result of a log format detection
+	 */
+	public static class Detection {
+
+		private LogFrameParserProvider provider;
+		private int confidence;
+
+		private Detection(LogFrameParserProvider provider, int confidence) {
+			this.provider = provider;
+			this.confidence = confidence;
+		};
+
+		/**	Returns the provider of the detected log format
+		 *	@return	the provider */
+		public LogFrameParserProvider getProvider() { return this.provider; };
+
+		/**	Returns the share of the score of the detected log format over the scores of all of them
+		 *	@return	the confidence (percentage) */
+		public int getConfidence() { return this.confidence; };
+
+		public String toString() {
+			return this.provider.getName() + " (confidence " + Integer.toString(this.confidence) + "%)";
+		};
+
+	}
+
+	/**
+	 * Detects the log format of some log lines
+	 *
+	 * @param	lines		the log lines (only the first maxLines are read)
+	 * @param	maxLines	the maximum number of lines to sample
+	 * @return				the detected log format (null if no format matches any line)
+	 */
+	public static Detection detect(Iterator<String> lines, int maxLines) {
+		List<LogFrameParserProvider> providers = getProviders();
+		LogFrameParserProvider.Probe[] probes = new LogFrameParserProvider.Probe[providers.size()];
+		for(int i = 0; i < probes.length; i++) {
+			probes[i] = providers.get(i).createProbe();
+		};
+		for(int n = 0; (n < maxLines) && lines.hasNext(); n++) {
+			String line = lines.next();
+			for(LogFrameParserProvider.Probe probe : probes) {
+				probe.probeLine(line);
+			};
+		};
+		int best = -1;
+		long totalScore = 0;
+		for(int i = 0; i < probes.length; i++) {
+			long score = probes[i].getScore();
+			totalScore += score;
+			if((score > 0) && ((best < 0) || (score > probes[best].getScore()))) best = i;
+		};
+		if(best < 0) return null;
+		return new Detection(providers.get(best), (int) ((100 * probes[best].getScore()) / totalScore));
+	};
+
+	/**
+	 * Detects the log format of a log file by sampling its first lines (see DEFAULT_PROBE_LINES and DEFAULT_PROBE_BYTES)
+	 *
+	 * @param	logFile	the log file
+	 * @return			the detected log format (null if no format matches any line, or the file cannot be read)
+	 */
+	public static Detection detect(File logFile) {
+		final LineIterator logLines;
+		try {
+			logLines = new LineIterator(logFile);
+		} catch(RuntimeException e) {
+			return null;
+		}
+		try {
+			// Stops at the byte limit too, as a few huge lines (such as binary data) must not be read whole
+			return detect(new Iterator<String>() {
+				public boolean hasNext() {
+					return (logLines.getBytesRead() < DEFAULT_PROBE_BYTES) && logLines.hasNext();
+				}
+				public String next() {
+					return logLines.next();
+				}
+				public void remove() {
+					throw(new UnsupportedOperationException());
+				}
+			}, DEFAULT_PROBE_LINES);
+		} finally {
+			logLines.close();
+		}
+	};
+
+}
@@ -3,7 +3,6 @@ package siplog2pcap;
 import java.util.List;
 import java.util.ArrayList;
 import java.net.InetAddress;
-import java.util.HashMap;
 
 /*
  * This class provides the tools that siplog2pcap application needs to insert network
@@ -19,6 +18,9 @@ import java.util.HashMap;
  * application is translating do not contain the whole IP and transport frames, but just those most relevant
  * parameters (IPs, ports, protocol and body), so the rest of the IP and transport headers need to be reconstructed
  * with default values.
+ * IP and transport checksums are left as zeros unless the caller asks for them (see the checksums parameter of the
+ * create*Packet() methods and PacketChecksums), as computing them takes some time and Wireshark does not check them
+ * by default. Thus every conversion decides on its own whether its packets have checksums.
  */
 public class Pcap {
 	/*
@@ -29,7 +31,7 @@ public class Pcap {
 	private static final byte[] PCAP_HEADER_VERSION 			= { (byte) 0x02, (byte) 0x00, (byte) 0x04, (byte) 0x00 }; // PCAP File format version 2.4
 	private static final byte[] PCAP_HEADER_GMT_OFFSET 			= { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 }; // GMT timezone offset minus timezone used in the headers (seconds)
 	private static final byte[] PCAP_HEADER_TIMESTAMP_ACCURACY	= { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 }; // Accuracy of the timestamps in the capture
-	private static final byte[] PCAP_HEADER_SNAPSHOT_LENGTH		= { (byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0x00 }; // Snapshot length (maximum length of the captured packets) (bytes)
+	public static final int DEFAULT_SNAP_LENGTH = 65535;	// Snapshot length (maximum length of the captured packets) (bytes)
 	
 	/*
 	 * Constants for LINKTYPE definitions
@@ -59,36 +61,22 @@ public class Pcap {
 	public static final int UDP_PROTOCOL_SYSLOG = 514; 
 
 	/*
-	 * As transport layers (TCP and SCTP) make use of sequence numbers, we need to keep track of them
-	 * so we can fill them consistently in the transport frames we will generate (otherwise Wireshark
-	 * would mark them as resent or out of order frames)
-	 * Thus, in order to keep track of sequence numbers, for each transport layer we define a
-	 * "socket_id to sequence_number" hashmap
-	 *
-	 * Regarding SCTP, note that we are storing just a generic sequence number, whereas SCTP needs to manage
-	 * not just one but two different sequence numbers (Transmission Sequence Number and Stream Sequence Number).
-	 * However,since this siplog2pcap application will only use one stream, one sequence number is enough to
-	 * easily generate both Transmission Sequence Number and Stream Sequence Number
-	 *
-	 * Note that this implementation for sequence number handling takes the assumption that the Pcap class
-	 * is only used in the context of one execution of siplog2pcap application, so we never have two concurrent
-	 * processes making use of the Pcap class and possibly colisioning when updating the sequence number hashmap.
-	 * Otherwise we would need to implement sequence number handling at each TCP/SCTP encoding session, so we could
-	 * allow two TCP/SCTP encoding sessions to encode traffic for equivalent (same IPs and ports) sockets without
-	 * collisions in the sequence number handling
+	 * Sequence numbers of the TCP and SCTP packets are handled by a PcapSequenceState (see that class)
+	 * The methods not taking a PcapSequenceState as parameter use a default one shared by the whole
+	 * application, which is only right when there is only one conversion running at a time.
 	 */
-	private static HashMap<String,Long> tcpSeqNumHashMap = new HashMap<String,Long>();
-	private static HashMap<String,Integer> sctpTsnHashMap = new HashMap<String,Integer>();
-	
+	private static final PcapSequenceState DEFAULT_SEQUENCE_STATE = new PcapSequenceState();
+
 	/**
-	 * Resets all TCP sequence numbering
+	 * Resets all TCP sequence numbering (of the default PcapSequenceState)
 	 */
 	public static void resetTcpSeqNums() {
-		tcpSeqNumHashMap.clear();
+		DEFAULT_SEQUENCE_STATE.resetTcpSeqNums();
 	};
 	
 	/**
 	 * Returns the TCP Sequence Number for the new TCP packet to be created with the provided parameters
+	 * (using the default PcapSequenceState)
 	 *
 	 * @param	srcPort		the source port of the TCP packet to be created
 	 * @param	dstPort		the destination port of the TCP packet to be created
@@ -98,17 +86,12 @@ public class Pcap {
 	 * @return				the TCP sequence number
 	 */
 	public static long getTcpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
-		Long currentSeqNum = tcpSeqNumHashMap.get(seqNumKey);
-		if(currentSeqNum == null) {
-			currentSeqNum = new Long(0);
-		};
-		tcpSeqNumHashMap.put(seqNumKey, new Long((currentSeqNum.longValue() + (long)bodyLength)  % 4294967296L));
-		return currentSeqNum.longValue();
+		return DEFAULT_SEQUENCE_STATE.getTcpSeqNum(srcPort, dstPort, bodyLength, srcIp, dstIp);
 	}
 	
 	/**
 	 * Returns the TCP Sequence Number to be acknowled by the new TCP packet to be created with the provided parameters
+	 * (using the default PcapSequenceState)
 	 *
 	 * @param	srcPort		the source port of the TCP packet to be created
 	 * @param	dstPort		the destination port of the TCP packet to be created
@@ -118,27 +101,19 @@ public class Pcap {
 	 * @return				the TCP sequence number to be acknowledged
 	 */
 	public static long getTcpAckNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String ackNumKey = dstIp.getHostAddress() + ":" +Integer.toString(dstPort) + "-" + srcIp.getHostAddress() + ":" + Integer.toString(srcPort);
-		Long ackNum = tcpSeqNumHashMap.get(ackNumKey);
-		if(ackNum == null) {
-			ackNum = new Long(0);
-		};
-		return ackNum.longValue();
+		return DEFAULT_SEQUENCE_STATE.getTcpAckNum(srcPort, dstPort, bodyLength, srcIp, dstIp);
 	}
 	
 	/**
-	 * Resets all SCTP sequence numbering
+	 * Resets all SCTP sequence numbering (of the default PcapSequenceState)
 	 */
 	public static void resetSctpSeqNums() {
-		sctpTsnHashMap.clear();
+		DEFAULT_SEQUENCE_STATE.resetSctpSeqNums();
 	};
 	
 	/**
 	 * Returns the SCTP Sequence Number for the new SCTP packet to be created with the provided parameters
-	 * Note that we are storing just a generic sequence number, whereas SCTP needs to manage not just one but
-	 * two different sequence numbers (Transmission Sequence Number and Stream Sequence Number). However,
-	 * since this siplog2pcap application will only use one stream, one sequence number is enough to easily generate
-	 * both Transmission Sequence Number and Stream Sequence Number
+	 * (using the default PcapSequenceState)
 	 *
 	 * @param	srcPort		the source port of the SCTP packet to be created
 	 * @param	dstPort		the destination port of the SCTP packet to be created
@@ -148,14 +123,16 @@ public class Pcap {
 	 * @return				the SCTP sequence number
 	 */
 	public static int getSctpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
-		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
-		int seqNum;
-		Integer currentSeqNum = sctpTsnHashMap.get(seqNumKey);
-		if(currentSeqNum == null) {
-			currentSeqNum = new Integer(0);
-		};
-		sctpTsnHashMap.put(seqNumKey, new Integer((currentSeqNum.intValue() + 1) % 65536));
-		return currentSeqNum.intValue();
+		return DEFAULT_SEQUENCE_STATE.getSctpSeqNum(srcPort, dstPort, bodyLength, srcIp, dstIp);
+	}
+	
+	/**
+	 * Returns the default PcapSequenceState
+	 *
+	 * @return	the default PcapSequenceState
+	 */
+	public static PcapSequenceState getDefaultSequenceState() {
+		return DEFAULT_SEQUENCE_STATE;
 	}
 	
 	/**
@@ -165,12 +142,23 @@ public class Pcap {
 	 * @return						the PCAP file header
 	 */
 	public static byte[] createPcapFileHeader(int linkType) {
+		return createPcapFileHeader(linkType, DEFAULT_SNAP_LENGTH);
+	};
+
+	/**
+	 * Returns a PCAP file header corresponding to the provided link type and snapshot length
+	 *
+	 * @param	linkType			the link type
+	 * @param	snapLength			the snapshot length (the maximum length of the captured frames, in bytes)
+	 * @return						the PCAP file header
+	 */
+	public static byte[] createPcapFileHeader(int linkType, int snapLength) {
 		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
 		bytesArrayList.add(PCAP_HEADER_FILE_SIGNATURE);
 		bytesArrayList.add(PCAP_HEADER_VERSION);
 		bytesArrayList.add(PCAP_HEADER_GMT_OFFSET);
 		bytesArrayList.add(PCAP_HEADER_TIMESTAMP_ACCURACY);
-		bytesArrayList.add(PCAP_HEADER_SNAPSHOT_LENGTH);
+		bytesArrayList.add(ByteUtils.intToByteArray(snapLength, 4, true));
 		bytesArrayList.add(ByteUtils.intToByteArray(linkType, 4, true));
 		return ByteUtils.join(bytesArrayList);
 	};
@@ -210,6 +198,49 @@ public class Pcap {
 		return ByteUtils.join(bytesArrayList);
 	};
 
+	/**
+	 * Returns a PCAP frame with the first bytes of a packet (at most the default snapshot length), keeping its
+	 * whole length as the original frame size
+	 *
+	 * @param	dateInt			the date in integer format
+	 * @param	microseconds	the microseconds to be added to the date
+	 * @param	packet			the whole packet
+	 * @param	savedLength		the number of bytes of the packet to be included within the PCAP frame
+	 * @return					the PCAP frame
+	 */
+	public static byte[] createCroppedPcapFrame(int dateInt, int microseconds, byte[] packet, int savedLength) {
+		return createCroppedPcapFrame(dateInt, microseconds, packet, savedLength, DEFAULT_SNAP_LENGTH);
+	};
+
+	/**
+	 * Returns a PCAP frame with the first bytes of a packet (at most the snapshot length), keeping its whole
+	 * length as the original frame size, as a capture with that snapshot length would
+	 *
+	 * @param	dateInt			the date in integer format
+	 * @param	microseconds	the microseconds to be added to the date
+	 * @param	packet			the whole packet
+	 * @param	savedLength		the number of bytes of the packet to be included within the PCAP frame
+	 * @param	snapLength		the snapshot length (that of the PCAP file header)
+	 * @return					the PCAP frame
+	 */
+	public static byte[] createCroppedPcapFrame(int dateInt, int microseconds, byte[] packet, int savedLength, int snapLength) {
+		savedLength = Math.min(Math.min(savedLength, packet.length), snapLength);
+		byte[] pcapFrame = new byte[16 + savedLength];
+		putIntLittleEndian(pcapFrame, 0, dateInt);				// Date
+		putIntLittleEndian(pcapFrame, 4, microseconds);			// Microseconds
+		putIntLittleEndian(pcapFrame, 8, savedLength);			// Saved Frame Size
+		putIntLittleEndian(pcapFrame, 12, packet.length);		// Original Frame Size
+		System.arraycopy(packet, 0, pcapFrame, 16, savedLength);	// The first bytes of the packet
+		return pcapFrame;
+	};
+
+	private static void putIntLittleEndian(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	};
+
 	/**
 	 * Returns an ethernet packet
 	 *
@@ -244,6 +275,20 @@ public class Pcap {
 	 * @return				the IPv4 packet
 	 */
 	public static byte[] createIpv4Packet(InetAddress srcIp, InetAddress dstIp, int protocol, byte[] body) {
+		return createIpv4Packet(srcIp, dstIp, protocol, body, false);
+	};
+	
+	/**
+	 * Returns an IPv4 packet
+	 *
+	 * @param	srcIp		the source IP address
+	 * @param	dstIp		the destination IP address
+	 * @param	protocol	the protocol of the body to be included in the IPv4 packet
+	 * @param	body		the body to be included in the IPv4 packet
+	 * @param	checksums	whether the header checksum is computed (it is left as zero otherwise)
+	 * @return				the IPv4 packet
+	 */
+	public static byte[] createIpv4Packet(InetAddress srcIp, InetAddress dstIp, int protocol, byte[] body, boolean checksums) {
 		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
 		bytesArrayList.add(new byte[]{ (byte) 0x45, (byte) 0x00});											// version, header length, type of service
 		bytesArrayList.add(ByteUtils.intToByteArray(20 + body.length, 2, false));							// total length
@@ -253,7 +298,9 @@ public class Pcap {
 		bytesArrayList.add(srcIp.getAddress());																// source IP
 		bytesArrayList.add(dstIp.getAddress());																// destination IP
 		bytesArrayList.add(body);																			// the body itself
-		return ByteUtils.join(bytesArrayList);
+		byte[] ipPacket = ByteUtils.join(bytesArrayList);
+		if(checksums) PacketChecksums.fillIpv4Checksum(ipPacket);
+		return ipPacket;
 	};
 	
 	/**
@@ -265,13 +312,44 @@ public class Pcap {
 	 * @return			the UDP packet
 	 */
 	public static byte[] createUdpPacket(int srcPort, int dstPort, byte[] body) {
+		return createUdpPacket(srcPort, dstPort, body, null, null);
+	};
+	
+	/**
+	 * Returns an UDP packet
+	 *
+	 * @param	srcPort	the source port
+	 * @param	dstPort	the destination port
+	 * @param	body	the body to be included in the UDP packet
+	 * @param	srcIp	the source IP address
+	 * @param	dstIp	the destination IP address
+	 * @return			the UDP packet
+	 */
+	public static byte[] createUdpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp) {
+		return createUdpPacket(srcPort, dstPort, body, srcIp, dstIp, false);
+	};
+	
+	/**
+	 * Returns an UDP packet
+	 *
+	 * @param	srcPort		the source port
+	 * @param	dstPort		the destination port
+	 * @param	body		the body to be included in the UDP packet
+	 * @param	srcIp		the source IP address (for the checksum, which is left as zero if null)
+	 * @param	dstIp		the destination IP address (for the checksum, which is left as zero if null)
+	 * @param	checksums	whether the checksum is computed (it is left as zero otherwise)
+	 * @return				the UDP packet
+	 */
+	public static byte[] createUdpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, boolean checksums) {
 		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
 		bytesArrayList.add(ByteUtils.intToByteArray(srcPort, 2, false));			// source port
 		bytesArrayList.add(ByteUtils.intToByteArray(dstPort, 2, false));			// destination port
 		bytesArrayList.add(ByteUtils.intToByteArray(8 + body.length, 2, false));	// packet length
 		bytesArrayList.add(new byte[]{ (byte) 0x00, (byte) 0x00});					// checksum
 		bytesArrayList.add(body);													// the body itself
-		return ByteUtils.join(bytesArrayList);
+		byte[] udpPacket = ByteUtils.join(bytesArrayList);
+		if(checksums && (srcIp != null) && (dstIp != null)) PacketChecksums.fillUdpChecksum(udpPacket, srcIp, dstIp);
+		return udpPacket;
 	};
 	
 	/**
@@ -285,9 +363,39 @@ public class Pcap {
 	 * @return			the TCP packet
 	 */
 	public static byte[] createTcpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp) {
-		byte[] tcpPacket = new byte[32 + body.length];
-		long seqNum = getTcpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
-		long ackNum = getTcpAckNum(srcPort, dstPort, body.length, srcIp, dstIp);
+		return createTcpPacket(srcPort, dstPort, body, srcIp, dstIp, DEFAULT_SEQUENCE_STATE);
+	};
+	
+	/**
+	 * Returns an TCP packet
+	 *
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	srcIp			the source IP address
+	 * @param	dstIp			the destination IP address
+	 * @param	body			the body to be included in the TCP packet
+	 * @param	sequenceState	the PcapSequenceState of the encoding session
+	 * @return					the TCP packet
+	 */
+	public static byte[] createTcpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSequenceState sequenceState) {
+		return createTcpPacket(srcPort, dstPort, body, srcIp, dstIp, sequenceState, false);
+	};
+	
+	/**
+	 * Returns an TCP packet
+	 *
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	srcIp			the source IP address
+	 * @param	dstIp			the destination IP address
+	 * @param	body			the body to be included in the TCP packet
+	 * @param	sequenceState	the PcapSequenceState of the encoding session
+	 * @param	checksums		whether the checksum is computed (it is left as zero otherwise)
+	 * @return					the TCP packet
+	 */
+	public static byte[] createTcpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSequenceState sequenceState, boolean checksums) {
+		long seqNum = sequenceState.getTcpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
+		long ackNum = sequenceState.getTcpAckNum(srcPort, dstPort, body.length, srcIp, dstIp);
 		byte[] flags = new byte[1];
 		if(ackNum == 0) {
 			flags[0] = (byte) 0x08;	// PSH=1
@@ -311,7 +419,9 @@ public class Pcap {
 										(byte) 0x00, (byte) 0x00,
 										(byte) 0x00, (byte) 0x00});			// options
 		bytesArrayList.add(body);											// body
-		return ByteUtils.join(bytesArrayList);
+		byte[] tcpPacket = ByteUtils.join(bytesArrayList);
+		if(checksums) PacketChecksums.fillTcpChecksum(tcpPacket, srcIp, dstIp);
+		return tcpPacket;
 	};
 	
 	/**
@@ -325,6 +435,37 @@ public class Pcap {
 	 * @return			the SCTP packet
 	 */
 	public static byte[] createSctpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp) {
+		return createSctpPacket(srcPort, dstPort, body, srcIp, dstIp, DEFAULT_SEQUENCE_STATE);
+	};
+	
+	/**
+	 * Returns an SCTP packet
+	 *
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	srcIp			the source IP address
+	 * @param	dstIp			the destination IP address
+	 * @param	body			the body to be included in the SCTP packet
+	 * @param	sequenceState	the PcapSequenceState of the encoding session
+	 * @return					the SCTP packet
+	 */
+	public static byte[] createSctpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSequenceState sequenceState) {
+		return createSctpPacket(srcPort, dstPort, body, srcIp, dstIp, sequenceState, false);
+	};
+	
+	/**
+	 * Returns an SCTP packet
+	 *
+	 * @param	srcPort			the source port
+	 * @param	dstPort			the destination port
+	 * @param	srcIp			the source IP address
+	 * @param	dstIp			the destination IP address
+	 * @param	body			the body to be included in the SCTP packet
+	 * @param	sequenceState	the PcapSequenceState of the encoding session
+	 * @param	checksums		whether the (CRC32C) checksum is computed (it is left as zero otherwise)
+	 * @return					the SCTP packet
+	 */
+	public static byte[] createSctpPacket(int srcPort, int dstPort, byte[] body, InetAddress srcIp, InetAddress dstIp, PcapSequenceState sequenceState, boolean checksums) {
 		int paddingLength = (4 - (16 + body.length) % 4) % 4;
 		byte[] paddingByte = { (byte) 0xFF};
 		byte[] paddingBytes = null;
@@ -332,7 +473,7 @@ public class Pcap {
 		for(int i = 0; i < paddingBytes.length; i++) {
 			System.arraycopy(paddingByte, 0, paddingBytes, i, paddingByte.length);
 		};
-		int seqNum = getSctpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
+		int seqNum = sequenceState.getSctpSeqNum(srcPort, dstPort, body.length, srcIp, dstIp);
 		ArrayList<byte[]> bytesArrayList = new ArrayList<byte[]>();
 		bytesArrayList.add(ByteUtils.intToByteArray(srcPort, 2, false));			// source port
 		bytesArrayList.add(ByteUtils.intToByteArray(dstPort, 2, false));			// destination port
@@ -348,7 +489,9 @@ public class Pcap {
 		bytesArrayList.add(ByteUtils.intToByteArray(0, 4, false));					// payload protocol ID
 		bytesArrayList.add(body);													// the body itself
 		bytesArrayList.add(paddingBytes);											// padding bytes
-		return ByteUtils.join(bytesArrayList);
+		byte[] sctpPacket = ByteUtils.join(bytesArrayList);
+		if(checksums) PacketChecksums.fillSctpChecksum(sctpPacket);
+		return sctpPacket;
 	};
 	
 };
\ No newline at end of file
@@ -0,0 +1,141 @@
+package siplog2pcap;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * As transport layers (TCP and SCTP) make use of sequence numbers, we need to keep track of them
+ * so we can fill them consistently in the transport frames we will generate (otherwise Wireshark
+ * would mark them as resent or out of order frames)
+ * Thus, in order to keep track of sequence numbers, for each transport layer we define a
+ * "socket_id to sequence_number" hashmap
+ *
+ * Regarding SCTP, note that we are storing just a generic sequence number, whereas SCTP needs to manage
+ * not just one but two different sequence numbers (Transmission Sequence Number and Stream Sequence Number).
+ * However,since this siplog2pcap application will only use one stream, one sequence number is enough to
+ * easily generate both Transmission Sequence Number and Stream Sequence Number
+ *
+ * Each TCP/SCTP encoding session (typically one conversion, so one output PCAP file) must use its own
+ * PcapSequenceState, so several sessions can run at the same time (even in different threads) and encode
+ * traffic for equivalent (same IPs and ports) sockets without collisions in the sequence number handling.
+ * Note that one PcapSequenceState object is not meant to be shared among threads.
+ *
+ * The state can be saved to and restored from Properties, so an interrupted conversion can be resumed
+ * with the same sequence numbers (see ConversionCheckpoint)
+ */
+public class PcapSequenceState {
+
+	private static final String TCP_PREFIX = "tcp.";
+	private static final String SCTP_PREFIX = "sctp.";
+
+	private HashMap<String,Long> tcpSeqNumHashMap = new HashMap<String,Long>();
+	private HashMap<String,Integer> sctpTsnHashMap = new HashMap<String,Integer>();
+
+	/**
+	 * Resets all TCP sequence numbering
+	 */
+	public void resetTcpSeqNums() {
+		this.tcpSeqNumHashMap.clear();
+	};
+
+	/**
+	 * Returns the TCP Sequence Number for the new TCP packet to be created with the provided parameters
+	 *
+	 * @param	srcPort		the source port of the TCP packet to be created
+	 * @param	dstPort		the destination port of the TCP packet to be created
+	 * @param	bodyLength	the body length of the TCP packet to be created
+	 * @param	srcIp		the source IP of the TCP packet to be created
+	 * @param	dstIp		the destination IP of the TCP packet to be created
+	 * @return				the TCP sequence number
+	 */
+	public long getTcpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
+		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
+		Long currentSeqNum = this.tcpSeqNumHashMap.get(seqNumKey);
+		if(currentSeqNum == null) {
+			currentSeqNum = new Long(0);
+		};
+		this.tcpSeqNumHashMap.put(seqNumKey, new Long((currentSeqNum.longValue() + (long)bodyLength)  % 4294967296L));
+		return currentSeqNum.longValue();
+	}
+
+	/**
+	 * Returns the TCP Sequence Number to be acknowled by the new TCP packet to be created with the provided parameters
+	 *
+	 * @param	srcPort		the source port of the TCP packet to be created
+	 * @param	dstPort		the destination port of the TCP packet to be created
+	 * @param	bodyLength	the body length of the TCP packet to be created
+	 * @param	srcIp		the source IP of the TCP packet to be created
+	 * @param	dstIp		the destination IP of the TCP packet to be created
+	 * @return				the TCP sequence number to be acknowledged
+	 */
+	public long getTcpAckNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
+		String ackNumKey = dstIp.getHostAddress() + ":" +Integer.toString(dstPort) + "-" + srcIp.getHostAddress() + ":" + Integer.toString(srcPort);
+		Long ackNum = this.tcpSeqNumHashMap.get(ackNumKey);
+		if(ackNum == null) {
+			ackNum = new Long(0);
+		};
+		return ackNum.longValue();
+	}
+
+	/**
+	 * Resets all SCTP sequence numbering
+	 */
+	public void resetSctpSeqNums() {
+		this.sctpTsnHashMap.clear();
+	};
+
+	/**
+	 * Returns the SCTP Sequence Number for the new SCTP packet to be created with the provided parameters
+	 *
+	 * @param	srcPort		the source port of the SCTP packet to be created
+	 * @param	dstPort		the destination port of the SCTP packet to be created
+	 * @param	bodyLength	the body length of the SCTP packet to be created
+	 * @param	srcIp		the source IP of the SCTP packet to be created
+	 * @param	dstIp		the destination IP of the SCTP packet to be created
+	 * @return				the SCTP sequence number
+	 */
+	public int getSctpSeqNum(int srcPort, int dstPort, int bodyLength, InetAddress srcIp, InetAddress dstIp) {
+		String seqNumKey = srcIp.getHostAddress() + ":" +Integer.toString(srcPort) + "-" + dstIp.getHostAddress() + ":" + Integer.toString(dstPort);
+		Integer currentSeqNum = this.sctpTsnHashMap.get(seqNumKey);
+		if(currentSeqNum == null) {
+			currentSeqNum = new Integer(0);
+		};
+		this.sctpTsnHashMap.put(seqNumKey, new Integer((currentSeqNum.intValue() + 1) % 65536));
+		return currentSeqNum.intValue();
+	}
+
+	/**
+	 * Saves the sequence numbers into the given properties (with "tcp." and "sctp." prefixed socket ids as keys)
+	 *
+	 * @param	properties	the properties
+	 */
+	public void save(Properties properties) {
+		for(Map.Entry<String,Long> entry : this.tcpSeqNumHashMap.entrySet()) {
+			properties.setProperty(TCP_PREFIX + entry.getKey(), entry.getValue().toString());
+		};
+		for(Map.Entry<String,Integer> entry : this.sctpTsnHashMap.entrySet()) {
+			properties.setProperty(SCTP_PREFIX + entry.getKey(), entry.getValue().toString());
+		};
+	}
+
+	/**
+	 * Restores the sequence numbers saved by save(), replacing the current ones
+	 *
+	 * @param	properties	the properties
+	 * @throws	NumberFormatException	if a sequence number is not valid
+	 */
+	public void restore(Properties properties) {
+		this.resetTcpSeqNums();
+		this.resetSctpSeqNums();
+		for(String key : properties.stringPropertyNames()) {
+			if(key.startsWith(TCP_PREFIX)) {
+				this.tcpSeqNumHashMap.put(key.substring(TCP_PREFIX.length()), Long.valueOf(properties.getProperty(key)));
+			} else if(key.startsWith(SCTP_PREFIX)) {
+				this.sctpTsnHashMap.put(key.substring(SCTP_PREFIX.length()), Integer.valueOf(properties.getProperty(key)));
+			};
+		};
+	}
+
+}
@@ -0,0 +1,354 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * This class implements a ring buffer capture (like the flight recorder of an SBC), which keeps the PCAP
+ * frames of the most recent minutes of a live log, so they can be dumped to a PCAP file when an intermittent
+ * failure shows up:
+ *     - Encoded PCAP frames (record header included) are copied back to back into a circular byte buffer
+ *       which is allocated once, so memory stays fixed whatever the log rate. The oldest frames are evicted
+ *       when they are older than the window (in log time, relative to the newest frame) or when there is no
+ *       room for a new frame. The length of each frame is read from its own PCAP record header, so no index
+ *       of the frames is needed
+ *     - A dump writes the PCAP file header and the buffer bytes as they are (frames are never re-encoded)
+ *     - Dumps are triggered by a signal (SIGUSR2, where the JVM allows handling it), by a trigger file
+ *       appearing (which is then deleted) or by a SIP response with a trigger status code. A triggered
+ *       dump waits for the tail time, so the frames after the trigger are also in the dump, and triggers
+ *       during that time are coalesced into the same dump
+ */
+public class RingCapture {
+
+	/* CONSTANTS */
+
+	public static final long DEFAULT_WINDOW_MILLIS = 5 * 60000;
+	public static final int DEFAULT_CAPACITY_BYTES = 64 * 1024 * 1024;
+	public static final long DEFAULT_TAIL_MILLIS = 10000;
+	public static final String TRIGGER_SIGNAL = "USR2";
+
+	private static final int PCAP_RECORD_HEADER_LENGTH = 16;
+	private static final long TRIGGER_FILE_POLL_MILLIS = 1000;
+
+	/* INSTANCE VARIABLES */
+
+	private AppCore appCore;
+	private File dumpDirectory;
+	private long windowMillis;
+	private long tailMillis;
+	private File triggerFile = null;
+	private BitSet triggerStatusCodes = new BitSet();
+
+	private byte[] buffer;
+	/** Offset of the oldest frame and number of bytes used */
+	private int head = 0;
+	private int used = 0;
+	private int frames = 0;
+	private long framesAdded = 0;
+	private long framesDropped = 0;
+	private int dumps = 0;
+
+	private ScheduledExecutorService scheduler = null;
+	/** The dump waiting for the tail time (null if none), the reason of its first trigger and its number of triggers */
+	private ScheduledFuture<?> pendingDump = null;
+	private String pendingDumpReason = null;
+	private long pendingDumpTriggers = 0;
+
+	/**
+	 * Returns a RingCapture object (whose buffer is allocated right away)
+	 *
+	 * @param	appCore			the AppCore to which text output is sent
+	 * @param	dumpDirectory	the directory where dumps are written (as ring-<yyyyMMdd-HHmmss>.pcap)
+	 * @param	capacityBytes	the size of the buffer
+	 * @param	windowMillis	the time the frames are kept (in log time)
+	 * @param	tailMillis		the time a dump waits after its trigger
+	 * @return					the RingCapture object
+	 */
+	public RingCapture(AppCore appCore, File dumpDirectory, int capacityBytes, long windowMillis, long tailMillis) {
+		this.appCore = appCore;
+		this.dumpDirectory = dumpDirectory;
+		this.windowMillis = windowMillis;
+		this.tailMillis = tailMillis;
+		this.buffer = new byte[capacityBytes];
+	};
+
+	/**	Sets the trigger file, which triggers a dump when it appears (null for none)
+	 *	@param	triggerFile	the trigger file */
+	public void setTriggerFile(File triggerFile) { this.triggerFile = triggerFile; };
+
+	/**	Sets the SIP response status codes triggering a dump
+	 *	@param	triggerStatusCodes	the status codes */
+	public void setTriggerStatusCodes(BitSet triggerStatusCodes) { this.triggerStatusCodes = triggerStatusCodes; };
+
+	/**
+	 * Parses a list of SIP response status codes and ranges (such as 408,500-599)
+	 *
+	 * @param	codes	the list
+	 * @return			the status codes (null if the list is not valid)
+	 */
+	public static BitSet parseStatusCodes(String codes) {
+		BitSet statusCodes = new BitSet();
+		try {
+			for(String item : codes.split(",")) {
+				int dash = item.indexOf('-');
+				int first = Integer.parseInt(item.substring(0, (dash >= 0) ? dash : item.length()).trim());
+				int last = (dash >= 0) ? Integer.parseInt(item.substring(dash + 1).trim()) : first;
+				if((first < 100) || (last > 699) || (first > last)) return null;
+				statusCodes.set(first, last + 1);
+			};
+		} catch(NumberFormatException e) {
+			return null;
+		}
+		return statusCodes;
+	};
+
+	/**
+	 * Starts watching the triggers (signal and trigger file)
+	 */
+	public void start() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "siplog2pcap-ring");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if(this.triggerFile != null) {
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if(triggerFile.exists()) {
+						triggerFile.delete();
+						trigger("trigger file " + triggerFile.getPath());
+					};
+				}
+			}, 0, TRIGGER_FILE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+		};
+		if(!installSignalHandler(TRIGGER_SIGNAL)) {
+			this.appCore.onTextOutput("WARNING: Signal SIG" + TRIGGER_SIGNAL + " not available in this JVM, so it does not trigger dumps");
+		};
+	};
+
+	/**
+	 * Installs a handler of the given signal triggering a dump. The signal API (sun.misc.Signal) is
+	 * not a standard one, so it is called through reflection and it is fine if it is not available
+	 *
+	 * @return	whether the handler was installed
+	 */
+	private boolean installSignalHandler(final String signalName) {
+		try {
+			Class<?> signalClass = Class.forName("sun.misc.Signal");
+			Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+			Object signal = signalClass.getConstructor(String.class).newInstance(signalName);
+			Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[] { handlerClass }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if(method.getName().equals("handle")) {
+						trigger("signal SIG" + signalName);
+					} else if(method.getName().equals("toString")) {
+						return "siplog2pcap ring capture trigger";
+					} else if(method.getName().equals("hashCode")) {
+						return Integer.valueOf(System.identityHashCode(proxy));
+					} else if(method.getName().equals("equals")) {
+						return Boolean.valueOf(proxy == args[0]);
+					};
+					return null;
+				}
+			});
+			signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, handler);
+			return true;
+		} catch(Exception e) {
+			// Either the API is not available or the JVM uses the signal
+			return false;
+		}
+	};
+
+	/**
+	 * Adds a PCAP frame to the buffer, evicting the oldest frames as needed. Frames which do not fit in the
+	 * buffer are dropped
+	 *
+	 * @param	pcapFrame	the PCAP frame (record header included)
+	 */
+	public synchronized void add(byte[] pcapFrame) {
+		if(pcapFrame.length > this.buffer.length) {
+			this.framesDropped++;
+			return;
+		};
+		while(this.buffer.length - this.used < pcapFrame.length) {
+			evictOldest();
+		};
+		int tail = (this.head + this.used) % this.buffer.length;
+		int firstPart = Math.min(pcapFrame.length, this.buffer.length - tail);
+		System.arraycopy(pcapFrame, 0, this.buffer, tail, firstPart);
+		System.arraycopy(pcapFrame, firstPart, this.buffer, 0, pcapFrame.length - firstPart);
+		this.used += pcapFrame.length;
+		this.frames++;
+		this.framesAdded++;
+		long minMicros = getTimestampMicros(tail) - this.windowMillis * 1000L;
+		while((this.frames > 1) && (getTimestampMicros(this.head) < minMicros)) {
+			evictOldest();
+		};
+	};
+
+	/**
+	 * Handles a LogFrame which was just added (as a PCAP frame), triggering a dump if it is a SIP response
+	 * with one of the trigger status codes
+	 *
+	 * @param	logFrame	the LogFrame
+	 */
+	public void checkTrigger(LogFrame logFrame) {
+		List<String> sipLines = logFrame.getSipLines();
+		if(this.triggerStatusCodes.isEmpty() || (sipLines == null) || (sipLines.size() == 0)) return;
+		String startLine = sipLines.get(0);
+		if(!startLine.startsWith("SIP/2.0 ") || (startLine.length() < 11)) return;
+		try {
+			int code = Integer.parseInt(startLine.substring(8, 11));
+			if(this.triggerStatusCodes.get(code)) {
+				trigger("SIP response " + startLine.substring(8).trim() + " at line " + Long.toString(logFrame.getLineNumber() + 1));
+			};
+		} catch(NumberFormatException e) {
+		}
+	};
+
+	/**
+	 * Triggers a dump, which is written once the tail time is over (triggers in the meantime go to the same dump)
+	 *
+	 * @param	reason	the reason of the trigger
+	 */
+	public synchronized void trigger(String reason) {
+		if(this.scheduler.isShutdown()) return;
+		if(this.pendingDump != null) {
+			this.pendingDumpTriggers++;
+			return;
+		};
+		this.appCore.onTextOutput("Dump triggered by " + reason + " (writing it in " + Long.toString(this.tailMillis / 1000) + " seconds)");
+		this.pendingDumpReason = reason;
+		this.pendingDumpTriggers = 1;
+		this.pendingDump = this.scheduler.schedule(new Runnable() {
+			public void run() {
+				dumpPending();
+			}
+		}, this.tailMillis, TimeUnit.MILLISECONDS);
+	};
+
+	/**
+	 * Stops watching the triggers, writing the pending dump (if any) right away
+	 */
+	public void finish() {
+		synchronized(this) {
+			if((this.pendingDump != null) && this.pendingDump.cancel(false)) {
+				dumpPending();
+			};
+		}
+		this.scheduler.shutdown();
+		try {
+			this.scheduler.awaitTermination(60, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		};
+	};
+
+	private synchronized void dumpPending() {
+		String reasons = this.pendingDumpReason;
+		if(this.pendingDumpTriggers > 1) reasons += " and " + Long.toString(this.pendingDumpTriggers - 1) + " more triggers";
+		this.pendingDump = null;
+		this.pendingDumpReason = null;
+		String name = "ring-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File dumpFile = new File(this.dumpDirectory, name + ".pcap");
+		for(int i = 2; dumpFile.exists(); i++) {
+			dumpFile = new File(this.dumpDirectory, name + "-" + Integer.toString(i) + ".pcap");
+		};
+		try {
+			int dumpedFrames = this.frames;
+			dump(dumpFile);
+			this.dumps++;
+			this.appCore.onTextOutput("Dumped " + Integer.toString(dumpedFrames) + " frames to " + dumpFile.getPath() + " (triggered by " + reasons + ")");
+		} catch(IOException e) {
+			this.appCore.onTextOutput("ERROR:  Failed to write dump " + dumpFile.getPath() + " (" + e.getMessage() + ")");
+		};
+	};
+
+	/**
+	 * Writes the frames in the buffer to a PCAP file (the frames are kept in the buffer). Adding frames
+	 * waits until it is written
+	 *
+	 * @param	pcapFile	the PCAP file
+	 */
+	public synchronized void dump(File pcapFile) throws IOException {
+		OutputStream outputStream = new FileOutputStream(pcapFile);
+		try {
+			outputStream.write(this.appCore.createPcapFileHeader());
+			int firstPart = Math.min(this.used, this.buffer.length - this.head);
+			outputStream.write(this.buffer, this.head, firstPart);
+			outputStream.write(this.buffer, 0, this.used - firstPart);
+		} finally {
+			outputStream.close();
+		}
+	};
+
+	private void evictOldest() {
+		int frameLength = PCAP_RECORD_HEADER_LENGTH + readInt(this.head + 8);
+		this.head = (this.head + frameLength) % this.buffer.length;
+		this.used -= frameLength;
+		this.frames--;
+	};
+
+	/**
+	 * Returns the timestamp of the frame at the given offset (in microseconds)
+	 */
+	private long getTimestampMicros(int offset) {
+		return (readInt(offset) & 0xFFFFFFFFL) * 1000000L + readInt(offset + 4);
+	};
+
+	/**
+	 * Reads a little endian int of a PCAP record header (which may wrap around the end of the buffer)
+	 */
+	private int readInt(int offset) {
+		int value = 0;
+		for(int i = 3; i >= 0; i--) {
+			value = (value << 8) | (this.buffer[(offset + i) % this.buffer.length] & 0xFF);
+		};
+		return value;
+	};
+
+	/**	Returns the number of frames in the buffer
+	 *	@return	the number of frames */
+	public synchronized int getFrames() { return this.frames; };
+
+	/**	Returns the number of bytes in the buffer
+	 *	@return	the number of bytes */
+	public synchronized int getBytes() { return this.used; };
+
+	/**	Returns the number of frames added so far
+	 *	@return	the number of frames */
+	public synchronized long getFramesAdded() { return this.framesAdded; };
+
+	/**	Returns the number of frames dropped as they did not fit in the buffer
+	 *	@return	the number of frames */
+	public synchronized long getFramesDropped() { return this.framesDropped; };
+
+	/**	Returns the number of dumps written so far
+	 *	@return	the number of dumps */
+	public synchronized int getDumps() { return this.dumps; };
+
+	/**	Returns the time the frames are kept (in log time)
+	 *	@return	the time (in milliseconds) */
+	public long getWindowMillis() { return this.windowMillis; };
+
+	/**	Returns the size of the buffer
+	 *	@return	the size (in bytes) */
+	public int getCapacity() { return this.buffer.length; };
+
+}
@@ -0,0 +1,14 @@
+package siplog2pcap;
+
+/**
+ * ShapedLogFrameParser interface is implemented by the LogFrameParsers whose header lines start with a fixed
+ * shape (such as a timestamp), so LogLinesParser only hands them the lines starting with that shape
+ * (see LineShape and LineScanner). Other LogFrameParsers are handed every line
+ */
+public interface ShapedLogFrameParser extends LogFrameParser {
+
+	/**	Returns the shape every header line starts with
+	 *	@return	the shape */
+	public LineShape getHeaderLineShape();
+
+}
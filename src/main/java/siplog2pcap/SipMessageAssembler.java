@@ -0,0 +1,121 @@
+package siplog2pcap;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/*
+ * This class provides the tools that the LogFrameParser implementations need to rebuild a SIP message
+ * out of the log lines following the header line of a LogFrame.
+ * The start line and headers are kept as sipLines (as many tools, like LogFrame.inferSipTransport(),
+ * need to inspect them), whereas the body is taken as one single slice of bytes whose length is the one
+ * declared in the Content-Length header. This way:
+ *     - we do not need to build a list of lines for (possibly big) multipart/SDP bodies
+ *     - the payload length matches the Content-Length, so Wireshark gets the exact SIP message
+ *     - we can detect messages whose body is shorter than declared (truncated messages)
+ * If the message has no Content-Length header (which is allowed over UDP), we fall back to the old
+ * behavior of taking all the lines until the end of message marker as sipLines.
+ */
+public class SipMessageAssembler {
+
+	private static final String CONTENT_LENGTH_HEADER = "content-length";
+	private static final String CONTENT_LENGTH_COMPACT_HEADER = "l";
+
+	/**
+	 * Returns the value of the Content-Length header if the given line is such header
+	 *
+	 * @param	line	a SIP header line
+	 * @return			the Content-Length value (or -1 if not a valid Content-Length header)
+	 */
+	public static int parseContentLength(String line) {
+		int contentLength = -1;
+		int colonIndex = line.indexOf(':');
+		if(colonIndex > 0) {
+			String headerName = line.substring(0, colonIndex).trim();
+			if(headerName.equalsIgnoreCase(CONTENT_LENGTH_HEADER) || headerName.equalsIgnoreCase(CONTENT_LENGTH_COMPACT_HEADER)) {
+				try {
+					contentLength = Integer.parseInt(line.substring(colonIndex + 1).trim());
+				} catch(NumberFormatException e) {
+					contentLength = -1;
+				};
+				if(contentLength < 0) contentLength = -1;
+			};
+		};
+		return contentLength;
+	};
+
+	/**
+	 * Fills the sipLines and sipBody of the LogFrame out of its logLines
+	 * Note that first of the logLines is the header line, so it is skipped
+	 *
+	 * @param	logFrame		the LogFrame to fill
+	 * @param	endOfMessage	the line marking the end of the SIP message in the log
+	 */
+	public static void assemble(LogFrame logFrame, String endOfMessage) {
+		assemble(logFrame, 1, endOfMessage, 0);
+	};
+
+	/**
+	 * Fills the sipLines and sipBody of the LogFrame out of its logLines, for logs where the SIP message
+	 * does not start right after the header line, or where its lines are indented
+	 *
+	 * @param	logFrame		the LogFrame to fill
+	 * @param	firstLine		the index of the first line of the SIP message in the logLines
+	 * @param	endOfMessage	the line marking the end of the SIP message in the log (null if none)
+	 * @param	indent			the maximum number of blanks removed from the start of every line
+	 */
+	public static void assemble(LogFrame logFrame, int firstLine, String endOfMessage, int indent) {
+		List<String> logLines = logFrame.getLogLines();
+		ArrayList<String> sipLines = new ArrayList<String>();
+		int contentLength = -1;
+		boolean headersComplete = false;
+		String line = null;
+		int i = firstLine;
+		/* Start line and headers, until the empty line */
+		while(i < logLines.size()) {
+			line = unindent(logLines.get(i), indent);
+			if(line.equals(endOfMessage)) break;
+			sipLines.add(line);
+			i++;
+			if(line.length() == 0) {
+				headersComplete = true;
+				break;
+			};
+			if(contentLength == -1) contentLength = parseContentLength(line);
+		};
+		if(headersComplete && (contentLength > -1)) {
+			/* Body, taken as one slice of Content-Length bytes */
+			StringBuilder bodyBuilder = new StringBuilder(contentLength + 2);
+			while((bodyBuilder.length() < contentLength) && (i < logLines.size())) {
+				line = unindent(logLines.get(i), indent);
+				if(line.equals(endOfMessage)) break;
+				bodyBuilder.append(line);
+				bodyBuilder.append("\r\n");
+				i++;
+			};
+			byte[] bodyBytes = bodyBuilder.toString().getBytes();
+			if(bodyBytes.length > contentLength) {
+				bodyBytes = ByteUtils.subarray(bodyBytes, 0, contentLength);
+			} else if(bodyBytes.length < contentLength) {
+				logFrame.setTruncated(true);
+			};
+			logFrame.setSipBody(bodyBytes);
+		} else {
+			/* No Content-Length (or no end of headers), so the rest of lines are part of the message */
+			while(i < logLines.size()) {
+				line = unindent(logLines.get(i), indent);
+				if(line.equals(endOfMessage)) break;
+				sipLines.add(line);
+				i++;
+			};
+			if(contentLength > 0) logFrame.setTruncated(true);
+		};
+		logFrame.setSipLines(sipLines);
+	};
+
+	private static String unindent(String line, int indent) {
+		int i = 0;
+		while((i < indent) && (i < line.length()) && ((line.charAt(i) == ' ') || (line.charAt(i) == '\t'))) i++;
+		return (i > 0) ? line.substring(i) : line;
+	};
+
+}
@@ -0,0 +1,391 @@
+package siplog2pcap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/*
+ * This class computes SIP statistics (similar to those of Wireshark "SIP Statistics" and "VoIP Calls")
+ * in the same pass as the conversion, so we do not need to load the resulting PCAP file in Wireshark
+ * to get them. It provides:
+ *     - per-method and per-response-code counts
+ *     - per-second rate time series, which are streamed to a CSV writer as the log time advances
+ *     - request to final-response latency histograms, per request method
+ * Transactions are matched on Call-ID, CSeq and top Via branch. Open transactions are kept in a bounded
+ * map and expire after a timeout (measured with the log timestamps, not with the wall clock), so memory
+ * stays flat no matter the size of the log file. Expired transactions are counted as unanswered.
+ */
+public class SipStatistics {
+
+	/* CONSTANTS */
+
+	/** Default transaction timeout (64*T1, as in SIP timers B and F) */
+	public static final long DEFAULT_TRANSACTION_TIMEOUT_MILLIS = 32000L;
+
+	/** Default maximum number of open transactions */
+	public static final int DEFAULT_MAX_OPEN_TRANSACTIONS = 100000;
+
+	/** Upper bounds (in milliseconds) of the latency histogram buckets (last bucket has no upper bound) */
+	public static final long[] LATENCY_BUCKETS_MILLIS = { 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 32000 };
+
+	private static final String CSV_HEADER = "second,requests,responses,provisional_responses,final_responses,invites\r\n";
+
+	/* INSTANCE VARIABLES */
+
+	private int maxOpenTransactions;
+	private long transactionTimeoutMillis;
+	private Writer rateWriter;
+
+	private long sipMessages = 0;
+	private long genericEvents = 0;
+	private long truncatedSipMessages = 0;
+	private long unansweredTransactions = 0;
+	private TreeMap<String,long[]> methodCounts = new TreeMap<String,long[]>();
+	private TreeMap<Integer,long[]> responseCodeCounts = new TreeMap<Integer,long[]>();
+	private TreeMap<String,LatencyHistogram> latencyHistograms = new TreeMap<String,LatencyHistogram>();
+	private LinkedHashMap<String,Transaction> openTransactions = new LinkedHashMap<String,Transaction>();
+
+	/* Current row of the rate time series */
+	private long currentSecond = Long.MIN_VALUE;
+	private long[] currentRates = new long[5];
+
+	/* Cache for the conversion of LogFrame date fields into epoch seconds */
+	private int[] cachedDateFields = null;
+	private long cachedEpochSecond = 0;
+
+	/**
+	 * Returns a SipStatistics object
+	 *
+	 * @param	maxOpenTransactions			the maximum number of transactions waiting for a final response
+	 * @param	transactionTimeoutMillis	the time after which a transaction is considered unanswered
+	 * @param	rateWriter					the writer for the per-second CSV time series (null if not needed)
+	 * @return								the SipStatistics object
+	 */
+	public SipStatistics(int maxOpenTransactions, long transactionTimeoutMillis, Writer rateWriter) {
+		this.maxOpenTransactions = maxOpenTransactions;
+		this.transactionTimeoutMillis = transactionTimeoutMillis;
+		this.rateWriter = rateWriter;
+	};
+
+	/**
+	 * Returns the epoch time (in milliseconds) of the LogFrame
+	 * As log frames come in time order, date conversion is only done once per second of log
+	 *
+	 * @param	logFrame	the LogFrame
+	 * @return				the epoch time in milliseconds
+	 */
+	private long getEpochMillis(LogFrame logFrame) {
+		int[] dateFields = { logFrame.getYear(), logFrame.getMonth(), logFrame.getDay(), logFrame.getHour(), logFrame.getMinutes(), logFrame.getSeconds() };
+		if(!java.util.Arrays.equals(dateFields, this.cachedDateFields)) {
+			TimeZone timeZone = logFrame.getTimeZone();
+			if(timeZone == null) timeZone = TimeZone.getDefault();
+			this.cachedEpochSecond = AppCore.createDate(dateFields[0], dateFields[1], dateFields[2], dateFields[3], dateFields[4], dateFields[5], timeZone).getTime() / 1000;
+			this.cachedDateFields = dateFields;
+		};
+		return (this.cachedEpochSecond * 1000) + (logFrame.getMicroseconds() / 1000);
+	};
+
+	/**
+	 * Returns the value of a SIP header (first occurrence), or null if not present
+	 *
+	 * @param	sipLines	the SIP lines (start line and headers)
+	 * @param	name		the header name
+	 * @param	compactName	the header compact name (null if none)
+	 * @return				the header value
+	 */
+	public static String getHeader(List<String> sipLines, String name, String compactName) {
+		for(int i = 1; i < sipLines.size(); i++) {
+			String line = sipLines.get(i);
+			if(line.length() == 0) break;
+			int colonIndex = line.indexOf(':');
+			if(colonIndex > 0) {
+				String headerName = line.substring(0, colonIndex).trim();
+				if(headerName.equalsIgnoreCase(name) || ((compactName != null) && headerName.equalsIgnoreCase(compactName))) {
+					return line.substring(colonIndex + 1).trim();
+				};
+			};
+		};
+		return null;
+	};
+
+	/**
+	 * Returns the branch parameter of a Via header value, or null if not present
+	 *
+	 * @param	via	the Via header value
+	 * @return		the branch
+	 */
+	public static String getViaBranch(String via) {
+		if(via == null) return null;
+		int branchIndex = via.toLowerCase().indexOf("branch=");
+		if(branchIndex == -1) return null;
+		int start = branchIndex + 7;
+		int end = start;
+		while((end < via.length()) && (";, \t".indexOf(via.charAt(end)) == -1)) end++;
+		return via.substring(start, end);
+	};
+
+	/**
+	 * Updates the statistics with a new LogFrame
+	 *
+	 * @param	logFrame	the LogFrame
+	 */
+	public void update(LogFrame logFrame) throws IOException {
+		long millis = getEpochMillis(logFrame);
+		updateRateSecond(millis / 1000);
+		expireTransactions(millis);
+		List<String> sipLines = logFrame.getSipLines();
+		if((sipLines == null) || (sipLines.size() == 0)) {
+			this.genericEvents++;
+			return;
+		};
+		this.sipMessages++;
+		if(logFrame.isTruncated()) this.truncatedSipMessages++;
+		String startLine = sipLines.get(0);
+		String callId = getHeader(sipLines, "Call-ID", "i");
+		String cseq = getHeader(sipLines, "CSeq", null);
+		String branch = getViaBranch(getHeader(sipLines, "Via", "v"));
+		String transactionKey = callId + "|" + cseq + "|" + branch;
+		if(startLine.startsWith("SIP/2.0 ")) {
+			/* Response */
+			int code = -1;
+			try {
+				code = Integer.parseInt(startLine.substring(8, Math.min(11, startLine.length())));
+			} catch(NumberFormatException e) {
+				code = -1;
+			};
+			increment(this.responseCodeCounts, Integer.valueOf(code));
+			this.currentRates[1]++;
+			if(code < 200) {
+				this.currentRates[2]++;
+			} else {
+				this.currentRates[3]++;
+				Transaction transaction = this.openTransactions.remove(transactionKey);
+				if(transaction != null) {
+					LatencyHistogram histogram = this.latencyHistograms.get(transaction.method);
+					if(histogram == null) {
+						histogram = new LatencyHistogram();
+						this.latencyHistograms.put(transaction.method, histogram);
+					};
+					histogram.add(millis - transaction.startMillis);
+				};
+			};
+		} else {
+			/* Request */
+			int spaceIndex = startLine.indexOf(' ');
+			String method = (spaceIndex > 0) ? startLine.substring(0, spaceIndex) : startLine;
+			increment(this.methodCounts, method);
+			this.currentRates[0]++;
+			if(method.equals("INVITE")) this.currentRates[4]++;
+			if(!method.equals("ACK") && !this.openTransactions.containsKey(transactionKey)) {
+				// Retransmissions keep the time of the first transmission
+				this.openTransactions.put(transactionKey, new Transaction(method, millis));
+				if(this.openTransactions.size() > this.maxOpenTransactions) {
+					Iterator<Transaction> iterator = this.openTransactions.values().iterator();
+					iterator.next();
+					iterator.remove();
+					this.unansweredTransactions++;
+				};
+			};
+		};
+	};
+
+	/**
+	 * Removes from the open transactions those that timed out
+	 *
+	 * @param	millis	the current log time
+	 */
+	private void expireTransactions(long millis) {
+		Iterator<Transaction> iterator = this.openTransactions.values().iterator();
+		while(iterator.hasNext()) {
+			Transaction transaction = iterator.next();
+			if((millis - transaction.startMillis) <= this.transactionTimeoutMillis) break;
+			iterator.remove();
+			this.unansweredTransactions++;
+		};
+	};
+
+	/**
+	 * Moves the rate time series to the given second, writing the previous row if needed
+	 *
+	 * @param	second	the epoch second
+	 */
+	private void updateRateSecond(long second) throws IOException {
+		if(second == this.currentSecond) return;
+		writeRateRow();
+		this.currentSecond = second;
+		this.currentRates = new long[5];
+	};
+
+	/**
+	 * Writes the current row of the rate time series (if any)
+	 */
+	private void writeRateRow() throws IOException {
+		if((this.rateWriter == null) || (this.currentSecond == Long.MIN_VALUE)) return;
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.currentSecond);
+		for(long rate: this.currentRates) {
+			sb.append(',');
+			sb.append(rate);
+		};
+		sb.append("\r\n");
+		this.rateWriter.write(sb.toString());
+	};
+
+	/**
+	 * Writes the CSV header of the rate time series
+	 */
+	public void start() throws IOException {
+		if(this.rateWriter != null) this.rateWriter.write(CSV_HEADER);
+	};
+
+	/**
+	 * Writes the last row of the rate time series and counts the still open transactions as unanswered
+	 */
+	public void finish() throws IOException {
+		writeRateRow();
+		this.currentSecond = Long.MIN_VALUE;
+		this.unansweredTransactions += this.openTransactions.size();
+		this.openTransactions.clear();
+		if(this.rateWriter != null) this.rateWriter.flush();
+	};
+
+	/**
+	 * Increments the counter stored for the key
+	 */
+	private static <K> void increment(Map<K,long[]> counts, K key) {
+		long[] count = counts.get(key);
+		if(count == null) {
+			count = new long[1];
+			counts.put(key, count);
+		};
+		count[0]++;
+	};
+
+	/**	Returns the number of SIP messages
+	 *	@return	the number of SIP messages */
+	public long getSipMessages() { return this.sipMessages; };
+
+	/**	Returns the number of generic events
+	 *	@return	the number of generic events */
+	public long getGenericEvents() { return this.genericEvents; };
+
+	/**	Returns the number of transactions with no final response
+	 *	@return	the number of unanswered transactions */
+	public long getUnansweredTransactions() { return this.unansweredTransactions; };
+
+	/**	Returns a JSON representation of the statistics
+	 *	@return	the JSON representation */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\r\n");
+		sb.append("  \"sipMessages\": ").append(this.sipMessages).append(",\r\n");
+		sb.append("  \"genericEvents\": ").append(this.genericEvents).append(",\r\n");
+		sb.append("  \"truncatedSipMessages\": ").append(this.truncatedSipMessages).append(",\r\n");
+		sb.append("  \"unansweredTransactions\": ").append(this.unansweredTransactions).append(",\r\n");
+		sb.append("  \"methods\": {");
+		String separator = "";
+		for(Map.Entry<String,long[]> entry: this.methodCounts.entrySet()) {
+			sb.append(separator).append("\"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue()[0]);
+			separator = ", ";
+		};
+		sb.append("},\r\n");
+		sb.append("  \"responseCodes\": {");
+		separator = "";
+		for(Map.Entry<Integer,long[]> entry: this.responseCodeCounts.entrySet()) {
+			sb.append(separator).append("\"").append(entry.getKey()).append("\": ").append(entry.getValue()[0]);
+			separator = ", ";
+		};
+		sb.append("},\r\n");
+		sb.append("  \"latencyBucketsMillis\": [");
+		for(int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+			if(i > 0) sb.append(", ");
+			sb.append(LATENCY_BUCKETS_MILLIS[i]);
+		};
+		sb.append("],\r\n");
+		sb.append("  \"latencies\": {");
+		separator = "\r\n";
+		for(Map.Entry<String,LatencyHistogram> entry: this.latencyHistograms.entrySet()) {
+			sb.append(separator).append("    \"").append(escapeJson(entry.getKey())).append("\": ").append(entry.getValue().toJson());
+			separator = ",\r\n";
+		};
+		sb.append("\r\n  }\r\n");
+		sb.append("}\r\n");
+		return sb.toString();
+	};
+
+	/**
+	 * Escapes a string to be included in a JSON string literal
+	 *
+	 * @param	string	the string to escape
+	 * @return			the escaped string
+	 */
+	public static String escapeJson(String string) {
+		StringBuilder sb = new StringBuilder(string.length());
+		for(int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if((c == '"') || (c == '\\')) {
+				sb.append('\\').append(c);
+			} else if(c < 0x20) {
+				sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+			} else {
+				sb.append(c);
+			};
+		};
+		return sb.toString();
+	};
+
+	/**
+	 * Transaction waiting for its final response
+	 */
+	private static class Transaction {
+		private String method;
+		private long startMillis;
+
+		private Transaction(String method, long startMillis) {
+			this.method = method;
+			this.startMillis = startMillis;
+		};
+	};
+
+	/**
+	 * Latency histogram (with fixed buckets as defined in LATENCY_BUCKETS_MILLIS)
+	 */
+	private static class LatencyHistogram {
+		private long[] buckets = new long[LATENCY_BUCKETS_MILLIS.length + 1];
+		private long count = 0;
+		private long sum = 0;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+
+		private void add(long latencyMillis) {
+			int i = 0;
+			while((i < LATENCY_BUCKETS_MILLIS.length) && (latencyMillis > LATENCY_BUCKETS_MILLIS[i])) i++;
+			this.buckets[i]++;
+			this.count++;
+			this.sum += latencyMillis;
+			if(latencyMillis < this.min) this.min = latencyMillis;
+			if(latencyMillis > this.max) this.max = latencyMillis;
+		};
+
+		private String toJson() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("{ \"count\": ").append(this.count);
+			sb.append(", \"minMillis\": ").append(this.min);
+			sb.append(", \"maxMillis\": ").append(this.max);
+			sb.append(", \"avgMillis\": ").append(this.sum / this.count);
+			sb.append(", \"buckets\": [");
+			for(int i = 0; i < this.buckets.length; i++) {
+				if(i > 0) sb.append(", ");
+				sb.append(this.buckets[i]);
+			};
+			sb.append("] }");
+			return sb.toString();
+		};
+	};
+
+}
@@ -0,0 +1,97 @@
+package siplog2pcap;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+
+/**
+ * Class defining a rule of DirectoryWatcher: the log files of a directory whose file name matches
+ * a wildcard are converted with the given log type and parser params into the output directory
+ * (as <output_dir>/<input_file_name>.pcap)
+ */
+public class WatchRule {
+
+	private String logType;
+	private String[] parserConfigParams;
+	private File directory;
+	private String fileNamePattern;
+	private PathMatcher fileNameMatcher;
+	private File outputDirectory;
+
+	/**
+	 * Returns a WatchRule object
+	 *
+	 * @param	logType				the log type (as provided in the command line)
+	 * @param	parserConfigParams	the parser configuration parameters
+	 * @param	directory			the directory to watch
+	 * @param	fileNamePattern		the file name wildcard (such as sipmsg.log.*)
+	 * @param	outputDirectory		the directory where PCAP files are written
+	 * @return						the WatchRule object
+	 */
+	public WatchRule(String logType, String[] parserConfigParams, File directory, String fileNamePattern, File outputDirectory) {
+		this.logType = logType;
+		this.parserConfigParams = parserConfigParams;
+		this.directory = directory;
+		this.fileNamePattern = fileNamePattern;
+		this.fileNameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + fileNamePattern);
+		this.outputDirectory = outputDirectory;
+	};
+
+	/**
+	 * Returns whether a file is matched by this rule
+	 *
+	 * @param	file	the file
+	 * @return			whether the file is in the watched directory and its name matches the wildcard
+	 */
+	public boolean matches(File file) {
+		return file.getAbsoluteFile().getParentFile().equals(this.directory.getAbsoluteFile()) && this.fileNameMatcher.matches(file.toPath().getFileName());
+	};
+
+	/**
+	 * Returns a new parser for a log file matched by this rule (every conversion needs its own parser)
+	 * With the auto log type, the log format of the file is detected (see ParserRegistry.detect())
+	 *
+	 * @param	logFile	the log file
+	 * @return			the parser (null if the log type or the parser params are not valid, or no log format is detected)
+	 */
+	public LogFrameParser createParser(File logFile) {
+		String logType = this.logType.startsWith("--") ? this.logType.substring(2) : this.logType;
+		if(logType.equals(ParserRegistry.AUTO_LOG_TYPE)) {
+			ParserRegistry.Detection detection = ParserRegistry.detect(logFile);
+			if(detection == null) return null;
+			logType = detection.getProvider().getName();
+		};
+		return AppCore.createParser(logType, this.parserConfigParams);
+	};
+
+	/**
+	 * Returns the PCAP file for a log file matched by this rule
+	 *
+	 * @param	logFile	the log file
+	 * @return			the PCAP file
+	 */
+	public File getPcapFile(File logFile) {
+		return new File(this.outputDirectory, logFile.getName() + ".pcap");
+	};
+
+	/**	Returns the log type
+	 *	@return	the log type */
+	public String getLogType() { return this.logType; };
+
+	/**	Returns the parser configuration parameters
+	 *	@return	the parser configuration parameters */
+	public String[] getParserConfigParams() { return this.parserConfigParams; };
+
+	/**	Returns the watched directory
+	 *	@return	the directory */
+	public File getDirectory() { return this.directory; };
+
+	/**	Returns the file name wildcard
+	 *	@return	the file name wildcard */
+	public String getFileNamePattern() { return this.fileNamePattern; };
+
+	/**	Returns the directory where PCAP files are written
+	 *	@return	the output directory */
+	public File getOutputDirectory() { return this.outputDirectory; };
+
+}
@@ -0,0 +1,30 @@
+package siplog2pcap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for the encoding of one LogFrame into a PCAP frame
+ */
+@Name("siplog2pcap.Encode")
+@Label("PCAP Frame Encode")
+@Category({ "siplog2pcap", "Encoding" })
+@Description("Encoding of one LogFrame into a PCAP frame")
+@Threshold("1 ms")
+@StackTrace(false)
+public class EncodeEvent extends Event {
+
+	@Label("Line Number")
+	public long lineNumber;
+
+	@Label("Frame Size")
+	@DataAmount
+	public int frameSize;
+
+}
@@ -0,0 +1,34 @@
+package siplog2pcap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for the parsing of one log line by LogFrameParser.parseHeaderLine()
+ */
+@Name("siplog2pcap.HeaderLineParse")
+@Label("Header Line Parse")
+@Category({ "siplog2pcap", "Parsing" })
+@Description("Parsing of one log line by LogFrameParser.parseHeaderLine()")
+@Threshold("1 ms")
+@StackTrace(false)
+public class HeaderLineParseEvent extends Event {
+
+	@Label("Parser")
+	public String parserName;
+
+	@Label("Line Number")
+	public long lineNumber;
+
+	@Label("Line Length")
+	public int lineLength;
+
+	@Label("Header Line")
+	public boolean headerLine;
+
+}
@@ -0,0 +1,64 @@
+package siplog2pcap.jfr;
+
+import siplog2pcap.FrameTracer;
+
+/*
+ * FrameTracer emitting JDK Flight Recorder events
+ * Events are only committed when a recording is running and their duration exceeds the threshold
+ * (either the default one defined in the event class or the one configured in the recording settings)
+ */
+public class JfrFrameTracer implements FrameTracer {
+
+	public Object beginHeaderLineParse() {
+		HeaderLineParseEvent event = new HeaderLineParseEvent();
+		event.begin();
+		return event;
+	};
+
+	public void endHeaderLineParse(Object trace, String parserName, long lineNumber, int lineLength, boolean headerLine) {
+		HeaderLineParseEvent event = (HeaderLineParseEvent) trace;
+		event.end();
+		if(event.shouldCommit()) {
+			event.parserName = parserName;
+			event.lineNumber = lineNumber;
+			event.lineLength = lineLength;
+			event.headerLine = headerLine;
+			event.commit();
+		};
+	};
+
+	public Object beginPostProcess() {
+		PostProcessEvent event = new PostProcessEvent();
+		event.begin();
+		return event;
+	};
+
+	public void endPostProcess(Object trace, String parserName, long lineNumber, int frameLines, int frameSize) {
+		PostProcessEvent event = (PostProcessEvent) trace;
+		event.end();
+		if(event.shouldCommit()) {
+			event.parserName = parserName;
+			event.lineNumber = lineNumber;
+			event.frameLines = frameLines;
+			event.frameSize = frameSize;
+			event.commit();
+		};
+	};
+
+	public Object beginEncode() {
+		EncodeEvent event = new EncodeEvent();
+		event.begin();
+		return event;
+	};
+
+	public void endEncode(Object trace, long lineNumber, int frameSize) {
+		EncodeEvent event = (EncodeEvent) trace;
+		event.end();
+		if(event.shouldCommit()) {
+			event.lineNumber = lineNumber;
+			event.frameSize = frameSize;
+			event.commit();
+		};
+	};
+
+}
@@ -0,0 +1,34 @@
+package siplog2pcap.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for the postprocessing of one LogFrame by LogFrameParser.postProcessLogFrame()
+ */
+@Name("siplog2pcap.PostProcess")
+@Label("Log Frame Postprocess")
+@Category({ "siplog2pcap", "Parsing" })
+@Description("Postprocessing of one LogFrame by LogFrameParser.postProcessLogFrame()")
+@Threshold("5 ms")
+@StackTrace(false)
+public class PostProcessEvent extends Event {
+
+	@Label("Parser")
+	public String parserName;
+
+	@Label("Line Number")
+	public long lineNumber;
+
+	@Label("Frame Lines")
+	public int frameLines;
+
+	@Label("Frame Size")
+	public int frameSize;
+
+}
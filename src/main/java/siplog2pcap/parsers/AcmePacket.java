@@ -1,7 +1,12 @@
 package siplog2pcap.parsers;
 
+import siplog2pcap.LineShape;
 import siplog2pcap.LogFrame;
 import siplog2pcap.LogFrameParser;
+import siplog2pcap.LogFrameParserProvider;
+import siplog2pcap.ParseDiagnostics;
+import siplog2pcap.ShapedLogFrameParser;
+import siplog2pcap.SipMessageAssembler;
 import java.util.ArrayList;
 import java.lang.StringBuilder;
 import java.util.regex.Pattern;
@@ -15,7 +20,7 @@ import java.net.InetAddress;
 /**
  * ApktLog class is a collection of tools to parse APKT logs
  */
-public class AcmePacket implements LogFrameParser {
+public class AcmePacket implements ShapedLogFrameParser {
 	
 	private static final String HEADER_LINE_REGEX = "([a-zA-Z]{3})\\s+([0-9]{1,2}) ([0-9]{1,2}):([0-9]{1,2}):([0-9]{1,2}).([0-9]{3}) (.*)";
 	private static int CAPTURE_GROUP_MONTH = 1;
@@ -29,6 +34,7 @@ public class AcmePacket implements LogFrameParser {
 	private static HashMap<String,Integer> MONTH_DICT = new HashMap<String,Integer>();
 	
 	private static final String END_OF_MESSAGE = "----------------------------------------";
+	private static final LineShape HEADER_LINE_SHAPE = new LineShape("aaa_", false);
 	private static final String VLAN_NETWORK_REGEX = "\\[([0-9]{1,5}):([0-9]{1,5})\\](.*)";
 	private static int CAPTURE_GROUP_IFC = 1;
 	private static int CAPTURE_GROUP_VLANID = 2;
@@ -69,6 +75,9 @@ public class AcmePacket implements LogFrameParser {
 	/** year */
 	private int year;
 
+	/** parseDiagnostics */
+	private ParseDiagnostics parseDiagnostics = new ParseDiagnostics();
+
 	/**
 	 * Returns a AcmePacket object
 	 *
@@ -82,6 +91,19 @@ public class AcmePacket implements LogFrameParser {
 		};
 	};
 			
+	/**	Sets the ParseDiagnostics to which parsing failures are reported
+	 *	@param	parseDiagnostics */
+	public void setParseDiagnostics(ParseDiagnostics parseDiagnostics) {
+		this.parseDiagnostics = parseDiagnostics;
+	};
+
+	/**	Returns the shape every header line starts with
+	 *	Header lines start with the month name and a blank (Jul  4 11:29:22.360)
+	 *	@return	the shape */
+	public LineShape getHeaderLineShape() {
+		return HEADER_LINE_SHAPE;
+	};
+
 	/**	Parses one line to check whether it is a header line or not, so:
 	 * - If it is the header line of a log frame, it parses it and returns the parsed data in a non-null T object
 	 * - If not, then it returns null
@@ -115,6 +137,7 @@ public class AcmePacket implements LogFrameParser {
 						 * we just throw the exception so avoid a new if/else */
 						throw new Exception("Not a SIP message");
 					};
+					logFrame.setSipLines(new ArrayList<String>());
 					Matcher vlanNetworkMatcher = VLAN_NETWORK_PATTERN.matcher(genericDataFields[1]);
 					String action = genericDataFields[2];
 					logFrame.setVlan(-1);
@@ -154,13 +177,12 @@ public class AcmePacket implements LogFrameParser {
 					};
 				} catch (Exception e) {
 					// Non-sipmsg message
+					logFrame.setSipLines(null);
 					logFrame.setGenericEvent(headerLineMatcher.group(CAPTURE_GROUP_GENERICDATA));
 				};
 			} catch (Exception e) {
 				logFrame = null;
-				System.err.println("Exception when parsing the following line:");
-				System.err.println(headerLine);
-				System.err.println(e.toString());
+				this.parseDiagnostics.reportParseFailure("timestamp", headerLine, e);
 			};
 		};
 		return logFrame;
@@ -170,30 +192,23 @@ public class AcmePacket implements LogFrameParser {
 	 *	other instance variables (at least sipLines)
 	 *	@param	logFrame */
 	public void postProcessLogFrame(LogFrame logFrame) {
-		if(logFrame.getGenericEvent() != null) {
-			/* We asume it is a SIP message, then we need to fill the sipLines
+		if(logFrame.getSipLines() != null) {
+			/* We asume it is a SIP message, then we need to fill the sipLines (and sipBody)
 			 * To do so we read lines from logLines, but note that first of them
 			 * is the header line we already parsed */
 			if(logFrame.getLogLines().size() == 1) {
+				logFrame.setSipLines(null);
 				logFrame.setGenericEvent(logFrame.getLogLines().get(0)); // In case exception is catched and frame is not discarded
 				//throw new Exception("No SIP lines after header line: " + logFrame.getLogLines().get(0));
 			} else {
-				List<String> logLines = logFrame.getLogLines();
-				ArrayList<String> sipLines = new ArrayList<String>();
-				String line = null;
-				for(int i=1; i<logLines.size(); i++) {
-					line = logLines.get(i);
-					if(line.equals(END_OF_MESSAGE)) break;
-					sipLines.add(line);
-				};
-				logFrame.setSipLines(sipLines);
+				SipMessageAssembler.assemble(logFrame, END_OF_MESSAGE);
 			};
 		} else {
 			/* It is a generic event. This time we complete it with subsequent lines
 			 * To do so we read lines from logLines, but note that first of them
-			 * is the header line we already parsed */
+			 * is the header line, which is kept whole (timestamp included) */
 			StringBuilder stringBuilder = new StringBuilder();
-			stringBuilder.append(parseHeaderLine(logFrame.getLogLines().get(0)).getGenericEvent());
+			stringBuilder.append(logFrame.getLogLines().get(0));
 			String line;
 			for(int i=1; i<logFrame.getLogLines().size(); i++) {
 				line = logFrame.getLogLines().get(i);
@@ -204,4 +219,40 @@ public class AcmePacket implements LogFrameParser {
 		};
 	};	
 
+	/**
+	 * Provider of the Oracle SBC (formerly AcmePacket) sipmsg log format (see ParserRegistry)
+	 */
+	public static class Provider implements LogFrameParserProvider {
+
+		public String getName() { return "acme-packet"; };
+
+		public String getDescription() { return "Oracle SBC (formerly AcmePacket) sipmsg log"; };
+
+		public String getParamsUsage() { return "<year>"; };
+
+		public LogFrameParser createParser(String[] parserConfigParams) throws Exception {
+			return new AcmePacket(parserConfigParams);
+		};
+
+		/** Scores 1 per header line and 4 more per header line of a SIP message (On [<ifc>:<vlan>]<ip>:<port> sent to/received from ...) */
+		public Probe createProbe() {
+			return new Probe() {
+				private long score = 0;
+				public void probeLine(String line) {
+					// Header lines start with the month name
+					if((line.length() < 20) || !Character.isLetter(line.charAt(0)) || !MONTH_DICT.containsKey(line.substring(0, 3))) return;
+					Matcher headerLineMatcher = HEADER_LINE_PATTERN.matcher(line);
+					if(!headerLineMatcher.matches()) return;
+					this.score++;
+					String genericData = headerLineMatcher.group(CAPTURE_GROUP_GENERICDATA);
+					if(genericData.startsWith("On ") && ((genericData.indexOf(" sent to ") > 0) || (genericData.indexOf(" received from ") > 0))) this.score += 4;
+				}
+				public long getScore() {
+					return this.score;
+				}
+			};
+		};
+
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,419 @@
+package siplog2pcap.parsers;
+
+import siplog2pcap.LogFrame;
+import siplog2pcap.LogFrameParser;
+import siplog2pcap.LogFrameParserProvider;
+import siplog2pcap.ParseDiagnostics;
+import siplog2pcap.SipMessageAssembler;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/*
+ * This class is a log format described declaratively (as a properties file) instead of being coded as a
+ * LogFrameParser, so SIP servers whose logs are not supported can be added without writing Java:
+ *     - name, description: the log type (used as --<name>) and its description
+ *     - sip.header: the template of the header lines of SIP messages (see LineTemplate), with the timestamp
+ *       fields and either {src_ip} and {dst_ip} or {direction} and {remote_ip} ({local_ip} being a parser
+ *       parameter if not in the template)
+ *     - event.header: the template of the header lines of generic events, whose {text} is the event (optional)
+ *     - sip.start: a line between the header line and the SIP message, which is skipped (optional)
+ *     - sip.end: the line marking the end of the SIP message (optional, the next header line ends it anyway)
+ *     - sip.indent: the maximum number of blanks removed from the start of the lines of the SIP message (optional)
+ *     - direction.tx, direction.rx: the comma separated values of {direction} for sent and received messages
+ * The date fields missing in the templates are parser parameters (<year>, or <date(yyyy-mm-dd)> if neither
+ * the month nor the day are there). The templates are compiled once, when the format is loaded, and then
+ * header lines are parsed by LineTemplate without any regular expression. As the same name may get different
+ * definitions (when a definition file is edited, or replaces a built-in format), the conversions made with a
+ * declarative format are told apart by a hash of its definition (see getDefinitionHash())
+ */
+public class DeclarativeFormat implements LogFrameParserProvider {
+
+	/* CONSTANTS */
+
+	public static final String DEFAULT_DIRECTION_TX = "send,sent,tx,transmit,transmitting,out,outgoing";
+	public static final String DEFAULT_DIRECTION_RX = "recv,received,receive,rx,in,incoming";
+	private static final String[] TRANSPORTS_UDP = { "udp" };
+	private static final String[] TRANSPORTS_TCP = { "tcp", "tls", "ws", "wss" };
+	private static final String[] TRANSPORTS_SCTP = { "sctp" };
+
+	/** Built-in formats, as the key/value pairs of their definitions */
+	private static final String[][] BUILT_IN_DEFINITIONS = {
+		{
+			"name", "asterisk-pjsip",
+			"description", "Asterisk log with pjsip set logger on",
+			"sip.header", "[{month_name} {day} {hour}:{minute}:{second}]{skip}<--- {direction} SIP {skip}) {skip} {transport}:{remote_ip}:{remote_port} --->",
+			"event.header", "[{month_name} {day} {hour}:{minute}:{second}] {text}",
+			"direction.tx", "Transmitting",
+			"direction.rx", "Received"
+		},
+		{
+			"name", "freeswitch-sofia",
+			"description", "FreeSWITCH log with sofia global siptrace on",
+			"sip.header", "{direction} {skip} bytes {skip} {transport}/[{remote_ip}]:{remote_port} at {hour}:{minute}:{second}.{fraction}:",
+			"sip.start", "------------------------------------------------------------------------",
+			"sip.end", "------------------------------------------------------------------------",
+			"sip.indent", "3",
+			"direction.tx", "send",
+			"direction.rx", "recv"
+		},
+		{
+			"name", "kamailio-xlog",
+			"description", "Kamailio/OpenSIPS log with siptrace xlog lines (see README)",
+			"sip.header", "{skip}siptrace {year}-{month}-{day} {hour}:{minute}:{second} {direction} {transport} {src_ip}:{src_port} {dst_ip}:{dst_port}",
+			"sip.end", "--end siptrace--",
+			"direction.tx", "send",
+			"direction.rx", "recv"
+		}
+	};
+
+	/* INSTANCE VARIABLES */
+
+	private String name;
+	private String description;
+	private String definitionHash;
+	private LineTemplate sipHeader;
+	private LineTemplate eventHeader = null;
+	private String startOfMessage;
+	private String endOfMessage;
+	private int indent = 0;
+	private String[] directionTx;
+	private String[] directionRx;
+	private boolean dateParam;
+	private boolean yearParam;
+	private boolean localIpParam;
+
+	/**
+	 * Returns a DeclarativeFormat object, compiling the given definition
+	 *
+	 * @param	definition	the definition
+	 * @return				the DeclarativeFormat object
+	 * @throws	IllegalArgumentException	if the definition is not valid
+	 */
+	public DeclarativeFormat(Properties definition) {
+		this.name = definition.getProperty("name");
+		if((this.name == null) || !this.name.matches("[a-z0-9][a-z0-9._-]*")) throw(new IllegalArgumentException("Invalid or missing name (lowercase letters, digits, '.', '_' and '-')"));
+		this.description = definition.getProperty("description", this.name);
+		this.definitionHash = hashDefinition(definition);
+		String sipHeader = definition.getProperty("sip.header");
+		if(sipHeader == null) throw(new IllegalArgumentException("Missing sip.header"));
+		this.sipHeader = new LineTemplate(sipHeader);
+		if(definition.getProperty("event.header") != null) this.eventHeader = new LineTemplate(definition.getProperty("event.header"));
+		this.startOfMessage = definition.getProperty("sip.start");
+		this.endOfMessage = definition.getProperty("sip.end");
+		try {
+			this.indent = Integer.parseInt(definition.getProperty("sip.indent", "0"));
+		} catch(NumberFormatException e) {
+			throw(new IllegalArgumentException("Invalid sip.indent"));
+		};
+		this.directionTx = definition.getProperty("direction.tx", DEFAULT_DIRECTION_TX).split("\\s*,\\s*");
+		this.directionRx = definition.getProperty("direction.rx", DEFAULT_DIRECTION_RX).split("\\s*,\\s*");
+		boolean explicit = this.sipHeader.hasField(LineTemplate.FIELD_SRC_IP) && this.sipHeader.hasField(LineTemplate.FIELD_DST_IP);
+		boolean relative = this.sipHeader.hasField(LineTemplate.FIELD_DIRECTION) && this.sipHeader.hasField(LineTemplate.FIELD_REMOTE_IP);
+		if(!explicit && !relative) throw(new IllegalArgumentException("sip.header needs either {src_ip} and {dst_ip}, or {direction} and {remote_ip}"));
+		if(!this.sipHeader.hasField(LineTemplate.FIELD_HOUR) || !this.sipHeader.hasField(LineTemplate.FIELD_MINUTE) || !this.sipHeader.hasField(LineTemplate.FIELD_SECOND)) throw(new IllegalArgumentException("sip.header needs {hour}, {minute} and {second}"));
+		checkDateFields(this.sipHeader, this.eventHeader);
+		boolean hasMonth = this.sipHeader.hasField(LineTemplate.FIELD_MONTH) || this.sipHeader.hasField(LineTemplate.FIELD_MONTH_NAME);
+		this.dateParam = !hasMonth || !this.sipHeader.hasField(LineTemplate.FIELD_DAY);
+		this.yearParam = !this.dateParam && !this.sipHeader.hasField(LineTemplate.FIELD_YEAR);
+		this.localIpParam = !explicit && !this.sipHeader.hasField(LineTemplate.FIELD_LOCAL_IP);
+	};
+
+	/** Returns the first 64 bits (in hex) of the SHA-256 of the properties of the definition, sorted by key */
+	private static String hashDefinition(Properties definition) {
+		StringBuilder sb = new StringBuilder();
+		for(String key : new TreeSet<String>(definition.stringPropertyNames())) {
+			sb.append(key).append('=').append(definition.getProperty(key)).append('\n');
+		};
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes("UTF-8"));
+		} catch(NoSuchAlgorithmException e) {
+			// This exception should never take place, as every JRE implements SHA-256
+			throw(new RuntimeException(e));
+		} catch(UnsupportedEncodingException e) {
+			throw(new RuntimeException(e));
+		}
+		StringBuilder hex = new StringBuilder();
+		for(int i = 0; i < 8; i++) {
+			hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+		};
+		return hex.toString();
+	};
+
+	/** Checks that both templates have the same date fields, as the parser parameters are the same for both */
+	private static void checkDateFields(LineTemplate sipHeader, LineTemplate eventHeader) {
+		if(eventHeader == null) return;
+		int[] dateFields = { LineTemplate.FIELD_YEAR, LineTemplate.FIELD_MONTH, LineTemplate.FIELD_MONTH_NAME, LineTemplate.FIELD_DAY, LineTemplate.FIELD_HOUR, LineTemplate.FIELD_MINUTE, LineTemplate.FIELD_SECOND };
+		for(int field : dateFields) {
+			if(sipHeader.hasField(field) != eventHeader.hasField(field)) throw(new IllegalArgumentException("sip.header and event.header must have the same date and time fields"));
+		};
+	};
+
+	/**
+	 * Loads a log format definition file
+	 *
+	 * @param	definitionFile	the definition file (a properties file)
+	 * @return					the log format
+	 * @throws	IOException					if the file cannot be read
+	 * @throws	IllegalArgumentException	if the definition is not valid
+	 */
+	public static DeclarativeFormat load(File definitionFile) throws IOException {
+		Properties definition = new Properties();
+		InputStream in = new FileInputStream(definitionFile);
+		try {
+			definition.load(in);
+		} finally {
+			in.close();
+		}
+		return new DeclarativeFormat(definition);
+	};
+
+	/**
+	 * Returns the built-in declarative log formats
+	 *
+	 * @return	the log formats
+	 */
+	public static List<DeclarativeFormat> getBuiltInFormats() {
+		List<DeclarativeFormat> formats = new ArrayList<DeclarativeFormat>();
+		for(String[] keyValues : BUILT_IN_DEFINITIONS) {
+			Properties definition = new Properties();
+			for(int i = 0; i < keyValues.length; i += 2) {
+				definition.setProperty(keyValues[i], keyValues[i + 1]);
+			};
+			formats.add(new DeclarativeFormat(definition));
+		};
+		return formats;
+	};
+
+	public String getName() { return this.name; };
+
+	public String getDescription() { return this.description; };
+
+	/**	Returns a hash of the definition (whatever the order of its properties), which changes whenever the
+	 *	definition does, so it is part of the conversion id (see ConversionCache.getConversionId())
+	 *	@return	the hash (16 hex digits) */
+	public String getDefinitionHash() { return this.definitionHash; };
+
+	public String getParamsUsage() {
+		StringBuilder sb = new StringBuilder();
+		if(this.dateParam) sb.append("<date(yyyy-mm-dd)>");
+		if(this.yearParam) sb.append("<year>");
+		if(this.localIpParam) sb.append((sb.length() > 0) ? " " : "").append("<local_ip>");
+		return sb.toString();
+	};
+
+	public LogFrameParser createParser(String[] parserConfigParams) throws Exception {
+		return new Parser(this, parserConfigParams);
+	};
+
+	/** Scores 1 per header line and 4 more per header line of a SIP message */
+	public Probe createProbe() {
+		return new Probe() {
+			private long score = 0;
+			public void probeLine(String line) {
+				if(sipHeader.match(line) != null) {
+					this.score += 5;
+				} else if((eventHeader != null) && (eventHeader.match(line) != null)) {
+					this.score++;
+				};
+			}
+			public long getScore() {
+				return this.score;
+			}
+		};
+	};
+
+	/**
+	 * Parser of a declarative log format
+	 */
+	public static class Parser implements LogFrameParser {
+
+		private DeclarativeFormat format;
+		private int year = -1;
+		private int month = -1;
+		private int day = -1;
+		private TimeZone timeZone;
+		private InetAddress localIp = null;
+		private ParseDiagnostics parseDiagnostics = new ParseDiagnostics();
+
+		/**
+		 * Returns a Parser object
+		 *
+		 * @param	format				the log format
+		 * @param	parserConfigParams	the parser configuration parameters (see DeclarativeFormat.getParamsUsage())
+		 * @return						the Parser object
+		 * @throws	Exception			if the parameters are not valid
+		 */
+		public Parser(DeclarativeFormat format, String[] parserConfigParams) throws Exception {
+			this.format = format;
+			this.timeZone = TimeZone.getDefault();
+			int expected = (format.dateParam || format.yearParam ? 1 : 0) + (format.localIpParam ? 1 : 0);
+			if(parserConfigParams.length != expected) throw(new IllegalArgumentException("Expected parameters: " + format.getParamsUsage()));
+			int i = 0;
+			if(format.dateParam) {
+				SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+				sdf.setTimeZone(this.timeZone);
+				Date date = sdf.parse(parserConfigParams[i++]);
+				GregorianCalendar calendar = new GregorianCalendar(this.timeZone);
+				calendar.setTime(date);
+				this.year = calendar.get(GregorianCalendar.YEAR);
+				this.month = 1 + calendar.get(GregorianCalendar.MONTH);
+				this.day = calendar.get(GregorianCalendar.DAY_OF_MONTH);
+			} else if(format.yearParam) {
+				this.year = Integer.parseInt(parserConfigParams[i++]);
+			};
+			if(format.localIpParam) this.localIp = InetAddress.getByName(parserConfigParams[i++]);
+		};
+
+		/**	Sets the ParseDiagnostics to which parsing failures are reported
+		 *	@param	parseDiagnostics */
+		public void setParseDiagnostics(ParseDiagnostics parseDiagnostics) {
+			this.parseDiagnostics = parseDiagnostics;
+		};
+
+		/**	Parses one line to check whether it is a header line or not, so:
+		 * - If it is the header line of a log frame, it parses it and returns the parsed data in a non-null object
+		 * - If not, then it returns null
+		 *	@param	headerLine
+		 *	@return	the resulting LogFrame (or null if not a header line) */
+		public LogFrame parseHeaderLine(String headerLine) {
+			LineTemplate.Match match = this.format.sipHeader.match(headerLine);
+			boolean isSip = (match != null);
+			if(!isSip && (this.format.eventHeader != null)) match = this.format.eventHeader.match(headerLine);
+			if(match == null) return null;
+			LogFrame logFrame = createLogFrame(match);
+			if(logFrame == null) {
+				this.parseDiagnostics.reportParseFailure("timestamp", headerLine, null);
+				return null;
+			};
+			if(!isSip) {
+				logFrame.setGenericEvent(this.format.eventHeader.hasField(LineTemplate.FIELD_TEXT) ? match.getString(LineTemplate.FIELD_TEXT) : headerLine);
+				return logFrame;
+			};
+			logFrame.setGenericEvent(headerLine); // In case the SIP message turns out to be empty
+			logFrame.setVlan(-1);
+			logFrame.setTransport(getTransport(match));
+			try {
+				if(this.format.sipHeader.hasField(LineTemplate.FIELD_SRC_IP)) {
+					logFrame.setSrcIp(parseIp(match.getString(LineTemplate.FIELD_SRC_IP)));
+					logFrame.setDstIp(parseIp(match.getString(LineTemplate.FIELD_DST_IP)));
+					if(this.format.sipHeader.hasField(LineTemplate.FIELD_SRC_PORT)) logFrame.setSrcPort(match.getInt(LineTemplate.FIELD_SRC_PORT));
+					if(this.format.sipHeader.hasField(LineTemplate.FIELD_DST_PORT)) logFrame.setDstPort(match.getInt(LineTemplate.FIELD_DST_PORT));
+				} else {
+					InetAddress remoteIp = parseIp(match.getString(LineTemplate.FIELD_REMOTE_IP));
+					InetAddress localIp = this.format.sipHeader.hasField(LineTemplate.FIELD_LOCAL_IP) ? parseIp(match.getString(LineTemplate.FIELD_LOCAL_IP)) : this.localIp;
+					int remotePort = this.format.sipHeader.hasField(LineTemplate.FIELD_REMOTE_PORT) ? match.getInt(LineTemplate.FIELD_REMOTE_PORT) : -1;
+					int localPort = this.format.sipHeader.hasField(LineTemplate.FIELD_LOCAL_PORT) ? match.getInt(LineTemplate.FIELD_LOCAL_PORT) : -1;
+					if(match.isOneOf(LineTemplate.FIELD_DIRECTION, this.format.directionTx)) {
+						logFrame.setSrcIp(localIp);
+						logFrame.setSrcPort(localPort);
+						logFrame.setDstIp(remoteIp);
+						logFrame.setDstPort(remotePort);
+					} else if(match.isOneOf(LineTemplate.FIELD_DIRECTION, this.format.directionRx)) {
+						logFrame.setSrcIp(remoteIp);
+						logFrame.setSrcPort(remotePort);
+						logFrame.setDstIp(localIp);
+						logFrame.setDstPort(localPort);
+					} else {
+						this.parseDiagnostics.reportParseFailure("direction", headerLine, null);
+						return null;
+					};
+				};
+			} catch(Exception e) {
+				this.parseDiagnostics.reportParseFailure("address", headerLine, e);
+				return null;
+			};
+			logFrame.setSipLines(new ArrayList<String>());
+			return logFrame;
+		};
+
+		/** Returns the LogFrame with the timestamp of the match (null if the timestamp is not valid) */
+		private LogFrame createLogFrame(LineTemplate.Match match) {
+			LineTemplate template = this.format.sipHeader;
+			int year = template.hasField(LineTemplate.FIELD_YEAR) ? match.getInt(LineTemplate.FIELD_YEAR) : this.year;
+			int month = this.month;
+			if(template.hasField(LineTemplate.FIELD_MONTH)) month = match.getInt(LineTemplate.FIELD_MONTH);
+			if(template.hasField(LineTemplate.FIELD_MONTH_NAME)) month = match.getInt(LineTemplate.FIELD_MONTH_NAME);
+			int day = template.hasField(LineTemplate.FIELD_DAY) ? match.getInt(LineTemplate.FIELD_DAY) : this.day;
+			int hour = match.getInt(LineTemplate.FIELD_HOUR);
+			int minutes = match.getInt(LineTemplate.FIELD_MINUTE);
+			int seconds = match.getInt(LineTemplate.FIELD_SECOND);
+			if((month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour > 23) || (minutes > 59) || (seconds > 60)) return null;
+			// The fraction fields are taken from the matched template, as the event template may not have them
+			int microseconds = 0;
+			if(match.getDigits(LineTemplate.FIELD_MILLIS) > 0) {
+				microseconds = 1000 * match.getInt(LineTemplate.FIELD_MILLIS);
+			} else if(match.getDigits(LineTemplate.FIELD_MICROS) > 0) {
+				microseconds = match.getInt(LineTemplate.FIELD_MICROS);
+			} else if(match.getDigits(LineTemplate.FIELD_FRACTION) > 0) {
+				microseconds = match.getInt(LineTemplate.FIELD_FRACTION);
+				for(int digits = match.getDigits(LineTemplate.FIELD_FRACTION); digits < 6; digits++) microseconds *= 10;
+				for(int digits = match.getDigits(LineTemplate.FIELD_FRACTION); digits > 6; digits--) microseconds /= 10;
+			};
+			if(microseconds > 999999) return null;
+			LogFrame logFrame = new LogFrame(year, month, day, hour, minutes, seconds, microseconds);
+			logFrame.setTimeZone(this.timeZone);
+			return logFrame;
+		};
+
+		private static int getTransport(LineTemplate.Match match) {
+			// Unknown transports are inferred from the Via header (see LogFrame.inferSipTransport())
+			if(match.isOneOf(LineTemplate.FIELD_TRANSPORT, TRANSPORTS_UDP)) return LogFrame.TRANSPORT_UDP;
+			if(match.isOneOf(LineTemplate.FIELD_TRANSPORT, TRANSPORTS_TCP)) return LogFrame.TRANSPORT_TCP;
+			if(match.isOneOf(LineTemplate.FIELD_TRANSPORT, TRANSPORTS_SCTP)) return LogFrame.TRANSPORT_SCTP;
+			return -1;
+		};
+
+		/** Parses an IP address, rejecting host names (which would be resolved for every line) */
+		private static InetAddress parseIp(String ip) throws Exception {
+			if((ip.length() > 2) && (ip.charAt(0) == '[') && (ip.charAt(ip.length() - 1) == ']')) ip = ip.substring(1, ip.length() - 1);
+			for(int i = 0; i < ip.length(); i++) {
+				char c = ip.charAt(i);
+				if(!((c >= '0') && (c <= '9')) && !((c >= 'a') && (c <= 'f')) && !((c >= 'A') && (c <= 'F')) && (c != '.') && (c != ':')) {
+					throw(new IllegalArgumentException("Not an IP address: " + ip));
+				};
+			};
+			return InetAddress.getByName(ip);
+		};
+
+		/**	Postprocesses the input LogFrame, reading data from logLines and updating
+		 *	other instance variables (at least sipLines)
+		 *	@param	logFrame */
+		public void postProcessLogFrame(LogFrame logFrame) {
+			List<String> logLines = logFrame.getLogLines();
+			if(logFrame.getSipLines() != null) {
+				int firstLine = 1;
+				if((this.format.startOfMessage != null) && (logLines.size() > 1) && logLines.get(1).trim().equals(this.format.startOfMessage)) firstLine = 2;
+				if(logLines.size() <= firstLine) {
+					logFrame.setSipLines(null);
+				} else {
+					SipMessageAssembler.assemble(logFrame, firstLine, this.format.endOfMessage, this.format.indent);
+				};
+			} else {
+				/* It is a generic event, completed with the subsequent lines */
+				StringBuilder stringBuilder = new StringBuilder(logFrame.getGenericEvent());
+				for(int i = 1; i < logLines.size(); i++) {
+					stringBuilder.append("\r\n");
+					stringBuilder.append(logLines.get(i));
+				};
+				logFrame.setGenericEvent(stringBuilder.toString());
+			};
+		};
+
+	}
+
+}
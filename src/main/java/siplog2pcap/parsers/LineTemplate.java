@@ -0,0 +1,298 @@
+package siplog2pcap.parsers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * This class is a line template of a declarative log format (see DeclarativeFormat), compiled into a sequence
+ * of steps which are matched from left to right without backtracking:
+ *     - The template is literal text with {field} placeholders, such as:
+ *           [{month_name} {day} {hour}:{minute}:{second}] {skip}<--- {direction} SIP {skip} {transport}:{remote_ip}:{remote_port}
+ *     - A run of spaces in the template matches a run of one or more spaces or tabs in the line
+ *     - Numeric fields (and month_name) take the digits (letters) at their position, so they can be followed by
+ *       anything. The other fields take the text up to the first occurrence of the next literal (or up to the
+ *       end of the line if they are the last step), so they must be followed by a literal
+ *     - The text after the last step is ignored (unless taken by a {text} field)
+ * Before matching the steps, a line must start with the leading literal of the template (if any) and contain
+ * its longest literal, so most of the lines which are not header lines are rejected by a startsWith() and an
+ * indexOf() call (without creating any object)
+ */
+public class LineTemplate {
+
+	/* CONSTANTS */
+
+	public static final int FIELD_YEAR = 0;
+	public static final int FIELD_MONTH = 1;
+	public static final int FIELD_MONTH_NAME = 2;
+	public static final int FIELD_DAY = 3;
+	public static final int FIELD_HOUR = 4;
+	public static final int FIELD_MINUTE = 5;
+	public static final int FIELD_SECOND = 6;
+	public static final int FIELD_MILLIS = 7;
+	public static final int FIELD_MICROS = 8;
+	public static final int FIELD_FRACTION = 9;
+	public static final int FIELD_DIRECTION = 10;
+	public static final int FIELD_TRANSPORT = 11;
+	public static final int FIELD_SRC_IP = 12;
+	public static final int FIELD_SRC_PORT = 13;
+	public static final int FIELD_DST_IP = 14;
+	public static final int FIELD_DST_PORT = 15;
+	public static final int FIELD_REMOTE_IP = 16;
+	public static final int FIELD_REMOTE_PORT = 17;
+	public static final int FIELD_LOCAL_IP = 18;
+	public static final int FIELD_LOCAL_PORT = 19;
+	public static final int FIELD_SKIP = 20;
+	public static final int FIELD_TEXT = 21;
+
+	/** Field names, indexed by field */
+	public static final String[] FIELD_NAMES = {
+		"year", "month", "month_name", "day", "hour", "minute", "second", "millis", "micros", "fraction",
+		"direction", "transport", "src_ip", "src_port", "dst_ip", "dst_port",
+		"remote_ip", "remote_port", "local_ip", "local_port", "skip", "text"
+	};
+
+	private static final String[] MONTH_NAMES = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+	private static final int MAX_DIGITS = 9;
+
+	/* INSTANCE VARIABLES */
+
+	private String template;
+	/** Steps: a String for a literal, an Integer for a field */
+	private Object[] steps;
+	/** Anchors of the literal steps (their first run of non blank characters, "" if only blanks) */
+	private String[] anchors;
+	private String prefix = null;
+	private String requiredLiteral = null;
+	private boolean[] hasField = new boolean[FIELD_NAMES.length];
+
+	/**
+	 * Returns a LineTemplate object, compiling the given template
+	 *
+	 * @param	template	the template
+	 * @return				the LineTemplate object
+	 * @throws	IllegalArgumentException	if the template is not valid (unknown or misplaced fields)
+	 */
+	public LineTemplate(String template) {
+		this.template = template;
+		List<Object> steps = new ArrayList<Object>();
+		int i = 0;
+		while(i < template.length()) {
+			int open = template.indexOf('{', i);
+			if(open != i) {
+				String literal = template.substring(i, (open >= 0) ? open : template.length());
+				// Any run of blanks is matched as a run of blanks, so it is compiled as one space
+				steps.add(literal.replaceAll("[ \\t]+", " "));
+				if(open < 0) break;
+			};
+			int close = template.indexOf('}', open);
+			if(close < 0) throw(new IllegalArgumentException("Unclosed field in template: " + template));
+			int field = getField(template.substring(open + 1, close));
+			if(field < 0) throw(new IllegalArgumentException("Unknown field {" + template.substring(open + 1, close) + "} in template: " + template));
+			if(this.hasField[field] && (field != FIELD_SKIP)) throw(new IllegalArgumentException("Repeated field {" + FIELD_NAMES[field] + "} in template: " + template));
+			this.hasField[field] = true;
+			steps.add(Integer.valueOf(field));
+			i = close + 1;
+		};
+		this.steps = steps.toArray();
+		this.anchors = new String[this.steps.length];
+		for(int s = 0; s < this.steps.length; s++) {
+			if(this.steps[s] instanceof String) {
+				String literal = (String) this.steps[s];
+				String trimmed = literal.trim();
+				int blank = trimmed.indexOf(' ');
+				this.anchors[s] = (blank >= 0) ? trimmed.substring(0, blank) : trimmed;
+				if((this.requiredLiteral == null) || (trimmed.length() > this.requiredLiteral.length())) this.requiredLiteral = trimmed;
+			} else {
+				int field = ((Integer) this.steps[s]).intValue();
+				boolean isLast = (s == this.steps.length - 1);
+				boolean nextIsLiteral = !isLast && (this.steps[s + 1] instanceof String);
+				if((field == FIELD_TEXT) && !isLast) throw(new IllegalArgumentException("Field {text} must be the last one in template: " + template));
+				if(!isSelfDelimited(field) && !isLast && !nextIsLiteral) throw(new IllegalArgumentException("Field {" + FIELD_NAMES[field] + "} must be followed by a literal in template: " + template));
+			};
+		};
+		if((this.steps.length > 0) && (this.steps[0] instanceof String) && !((String) this.steps[0]).startsWith(" ")) {
+			String first = (String) this.steps[0];
+			int blank = first.indexOf(' ');
+			this.prefix = (blank >= 0) ? first.substring(0, blank) : first;
+		};
+		if((this.requiredLiteral != null) && (this.requiredLiteral.indexOf(' ') >= 0)) {
+			// Blanks match any run of blanks, so only the longest run of non blank characters is required as it is
+			String longest = "";
+			for(String run : this.requiredLiteral.split(" ")) {
+				if(run.length() > longest.length()) longest = run;
+			};
+			this.requiredLiteral = longest;
+		};
+		if((this.requiredLiteral != null) && (this.requiredLiteral.length() == 0)) this.requiredLiteral = null;
+	};
+
+	private static int getField(String name) {
+		for(int field = 0; field < FIELD_NAMES.length; field++) {
+			if(FIELD_NAMES[field].equals(name)) return field;
+		};
+		return -1;
+	};
+
+	private static boolean isSelfDelimited(int field) {
+		return (field <= FIELD_FRACTION) || (field == FIELD_SRC_PORT) || (field == FIELD_DST_PORT) || (field == FIELD_REMOTE_PORT) || (field == FIELD_LOCAL_PORT);
+	};
+
+	private static boolean isBlank(char c) {
+		return (c == ' ') || (c == '\t');
+	};
+
+	/**	Returns whether the template has a field
+	 *	@param	field	the field (such as FIELD_YEAR)
+	 *	@return	whether the template has it */
+	public boolean hasField(int field) { return this.hasField[field]; };
+
+	/**	Returns the template
+	 *	@return	the template */
+	public String toString() { return this.template; };
+
+	/**
+	 * Result of matching a line, with the values of the numeric fields and the bounds of the other ones
+	 */
+	public static class Match {
+
+		private String line;
+		private int[] values = new int[FIELD_NAMES.length];
+		private int[] digits = new int[FIELD_NAMES.length];
+		private int[] starts = new int[FIELD_NAMES.length];
+		private int[] ends = new int[FIELD_NAMES.length];
+
+		/**	Returns the value of a numeric field (month_name is returned as the month number)
+		 *	@param	field	the field
+		 *	@return	the value */
+		public int getInt(int field) { return this.values[field]; };
+
+		/**	Returns the number of digits of a numeric field
+		 *	@param	field	the field
+		 *	@return	the number of digits */
+		public int getDigits(int field) { return this.digits[field]; };
+
+		/**	Returns the text of a field
+		 *	@param	field	the field
+		 *	@return	the text */
+		public String getString(int field) { return this.line.substring(this.starts[field], this.ends[field]); };
+
+		/**	Returns whether the text of a field is one of some values (without creating any object)
+		 *	@param	field	the field
+		 *	@param	values	the values
+		 *	@return	whether it is one of them */
+		public boolean isOneOf(int field, String[] values) {
+			int length = this.ends[field] - this.starts[field];
+			for(String value : values) {
+				if((value.length() == length) && this.line.regionMatches(true, this.starts[field], value, 0, length)) return true;
+			};
+			return false;
+		};
+
+	}
+
+	/**
+	 * Matches a line against the template
+	 *
+	 * @param	line	the line
+	 * @return			the match (null if the line does not match)
+	 */
+	public Match match(String line) {
+		if((this.prefix != null) && !line.startsWith(this.prefix)) return null;
+		if((this.requiredLiteral != null) && (line.indexOf(this.requiredLiteral) < 0)) return null;
+		Match match = new Match();
+		match.line = line;
+		int length = line.length();
+		int pos = 0;
+		for(int s = 0; s < this.steps.length; s++) {
+			if(this.steps[s] instanceof String) {
+				pos = matchLiteral(line, pos, (String) this.steps[s]);
+				if(pos < 0) return null;
+				continue;
+			};
+			int field = ((Integer) this.steps[s]).intValue();
+			if(field == FIELD_MONTH_NAME) {
+				int end = pos;
+				while((end < length) && Character.isLetter(line.charAt(end))) end++;
+				int month = parseMonthName(line, pos, end);
+				if(month < 0) return null;
+				match.values[field] = month;
+				match.starts[field] = pos;
+				match.ends[field] = end;
+				pos = end;
+			} else if(isSelfDelimited(field)) {
+				int value = 0;
+				int end = pos;
+				while((end < length) && (end - pos < MAX_DIGITS) && (line.charAt(end) >= '0') && (line.charAt(end) <= '9')) {
+					value = 10 * value + (line.charAt(end) - '0');
+					end++;
+				};
+				if(end == pos) return null;
+				match.values[field] = value;
+				match.digits[field] = end - pos;
+				match.starts[field] = pos;
+				match.ends[field] = end;
+				pos = end;
+			} else {
+				int end = length;
+				if(s < this.steps.length - 1) {
+					end = findLiteral(line, pos, (String) this.steps[s + 1], this.anchors[s + 1]);
+					if(end < 0) return null;
+				};
+				if((end == pos) && (field != FIELD_SKIP) && (field != FIELD_TEXT)) return null;
+				match.starts[field] = pos;
+				match.ends[field] = end;
+				pos = end;
+			};
+		};
+		return match;
+	};
+
+	/** Returns the position after the literal matched at pos (-1 if it does not match) */
+	private static int matchLiteral(String line, int pos, String literal) {
+		int length = line.length();
+		int i = 0;
+		while(i < literal.length()) {
+			char c = literal.charAt(i);
+			if(c == ' ') {
+				if((pos >= length) || !isBlank(line.charAt(pos))) return -1;
+				while((pos < length) && isBlank(line.charAt(pos))) pos++;
+			} else {
+				if((pos >= length) || (line.charAt(pos) != c)) return -1;
+				pos++;
+			};
+			i++;
+		};
+		return pos;
+	};
+
+	/** Returns the first position from pos where the literal matches (-1 if none), jumping with indexOf() to its anchor */
+	private static int findLiteral(String line, int pos, String literal, String anchor) {
+		if(anchor.length() == 0) {
+			for(int i = pos; i < line.length(); i++) {
+				if(isBlank(line.charAt(i))) return i;
+			};
+			return -1;
+		};
+		boolean leadingBlank = literal.startsWith(" ");
+		int search = pos;
+		while(true) {
+			int k = line.indexOf(anchor, search);
+			if(k < 0) return -1;
+			int start = k;
+			if(leadingBlank) {
+				while((start > pos) && isBlank(line.charAt(start - 1))) start--;
+			};
+			if(((start < k) || !leadingBlank) && (matchLiteral(line, start, literal) >= 0)) return start;
+			search = k + 1;
+		}
+	};
+
+	private static int parseMonthName(String line, int start, int end) {
+		if(end - start < 3) return -1;
+		for(int month = 0; month < MONTH_NAMES.length; month++) {
+			if(line.regionMatches(true, start, MONTH_NAMES[month], 0, 3)) return month + 1;
+		};
+		return -1;
+	};
+
+}
@@ -1,7 +1,12 @@
 package siplog2pcap.parsers;
 
+import siplog2pcap.LineShape;
 import siplog2pcap.LogFrame;
 import siplog2pcap.LogFrameParser;
+import siplog2pcap.LogFrameParserProvider;
+import siplog2pcap.ParseDiagnostics;
+import siplog2pcap.ShapedLogFrameParser;
+import siplog2pcap.SipMessageAssembler;
 import java.util.ArrayList;
 import java.lang.StringBuilder;
 import java.util.regex.Pattern;
@@ -14,12 +19,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Iterator;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import jfnlite.Fn;
 
 /**
  * ApktLog class is a collection of tools to parse APKT logs
  */
-public class Pjsua implements LogFrameParser {
+public class Pjsua implements ShapedLogFrameParser {
 	
 	private static final String HEADER_LINE_REGEX = "^\\s*([\\d]{1,2}):([\\d]{1,2}):([\\d]{1,2}).([\\d]{3})[\\s\\t]+([\\w\\.]+)[\\s\\t]+(.*)$";
 	private static final Pattern HEADER_LINE_PATTERN = Pattern.compile(HEADER_LINE_REGEX);
@@ -41,6 +47,7 @@ public class Pjsua implements LogFrameParser {
 	private static final int CAPTURE_GROUP_PORT = 7;
 
 	private static final String END_OF_MESSAGE = "--end msg--";
+	private static final LineShape HEADER_LINE_SHAPE = new LineShape("9[9:][9:]", true);
 
 	public static final String TRANSPORT_UDP = "UDP";
 	public static final String TRANSPORT_TCP = "TCP";
@@ -65,6 +72,9 @@ public class Pjsua implements LogFrameParser {
 	/** localIp */
 	private InetAddress localIp;
 
+	/** parseDiagnostics */
+	private ParseDiagnostics parseDiagnostics = new ParseDiagnostics();
+
 	/**
 	 * Returns a Pjsua object
 	 *
@@ -91,6 +101,19 @@ public class Pjsua implements LogFrameParser {
 		this.day = calendar.get(GregorianCalendar.DAY_OF_MONTH);
 	};
 			
+	/**	Sets the ParseDiagnostics to which parsing failures are reported
+	 *	@param	parseDiagnostics */
+	public void setParseDiagnostics(ParseDiagnostics parseDiagnostics) {
+		this.parseDiagnostics = parseDiagnostics;
+	};
+
+	/**	Returns the shape every header line starts with
+	 *	Header lines start with the hour, after any blanks (11:00:00.000 or 9:00:00.000)
+	 *	@return	the shape */
+	public LineShape getHeaderLineShape() {
+		return HEADER_LINE_SHAPE;
+	};
+
 	/**	Parses one line to check whether it is a header line or not, so:
 	 * - If it is the header line of a log frame, it parses it and returns the parsed data in a non-null object
 	 * - If not, then it returns null
@@ -142,9 +165,7 @@ public class Pjsua implements LogFrameParser {
 				}
 			} catch (Exception e) {
 				logFrame = null;
-				System.err.println("Exception when parsing the following line:");
-				System.err.println(headerLine);
-				System.err.println(e.toString());
+				this.parseDiagnostics.reportParseFailure((e instanceof UnknownHostException) ? "address" : "timestamp or port", headerLine, e);
 			};
 		};
 		return logFrame;
@@ -155,21 +176,13 @@ public class Pjsua implements LogFrameParser {
 	 *	@param	logFrame */
 	public void postProcessLogFrame(LogFrame logFrame) {
 		if(logFrame.getSipLines() != null) {
-			/* We asume it is a SIP message, then we need to fill the sipLines
+			/* We asume it is a SIP message, then we need to fill the sipLines (and sipBody)
 			 * To do so we read lines from logLines, but note that first of them
 			 * is the header line we already parsed */
 			if(logFrame.getLogLines().size() == 1) {
 				//throw new Exception("No SIP lines after header line: " + logFrame.getLogLines().get(0));
 			} else {
-				List<String> logLines = logFrame.getLogLines();
-				ArrayList<String> sipLines = new ArrayList<String>();
-				String line = null;
-				for(int i=1; i<logLines.size(); i++) {
-					line = logLines.get(i);
-					if(line.equals(END_OF_MESSAGE)) break;
-					sipLines.add(line);
-				};
-				logFrame.setSipLines(sipLines);
+				SipMessageAssembler.assemble(logFrame, END_OF_MESSAGE);
 			};
 		} else {
 			/* It is a generic event. This time we complete it with subsequent lines
@@ -187,4 +200,43 @@ public class Pjsua implements LogFrameParser {
 		};
 	};	
 
+	/**
+	 * Provider of the PJSUA log format (see ParserRegistry)
+	 */
+	public static class Provider implements LogFrameParserProvider {
+
+		public String getName() { return "pjsua"; };
+
+		public String getDescription() { return "PJSUA log"; };
+
+		public String getParamsUsage() { return "<date(yyyy-mm-dd)> <local_ip>"; };
+
+		public LogFrameParser createParser(String[] parserConfigParams) throws Exception {
+			return new Pjsua(parserConfigParams);
+		};
+
+		/** Scores 1 per header line and 4 more per header line of a SIP message (TX/RX ... bytes Request/Response msg ...) */
+		public Probe createProbe() {
+			return new Probe() {
+				private long score = 0;
+				public void probeLine(String line) {
+					// Header lines start with the time (hh:mm:ss.mmm)
+					int i = 0;
+					while((i < line.length()) && Character.isWhitespace(line.charAt(i))) i++;
+					if((line.length() < i + 13) || !Character.isDigit(line.charAt(i))) return;
+					int colon = line.indexOf(':', i);
+					if((colon < i + 1) || (colon > i + 2)) return;
+					Matcher headerLineMatcher = HEADER_LINE_PATTERN.matcher(line);
+					if(!headerLineMatcher.matches()) return;
+					this.score++;
+					if(SIP_EVENT_PATTERN.matcher(headerLineMatcher.group(CAPTURE_GROUP_EVENTDATA)).matches()) this.score += 4;
+				}
+				public long getScore() {
+					return this.score;
+				}
+			};
+		};
+
+	}
+
 }
\ No newline at end of file
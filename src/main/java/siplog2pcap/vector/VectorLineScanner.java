@@ -0,0 +1,99 @@
+package siplog2pcap.vector;
+
+import siplog2pcap.LineScanner;
+import siplog2pcap.LineShape;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * This class is the JDK Vector API implementation of LineScanner:
+ *     - Line terminators are found comparing a whole vector of bytes (as wide as the CPU allows) with \n
+ *       and \r at once, and the scalar loop only handles the tail of the buffer
+ *     - Shapes are checked on the first 16 bytes of the line at once: the class of every byte (digit,
+ *       letter, blank or literal) is computed as lane masks, and compared with the classes allowed at
+ *       every position of the shape (precomputed once per shape as masks, see LineShape.getScannerData())
+ * It needs the jdk.incubator.vector module (JDK 16 or later, run with --add-modules jdk.incubator.vector),
+ * so it is only built when available, and it is loaded by name (see LineScanner.installVectorLineScanner())
+ */
+public class VectorLineScanner extends LineScanner {
+
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> SHAPE_SPECIES = ByteVector.SPECIES_128;
+
+	/**
+	 * Masks of a shape: the lanes allowing every class, the literals and the lanes after the shape
+	 */
+	private static class ShapeMasks {
+		VectorMask<Byte> digit;
+		VectorMask<Byte> letter;
+		VectorMask<Byte> blank;
+		VectorMask<Byte> literal;
+		VectorMask<Byte> outside;
+		ByteVector literals;
+	}
+
+	public String getName() {
+		return "vector (" + Integer.toString(SPECIES.vectorBitSize()) + " bits)";
+	};
+
+	public int findLineBreak(byte[] bytes, int from, int to) {
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for(; i < bound; i += SPECIES.length()) {
+			ByteVector vector = ByteVector.fromArray(SPECIES, bytes, i);
+			VectorMask<Byte> breaks = vector.eq((byte) '\n').or(vector.eq((byte) '\r'));
+			if(breaks.anyTrue()) return i + breaks.firstTrue();
+		};
+		while((i < to) && (bytes[i] != '\n') && (bytes[i] != '\r')) i++;
+		return i;
+	};
+
+	private static ShapeMasks getShapeMasks(LineShape shape) {
+		ShapeMasks masks = (ShapeMasks) shape.getScannerData();
+		if(masks != null) return masks;
+		byte[] classes = shape.getClasses();
+		boolean[] digit = new boolean[SHAPE_SPECIES.length()];
+		boolean[] letter = new boolean[SHAPE_SPECIES.length()];
+		boolean[] blank = new boolean[SHAPE_SPECIES.length()];
+		boolean[] literal = new boolean[SHAPE_SPECIES.length()];
+		boolean[] outside = new boolean[SHAPE_SPECIES.length()];
+		for(int i = 0; i < SHAPE_SPECIES.length(); i++) {
+			digit[i] = (classes[i] & LineShape.CLASS_DIGIT) != 0;
+			letter[i] = (classes[i] & LineShape.CLASS_LETTER) != 0;
+			blank[i] = (classes[i] & LineShape.CLASS_BLANK) != 0;
+			literal[i] = (classes[i] & LineShape.CLASS_LITERAL) != 0;
+			outside[i] = (i >= shape.getLength());
+		};
+		masks = new ShapeMasks();
+		masks.digit = VectorMask.fromArray(SHAPE_SPECIES, digit, 0);
+		masks.letter = VectorMask.fromArray(SHAPE_SPECIES, letter, 0);
+		masks.blank = VectorMask.fromArray(SHAPE_SPECIES, blank, 0);
+		masks.literal = VectorMask.fromArray(SHAPE_SPECIES, literal, 0);
+		masks.outside = VectorMask.fromArray(SHAPE_SPECIES, outside, 0);
+		masks.literals = ByteVector.fromArray(SHAPE_SPECIES, shape.getLiterals(), 0);
+		shape.setScannerData(masks);
+		return masks;
+	};
+
+	public boolean matchesShape(LineShape shape, byte[] bytes, int offset, int length) {
+		int end = offset + length;
+		if(shape.getSkipLeadingBlanks()) {
+			while((offset < end) && LineShape.isBlank(bytes[offset])) offset++;
+		};
+		if(end - offset < shape.getLength()) return false;
+		// The vector is read past the end of the line (which is fine, as those lanes are outside the shape), but not past the array
+		if(offset + SHAPE_SPECIES.length() > bytes.length) return shape.matches(bytes, offset, end - offset);
+		ShapeMasks masks = getShapeMasks(shape);
+		ByteVector vector = ByteVector.fromArray(SHAPE_SPECIES, bytes, offset);
+		ByteVector lowerCase = vector.or((byte) 0x20);
+		VectorMask<Byte> isDigit = vector.compare(VectorOperators.GE, (byte) '0').and(vector.compare(VectorOperators.LE, (byte) '9'));
+		VectorMask<Byte> isLetter = lowerCase.compare(VectorOperators.GE, (byte) 'a').and(lowerCase.compare(VectorOperators.LE, (byte) 'z'));
+		VectorMask<Byte> isBlank = vector.eq((byte) ' ').or(vector.eq((byte) '\t')).or(vector.eq((byte) 0x0B)).or(vector.eq((byte) '\f'));
+		VectorMask<Byte> isLiteral = vector.eq(masks.literals);
+		VectorMask<Byte> matching = isDigit.and(masks.digit).or(isLetter.and(masks.letter)).or(isBlank.and(masks.blank)).or(isLiteral.and(masks.literal));
+		return matching.or(masks.outside).allTrue();
+	};
+
+}